@@ -22,8 +22,11 @@ import com.android.ddmlib.Log;
 import com.android.ddmlib.Log.LogLevel;
 import com.android.ddmuilib.DdmUiPreferences;
 import com.android.ddmuilib.PortFieldEditor;
+import com.android.ddmuilib.logcat.LogCatMessageIndex;
 import com.android.ddmuilib.logcat.LogCatMessageList;
+import com.android.ddmuilib.logcat.LogCatMessageStore;
 import com.android.ddmuilib.logcat.LogCatPanel;
+import com.android.ddmuilib.logcat.LogCatPidToNameMapper;
 import com.android.sdkstats.DdmsPreferenceStore;
 import com.android.sdkstats.SdkStatsPermissionDialog;
 
@@ -461,6 +464,30 @@ public final class PrefsDialog {
                         "Maximum number of logcat messages to buffer",
                         getFieldEditorParent());
                 addField(maxMessages);
+
+                BooleanFieldEditor indexMessages = new BooleanFieldEditor(
+                        LogCatMessageIndex.INDEX_ENABLED_PREFKEY,
+                        "Index logcat messages for faster searches",
+                        getFieldEditorParent());
+                addField(indexMessages);
+
+                BooleanFieldEditor resolveNativeNames = new BooleanFieldEditor(
+                        LogCatPidToNameMapper.RESOLVE_NATIVE_NAMES_PREFKEY,
+                        "Resolve names of native processes (runs ps on the device)",
+                        getFieldEditorParent());
+                addField(resolveNativeNames);
+
+                BooleanFieldEditor keepHistory = new BooleanFieldEditor(
+                        LogCatMessageStore.HISTORY_ENABLED_PREFKEY,
+                        "Keep full logcat history on disk",
+                        getFieldEditorParent());
+                addField(keepHistory);
+
+                IntegerFieldEditor maxHistory = new IntegerFieldEditor(
+                        LogCatMessageStore.HISTORY_MAX_MB_PREFKEY,
+                        "Maximum size of the logcat history per device (MB)",
+                        getFieldEditorParent());
+                addField(maxHistory);
             }
         }
     }
@@ -267,6 +267,20 @@ final class AdbHelper {
      */
     static RawImage getFrameBuffer(InetSocketAddress adbSockAddr, Device device)
             throws TimeoutException, AdbCommandRejectedException, IOException {
+        return getFrameBuffer(adbSockAddr, device, null);
+    }
+
+    /**
+     * Retrieve the frame buffer from the device, reading the image data into an existing
+     * buffer if possible.
+     * @param buffer the buffer to read the image into. It is used if its size matches the
+     * size of the image, otherwise a new buffer is allocated. Can be null.
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws AdbCommandRejectedException if adb rejects the command
+     * @throws IOException in case of I/O error on the connection.
+     */
+    static RawImage getFrameBuffer(InetSocketAddress adbSockAddr, Device device, byte[] buffer)
+            throws TimeoutException, AdbCommandRejectedException, IOException {
 
         RawImage imageParams = new RawImage();
         byte[] request = formAdbRequest("framebuffer:"); //$NON-NLS-1$
@@ -316,13 +330,17 @@ final class AdbHelper {
                 return null;
             }
 
-            Log.d("ddms", "image params: bpp=" + imageParams.bpp + ", size="
-                    + imageParams.size + ", width=" + imageParams.width
-                    + ", height=" + imageParams.height);
+            if (buffer != null && buffer.length == imageParams.size) {
+                reply = buffer;
+            } else {
+                Log.d("ddms", "image params: bpp=" + imageParams.bpp + ", size="
+                        + imageParams.size + ", width=" + imageParams.width
+                        + ", height=" + imageParams.height);
+                reply = new byte[imageParams.size];
+            }
 
             write(adbChan, nudge);
 
-            reply = new byte[imageParams.size];
             read(adbChan, reply);
 
             imageParams.data = reply;
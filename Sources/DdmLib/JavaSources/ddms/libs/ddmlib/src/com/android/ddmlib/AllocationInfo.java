@@ -21,13 +21,37 @@ import java.util.Locale;
 
 /**
  * Holds an Allocation information.
+ * <p/>
+ * The stack frames are stored as indices into string tables shared by all the allocations
+ * of a REAL response. {@link StackTraceElement}s are only created by
+ * {@link #getStackTrace()}.
  */
 public class AllocationInfo implements IStackTraceInfo {
     private final String mAllocatedClass;
     private final int mAllocNumber;
     private final int mAllocationSize;
     private final short mThreadId;
-    private final StackTraceElement[] mStackTrace;
+    private final StringTables mStrings;
+
+    /** one frame per entry, as encoded by {@link #encodeFrame(int, int, int, short)}. */
+    private final long[] mFrames;
+
+    private final static long[] NO_FRAMES = new long[0];
+
+    /**
+     * The class, method and source file names of a REAL response.
+     */
+    final static class StringTables {
+        final String[] mClassNames;
+        final String[] mMethodNames;
+        final String[] mFileNames;
+
+        StringTables(String[] classNames, String[] methodNames, String[] fileNames) {
+            mClassNames = classNames;
+            mMethodNames = methodNames;
+            mFileNames = fileNames;
+        }
+    }
 
     public static enum SortMode {
         NUMBER, SIZE, CLASS, THREAD, IN_CLASS, IN_METHOD;
@@ -120,12 +144,37 @@ public class AllocationInfo implements IStackTraceInfo {
      * Simple constructor.
      */
     AllocationInfo(int allocNumber, String allocatedClass, int allocationSize,
-        short threadId, StackTraceElement[] stackTrace) {
+        short threadId, StringTables strings, long[] frames) {
         mAllocNumber = allocNumber;
         mAllocatedClass = allocatedClass;
         mAllocationSize = allocationSize;
         mThreadId = threadId;
-        mStackTrace = stackTrace;
+        mStrings = strings;
+        mFrames = frames != null ? frames : NO_FRAMES;
+    }
+
+    /**
+     * Encodes a stack frame. The indices are the 16 bit indices of the REAL string tables.
+     */
+    static long encodeFrame(int classIndex, int methodIndex, int fileIndex, short lineNumber) {
+        return ((long)(classIndex & 0xffff) << 48) | ((long)(methodIndex & 0xffff) << 32)
+                | ((long)(fileIndex & 0xffff) << 16) | (lineNumber & 0xffff);
+    }
+
+    private String getFrameClassName(int frame) {
+        return mStrings.mClassNames[(int)(mFrames[frame] >>> 48) & 0xffff];
+    }
+
+    private String getFrameMethodName(int frame) {
+        return mStrings.mMethodNames[(int)(mFrames[frame] >>> 32) & 0xffff];
+    }
+
+    private String getFrameFileName(int frame) {
+        return mStrings.mFileNames[(int)(mFrames[frame] >>> 16) & 0xffff];
+    }
+
+    private int getFrameLineNumber(int frame) {
+        return (short)mFrames[frame];
     }
 
     /**
@@ -163,7 +212,19 @@ public class AllocationInfo implements IStackTraceInfo {
      */
     @Override
     public StackTraceElement[] getStackTrace() {
-        return mStackTrace;
+        StackTraceElement[] trace = new StackTraceElement[mFrames.length];
+        for (int i = 0 ; i < mFrames.length ; i++) {
+            trace[i] = new StackTraceElement(getFrameClassName(i), getFrameMethodName(i),
+                    getFrameFileName(i), getFrameLineNumber(i));
+        }
+        return trace;
+    }
+
+    /**
+     * Returns the depth of the stack trace.
+     */
+    public int getStackDepth() {
+        return mFrames.length;
     }
 
     public int compareTo(AllocationInfo otherAlloc) {
@@ -171,21 +232,58 @@ public class AllocationInfo implements IStackTraceInfo {
     }
 
     public String getFirstTraceClassName() {
-        if (mStackTrace.length > 0) {
-            return mStackTrace[0].getClassName();
+        if (mFrames.length > 0) {
+            return getFrameClassName(0);
         }
 
         return null;
     }
 
     public String getFirstTraceMethodName() {
-        if (mStackTrace.length > 0) {
-            return mStackTrace[0].getMethodName();
+        if (mFrames.length > 0) {
+            return getFrameMethodName(0);
+        }
+
+        return null;
+    }
+
+    public String getFirstTraceFileName() {
+        if (mFrames.length > 0) {
+            return getFrameFileName(0);
         }
 
         return null;
     }
 
+    /**
+     * Returns the line number of the first frame of the stack trace, or -1 if there is none.
+     * The value is -2 for native methods.
+     */
+    public int getFirstTraceLineNumber() {
+        if (mFrames.length > 0) {
+            return getFrameLineNumber(0);
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns a hash of the content of the allocation, ignoring its number. Allocations
+     * received in different REAL responses have the same fingerprint if they have the same
+     * class, size, thread and stack trace.
+     */
+    long getFingerprint() {
+        long h = mAllocatedClass.hashCode();
+        h = h * 31 + mAllocationSize;
+        h = h * 31 + mThreadId;
+        for (int i = 0 ; i < mFrames.length ; i++) {
+            h = h * 31 + getFrameClassName(i).hashCode();
+            h = h * 31 + getFrameMethodName(i).hashCode();
+            h = h * 31 + getFrameLineNumber(i);
+        }
+        return h;
+    }
+
     /**
      * Returns true if the given filter matches case insensitively (according to
      * the given locale) this allocation info.
@@ -195,16 +293,16 @@ public class AllocationInfo implements IStackTraceInfo {
             return true;
         }
 
-        if (mStackTrace.length > 0) {
+        if (mFrames.length > 0) {
             // check the top of the stack trace always
-            final int length = fullTrace ? mStackTrace.length : 1;
+            final int length = fullTrace ? mFrames.length : 1;
 
             for (int i = 0 ; i < length ; i++) {
-                if (mStackTrace[i].getClassName().toLowerCase(locale).contains(filter)) {
+                if (getFrameClassName(i).toLowerCase(locale).contains(filter)) {
                     return true;
                 }
 
-                if (mStackTrace[i].getMethodName().toLowerCase(locale).contains(filter)) {
+                if (getFrameMethodName(i).toLowerCase(locale).contains(filter)) {
                     return true;
                 }
             }
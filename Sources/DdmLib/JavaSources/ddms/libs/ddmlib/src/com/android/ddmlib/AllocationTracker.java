@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import com.android.ddmlib.AndroidDebugBridge.IClientChangeListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Continuous allocation tracking session for a {@link Client}.
+ * <p/>
+ * The session enables the allocation tracker of the VM and polls the recent allocations
+ * (REAL) periodically. The VM only keeps a ring of recent allocations, and REAL responses do
+ * not carry absolute allocation numbers, so each response is matched against the most recent
+ * allocations of the previous one to only count the new allocations.
+ * <p/>
+ * New allocations are aggregated into one {@link AllocationSite} per allocated class and
+ * allocating frame, so the memory used depends on the number of call sites, not on the
+ * length of the session.
+ * <p/>
+ * Identical allocations in a row (same class, size, thread and stack) cannot be told apart,
+ * so a poll that only sees more of them may undercount.
+ */
+public final class AllocationTracker {
+
+    /** Number of recent allocations used to find the overlap between two polls. */
+    private final static int OVERLAP_MATCH_LENGTH = 16;
+
+    /**
+     * Counters for the allocations of one class from one frame.
+     */
+    public final static class AllocationSite {
+        private final String mAllocatedClass;
+        private final String mClassName;
+        private final String mMethodName;
+        private final String mFileName;
+        private final int mLineNumber;
+        private long mCount;
+        private long mTotalSize;
+
+        AllocationSite(AllocationInfo info) {
+            mAllocatedClass = info.getAllocatedClass();
+            mClassName = info.getFirstTraceClassName();
+            mMethodName = info.getFirstTraceMethodName();
+            mFileName = info.getFirstTraceFileName();
+            mLineNumber = info.getFirstTraceLineNumber();
+        }
+
+        private AllocationSite(AllocationSite other) {
+            mAllocatedClass = other.mAllocatedClass;
+            mClassName = other.mClassName;
+            mMethodName = other.mMethodName;
+            mFileName = other.mFileName;
+            mLineNumber = other.mLineNumber;
+            mCount = other.mCount;
+            mTotalSize = other.mTotalSize;
+        }
+
+        /** Returns the name of the allocated class. */
+        public String getAllocatedClass() {
+            return mAllocatedClass;
+        }
+
+        /** Returns the class of the allocating method, or null if the stack was empty. */
+        public String getClassName() {
+            return mClassName;
+        }
+
+        /** Returns the allocating method, or null if the stack was empty. */
+        public String getMethodName() {
+            return mMethodName;
+        }
+
+        /** Returns the source file of the allocating method, or null. */
+        public String getFileName() {
+            return mFileName;
+        }
+
+        /** Returns the line of the allocation, -2 for native methods, -1 if unknown. */
+        public int getLineNumber() {
+            return mLineNumber;
+        }
+
+        /** Returns the number of allocations. */
+        public long getCount() {
+            return mCount;
+        }
+
+        /** Returns the total size of the allocations, in bytes. */
+        public long getTotalSize() {
+            return mTotalSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof AllocationSite == false) {
+                return false;
+            }
+            AllocationSite other = (AllocationSite)o;
+            return mLineNumber == other.mLineNumber
+                    && mAllocatedClass.equals(other.mAllocatedClass)
+                    && equal(mClassName, other.mClassName)
+                    && equal(mMethodName, other.mMethodName)
+                    && equal(mFileName, other.mFileName);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = mAllocatedClass.hashCode();
+            h = h * 31 + (mClassName != null ? mClassName.hashCode() : 0);
+            h = h * 31 + (mMethodName != null ? mMethodName.hashCode() : 0);
+            return h * 31 + mLineNumber;
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    private final Client mClient;
+    private final HashMap<AllocationSite, AllocationSite> mSites =
+            new HashMap<AllocationSite, AllocationSite>();
+
+    /** fingerprints of the most recent allocations of the last poll, most recent first. */
+    private long[] mLastFingerprints = new long[0];
+
+    private long mTotalCount;
+    private long mTotalSize;
+    private int mPollCount;
+    private int mOverflowCount;
+
+    private ScheduledThreadPoolExecutor mExecutor;
+    private IClientChangeListener mListener;
+
+    /**
+     * Creates a session for a client. The session does nothing until it is started.
+     */
+    public AllocationTracker(Client client) {
+        mClient = client;
+    }
+
+    /**
+     * Enables allocation tracking on the client and starts polling.
+     * @param periodMsec the polling period. It should be short enough for the VM's ring of
+     * recent allocations not to overflow between two polls.
+     */
+    public synchronized void start(long periodMsec) {
+        if (mExecutor != null) {
+            return;
+        }
+
+        mListener = new IClientChangeListener() {
+            @Override
+            public void clientChanged(Client client, int changeMask) {
+                if (client == mClient
+                        && (changeMask & Client.CHANGE_HEAP_ALLOCATIONS) != 0) {
+                    AllocationInfo[] allocations = client.getClientData().getAllocations();
+                    if (allocations != null) {
+                        merge(allocations);
+                    }
+                }
+            }
+        };
+        AndroidDebugBridge.addClientChangeListener(mListener);
+
+        mClient.enableAllocationTracker(true);
+
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Allocation Tracker"); //$NON-NLS-1$
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        mExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (mClient.isValid()) {
+                    mClient.requestAllocationDetails();
+                }
+            }
+        }, periodMsec, periodMsec, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops polling. The counters are kept.
+     * @param disableTracking whether to also disable allocation tracking on the client.
+     */
+    public synchronized void stop(boolean disableTracking) {
+        if (mExecutor == null) {
+            return;
+        }
+
+        mExecutor.shutdownNow();
+        mExecutor = null;
+        AndroidDebugBridge.removeClientChangeListener(mListener);
+        mListener = null;
+
+        if (disableTracking && mClient.isValid()) {
+            mClient.enableAllocationTracker(false);
+        }
+    }
+
+    /**
+     * Merges the allocations of a REAL response, most recent first as in
+     * {@link ClientData#getAllocations()}. Only the allocations that were not part of the
+     * previous response are counted.
+     */
+    public synchronized void merge(AllocationInfo[] allocations) {
+        mPollCount++;
+
+        int newCount = findOverlap(allocations);
+        if (newCount < 0) {
+            // no overlap: the ring overflowed since the last poll, or this is the first one.
+            newCount = allocations.length;
+            if (mLastFingerprints.length > 0) {
+                mOverflowCount++;
+            }
+        }
+
+        for (int i = 0 ; i < newCount ; i++) {
+            AllocationInfo info = allocations[i];
+            AllocationSite key = new AllocationSite(info);
+            AllocationSite site = mSites.get(key);
+            if (site == null) {
+                mSites.put(key, key);
+                site = key;
+            }
+            site.mCount++;
+            site.mTotalSize += info.getSize();
+            mTotalCount++;
+            mTotalSize += info.getSize();
+        }
+
+        int n = Math.min(OVERLAP_MATCH_LENGTH, allocations.length);
+        if (n > 0) {
+            long[] fingerprints = new long[n];
+            for (int i = 0 ; i < n ; i++) {
+                fingerprints[i] = allocations[i].getFingerprint();
+            }
+            mLastFingerprints = fingerprints;
+        }
+    }
+
+    /**
+     * Returns the number of allocations before the most recent allocations of the previous
+     * poll, or -1 if they are not found.
+     * <p/>
+     * All the fingerprints kept from the previous poll must match. A shorter match at the
+     * end of the response is too likely to be a collision to be told from an overflow.
+     */
+    private int findOverlap(AllocationInfo[] allocations) {
+        long[] last = mLastFingerprints;
+        if (last.length == 0) {
+            return -1;
+        }
+
+        long[] fingerprints = new long[allocations.length];
+        int computed = 0;
+
+        for (int start = 0 ; start + last.length <= allocations.length ; start++) {
+            boolean match = true;
+            for (int i = 0 ; i < last.length && match ; i++) {
+                int index = start + i;
+                while (computed <= index) {
+                    fingerprints[computed] = allocations[computed].getFingerprint();
+                    computed++;
+                }
+                match = fingerprints[index] == last[i];
+            }
+            if (match) {
+                return start;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns a copy of the allocation sites, by decreasing total size.
+     */
+    public synchronized List<AllocationSite> getSites() {
+        List<AllocationSite> sites = new ArrayList<AllocationSite>(mSites.size());
+        for (AllocationSite site : mSites.values()) {
+            sites.add(new AllocationSite(site));
+        }
+        Collections.sort(sites, new Comparator<AllocationSite>() {
+            @Override
+            public int compare(AllocationSite o1, AllocationSite o2) {
+                if (o1.mTotalSize != o2.mTotalSize) {
+                    return o1.mTotalSize > o2.mTotalSize ? -1 : 1;
+                }
+                return 0;
+            }
+        });
+        return sites;
+    }
+
+    /** Returns the number of allocations counted. */
+    public synchronized long getTotalCount() {
+        return mTotalCount;
+    }
+
+    /** Returns the total size of the allocations counted, in bytes. */
+    public synchronized long getTotalSize() {
+        return mTotalSize;
+    }
+
+    /** Returns the number of REAL responses merged. */
+    public synchronized int getPollCount() {
+        return mPollCount;
+    }
+
+    /**
+     * Returns the number of polls which did not overlap the previous one, meaning that
+     * allocations were probably missed. A shorter period avoids this.
+     */
+    public synchronized int getOverflowCount() {
+        return mOverflowCount;
+    }
+
+    /** Resets the counters. */
+    public synchronized void clear() {
+        mSites.clear();
+        mLastFingerprints = new long[0];
+        mTotalCount = 0;
+        mTotalSize = 0;
+        mPollCount = 0;
+        mOverflowCount = 0;
+    }
+}
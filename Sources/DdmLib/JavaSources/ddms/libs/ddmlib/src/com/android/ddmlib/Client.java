@@ -87,6 +87,11 @@ public class Client {
     private boolean mThreadUpdateEnabled;
     private boolean mHeapUpdateEnabled;
 
+    // Number of heap samplers asking for the heap info after every GC, which is kept
+    // enabled while the heap update is disabled. Guarded by mHeapInfoLock.
+    private int mHeapInfoHolders;
+    private final Object mHeapInfoLock = new Object();
+
     /*
      * Read/write buffers.  We can get large quantities of data from the
      * client, e.g. the response to a "give me the list of all known classes"
@@ -350,17 +355,20 @@ public class Client {
      * @param enabled the enable flag
      */
     public void setHeapUpdateEnabled(boolean enabled) {
-        mHeapUpdateEnabled = enabled;
-
-        try {
-            HandleHeap.sendHPIF(this,
-                    enabled ? HandleHeap.HPIF_WHEN_EVERY_GC : HandleHeap.HPIF_WHEN_NEVER);
+        synchronized (mHeapInfoLock) {
+            mHeapUpdateEnabled = enabled;
 
-            HandleHeap.sendHPSG(this,
-                    enabled ? HandleHeap.WHEN_GC : HandleHeap.WHEN_DISABLE,
-                    HandleHeap.WHAT_MERGE);
-        } catch (IOException ioe) {
-            // ignore it here; client will clean up shortly
+            try {
+                // a heap sampler holding the heap info keeps it sent after every GC.
+                HandleHeap.sendHPIF(this, enabled || mHeapInfoHolders > 0
+                        ? HandleHeap.HPIF_WHEN_EVERY_GC : HandleHeap.HPIF_WHEN_NEVER);
+
+                HandleHeap.sendHPSG(this,
+                        enabled ? HandleHeap.WHEN_GC : HandleHeap.WHEN_DISABLE,
+                        HandleHeap.WHAT_MERGE);
+            } catch (IOException ioe) {
+                // ignore it here; client will clean up shortly
+            }
         }
 
         update(CHANGE_HEAP_MODE);
@@ -374,6 +382,54 @@ public class Client {
         return mHeapUpdateEnabled;
     }
 
+    /**
+     * Asks the client to send its heap info after every GC, whether or not the heap update
+     * is enabled, until {@link #releaseHeapInfoOnGc()} is called as many times.
+     * @return false if the request could not be sent.
+     * @see HeapSampler
+     */
+    boolean holdHeapInfoOnGc() {
+        synchronized (mHeapInfoLock) {
+            mHeapInfoHolders++;
+            return requestHeapInfo(HandleHeap.HPIF_WHEN_EVERY_GC);
+        }
+    }
+
+    /**
+     * Releases a {@link #holdHeapInfoOnGc()}. Once it is not held anymore, the client stops
+     * sending its heap info after every GC, unless the heap update is enabled.
+     */
+    void releaseHeapInfoOnGc() {
+        synchronized (mHeapInfoLock) {
+            mHeapInfoHolders--;
+            if (mHeapInfoHolders == 0 && mHeapUpdateEnabled == false && isValid()) {
+                requestHeapInfo(HandleHeap.HPIF_WHEN_NEVER);
+            }
+        }
+    }
+
+    /**
+     * Sends a heap info (HPIF) request. This is asynchronous, and does not change the heap
+     * update mode.
+     * <p/>The heap information can be accessed by {@link ClientData#getVmHeapInfo(int)}, and
+     * is recorded in {@link ClientData#getHeapHistory()} if the history is enabled.
+     * <p/>The notification that the new data is available
+     * will be received through {@link IClientChangeListener#clientChanged(Client, int)}
+     * with a <code>changeMask</code> containing the value {@link #CHANGE_HEAP_DATA}.
+     * @param when one of the <code>HandleHeap.HPIF_WHEN_*</code> values.
+     * @return false if the request could not be sent.
+     */
+    public boolean requestHeapInfo(int when) {
+        try {
+            HandleHeap.sendHPIF(this, when);
+            return true;
+        } catch (IOException e) {
+            Log.w("ddms", "Send of HPIF message failed");
+        }
+
+        return false;
+    }
+
     /**
      * Sends a native heap update request. this is asynchronous.
      * <p/>The native heap info can be accessed by {@link ClientData#getNativeAllocationList()}.
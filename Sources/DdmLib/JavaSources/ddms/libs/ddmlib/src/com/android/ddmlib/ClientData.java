@@ -16,9 +16,6 @@
 
 package com.android.ddmlib;
 
-import com.android.ddmlib.HeapSegment.HeapSegmentElement;
-
-import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -29,7 +26,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
 
 /**
@@ -173,16 +169,21 @@ public class ClientData {
     private HashMap<Integer, HashMap<String, Long>> mHeapInfoMap =
             new HashMap<Integer, HashMap<String, Long>>();
 
+    // time series of the heap info, if enabled.
+    private HeapInfoHistory mHeapHistory;
+
 
     /** library map info. Stored here since the backtrace data
      * is computed on a need to display basis.
      */
-    private ArrayList<NativeLibraryMapInfo> mNativeLibMapInfo =
-        new ArrayList<NativeLibraryMapInfo>();
+    private NativeLibraryMapIndex mNativeLibMapIndex =
+        new NativeLibraryMapIndex(new ArrayList<NativeLibraryMapInfo>());
 
     /** Native Alloc info list */
     private ArrayList<NativeAllocationInfo> mNativeAllocationList =
         new ArrayList<NativeAllocationInfo>();
+    /** number of complete native allocation lists received. */
+    private int mNativeAllocationListCount;
     private int mNativeTotalMemory;
 
     private AllocationInfo[] mAllocations;
@@ -195,99 +196,65 @@ public class ClientData {
 
     /**
      * Heap Information.
-     * <p/>The heap is composed of several {@link HeapSegment} objects.
-     * <p/>A call to {@link #isHeapDataComplete()} will indicate if the segments (available through
-     * {@link #getHeapSegments()}) represent the full heap.
+     * <p/>The HPSG segments describing the heap are aggregated into a
+     * {@link HeapSegmentSummary} as they arrive. The summary of the latest full heap is
+     * available through {@link #getHeapSummary()}.
      */
     public static class HeapData {
-        private TreeSet<HeapSegment> mHeapSegments = new TreeSet<HeapSegment>();
-        private boolean mHeapDataComplete = false;
-        private byte[] mProcessedHeapData;
-        private Map<Integer, ArrayList<HeapSegmentElement>> mProcessedHeapMap;
+        private HeapSegmentSummary mPendingSummary;
+        private HeapSegmentSummary mHeapSummary;
 
         /**
-         * Abandon the current list of heap segments.
+         * Abandon the segments received since the last complete heap data.
          */
         public synchronized void clearHeapData() {
-            /* Abandon the old segments instead of just calling .clear().
-             * This lets the user hold onto the old set if it wants to.
-             */
-            mHeapSegments = new TreeSet<HeapSegment>();
-            mHeapDataComplete = false;
+            mPendingSummary = null;
         }
 
         /**
-         * Add raw HPSG chunk data to the list of heap segments.
+         * Add raw HPSG chunk data to the heap summary being built. The data is aggregated
+         * right away and is not retained.
          *
          * @param data The raw data from an HPSG chunk.
          */
         synchronized void addHeapData(ByteBuffer data) {
-            HeapSegment hs;
-
-            if (mHeapDataComplete) {
-                clearHeapData();
+            if (mPendingSummary == null) {
+                mPendingSummary = new HeapSegmentSummary();
             }
 
-            try {
-                hs = new HeapSegment(data);
-            } catch (BufferUnderflowException e) {
-                System.err.println("Discarding short HPSG data (length " + data.limit() + ")");
-                return;
+            if (mPendingSummary.add(data) == false) {
+                Log.w("ddm-heap", "Discarding malformed HPSG data (length " //$NON-NLS-1$
+                        + data.limit() + ")"); //$NON-NLS-1$
             }
-
-            mHeapSegments.add(hs);
         }
 
         /**
          * Called when all heap data has arrived.
          */
         synchronized void sealHeapData() {
-            mHeapDataComplete = true;
-        }
-
-        /**
-         * Returns whether the heap data has been sealed.
-         */
-        public boolean isHeapDataComplete() {
-            return mHeapDataComplete;
-        }
-
-        /**
-         * Get the collected heap data, if sealed.
-         *
-         * @return The list of heap segments if the heap data has been sealed, or null if it hasn't.
-         */
-        public Collection<HeapSegment> getHeapSegments() {
-            if (isHeapDataComplete()) {
-                return mHeapSegments;
+            if (mPendingSummary != null) {
+                mHeapSummary = mPendingSummary;
+                mPendingSummary = null;
             }
-            return null;
         }
 
         /**
-         * Sets the processed heap data.
-         *
-         * @param heapData The new heap data (can be null)
+         * Returns whether some heap data has been sealed.
          */
-        public void setProcessedHeapData(byte[] heapData) {
-            mProcessedHeapData = heapData;
+        public synchronized boolean isHeapDataComplete() {
+            return mHeapSummary != null;
         }
 
         /**
-         * Get the processed heap data, if present.
+         * Get the summary of the most recent complete heap data.
+         * <p/>
+         * A new object is returned each time new heap data is sealed, so callers can compare
+         * it to the summary they last processed.
          *
-         * @return the processed heap data, or null.
+         * @return the summary, or null if no heap data has been sealed yet.
          */
-        public byte[] getProcessedHeapData() {
-            return mProcessedHeapData;
-        }
-
-        public void setProcessedHeapMap(Map<Integer, ArrayList<HeapSegmentElement>> heapMap) {
-            mProcessedHeapMap = heapMap;
-        }
-
-        public Map<Integer, ArrayList<HeapSegmentElement>> getProcessedHeapMap() {
-            return mProcessedHeapMap;
+        public synchronized HeapSegmentSummary getHeapSummary() {
+            return mHeapSummary;
         }
     }
 
@@ -483,6 +450,31 @@ public class ClientData {
         heapInfo.put(HEAP_BYTES_ALLOCATED, bytesAllocated);
         heapInfo.put(HEAP_OBJECTS_ALLOCATED, objectsAllocated);
         mHeapInfoMap.put(heapId, heapInfo);
+
+        if (mHeapHistory != null) {
+            mHeapHistory.add(heapId, System.currentTimeMillis(), maxSizeInBytes, sizeInBytes,
+                    bytesAllocated, objectsAllocated);
+        }
+    }
+
+    /**
+     * Starts recording every heap info update into a {@link HeapInfoHistory}. Does nothing
+     * if the history is already enabled.
+     * @param capacity the maximum number of samples kept per heap.
+     */
+    public synchronized void enableHeapHistory(int capacity) {
+        if (mHeapHistory == null) {
+            mHeapHistory = new HeapInfoHistory(capacity);
+        }
+    }
+
+    /**
+     * Returns the history of the heap info updates, or <code>null</code> if it is not
+     * enabled.
+     * @see #enableHeapHistory(int)
+     */
+    public synchronized HeapInfoHistory getHeapHistory() {
+        return mHeapHistory;
     }
 
     /**
@@ -580,6 +572,22 @@ public class ClientData {
         mNativeAllocationList.clear();
     }
 
+    /**
+     * Marks the current malloc info as complete.
+     */
+    synchronized void setNativeAllocationInfoComplete() {
+        mNativeAllocationListCount++;
+    }
+
+    /**
+     * Returns the number of complete native allocation lists received so far. This changes
+     * when {@link #getNativeAllocationList()} holds a new list, while
+     * {@link Client#CHANGE_NATIVE_HEAP_DATA} is also sent for the native heap segments.
+     */
+    public synchronized int getNativeAllocationListCount() {
+        return mNativeAllocationListCount;
+    }
+
     /**
      * Returns the total native memory.
      * @see Client#requestNativeHeapInformation()
@@ -592,15 +600,27 @@ public class ClientData {
         mNativeTotalMemory = totalMemory;
     }
 
-    synchronized void addNativeLibraryMapInfo(long startAddr, long endAddr, String library) {
-        mNativeLibMapInfo.add(new NativeLibraryMapInfo(startAddr, endAddr, library));
+    /**
+     * Replaces the native libraries mapped in memory, as reported by the last NHGT.
+     */
+    synchronized void setNativeLibraryMapInfo(List<NativeLibraryMapInfo> libraries) {
+        mNativeLibMapIndex = new NativeLibraryMapIndex(libraries);
     }
 
     /**
-     * Returns the list of native libraries mapped in memory for this client.
+     * Returns the list of native libraries mapped in memory for this client, sorted by start
+     * address.
      */
     public synchronized List<NativeLibraryMapInfo> getMappedNativeLibraries() {
-        return Collections.unmodifiableList(mNativeLibMapInfo);
+        return mNativeLibMapIndex.getLibraries();
+    }
+
+    /**
+     * Returns the index of the native libraries mapped in memory for this client, to find
+     * the library containing an address.
+     */
+    public synchronized NativeLibraryMapIndex getNativeLibraryMapIndex() {
+        return mNativeLibMapIndex;
     }
 
     synchronized void setAllocationStatus(AllocationTrackingStatus status) {
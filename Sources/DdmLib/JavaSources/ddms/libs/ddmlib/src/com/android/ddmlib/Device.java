@@ -381,6 +381,14 @@ final class Device implements IDevice {
         return AdbHelper.getFrameBuffer(AndroidDebugBridge.getSocketAddress(), this);
     }
 
+    @Override
+    public ScreenCapture startScreenCapture(ScreenCapture.IScreenCaptureListener listener,
+            int framesPerSecond) {
+        ScreenCapture capture = new ScreenCapture(this, listener, framesPerSecond);
+        capture.start();
+        return capture;
+    }
+
     @Override
     public void executeShellCommand(String command, IShellOutputReceiver receiver)
             throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
@@ -23,6 +23,8 @@ import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Handle heap status updates.
@@ -54,6 +56,15 @@ final class HandleHeap extends ChunkHandler {
 
     private static final HandleHeap mInst = new HandleHeap();
 
+    /** Maximum number of entries of the string caches used to decode REAL responses. */
+    private static final int STRING_CACHE_SIZE = 8192;
+
+    /** Cache of the class descriptor conversions. */
+    private static final Map<String, String> sDescriptorCache = createStringCache();
+
+    /** Cache of the method and file names, to share the instances across REAL responses. */
+    private static final Map<String, String> sNameCache = createStringCache();
+
     private HandleHeap() {}
 
     /**
@@ -184,10 +195,8 @@ final class HandleHeap extends ChunkHandler {
      * Handle a heap segment message.
      */
     private void handleHPSG(Client client, ByteBuffer data) {
-        byte dataCopy[] = new byte[data.limit()];
+        // the chunk is aggregated right away, so there is no need to copy it.
         data.rewind();
-        data.get(dataCopy);
-        data = ByteBuffer.wrap(dataCopy);
         client.getClientData().getVmHeapData().addHeapData(data);
 //xxx todo: add to the heap mentioned in <data>
     }
@@ -378,51 +387,75 @@ final class HandleHeap extends ChunkHandler {
         client.update(Client.CHANGE_HEAP_ALLOCATION_STATUS);
     }
 
+    private static Map<String, String> createStringCache() {
+        return new LinkedHashMap<String, String>(STRING_CACHE_SIZE, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > STRING_CACHE_SIZE;
+            }
+        };
+    }
+
     /**
      * Converts a VM class descriptor string ("Landroid/os/Debug;") to
      * a dot-notation class name ("android.os.Debug").
+     * <p/>
+     * Conversions are cached, so that the same class name is shared by all the REAL
+     * responses.
      */
-    private String descriptorToDot(String str) {
+    static String descriptorToDot(String str) {
+        synchronized (sDescriptorCache) {
+            String dot = sDescriptorCache.get(str);
+            if (dot == null) {
+                dot = convertDescriptor(str);
+                sDescriptorCache.put(str, dot);
+            }
+            return dot;
+        }
+    }
+
+    private static String convertDescriptor(String str) {
         // count the number of arrays.
         int array = 0;
-        while (str.startsWith("[")) {
-            str = str.substring(1);
+        int len = str.length();
+        while (array < len && str.charAt(array) == '[') {
             array++;
         }
 
-        int len = str.length();
-
-        /* strip off leading 'L' and trailing ';' if appropriate */
-        if (len >= 2 && str.charAt(0) == 'L' && str.charAt(len - 1) == ';') {
-            str = str.substring(1, len-1);
-            str = str.replace('/', '.');
-        } else {
+        String name;
+        if (len - array >= 2 && str.charAt(array) == 'L' && str.charAt(len - 1) == ';') {
+            /* strip off leading 'L' and trailing ';' */
+            name = str.substring(array + 1, len - 1).replace('/', '.');
+        } else if (len - array == 1) {
             // convert the basic types
-            if ("C".equals(str)) {
-                str = "char";
-            } else if ("B".equals(str)) {
-                str = "byte";
-            } else if ("Z".equals(str)) {
-                str = "boolean";
-            } else if ("S".equals(str)) {
-                str = "short";
-            } else if ("I".equals(str)) {
-                str = "int";
-            } else if ("J".equals(str)) {
-                str = "long";
-            } else if ("F".equals(str)) {
-                str = "float";
-            } else if ("D".equals(str)) {
-                str = "double";
+            switch (str.charAt(array)) {
+                case 'C': name = "char"; break;
+                case 'B': name = "byte"; break;
+                case 'Z': name = "boolean"; break;
+                case 'S': name = "short"; break;
+                case 'I': name = "int"; break;
+                case 'J': name = "long"; break;
+                case 'F': name = "float"; break;
+                case 'D': name = "double"; break;
+                default: name = str.substring(array); break;
             }
+        } else {
+            name = str.substring(array);
+        }
+
+        if (array == 0) {
+            return name;
         }
 
         // now add the array part
+        StringBuilder sb = new StringBuilder(name.length() + array * 2);
+        sb.append(name);
         for (int a = 0 ; a < array; a++) {
-            str = str + "[]";
+            sb.append("[]");
         }
-
-        return str;
+        return sb.toString();
     }
 
     /**
@@ -430,15 +463,29 @@ final class HandleHeap extends ChunkHandler {
      *
      * This is just a serial collection of strings, each of which is a
      * four-byte length followed by UTF-16 data.
+     *
+     * @param descriptors whether the strings are class descriptors to convert to
+     * dot-notation. Other strings are only interned.
      */
-    private void readStringTable(ByteBuffer data, String[] strings) {
+    private void readStringTable(ByteBuffer data, String[] strings, boolean descriptors) {
         int count = strings.length;
         int i;
 
         for (i = 0; i < count; i++) {
             int nameLen = data.getInt();
-            String descriptor = getString(data, nameLen);
-            strings[i] = descriptorToDot(descriptor);
+            String str = getString(data, nameLen);
+            if (descriptors) {
+                strings[i] = descriptorToDot(str);
+            } else {
+                synchronized (sNameCache) {
+                    String cached = sNameCache.get(str);
+                    if (cached == null) {
+                        sNameCache.put(str, str);
+                        cached = str;
+                    }
+                    strings[i] = cached;
+                }
+            }
         }
     }
 
@@ -472,7 +519,7 @@ final class HandleHeap extends ChunkHandler {
      *   followed by UTF-16 data.
      */
     private void handleREAL(Client client, ByteBuffer data) {
-        Log.e("ddm-heap", "*** Received " + name(CHUNK_REAL));
+        Log.d("ddm-heap", "*** Received " + name(CHUNK_REAL));
         int messageHdrLen, entryHdrLen, stackFrameLen;
         int numEntries, offsetToStrings;
         int numClassNames, numMethodNames, numFileNames;
@@ -499,11 +546,13 @@ final class HandleHeap extends ChunkHandler {
         String[] methodNames = new String[numMethodNames];
         String[] fileNames = new String[numFileNames];
 
-        readStringTable(data, classNames);
-        readStringTable(data, methodNames);
+        readStringTable(data, classNames, true /* descriptors */);
+        readStringTable(data, methodNames, false /* descriptors */);
         //System.out.println("METHODS: "
         //    + java.util.Arrays.deepToString(methodNames));
-        readStringTable(data, fileNames);
+        readStringTable(data, fileNames, false /* descriptors */);
+        AllocationInfo.StringTables strings =
+                new AllocationInfo.StringTables(classNames, methodNames, fileNames);
 
         /*
          * Skip back to a point just past the header and start reading
@@ -525,28 +574,23 @@ final class HandleHeap extends ChunkHandler {
             for (int skip = 9; skip < entryHdrLen; skip++)
                 data.get();
 
-            StackTraceElement[] steArray = new StackTraceElement[stackDepth];
+            long[] frames = new long[stackDepth];
 
             /*
-             * Pull out the stack trace.
+             * Pull out the stack trace. Only the string indices are kept.
              */
             for (int sti = 0; sti < stackDepth; sti++) {
                 int methodClassNameIndex, methodNameIndex;
                 int methodSourceFileIndex;
                 short lineNumber;
-                String methodClassName, methodName, methodSourceFile;
 
                 methodClassNameIndex = (data.getShort() & 0xffff);
                 methodNameIndex = (data.getShort() & 0xffff);
                 methodSourceFileIndex = (data.getShort() & 0xffff);
                 lineNumber = data.getShort();
 
-                methodClassName = classNames[methodClassNameIndex];
-                methodName = methodNames[methodNameIndex];
-                methodSourceFile = fileNames[methodSourceFileIndex];
-
-                steArray[sti] = new StackTraceElement(methodClassName,
-                    methodName, methodSourceFile, lineNumber);
+                frames[sti] = AllocationInfo.encodeFrame(methodClassNameIndex,
+                        methodNameIndex, methodSourceFileIndex, lineNumber);
 
                 /* we've consumed 8 bytes; gobble up any extra */
                 for (int skip = 9; skip < stackFrameLen; skip++)
@@ -554,7 +598,7 @@ final class HandleHeap extends ChunkHandler {
             }
 
             list.add(new AllocationInfo(allocNumber--, classNames[classNameIndex],
-                totalSize, (short) threadId, steArray));
+                totalSize, (short) threadId, strings, frames));
         }
 
         client.getClientData().setAllocations(list.toArray(new AllocationInfo[numEntries]));
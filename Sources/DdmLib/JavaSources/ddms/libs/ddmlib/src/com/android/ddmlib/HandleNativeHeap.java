@@ -16,12 +16,12 @@
 
 package com.android.ddmlib;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Handle thread status updates.
@@ -121,14 +121,11 @@ final class HandleNativeHeap extends ChunkHandler {
 
         Log.d("ddm-nativeheap", "NHGT: " + data.limit() + " bytes");
 
-        // TODO - process incoming data and save in "cd"
-        byte[] copy = new byte[data.limit()];
-        data.get(copy);
-
         // clear the previous run
         cd.clearNativeAllocationInfo();
 
-        ByteBuffer buffer = ByteBuffer.wrap(copy);
+        // decode in place through a read-only view, the chunk is not copied.
+        ByteBuffer buffer = data.asReadOnlyBuffer();
         buffer.order(ByteOrder.LITTLE_ENDIAN);
 
 //        read the header
@@ -146,10 +143,8 @@ final class HandleNativeHeap extends ChunkHandler {
         int totalMemory = buffer.getInt();
         int backtraceSize = buffer.getInt();
 
-        Log.d("ddms", "mapSize: " + mapSize);
-        Log.d("ddms", "allocSize: " + allocSize);
-        Log.d("ddms", "allocInfoSize: " + allocInfoSize);
-        Log.d("ddms", "totalMemory: " + totalMemory);
+        Log.d("ddms", "mapSize: " + mapSize + " allocSize: " + allocSize
+                + " allocInfoSize: " + allocInfoSize + " totalMemory: " + totalMemory);
 
         cd.setTotalNativeMemory(totalMemory);
 
@@ -158,18 +153,20 @@ final class HandleNativeHeap extends ChunkHandler {
           return;
 
         if (mapSize > 0) {
-            byte[] maps = new byte[mapSize];
-            buffer.get(maps, 0, mapSize);
-            parseMaps(cd, maps);
+            cd.setNativeLibraryMapInfo(parseMaps(buffer, mapSize));
         }
 
         int iterations = allocSize / allocInfoSize;
 
+        // the backtraces of all the allocations are interned in one arena.
+        NativeStackArena arena = new NativeStackArena(iterations / 4);
+        long[] frames = new long[backtraceSize];
+
         for (int i = 0 ; i < iterations ; i++) {
-            NativeAllocationInfo info = new NativeAllocationInfo(
-                    buffer.getInt() /* size */,
-                    buffer.getInt() /* allocations */);
+            int size = buffer.getInt();
+            int allocations = buffer.getInt();
 
+            int count = 0;
             for (int j = 0 ; j < backtraceSize ; j++) {
                 long addr = (buffer.getInt()) & 0x00000000ffffffffL;
 
@@ -178,126 +175,144 @@ final class HandleNativeHeap extends ChunkHandler {
                     continue;
                 }
 
-                info.addStackCallAddress(addr);;
+                frames[count++] = addr;
             }
 
-            cd.addNativeAllocation(info);
+            cd.addNativeAllocation(new NativeAllocationInfo(size, allocations, arena,
+                    arena.intern(frames, 0, count)));
         }
+
+        cd.setNativeAllocationInfoComplete();
     }
 
     private void handleNHSG(Client client, ByteBuffer data) {
-        byte dataCopy[] = new byte[data.limit()];
+        // the chunk is aggregated right away, so there is no need to copy it.
         data.rewind();
-        data.get(dataCopy);
-        data = ByteBuffer.wrap(dataCopy);
         client.getClientData().getNativeHeapData().addHeapData(data);
-
-        if (true) {
-            return;
-        }
-
-        // WORK IN PROGRESS
-
-//        Log.e("ddm-nativeheap", "NHSG: ----------------------------------");
-//        Log.e("ddm-nativeheap", "NHSG: " + data.limit() + " bytes");
-
-        byte[] copy = new byte[data.limit()];
-        data.get(copy);
-
-        ByteBuffer buffer = ByteBuffer.wrap(copy);
-        buffer.order(ByteOrder.BIG_ENDIAN);
-
-        int id = buffer.getInt();
-        int unitsize = buffer.get();
-        long startAddress = buffer.getInt() & 0x00000000ffffffffL;
-        int offset = buffer.getInt();
-        int allocationUnitCount = buffer.getInt();
-
-//        Log.e("ddm-nativeheap", "id: " + id);
-//        Log.e("ddm-nativeheap", "unitsize: " + unitsize);
-//        Log.e("ddm-nativeheap", "startAddress: 0x" + Long.toHexString(startAddress));
-//        Log.e("ddm-nativeheap", "offset: " + offset);
-//        Log.e("ddm-nativeheap", "allocationUnitCount: " + allocationUnitCount);
-//        Log.e("ddm-nativeheap", "end: 0x" +
-//                Long.toHexString(startAddress + unitsize * allocationUnitCount));
-
-        // read the usage
-        while (buffer.position() < buffer.limit()) {
-            int eState = buffer.get() & 0x000000ff;
-            int eLen = (buffer.get() & 0x000000ff) + 1;
-            //Log.e("ddm-nativeheap", "solidity: " + (eState & 0x7) + " - kind: "
-            //        + ((eState >> 3) & 0x7) + " - len: " + eLen);
-        }
-
-
-//        count += unitsize * allocationUnitCount;
-//        Log.e("ddm-nativeheap", "count = " + count);
-
     }
 
-    private void parseMaps(ClientData cd, byte[] maps) {
-        InputStreamReader input = new InputStreamReader(new ByteArrayInputStream(maps));
-        BufferedReader reader = new BufferedReader(input);
-
-        String line;
-
-        try {
+    /**
+     * Parses the content of /proc/<pid>/maps at the position of a buffer, and moves the
+     * position past it.
+     * <p/>
+     * Consecutive lines mapping the same file are merged into one library. Lines that do not
+     * map a file are skipped.
+     * @param buffer the buffer, positioned at the start of the maps
+     * @param length the length of the maps in bytes
+     * @return the libraries, in the order of the maps.
+     */
+    static List<NativeLibraryMapInfo> parseMaps(ByteBuffer buffer, int length) {
+        List<NativeLibraryMapInfo> libraries = new ArrayList<NativeLibraryMapInfo>();
+
+        int position = buffer.position();
+        int end = Math.min(buffer.limit(), position + length);
+
+        // most libraries are defined on several lines, so we need to make sure we parse
+        // all the library lines and only add the library at the end
+        long startAddr = 0;
+        long endAddr = 0;
+        String library = null;
+        int libraryStart = -1;
+        int libraryLength = 0;
+
+        int line = position;
+        while (line < end) {
+            int lineEnd = line;
+            while (lineEnd < end && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
 
-            // most libraries are defined on several lines, so we need to make sure we parse
-            // all the library lines and only add the library at the end
-            long startAddr = 0;
-            long endAddr = 0;
-            String library = null;
+            // "start-end perms offset dev inode   path"
+            int i = line;
+            long tmpStart = 0;
+            while (i < lineEnd && hexDigit(buffer.get(i)) >= 0) {
+                tmpStart = (tmpStart << 4) | hexDigit(buffer.get(i++));
+            }
+            boolean valid = i > line && i < lineEnd && buffer.get(i) == '-';
 
-            while ((line = reader.readLine()) != null) {
-                Log.d("ddms", "line: " + line);
-                if (line.length() < 16) {
-                    continue;
+            long tmpEnd = 0;
+            if (valid) {
+                int endStart = ++i;
+                while (i < lineEnd && hexDigit(buffer.get(i)) >= 0) {
+                    tmpEnd = (tmpEnd << 4) | hexDigit(buffer.get(i++));
                 }
+                valid = i > endStart;
+            }
 
-                try {
-                    long tmpStart = Long.parseLong(line.substring(0, 8), 16);
-                    long tmpEnd = Long.parseLong(line.substring(9, 17), 16);
+            int path = i;
+            while (path < lineEnd && buffer.get(path) != '/') {
+                path++;
+            }
 
-                    int index = line.indexOf('/');
+            // trim the trailing '\r' or spaces.
+            int pathEnd = lineEnd;
+            while (pathEnd > path && buffer.get(pathEnd - 1) <= ' ') {
+                pathEnd--;
+            }
 
-                    if (index == -1)
-                        continue;
+            if (valid && path < pathEnd) {
+                if (library != null
+                        && sameBytes(buffer, libraryStart, libraryLength, path, pathEnd - path)) {
+                    // add the new end
+                    endAddr = tmpEnd;
+                } else {
+                    if (library != null) {
+                        libraries.add(new NativeLibraryMapInfo(startAddr, endAddr, library));
+                    }
 
-                    String tmpLib = line.substring(index);
+                    // now init the new library
+                    library = decode(buffer, path, pathEnd - path);
+                    libraryStart = path;
+                    libraryLength = pathEnd - path;
+                    startAddr = tmpStart;
+                    endAddr = tmpEnd;
+                }
+            }
 
-                    if (library == null ||
-                            (library != null && tmpLib.equals(library) == false)) {
+            line = lineEnd + 1;
+        }
 
-                        if (library != null) {
-                            cd.addNativeLibraryMapInfo(startAddr, endAddr, library);
-                            Log.d("ddms", library + "(" + Long.toHexString(startAddr) +
-                                    " - " + Long.toHexString(endAddr) + ")");
-                        }
+        if (library != null) {
+            libraries.add(new NativeLibraryMapInfo(startAddr, endAddr, library));
+        }
 
-                        // now init the new library
-                        library = tmpLib;
-                        startAddr = tmpStart;
-                        endAddr = tmpEnd;
-                    } else {
-                        // add the new end
-                        endAddr = tmpEnd;
-                    }
-                } catch (NumberFormatException e) {
-                    e.printStackTrace();
-                }
-            }
+        buffer.position(end);
+        return libraries;
+    }
 
-            if (library != null) {
-                cd.addNativeLibraryMapInfo(startAddr, endAddr, library);
-                Log.d("ddms", library + "(" + Long.toHexString(startAddr) +
-                        " - " + Long.toHexString(endAddr) + ")");
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    private static int hexDigit(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        } else if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        } else if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
         }
+        return -1;
     }
 
+    private static boolean sameBytes(ByteBuffer buffer, int a, int aLength, int b, int bLength) {
+        if (aLength != bLength) {
+            return false;
+        }
+        for (int i = 0 ; i < aLength ; i++) {
+            if (buffer.get(a + i) != buffer.get(b + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
+    private static String decode(ByteBuffer buffer, int start, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0 ; i < length ; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        try {
+            return new String(bytes, "UTF-8"); //$NON-NLS-1$
+        } catch (UnsupportedEncodingException e) {
+            return new String(bytes);
+        }
+    }
 }
 
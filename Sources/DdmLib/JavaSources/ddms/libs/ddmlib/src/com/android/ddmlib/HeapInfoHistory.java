@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.util.Arrays;
+
+/**
+ * Time series of the heap info (HPIF) values of a client, per heap id.
+ * <p/>
+ * Each heap keeps its most recent samples in a fixed size ring buffer of primitive arrays, so
+ * hours of sampling use a bounded, small amount of memory.
+ * <p/>
+ * Series are returned oldest sample first.
+ */
+public final class HeapInfoHistory {
+
+    private final int mCapacity;
+
+    private int[] mHeapIds = new int[0];
+    private Ring[] mRings = new Ring[0];
+
+    /** ring buffer of the samples of one heap. */
+    private static final class Ring {
+        final long[] mTimes;
+        final long[] mHeapSizes;
+        final long[] mBytesAllocated;
+        final long[] mObjectsAllocated;
+        long mMaxHeapSize;
+        int mNext;
+        int mCount;
+
+        Ring(int capacity) {
+            mTimes = new long[capacity];
+            mHeapSizes = new long[capacity];
+            mBytesAllocated = new long[capacity];
+            mObjectsAllocated = new long[capacity];
+        }
+
+        /** Copies the ring into a new array, oldest first. */
+        long[] unroll(long[] values) {
+            long[] result = new long[mCount];
+            int start = (mNext - mCount + values.length) % values.length;
+            int first = Math.min(mCount, values.length - start);
+            System.arraycopy(values, start, result, 0, first);
+            System.arraycopy(values, 0, result, first, mCount - first);
+            return result;
+        }
+    }
+
+    /**
+     * Creates a history.
+     * @param capacity the maximum number of samples kept per heap.
+     */
+    public HeapInfoHistory(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0"); //$NON-NLS-1$
+        }
+        mCapacity = capacity;
+    }
+
+    /** Returns the maximum number of samples kept per heap. */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Records a sample. If the heap already holds {@link #getCapacity()} samples, the oldest
+     * one is dropped.
+     * @param heapId the heap id
+     * @param time the time of the sample, in ms
+     * @param maxHeapSize the maximum size of the heap, in bytes
+     * @param heapSize the size of the heap, in bytes
+     * @param bytesAllocated the number of bytes allocated in the heap
+     * @param objectsAllocated the number of objects allocated in the heap
+     */
+    public synchronized void add(int heapId, long time, long maxHeapSize, long heapSize,
+            long bytesAllocated, long objectsAllocated) {
+        Ring ring = getRing(heapId);
+        if (ring == null) {
+            int n = mHeapIds.length;
+            mHeapIds = Arrays.copyOf(mHeapIds, n + 1);
+            mRings = Arrays.copyOf(mRings, n + 1);
+            mHeapIds[n] = heapId;
+            ring = mRings[n] = new Ring(mCapacity);
+        }
+
+        int i = ring.mNext;
+        ring.mTimes[i] = time;
+        ring.mHeapSizes[i] = heapSize;
+        ring.mBytesAllocated[i] = bytesAllocated;
+        ring.mObjectsAllocated[i] = objectsAllocated;
+        ring.mMaxHeapSize = maxHeapSize;
+        ring.mNext = (i + 1) % mCapacity;
+        if (ring.mCount < mCapacity) {
+            ring.mCount++;
+        }
+    }
+
+    /** Returns the ids of the heaps with samples, in order of appearance. */
+    public synchronized int[] getHeapIds() {
+        return mHeapIds.clone();
+    }
+
+    /** Returns the number of samples of a heap. */
+    public synchronized int getSampleCount(int heapId) {
+        Ring ring = getRing(heapId);
+        return ring != null ? ring.mCount : 0;
+    }
+
+    /** Returns the most recent maximum size of a heap, or 0 if there are no samples. */
+    public synchronized long getMaxHeapSize(int heapId) {
+        Ring ring = getRing(heapId);
+        return ring != null ? ring.mMaxHeapSize : 0;
+    }
+
+    /** Returns the times of the samples of a heap, in ms. */
+    public synchronized long[] getTimes(int heapId) {
+        Ring ring = getRing(heapId);
+        return ring != null ? ring.unroll(ring.mTimes) : new long[0];
+    }
+
+    /** Returns the heap sizes of the samples of a heap, in bytes. */
+    public synchronized long[] getHeapSizes(int heapId) {
+        Ring ring = getRing(heapId);
+        return ring != null ? ring.unroll(ring.mHeapSizes) : new long[0];
+    }
+
+    /** Returns the allocated bytes of the samples of a heap. */
+    public synchronized long[] getBytesAllocated(int heapId) {
+        Ring ring = getRing(heapId);
+        return ring != null ? ring.unroll(ring.mBytesAllocated) : new long[0];
+    }
+
+    /** Returns the allocated object counts of the samples of a heap. */
+    public synchronized long[] getObjectsAllocated(int heapId) {
+        Ring ring = getRing(heapId);
+        return ring != null ? ring.unroll(ring.mObjectsAllocated) : new long[0];
+    }
+
+    /**
+     * Returns the trend of the allocated bytes of a heap, as the slope of the least squares
+     * line through the samples, in bytes per second. A steady positive trend over a long run
+     * is a sign of a leak.
+     * @return the trend, or 0 if there are less than 2 samples.
+     */
+    public synchronized double getBytesAllocatedTrend(int heapId) {
+        Ring ring = getRing(heapId);
+        if (ring == null || ring.mCount < 2) {
+            return 0;
+        }
+
+        long[] times = ring.unroll(ring.mTimes);
+        long[] values = ring.unroll(ring.mBytesAllocated);
+
+        // center the values to keep the sums small.
+        long t0 = times[0];
+        long v0 = values[0];
+        double meanT = 0;
+        double meanV = 0;
+        for (int i = 0 ; i < times.length ; i++) {
+            meanT += times[i] - t0;
+            meanV += values[i] - v0;
+        }
+        meanT /= times.length;
+        meanV /= times.length;
+
+        double covariance = 0;
+        double variance = 0;
+        for (int i = 0 ; i < times.length ; i++) {
+            double dt = times[i] - t0 - meanT;
+            covariance += dt * (values[i] - v0 - meanV);
+            variance += dt * dt;
+        }
+        if (variance == 0) {
+            return 0;
+        }
+
+        // times are in ms.
+        return covariance / variance * 1000;
+    }
+
+    /** Removes all the samples. */
+    public synchronized void clear() {
+        mHeapIds = new int[0];
+        mRings = new Ring[0];
+    }
+
+    private Ring getRing(int heapId) {
+        for (int i = 0 ; i < mHeapIds.length ; i++) {
+            if (mHeapIds[i] == heapId) {
+                return mRings[i];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Samples the heap info of clients on a schedule, and records it into each client's
+ * {@link ClientData#getHeapHistory()}.
+ * <p/>
+ * The sampler either requests the heap info of every sampled client at a fixed period, or
+ * asks the clients to send it after every GC. In the latter case, the period is only how
+ * often new clients are picked up.
+ * <p/>
+ * This lets long running tests track the heap of many clients without any interaction.
+ */
+public final class HeapSampler {
+
+    /** Default number of samples kept per heap: a day at one sample every 10 seconds. */
+    public static final int DEFAULT_HISTORY_CAPACITY = 8640;
+
+    private final int mHistoryCapacity;
+
+    private final Set<Client> mClients = new HashSet<Client>();
+    private boolean mSampleAllClients;
+
+    /** clients that were asked to send their heap info after each GC. */
+    private final Set<Client> mArmedClients = new HashSet<Client>();
+
+    private ScheduledThreadPoolExecutor mExecutor;
+    private boolean mOnGc;
+
+    private final AtomicLong mRequestCount = new AtomicLong();
+
+    /**
+     * Creates a sampler.
+     * @param historyCapacity the maximum number of samples kept per client and heap.
+     */
+    public HeapSampler(int historyCapacity) {
+        mHistoryCapacity = historyCapacity;
+    }
+
+    /** Adds a client to sample. */
+    public synchronized void addClient(Client client) {
+        mClients.add(client);
+    }
+
+    /** Stops sampling a client. */
+    public synchronized void removeClient(Client client) {
+        mClients.remove(client);
+        disarm(client);
+        mArmedClients.remove(client);
+    }
+
+    /**
+     * Sets whether all the clients of all the devices known to the {@link AndroidDebugBridge}
+     * are sampled, on top of the ones added with {@link #addClient(Client)}.
+     */
+    public synchronized void setSampleAllClients(boolean sampleAll) {
+        mSampleAllClients = sampleAll;
+    }
+
+    /**
+     * Starts sampling. Restarts it if it was already started.
+     * @param periodMsec the sampling period, in ms.
+     * @param onGc if true, the clients send their heap info after each GC instead of being
+     * polled every period.
+     */
+    public synchronized void start(long periodMsec, boolean onGc) {
+        if (periodMsec <= 0) {
+            throw new IllegalArgumentException("periodMsec must be > 0"); //$NON-NLS-1$
+        }
+
+        stop();
+
+        mOnGc = onGc;
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Heap Sampler"); //$NON-NLS-1$
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        mExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sample();
+                } catch (RuntimeException e) {
+                    // keep sampling the other clients next time.
+                    Log.e("ddm-heap", e); //$NON-NLS-1$
+                }
+            }
+        }, 0, periodMsec, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sampling. The clients asked to send their heap info after each GC are asked to
+     * stop, unless their heap updates are enabled or another sampler still holds them. The
+     * recorded histories are kept.
+     */
+    public synchronized void stop() {
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor = null;
+        }
+
+        for (Client client : mArmedClients) {
+            disarm(client);
+        }
+        mArmedClients.clear();
+    }
+
+    /** Returns whether the sampler is started. */
+    public synchronized boolean isStarted() {
+        return mExecutor != null;
+    }
+
+    /** Returns the number of heap info requests sent so far. */
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    private void sample() {
+        List<Client> clients;
+        boolean onGc;
+        synchronized (this) {
+            if (mExecutor == null) {
+                return;
+            }
+            clients = getSampledClients();
+            onGc = mOnGc;
+
+            // disarm the clients which went away or are not sampled anymore.
+            Set<Client> sampled = new HashSet<Client>(clients);
+            for (Iterator<Client> it = mArmedClients.iterator() ; it.hasNext() ; ) {
+                Client client = it.next();
+                if (sampled.contains(client) == false) {
+                    client.releaseHeapInfoOnGc();
+                    it.remove();
+                }
+            }
+        }
+
+        for (Client client : clients) {
+            client.getClientData().enableHeapHistory(mHistoryCapacity);
+
+            if (onGc) {
+                synchronized (this) {
+                    if (mExecutor == null || mArmedClients.contains(client)) {
+                        continue;
+                    }
+                    mArmedClients.add(client);
+                    if (client.holdHeapInfoOnGc()) {
+                        mRequestCount.incrementAndGet();
+                    }
+                }
+            } else {
+                request(client, HandleHeap.HPIF_WHEN_NOW);
+            }
+        }
+    }
+
+    private void request(Client client, int when) {
+        if (client.requestHeapInfo(when)) {
+            mRequestCount.incrementAndGet();
+        }
+    }
+
+    private void disarm(Client client) {
+        if (mArmedClients.contains(client)) {
+            client.releaseHeapInfoOnGc();
+        }
+    }
+
+    /** Returns the valid, DDM aware, clients to sample. Must hold the lock. */
+    private List<Client> getSampledClients() {
+        Set<Client> clients = new HashSet<Client>(mClients);
+
+        if (mSampleAllClients) {
+            AndroidDebugBridge bridge = AndroidDebugBridge.getBridge();
+            if (bridge != null) {
+                for (IDevice device : bridge.getDevices()) {
+                    for (Client client : device.getClients()) {
+                        clients.add(client);
+                    }
+                }
+            }
+        }
+
+        List<Client> result = new ArrayList<Client>(clients.size());
+        for (Client client : clients) {
+            if (client.isValid() && client.isDdmAware()) {
+                result.add(client);
+            }
+        }
+        return result;
+    }
+}
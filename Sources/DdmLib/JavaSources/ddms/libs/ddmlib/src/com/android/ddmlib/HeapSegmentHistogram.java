@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of the sizes of the heap elements of one type, as counts per exact size.
+ * <p/>
+ * This replaces keeping one {@link HeapSegment.HeapSegmentElement} per object: the memory
+ * used depends only on the number of distinct sizes.
+ */
+public final class HeapSegmentHistogram {
+
+    /** open addressing table from size to count. A size of 0 marks an empty slot. */
+    private int[] mSizes = new int[16];
+    private int[] mCounts = new int[16];
+    private int mSizeCount;
+
+    private long mCount;
+    private long mTotalSize;
+
+    /** sorted view of the table, built on demand. */
+    private int[] mSortedSizes;
+    private int[] mSortedCounts;
+
+    HeapSegmentHistogram() {
+    }
+
+    /**
+     * Adds <var>count</var> elements of <var>size</var> bytes.
+     */
+    void add(int size, int count) {
+        if (size <= 0 || count <= 0) {
+            return;
+        }
+
+        if ((mSizeCount + 1) * 2 > mSizes.length) {
+            grow();
+        }
+
+        int mask = mSizes.length - 1;
+        int i = hash(size) & mask;
+        while (mSizes[i] != 0 && mSizes[i] != size) {
+            i = (i + 1) & mask;
+        }
+        if (mSizes[i] == 0) {
+            mSizes[i] = size;
+            mSizeCount++;
+        }
+        mCounts[i] += count;
+
+        mCount += count;
+        mTotalSize += (long)size * count;
+        mSortedSizes = null;
+        mSortedCounts = null;
+    }
+
+    /**
+     * Adds all the elements of another histogram.
+     */
+    void addAll(HeapSegmentHistogram other) {
+        for (int i = 0 ; i < other.mSizes.length ; i++) {
+            if (other.mSizes[i] != 0) {
+                add(other.mSizes[i], other.mCounts[i]);
+            }
+        }
+    }
+
+    /** Returns the number of elements. */
+    public long getCount() {
+        return mCount;
+    }
+
+    /** Returns the total size of the elements, in bytes. */
+    public long getTotalSize() {
+        return mTotalSize;
+    }
+
+    /** Returns the average size of the elements, or 0 if there are none. */
+    public long getAverageSize() {
+        return mCount > 0 ? mTotalSize / mCount : 0;
+    }
+
+    /** Returns the size of the smallest element, or 0 if there are none. */
+    public int getSmallestSize() {
+        sort();
+        return mSortedSizes.length > 0 ? mSortedSizes[0] : 0;
+    }
+
+    /** Returns the size of the largest element, or 0 if there are none. */
+    public int getLargestSize() {
+        sort();
+        return mSortedSizes.length > 0 ? mSortedSizes[mSortedSizes.length - 1] : 0;
+    }
+
+    /**
+     * Returns the size of the element at index <code>count / 2</code>, sorted by size,
+     * or 0 if there are none.
+     */
+    public int getMedianSize() {
+        sort();
+        long median = mCount / 2;
+        long seen = 0;
+        for (int i = 0 ; i < mSortedSizes.length ; i++) {
+            seen += mSortedCounts[i];
+            if (seen > median) {
+                return mSortedSizes[i];
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the number of distinct sizes. */
+    public int getSizeCount() {
+        return mSizeCount;
+    }
+
+    /**
+     * Returns the distinct sizes, in increasing order. The returned array must not be
+     * modified.
+     */
+    public int[] getSizes() {
+        sort();
+        return mSortedSizes;
+    }
+
+    /**
+     * Returns the number of elements for each size of {@link #getSizes()}. The returned
+     * array must not be modified.
+     */
+    public int[] getCounts() {
+        sort();
+        return mSortedCounts;
+    }
+
+    private void sort() {
+        if (mSortedSizes != null) {
+            return;
+        }
+
+        long[] entries = new long[mSizeCount];
+        int n = 0;
+        for (int i = 0 ; i < mSizes.length ; i++) {
+            if (mSizes[i] != 0) {
+                entries[n++] = ((long)mSizes[i] << 32) | (mCounts[i] & 0xffffffffL);
+            }
+        }
+        Arrays.sort(entries);
+
+        int[] sizes = new int[n];
+        int[] counts = new int[n];
+        for (int i = 0 ; i < n ; i++) {
+            sizes[i] = (int)(entries[i] >>> 32);
+            counts[i] = (int)entries[i];
+        }
+        mSortedSizes = sizes;
+        mSortedCounts = counts;
+    }
+
+    private void grow() {
+        int[] oldSizes = mSizes;
+        int[] oldCounts = mCounts;
+        mSizes = new int[oldSizes.length * 2];
+        mCounts = new int[oldSizes.length * 2];
+
+        int mask = mSizes.length - 1;
+        for (int i = 0 ; i < oldSizes.length ; i++) {
+            if (oldSizes[i] != 0) {
+                int j = hash(oldSizes[i]) & mask;
+                while (mSizes[j] != 0) {
+                    j = (j + 1) & mask;
+                }
+                mSizes[j] = oldSizes[i];
+                mCounts[j] = oldCounts[i];
+            }
+        }
+    }
+
+    private static int hash(int size) {
+        int h = size * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
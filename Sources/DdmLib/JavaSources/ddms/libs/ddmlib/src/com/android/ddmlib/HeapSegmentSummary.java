@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import com.android.ddmlib.HeapSegment.HeapSegmentElement;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Summary of the HPSG/NHSG segments of a heap, aggregated as the chunks arrive.
+ * <p/>
+ * Each chunk is decoded once, directly from the packet data, into:
+ * <ul>
+ * <li>one {@link HeapSegmentHistogram} per heap and element type,</li>
+ * <li>a run-length encoded usage map, one value per {@link #BYTES_PER_UNIT} bytes of heap.</li>
+ * </ul>
+ * The raw chunks are not retained.
+ * <p/>
+ * Element types are {@link #TYPE_FREE} for free blocks, and the kind of the element plus 2
+ * (e.g. <code>HeapSegmentElement.KIND_OBJECT + 2</code>) otherwise.
+ * <p/>
+ * A summary is filled by a single thread, and must not be modified once published.
+ */
+public final class HeapSegmentSummary {
+
+    /** Type of the free elements. */
+    public static final int TYPE_FREE = 1;
+
+    /** Number of element types. Types are in <code>[0, TYPE_COUNT[</code>. */
+    public static final int TYPE_COUNT = HeapSegmentElement.KIND_NATIVE + 3;
+
+    /** Number of bytes of heap described by one value of the usage map. */
+    public static final int BYTES_PER_UNIT = 8;
+
+    /** HPSG element state bit indicating that the element continues in the next one. */
+    private static final int PARTIAL_MASK = 1 << 7;
+
+    private int[] mHeapIds = new int[0];
+    private HeapSegmentHistogram[][] mHistograms = new HeapSegmentHistogram[0][];
+    private HeapSegmentHistogram[] mMergedHistograms;
+
+    /* usage map runs, in chunk arrival order. */
+    private byte[] mRunTypes = new byte[256];
+    private int[] mRunLengths = new int[256];
+    private int mRunCount;
+    private long mUnitCount;
+
+    /* segments, each owning the runs from mSegmentFirstRun to the next segment's. */
+    private int[] mSegmentHeapIds = new int[16];
+    private long[] mSegmentStarts = new long[16];
+    private int[] mSegmentFirstRun = new int[16];
+    private int mSegmentCount;
+    private boolean mSegmentsSorted = true;
+
+    private int mMalformedCount;
+
+    /**
+     * Adds the content of an HPSG chunk. The buffer is read from its current position and is
+     * not retained.
+     * @param data the chunk data.
+     * @return false if the chunk was malformed. The elements before the malformed one are
+     * still added.
+     */
+    public boolean add(ByteBuffer data) {
+        data.order(ByteOrder.BIG_ENDIAN);
+
+        int heapId;
+        int unitSize;
+        long start;
+        try {
+            heapId = data.getInt();
+            unitSize = data.get() & 0xff;
+            long startAddress = data.getInt() & 0x00000000ffffffffL;
+            int offset = data.getInt();
+            data.getInt(); // allocation unit count.
+            start = startAddress + offset;
+        } catch (BufferUnderflowException e) {
+            mMalformedCount++;
+            return false;
+        }
+
+        HeapSegmentHistogram[] histograms = getOrCreateHistograms(heapId);
+        addSegment(heapId, start);
+
+        while (data.remaining() >= 2) {
+            int state = data.get() & 0xff;
+            int units = (data.get() & 0xff) + 1;
+
+            while ((state & PARTIAL_MASK) != 0) {
+                if (data.remaining() < 2) {
+                    // truncated element: drop it like HeapSegment does.
+                    return true;
+                }
+                int nextState = data.get() & 0xff;
+                if ((nextState & ~PARTIAL_MASK) != (state & ~PARTIAL_MASK)) {
+                    mMalformedCount++;
+                    return false;
+                }
+                state = nextState;
+                units += (data.get() & 0xff) + 1;
+            }
+
+            int type;
+            if ((state & 0x7) == HeapSegmentElement.SOLIDITY_FREE) {
+                type = TYPE_FREE;
+            } else {
+                type = ((state >> 3) & 0x7) + 2;
+            }
+
+            int length = units * unitSize;
+            HeapSegmentHistogram histogram = histograms[type];
+            if (histogram == null) {
+                histogram = histograms[type] = new HeapSegmentHistogram();
+            }
+            histogram.add(length, 1);
+
+            addRun(type, length / BYTES_PER_UNIT);
+        }
+
+        return true;
+    }
+
+    /** Returns the ids of the heaps, in order of appearance. */
+    public int[] getHeapIds() {
+        return mHeapIds.clone();
+    }
+
+    /**
+     * Returns the histogram of a type of elements in one heap, or null if the heap has no
+     * such elements.
+     */
+    public HeapSegmentHistogram getHistogram(int heapId, int type) {
+        for (int i = 0 ; i < mHeapIds.length ; i++) {
+            if (mHeapIds[i] == heapId) {
+                return mHistograms[i][type];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the histogram of a type of elements across all the heaps, or null if there
+     * are no such elements.
+     */
+    public synchronized HeapSegmentHistogram getHistogram(int type) {
+        if (mHistograms.length == 1) {
+            return mHistograms[0][type];
+        }
+
+        if (mMergedHistograms == null) {
+            mMergedHistograms = new HeapSegmentHistogram[TYPE_COUNT];
+            for (HeapSegmentHistogram[] histograms : mHistograms) {
+                for (int t = 0 ; t < TYPE_COUNT ; t++) {
+                    if (histograms[t] != null) {
+                        if (mMergedHistograms[t] == null) {
+                            mMergedHistograms[t] = new HeapSegmentHistogram();
+                        }
+                        mMergedHistograms[t].addAll(histograms[t]);
+                    }
+                }
+            }
+        }
+        return mMergedHistograms[type];
+    }
+
+    /** Returns the number of values in the usage map. */
+    public long getUsageMapLength() {
+        return mUnitCount;
+    }
+
+    /** Returns the number of runs of identical values in the usage map. */
+    public int getUsageRunCount() {
+        return mRunCount;
+    }
+
+    /** Returns the number of malformed chunks that were (partially) ignored. */
+    public int getMalformedChunkCount() {
+        return mMalformedCount;
+    }
+
+    /**
+     * Expands the usage map into one element type per {@link #BYTES_PER_UNIT} bytes, in heap
+     * and address order.
+     */
+    public byte[] getUsageMap() {
+        byte[] map = new byte[(int)Math.min(mUnitCount, Integer.MAX_VALUE)];
+
+        int pos = 0;
+        for (int segment : getSortedSegments()) {
+            int end = segment + 1 < mSegmentCount ? mSegmentFirstRun[segment + 1] : mRunCount;
+            for (int run = mSegmentFirstRun[segment] ; run < end ; run++) {
+                int len = Math.min(mRunLengths[run], map.length - pos);
+                Arrays.fill(map, pos, pos + len, mRunTypes[run]);
+                pos += len;
+            }
+        }
+
+        return map;
+    }
+
+    private int[] getSortedSegments() {
+        int[] order = new int[mSegmentCount];
+        if (mSegmentsSorted) {
+            for (int i = 0 ; i < mSegmentCount ; i++) {
+                order[i] = i;
+            }
+            return order;
+        }
+
+        Integer[] boxed = new Integer[mSegmentCount];
+        for (int i = 0 ; i < mSegmentCount ; i++) {
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return compareSegments(a, b);
+            }
+        });
+        for (int i = 0 ; i < mSegmentCount ; i++) {
+            order[i] = boxed[i];
+        }
+        return order;
+    }
+
+    private int compareSegments(int a, int b) {
+        if (mSegmentHeapIds[a] != mSegmentHeapIds[b]) {
+            return mSegmentHeapIds[a] < mSegmentHeapIds[b] ? -1 : 1;
+        }
+        if (mSegmentStarts[a] != mSegmentStarts[b]) {
+            return mSegmentStarts[a] < mSegmentStarts[b] ? -1 : 1;
+        }
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    private HeapSegmentHistogram[] getOrCreateHistograms(int heapId) {
+        for (int i = 0 ; i < mHeapIds.length ; i++) {
+            if (mHeapIds[i] == heapId) {
+                return mHistograms[i];
+            }
+        }
+
+        int n = mHeapIds.length;
+        mHeapIds = Arrays.copyOf(mHeapIds, n + 1);
+        mHistograms = Arrays.copyOf(mHistograms, n + 1);
+        mHeapIds[n] = heapId;
+        mHistograms[n] = new HeapSegmentHistogram[TYPE_COUNT];
+        return mHistograms[n];
+    }
+
+    private void addSegment(int heapId, long start) {
+        if (mSegmentCount == mSegmentStarts.length) {
+            int size = mSegmentCount * 2;
+            mSegmentHeapIds = Arrays.copyOf(mSegmentHeapIds, size);
+            mSegmentStarts = Arrays.copyOf(mSegmentStarts, size);
+            mSegmentFirstRun = Arrays.copyOf(mSegmentFirstRun, size);
+        }
+
+        int n = mSegmentCount++;
+        mSegmentHeapIds[n] = heapId;
+        mSegmentStarts[n] = start;
+        mSegmentFirstRun[n] = mRunCount;
+        if (n > 0 && compareSegments(n - 1, n) > 0) {
+            mSegmentsSorted = false;
+        }
+    }
+
+    private void addRun(int type, int units) {
+        if (units <= 0) {
+            return;
+        }
+        mUnitCount += units;
+
+        // extend the last run of the current segment if it has the same type.
+        int segmentFirstRun = mSegmentFirstRun[mSegmentCount - 1];
+        if (mRunCount > segmentFirstRun && mRunTypes[mRunCount - 1] == type
+                && mRunLengths[mRunCount - 1] <= Integer.MAX_VALUE - units) {
+            mRunLengths[mRunCount - 1] += units;
+            return;
+        }
+
+        if (mRunCount == mRunTypes.length) {
+            mRunTypes = Arrays.copyOf(mRunTypes, mRunCount * 2);
+            mRunLengths = Arrays.copyOf(mRunLengths, mRunCount * 2);
+        }
+        mRunTypes[mRunCount] = (byte)type;
+        mRunLengths[mRunCount] = units;
+        mRunCount++;
+    }
+}
@@ -239,6 +239,16 @@ public interface IDevice {
     public RawImage getScreenshot() throws TimeoutException, AdbCommandRejectedException,
             IOException;
 
+    /**
+     * Starts capturing the screen of the device continuously.
+     *
+     * @param listener the listener receiving the frames, on the capture thread.
+     * @param framesPerSecond the target frame rate, or 0 to capture frames as fast as possible.
+     * @return the capture, to stop it and get its frame time statistics.
+     */
+    public ScreenCapture startScreenCapture(ScreenCapture.IScreenCaptureListener listener,
+            int framesPerSecond);
+
     /**
      * Executes a shell command on the device, and sends the result to a <var>receiver</var>
      * <p/>This is similar to calling
@@ -0,0 +1,830 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import com.android.ddmlib.AdbHelper.AdbResponse;
+import com.android.ddmlib.AndroidDebugBridge.IDeviceChangeListener;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Headless collector of the logcat output of all the devices connected to the
+ * {@link AndroidDebugBridge}.
+ * <p/>
+ * The collector listens to device events, and runs logcat on every device as soon as it is
+ * online. The output of all devices is read by a single thread multiplexing the adb
+ * connections with a {@link Selector}, and written by a small shared pool of threads into
+ * rotated, gzip compressed files, one set per device.
+ * <p/>
+ * Each device has a bounded queue of chunks between the reader and the writers. When it is
+ * full, the collector either stops reading from the device's connection until the writers
+ * catch up (the default), or drops the chunk if {@link #setDropWhenFull(boolean)} is set.
+ * <p/>
+ * The configuration setters must be called before {@link #start()}.
+ */
+public final class LogCatCollector implements IDeviceChangeListener {
+    private static final String LOG_TAG = "LogCatCollector"; //$NON-NLS-1$
+
+    private static final String DEFAULT_LOGCAT_COMMAND = "logcat -v long"; //$NON-NLS-1$
+    private static final String FILE_SUFFIX = ".log.gz"; //$NON-NLS-1$
+
+    private static final int READ_BUFFER_SIZE = 16384;
+    private static final long RECONNECT_DELAY_MS = 1000;
+
+    private final File mOutputDirectory;
+
+    private String mLogcatCommand = DEFAULT_LOGCAT_COMMAND;
+    private long mMaxFileSize = 64 * 1024 * 1024;
+    private int mMaxFilesPerDevice = 16;
+    private int mWriterThreads = 2;
+    private int mQueueCapacity = 256;
+    private boolean mDropWhenFull = false;
+
+    private final Map<String, DeviceStream> mStreams = new HashMap<String, DeviceStream>();
+    private final ConcurrentLinkedQueue<Runnable> mSelectorTasks =
+            new ConcurrentLinkedQueue<Runnable>();
+
+    private Selector mSelector;
+    private Thread mSelectorThread;
+    private ScheduledExecutorService mExecutor;
+    private volatile boolean mRunning;
+
+    /**
+     * Statistics for the logcat output collected from one device.
+     */
+    public static final class DeviceStats {
+        private final String mSerialNumber;
+        private final long mBytesReceived;
+        private final long mBytesWritten;
+        private final long mChunksDropped;
+        private final long mStalls;
+        private final int mFilesWritten;
+        private final int mQueuedChunks;
+
+        private DeviceStats(DeviceStream s) {
+            mSerialNumber = s.mSerialNumber;
+            mBytesReceived = s.mBytesReceived.get();
+            mBytesWritten = s.mLog.getBytesWritten();
+            mChunksDropped = s.mQueue.getChunksDropped();
+            mStalls = s.mQueue.getStalls();
+            mFilesWritten = s.mLog.getFileCount();
+            mQueuedChunks = s.mQueue.size();
+        }
+
+        public String getSerialNumber() {
+            return mSerialNumber;
+        }
+
+        /** Returns the number of bytes of logcat output read from the device. */
+        public long getBytesReceived() {
+            return mBytesReceived;
+        }
+
+        /** Returns the number of bytes of logcat output written, before compression. */
+        public long getBytesWritten() {
+            return mBytesWritten;
+        }
+
+        /** Returns the number of chunks of output dropped because the queue was full. */
+        public long getChunksDropped() {
+            return mChunksDropped;
+        }
+
+        /** Returns the number of times reading from the device was paused by backpressure. */
+        public long getStalls() {
+            return mStalls;
+        }
+
+        /** Returns the number of log files created for the device. */
+        public int getFilesWritten() {
+            return mFilesWritten;
+        }
+
+        /** Returns the number of chunks waiting to be written. */
+        public int getQueuedChunks() {
+            return mQueuedChunks;
+        }
+    }
+
+    /**
+     * Creates a collector writing the logs into the given directory.
+     * @param outputDirectory the directory receiving the per-device log files.
+     */
+    public LogCatCollector(File outputDirectory) {
+        mOutputDirectory = outputDirectory;
+    }
+
+    /** Sets the logcat command run on each device. Defaults to {@code logcat -v long}. */
+    public void setLogcatCommand(String command) {
+        mLogcatCommand = command;
+    }
+
+    /** Sets the uncompressed size after which a device's log file is rotated. */
+    public void setMaxFileSize(long bytes) {
+        mMaxFileSize = bytes;
+    }
+
+    /** Sets the number of log files kept per device. Oldest files are deleted first. */
+    public void setMaxFilesPerDevice(int count) {
+        mMaxFilesPerDevice = count;
+    }
+
+    /** Sets the number of threads shared by all devices to write the log files. */
+    public void setWriterThreads(int count) {
+        mWriterThreads = count;
+    }
+
+    /** Sets the number of chunks of output that can be queued per device. */
+    public void setQueueCapacity(int chunks) {
+        mQueueCapacity = chunks;
+    }
+
+    /**
+     * Sets whether output is dropped when a device's queue is full. If false, reading from
+     * the device is paused instead until the queue drains.
+     */
+    public void setDropWhenFull(boolean drop) {
+        mDropWhenFull = drop;
+    }
+
+    /**
+     * Starts collecting logs of all the online devices, and of the devices connecting later.
+     * @throws IOException if the output directory or the selector cannot be created.
+     */
+    public synchronized void start() throws IOException {
+        if (mRunning) {
+            return;
+        }
+
+        if (!mOutputDirectory.isDirectory() && !mOutputDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + mOutputDirectory.getAbsolutePath());
+        }
+
+        // statistics and files are kept after stop(), until the next start().
+        mStreams.clear();
+
+        mSelector = Selector.open();
+        mExecutor = new ScheduledThreadPoolExecutor(mWriterThreads, new ThreadFactory() {
+            private int mCount;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "LogCatCollector writer " + mCount++); //$NON-NLS-1$
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        mRunning = true;
+
+        mSelectorThread = new Thread("LogCatCollector reader") { //$NON-NLS-1$
+            @Override
+            public void run() {
+                runSelector();
+            }
+        };
+        mSelectorThread.setDaemon(true);
+        mSelectorThread.start();
+
+        AndroidDebugBridge.addDeviceChangeListener(this);
+        AndroidDebugBridge bridge = AndroidDebugBridge.getBridge();
+        if (bridge != null) {
+            for (IDevice device : bridge.getDevices()) {
+                if (device.isOnline()) {
+                    startDevice(device);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops collecting logs. Queued output is written and all log files are closed before
+     * this returns.
+     */
+    public void stop() {
+        List<DeviceStream> streams;
+        synchronized (this) {
+            if (!mRunning) {
+                return;
+            }
+            mRunning = false;
+            AndroidDebugBridge.removeDeviceChangeListener(this);
+            streams = new ArrayList<DeviceStream>(mStreams.values());
+        }
+
+        mSelector.wakeup();
+        try {
+            mSelectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        final CountDownLatch finished = new CountDownLatch(streams.size());
+        for (final DeviceStream s : streams) {
+            s.closeChannel();
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        s.finish();
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            });
+        }
+
+        mExecutor.shutdown();
+        try {
+            finished.await();
+            // connections still being opened close themselves, but are not waited for
+            // longer than the adb timeout.
+            mExecutor.awaitTermination(DdmPreferences.getTimeOut(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            mSelector.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, e);
+        }
+    }
+
+    /**
+     * Returns the statistics of every device whose logs were collected since {@link #start()}.
+     * They remain available after {@link #stop()}.
+     */
+    public synchronized List<DeviceStats> getStatistics() {
+        List<DeviceStats> stats = new ArrayList<DeviceStats>(mStreams.size());
+        for (DeviceStream s : mStreams.values()) {
+            stats.add(new DeviceStats(s));
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the files written for a device since {@link #start()}, oldest first. They remain
+     * available after {@link #stop()}.
+     */
+    public synchronized List<File> getFiles(String serialNumber) {
+        DeviceStream s = mStreams.get(serialNumber);
+        if (s == null) {
+            return Collections.emptyList();
+        }
+        return s.mLog.getFiles();
+    }
+
+    @Override
+    public void deviceConnected(IDevice device) {
+        if (device.isOnline()) {
+            startDevice(device);
+        }
+    }
+
+    @Override
+    public void deviceDisconnected(IDevice device) {
+        DeviceStream s;
+        synchronized (this) {
+            s = mStreams.get(device.getSerialNumber());
+        }
+        if (s != null) {
+            s.closeChannel();
+        }
+    }
+
+    @Override
+    public void deviceChanged(IDevice device, int changeMask) {
+        if ((changeMask & IDevice.CHANGE_STATE) != 0 && device.isOnline()) {
+            startDevice(device);
+        }
+    }
+
+    private synchronized void startDevice(IDevice device) {
+        if (!mRunning) {
+            return;
+        }
+
+        DeviceStream s = mStreams.get(device.getSerialNumber());
+        if (s == null) {
+            s = new DeviceStream(device);
+            mStreams.put(device.getSerialNumber(), s);
+        }
+        s.connect(0);
+    }
+
+    /** Main loop of the reader thread. */
+    private void runSelector() {
+        ByteBuffer buf = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+        while (mRunning) {
+            try {
+                mSelector.select();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, e);
+                continue;
+            }
+
+            Runnable task;
+            while ((task = mSelectorTasks.poll()) != null) {
+                task.run();
+            }
+
+            Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                if (key.isValid() && key.isReadable()) {
+                    ((DeviceStream) key.attachment()).read(key, buf);
+                }
+            }
+        }
+    }
+
+    /** Runs a task on the reader thread, which owns all the selection keys. */
+    private void runOnSelectorThread(Runnable task) {
+        mSelectorTasks.add(task);
+        mSelector.wakeup();
+    }
+
+    /**
+     * The logcat stream of one device: its adb connection, its queue of chunks, and its
+     * current output file.
+     */
+    private final class DeviceStream {
+        private final IDevice mDevice;
+        private final String mSerialNumber;
+        private final ChunkQueue mQueue;
+        private final RotatingLog mLog;
+
+        private final AtomicBoolean mConnecting = new AtomicBoolean();
+        private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+        private volatile SocketChannel mChannel;
+
+        /** Reader state, only accessed from the reader thread. */
+        private SelectionKey mKey;
+
+        private final AtomicLong mBytesReceived = new AtomicLong();
+
+        DeviceStream(IDevice device) {
+            mDevice = device;
+            mSerialNumber = device.getSerialNumber();
+            mQueue = new ChunkQueue(mQueueCapacity, mDropWhenFull);
+            mLog = new RotatingLog(mOutputDirectory, mSerialNumber.replaceAll("\\W", "_"),
+                    mMaxFileSize, mMaxFilesPerDevice);
+        }
+
+        /** Opens the adb connection and starts logcat, on a pool thread. */
+        void connect(long delayMs) {
+            if (mChannel != null || !mConnecting.compareAndSet(false, true)) {
+                return;
+            }
+
+            mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (mRunning && mDevice.isOnline()) {
+                            register(openLogcat());
+                        }
+                    } catch (Exception e) {
+                        Log.w(LOG_TAG, String.format("Failed to start logcat on %1$s: %2$s",
+                                mSerialNumber, e.getMessage()));
+                        mConnecting.set(false);
+                        reconnectIfOnline();
+                        return;
+                    }
+                    mConnecting.set(false);
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        }
+
+        private SocketChannel openLogcat()
+                throws IOException, TimeoutException, AdbCommandRejectedException {
+            SocketChannel chan = SocketChannel.open(AndroidDebugBridge.getSocketAddress());
+            try {
+                chan.configureBlocking(false);
+                AdbHelper.setDevice(chan, mDevice);
+
+                AdbHelper.write(chan, AdbHelper.formAdbRequest("shell:" + mLogcatCommand));
+                AdbResponse resp = AdbHelper.readAdbResponse(chan, false /* readDiagString */);
+                if (!resp.okay) {
+                    throw new AdbCommandRejectedException(resp.message);
+                }
+            } catch (IOException e) {
+                chan.close();
+                throw e;
+            } catch (TimeoutException e) {
+                chan.close();
+                throw e;
+            } catch (AdbCommandRejectedException e) {
+                chan.close();
+                throw e;
+            }
+            return chan;
+        }
+
+        private void register(final SocketChannel chan) {
+            mChannel = chan;
+            if (!mRunning) {
+                // stop() ran while logcat was being started, and may not have seen the
+                // channel. The reader thread is gone or going.
+                closeChannel();
+                return;
+            }
+            runOnSelectorThread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // a new connection stays paused until the queue drains.
+                        mKey = chan.register(mSelector,
+                                mQueue.isPaused() ? 0 : SelectionKey.OP_READ, DeviceStream.this);
+                    } catch (ClosedChannelException e) {
+                        // closed while being registered, e.g. device disconnected.
+                    }
+                }
+            });
+        }
+
+        private void reconnectIfOnline() {
+            if (mRunning && mDevice.isOnline()) {
+                connect(RECONNECT_DELAY_MS);
+            }
+        }
+
+        /** Reads available output from the channel. Called on the reader thread. */
+        void read(SelectionKey key, ByteBuffer buf) {
+            int count;
+            try {
+                buf.clear();
+                count = ((SocketChannel) key.channel()).read(buf);
+            } catch (IOException e) {
+                count = -1;
+            }
+
+            if (count < 0) {
+                // logcat exited, or the device went away.
+                key.cancel();
+                closeChannel();
+                reconnectIfOnline();
+                return;
+            }
+
+            if (count == 0) {
+                return;
+            }
+
+            byte[] chunk = new byte[count];
+            buf.flip();
+            buf.get(chunk);
+            mBytesReceived.addAndGet(count);
+
+            if (!mQueue.offer(chunk)) {
+                // stop reading until the writers drain the queue. Further output stays in the
+                // socket, so that adb stops sending it.
+                key.interestOps(0);
+            }
+
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (mDrainScheduled.compareAndSet(false, true)) {
+                try {
+                    mExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            mDrainScheduled.set(false);
+                            drain();
+                            if (mQueue.size() > 0) {
+                                scheduleDrain();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // stopping, the final drain is done by stop().
+                    mDrainScheduled.set(false);
+                }
+            }
+        }
+
+        /** Writes all queued chunks to the output file. Called on a pool thread. */
+        synchronized void drain() {
+            byte[] chunk;
+            while ((chunk = mQueue.poll()) != null) {
+                write(chunk);
+
+                if (mRunning && mQueue.needsResume()) {
+                    resumeReading();
+                }
+            }
+        }
+
+        /**
+         * Writes the remaining output, including the chunk held back by a pause, and closes
+         * the file. Called once the reader thread is stopped.
+         */
+        synchronized void finish() {
+            drain();
+            byte[] pending = mQueue.takePending();
+            if (pending != null) {
+                write(pending);
+            }
+            mLog.close();
+        }
+
+        private void write(byte[] chunk) {
+            try {
+                mLog.write(chunk);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, e);
+                mLog.close();
+            }
+        }
+
+        private void resumeReading() {
+            runOnSelectorThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (mQueue.resume()) {
+                        scheduleDrain();
+                        if (mKey != null && mKey.isValid()) {
+                            mKey.interestOps(SelectionKey.OP_READ);
+                        }
+                    }
+                }
+            });
+        }
+
+        void closeChannel() {
+            SocketChannel chan = mChannel;
+            mChannel = null;
+            if (chan != null) {
+                try {
+                    chan.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * The bounded queue of chunks of one device, between the reader thread which offers them
+     * and the writer which polls them.
+     * <p/>
+     * When the queue is full, the chunk is either dropped, or held back and the queue is
+     * paused: the reader stops reading until {@link #needsResume()} tells the writer, once the
+     * queue is half empty, to have the reader call {@link #resume()}. A pause only requests
+     * one resume.
+     */
+    static final class ChunkQueue {
+        private final BlockingQueue<byte[]> mQueue;
+        private final int mCapacity;
+        private final boolean mDropWhenFull;
+
+        private final AtomicBoolean mPaused = new AtomicBoolean();
+        private final AtomicBoolean mResumeRequested = new AtomicBoolean();
+        /** the chunk held back by a pause. Only accessed from the reader thread. */
+        private byte[] mPendingChunk;
+
+        private final AtomicLong mChunksDropped = new AtomicLong();
+        private final AtomicLong mStalls = new AtomicLong();
+
+        ChunkQueue(int capacity, boolean dropWhenFull) {
+            mQueue = new ArrayBlockingQueue<byte[]>(capacity);
+            mCapacity = capacity;
+            mDropWhenFull = dropWhenFull;
+        }
+
+        /**
+         * Queues a chunk. Called on the reader thread.
+         * @return false if the queue is full and reading must pause.
+         */
+        boolean offer(byte[] chunk) {
+            if (mQueue.offer(chunk)) {
+                return true;
+            }
+            if (mDropWhenFull) {
+                mChunksDropped.incrementAndGet();
+                return true;
+            }
+
+            // pause before checking again, so that a writer emptying the queue meanwhile
+            // sees the pause and requests a resume.
+            mPendingChunk = chunk;
+            mPaused.set(true);
+            if (mQueue.offer(chunk)) {
+                mPendingChunk = null;
+                mPaused.set(false);
+                return true;
+            }
+            mStalls.incrementAndGet();
+            return false;
+        }
+
+        /** Takes the next chunk, or null if the queue is empty. Called on the writer. */
+        byte[] poll() {
+            return mQueue.poll();
+        }
+
+        /**
+         * Returns true once per pause, when the queue is half empty and the reader should
+         * {@link #resume()}. Called on the writer.
+         */
+        boolean needsResume() {
+            return mPaused.get() && mQueue.size() <= mCapacity / 2
+                    && mResumeRequested.compareAndSet(false, true);
+        }
+
+        /**
+         * Queues the chunk held back by the pause, and ends it. Called on the reader thread.
+         * @return true if reading can resume, false if the queue is still full.
+         */
+        boolean resume() {
+            mResumeRequested.set(false);
+            if (!mPaused.get()) {
+                return false;
+            }
+            if (mPendingChunk != null) {
+                if (!mQueue.offer(mPendingChunk)) {
+                    return false;
+                }
+                mPendingChunk = null;
+            }
+            mPaused.set(false);
+            return true;
+        }
+
+        /** Returns whether reading is paused. */
+        boolean isPaused() {
+            return mPaused.get();
+        }
+
+        /**
+         * Returns and clears the chunk held back by a pause. Called once the reader thread
+         * is stopped.
+         */
+        byte[] takePending() {
+            byte[] chunk = mPendingChunk;
+            mPendingChunk = null;
+            return chunk;
+        }
+
+        int size() {
+            return mQueue.size();
+        }
+
+        long getChunksDropped() {
+            return mChunksDropped.get();
+        }
+
+        long getStalls() {
+            return mStalls.get();
+        }
+    }
+
+    /**
+     * The gzip compressed log files of one device. A file is rotated once it reaches the
+     * maximum size, at a line boundary if the chunk being written holds one, and only the
+     * most recent files are kept.
+     */
+    static final class RotatingLog {
+        private final File mDirectory;
+        private final String mPrefix;
+        private final long mMaxFileSize;
+        private final int mMaxFiles;
+
+        private OutputStream mOut;
+        private long mFileSize;
+        private volatile int mFileCount;
+        private final LinkedList<File> mFiles = new LinkedList<File>();
+        private final AtomicLong mBytesWritten = new AtomicLong();
+
+        RotatingLog(File directory, String prefix, long maxFileSize, int maxFiles) {
+            mDirectory = directory;
+            mPrefix = prefix;
+            mMaxFileSize = maxFileSize;
+            mMaxFiles = maxFiles;
+        }
+
+        synchronized void write(byte[] chunk) throws IOException {
+            int offset = 0;
+            if (mOut != null && mFileSize + chunk.length > mMaxFileSize) {
+                // rotate at a line boundary, so that each file only holds complete lines
+                int eol = lastIndexOf(chunk, (byte) '\n');
+                if (eol != -1) {
+                    offset = eol + 1;
+                    mOut.write(chunk, 0, offset);
+                    mBytesWritten.addAndGet(offset);
+                }
+                close();
+                if (offset == chunk.length) {
+                    // the next file is created by the next write.
+                    return;
+                }
+            }
+
+            if (mOut == null) {
+                openFile();
+            }
+
+            mOut.write(chunk, offset, chunk.length - offset);
+            mFileSize += chunk.length - offset;
+            mBytesWritten.addAndGet(chunk.length - offset);
+        }
+
+        private void openFile() throws IOException {
+            String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+            File f = new File(mDirectory, String.format("%1$s-%2$s-%3$d%4$s", //$NON-NLS-1$
+                    mPrefix, timestamp, mFileCount, FILE_SUFFIX));
+            mOut = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+            mFileSize = 0;
+            mFileCount++;
+
+            mFiles.add(f);
+            while (mFiles.size() > mMaxFiles) {
+                mFiles.removeFirst().delete();
+            }
+        }
+
+        synchronized void close() {
+            if (mOut != null) {
+                try {
+                    mOut.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, e);
+                }
+                mOut = null;
+            }
+        }
+
+        /** Returns the files kept, oldest first. */
+        synchronized List<File> getFiles() {
+            return new ArrayList<File>(mFiles);
+        }
+
+        /** Returns the number of files created. */
+        int getFileCount() {
+            return mFileCount;
+        }
+
+        /** Returns the number of bytes written, before compression. */
+        long getBytesWritten() {
+            return mBytesWritten.get();
+        }
+    }
+
+    private static int lastIndexOf(byte[] data, byte b) {
+        for (int i = data.length - 1; i >= 0; i--) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -16,9 +16,9 @@
 
 package com.android.ddmlib;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -28,6 +28,9 @@ import java.util.regex.Pattern;
  * <p/>Contains number of allocations, their size and the stack trace.
  * <p/>Note: the ddmlib does not resolve the stack trace automatically. While this class provides
  * storage for resolved stack trace, this is merely for convenience.
+ * <p/>The stack call addresses are either interned in a {@link NativeStackArena} shared by the
+ * allocations of a snapshot, or kept in a primitive array when added one by one. The hash
+ * code is computed once.
  */
 public final class NativeAllocationInfo {
     /* Keywords used as delimiters in the string representation of a NativeAllocationInfo */
@@ -62,7 +65,15 @@ public final class NativeAllocationInfo {
 
     private final int mAllocations;
 
-    private final ArrayList<Long> mStackCallAddresses = new ArrayList<Long>();
+    /** shared storage of the stack call, or null if the addresses are kept locally. */
+    private NativeStackArena mArena;
+    private int mStackId;
+
+    private long[] mLocalAddresses;
+    private int mLocalCount;
+
+    private int mHashCode;
+    private boolean mHashCodeValid = false;
 
     private ArrayList<NativeStackCallInfo> mResolvedStackCall = null;
 
@@ -79,12 +90,39 @@ public final class NativeAllocationInfo {
         this.mAllocations = allocations;
     }
 
+    /**
+     * Constructs a new {@link NativeAllocationInfo} with a stack call stored in an arena.
+     * @param size The size of the allocations.
+     * @param allocations the allocation count
+     * @param arena the arena holding the stack call
+     * @param stackId the id of the stack call in the arena, from
+     * {@link NativeStackArena#intern(long[], int, int)}.
+     */
+    public NativeAllocationInfo(int size, int allocations, NativeStackArena arena, int stackId) {
+        this(size, allocations);
+        mArena = arena;
+        mStackId = stackId;
+    }
+
     /**
      * Adds a stack call address for this allocation.
      * @param address The address to add.
      */
     public void addStackCallAddress(long address) {
-        mStackCallAddresses.add(address);
+        if (mArena != null) {
+            // detach from the arena, which cannot be modified.
+            mLocalAddresses = mArena.getFrames(mStackId);
+            mLocalCount = mLocalAddresses.length;
+            mArena = null;
+        }
+
+        if (mLocalAddresses == null) {
+            mLocalAddresses = new long[8];
+        } else if (mLocalCount == mLocalAddresses.length) {
+            mLocalAddresses = Arrays.copyOf(mLocalAddresses, mLocalCount * 2);
+        }
+        mLocalAddresses[mLocalCount++] = address;
+        mHashCodeValid = false;
     }
 
     /**
@@ -119,10 +157,41 @@ public final class NativeAllocationInfo {
 
     /**
      * Returns the stack call of this allocation as raw addresses.
-     * @return the list of addresses where the allocation happened.
+     * @return a read-only view of the addresses where the allocation happened.
      */
     public List<Long> getStackCallAddresses() {
-        return mStackCallAddresses;
+        return new AbstractList<Long>() {
+            @Override
+            public Long get(int index) {
+                return getStackCallAddress(index);
+            }
+
+            @Override
+            public int size() {
+                return getStackCallAddressCount();
+            }
+        };
+    }
+
+    /**
+     * Returns the number of addresses in the stack call of this allocation.
+     */
+    public int getStackCallAddressCount() {
+        return mArena != null ? mArena.getLength(mStackId) : mLocalCount;
+    }
+
+    /**
+     * Returns an address of the stack call of this allocation.
+     * @param index the index of the address, from 0 to {@link #getStackCallAddressCount()}.
+     */
+    public long getStackCallAddress(int index) {
+        if (mArena != null) {
+            return mArena.getFrame(mStackId, index);
+        }
+        if (index >= mLocalCount) {
+            throw new IndexOutOfBoundsException();
+        }
+        return mLocalAddresses[index];
     }
 
     /**
@@ -170,17 +239,24 @@ public final class NativeAllocationInfo {
             return true;
         if (obj instanceof NativeAllocationInfo) {
             NativeAllocationInfo mi = (NativeAllocationInfo)obj;
-            // quick compare of size, alloc, and stackcall size
+            // quick compare of size, alloc, and hash code
             if (mSize != mi.mSize || mAllocations != mi.mAllocations ||
-                    mStackCallAddresses.size() != mi.mStackCallAddresses.size()) {
+                    hashCode() != mi.hashCode()) {
                 return false;
             }
+
+            // interned stack calls are equal if and only if their ids are.
+            if (mArena != null && mArena == mi.mArena) {
+                return mStackId == mi.mStackId;
+            }
+
             // compare the stack addresses
-            int count = mStackCallAddresses.size();
+            int count = getStackCallAddressCount();
+            if (count != mi.getStackCallAddressCount()) {
+                return false;
+            }
             for (int i = 0 ; i < count ; i++) {
-                long a = mStackCallAddresses.get(i);
-                long b = mi.mStackCallAddresses.get(i);
-                if (a != b) {
+                if (getStackCallAddress(i) != mi.getStackCallAddress(i)) {
                     return false;
                 }
             }
@@ -193,6 +269,10 @@ public final class NativeAllocationInfo {
 
     @Override
     public int hashCode() {
+        if (mHashCodeValid) {
+            return mHashCode;
+        }
+
         // Follow Effective Java's recipe re hash codes.
         // Includes all the fields looked at by equals().
 
@@ -200,12 +280,15 @@ public final class NativeAllocationInfo {
 
         result = 31 * result + mSize;
         result = 31 * result + mAllocations;
-        result = 31 * result + mStackCallAddresses.size();
-
-        for (long addr : mStackCallAddresses) {
-            result = 31 * result + (int) (addr ^ (addr >>> 32));
+        result = 31 * result + getStackCallAddressCount();
+        if (mArena != null) {
+            result = 31 * result + mArena.getHash(mStackId);
+        } else {
+            result = 31 * result + NativeStackArena.hash(mLocalAddresses, 0, mLocalCount);
         }
 
+        mHashCode = result;
+        mHashCodeValid = true;
         return result;
     }
 
@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import com.android.ddmlib.AndroidDebugBridge.IClientChangeListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Series of native heap snapshots of a {@link Client}, to find the call sites whose native
+ * memory keeps growing.
+ * <p/>
+ * The tracker requests the native heap information (NHGT) of the client periodically, and
+ * records each response as a snapshot. The backtraces of all the snapshots are interned in
+ * one {@link NativeStackArena}, and a snapshot only stores, for each backtrace, the total
+ * size and number of its allocations. Snapshots can also be added directly, for instance
+ * from imported dumps.
+ * <p/>
+ * The growth of a call site is the slope of the least squares line through its total size in
+ * the most recent snapshots, a call site missing from a snapshot having a size of 0.
+ * <p/>
+ * Backtraces are kept in the arena after their snapshots are dropped.
+ */
+public final class NativeHeapTracker {
+
+    /**
+     * Growth of the native memory allocated from one backtrace.
+     */
+    public final static class CallSiteTrend {
+        private final long[] mAddresses;
+        private final double mBytesPerSecond;
+        private final long mLastSize;
+        private final int mLastAllocationCount;
+        private final int mSnapshotCount;
+
+        CallSiteTrend(long[] addresses, double bytesPerSecond, long lastSize,
+                int lastAllocationCount, int snapshotCount) {
+            mAddresses = addresses;
+            mBytesPerSecond = bytesPerSecond;
+            mLastSize = lastSize;
+            mLastAllocationCount = lastAllocationCount;
+            mSnapshotCount = snapshotCount;
+        }
+
+        /** Returns the addresses of the backtrace. */
+        public long[] getStackCallAddresses() {
+            return mAddresses.clone();
+        }
+
+        /** Returns the growth of the total size of the allocations, in bytes per second. */
+        public double getBytesPerSecond() {
+            return mBytesPerSecond;
+        }
+
+        /** Returns the total size of the allocations in the most recent snapshot. */
+        public long getLastSize() {
+            return mLastSize;
+        }
+
+        /** Returns the number of allocations in the most recent snapshot. */
+        public int getLastAllocationCount() {
+            return mLastAllocationCount;
+        }
+
+        /** Returns the number of snapshots in which the call site has allocations. */
+        public int getSnapshotCount() {
+            return mSnapshotCount;
+        }
+    }
+
+    /** allocations of one snapshot, aggregated per backtrace and sorted by stack id. */
+    private static final class Snapshot {
+        final long mTime;
+        final int[] mStackIds;
+        final long[] mSizes;
+        final int[] mCounts;
+        final long mTotalSize;
+
+        Snapshot(long time, int[] stackIds, long[] sizes, int[] counts, long totalSize) {
+            mTime = time;
+            mStackIds = stackIds;
+            mSizes = sizes;
+            mCounts = counts;
+            mTotalSize = totalSize;
+        }
+    }
+
+    private final Client mClient;
+    private final int mCapacity;
+
+    private final NativeStackArena mStacks = new NativeStackArena(1024);
+    private final List<Snapshot> mSnapshots = new ArrayList<Snapshot>();
+    private long[] mFrames = new long[32];
+
+    private ScheduledThreadPoolExecutor mExecutor;
+    private IClientChangeListener mListener;
+    private int mLastListCount;
+
+    /**
+     * Creates a tracker. The tracker does nothing until it is started.
+     * @param client the client to track, or null if snapshots are only added with
+     * {@link #addSnapshot(long, List)}.
+     * @param capacity the maximum number of snapshots kept.
+     */
+    public NativeHeapTracker(Client client, int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be >= 2"); //$NON-NLS-1$
+        }
+        mClient = client;
+        mCapacity = capacity;
+    }
+
+    /**
+     * Starts requesting the native heap information of the client.
+     * @param periodMsec the time between two snapshots, in ms.
+     */
+    public void start(long periodMsec) {
+        if (mClient == null) {
+            return;
+        }
+
+        // read outside of the lock of the tracker: onNativeHeapData() locks the client data
+        // first.
+        int listCount = mClient.getClientData().getNativeAllocationListCount();
+        synchronized (this) {
+            if (mExecutor == null) {
+                mLastListCount = listCount;
+                startPolling(periodMsec);
+            }
+        }
+    }
+
+    private void startPolling(long periodMsec) {
+        mListener = new IClientChangeListener() {
+            @Override
+            public void clientChanged(Client client, int changeMask) {
+                if (client == mClient
+                        && (changeMask & Client.CHANGE_NATIVE_HEAP_DATA) != 0) {
+                    onNativeHeapData(client.getClientData());
+                }
+            }
+        };
+        AndroidDebugBridge.addClientChangeListener(mListener);
+
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Native Heap Tracker"); //$NON-NLS-1$
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        mExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (mClient.isValid()) {
+                    mClient.requestNativeHeapInformation();
+                }
+            }
+        }, 0, periodMsec, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops requesting the native heap information. The snapshots are kept.
+     */
+    public synchronized void stop() {
+        if (mExecutor == null) {
+            return;
+        }
+
+        mExecutor.shutdownNow();
+        mExecutor = null;
+        AndroidDebugBridge.removeClientChangeListener(mListener);
+        mListener = null;
+    }
+
+    private void onNativeHeapData(ClientData cd) {
+        // the native heap segments also trigger CHANGE_NATIVE_HEAP_DATA, only record new
+        // allocation lists.
+        List<NativeAllocationInfo> allocations;
+        synchronized (cd) {
+            int count = cd.getNativeAllocationListCount();
+            synchronized (this) {
+                if (count == mLastListCount) {
+                    return;
+                }
+                mLastListCount = count;
+            }
+            allocations = new ArrayList<NativeAllocationInfo>(cd.getNativeAllocationList());
+        }
+        addSnapshot(System.currentTimeMillis(), allocations);
+    }
+
+    /**
+     * Adds a snapshot. If the tracker already holds its maximum number of snapshots, the
+     * oldest one is dropped.
+     * @param time the time of the snapshot, in ms. Snapshots must be added in time order.
+     * @param allocations the allocations of the snapshot.
+     */
+    public synchronized void addSnapshot(long time, List<NativeAllocationInfo> allocations) {
+        int[] stackIds = new int[allocations.size()];
+        for (int i = 0 ; i < stackIds.length ; i++) {
+            NativeAllocationInfo info = allocations.get(i);
+            int length = info.getStackCallAddressCount();
+            if (length > mFrames.length) {
+                mFrames = new long[Math.max(length, mFrames.length * 2)];
+            }
+            for (int j = 0 ; j < length ; j++) {
+                mFrames[j] = info.getStackCallAddress(j);
+            }
+            stackIds[i] = mStacks.intern(mFrames, 0, length);
+        }
+
+        // aggregate per backtrace. Stack ids are dense, so a table indexed by id also sorts.
+        int stackCount = mStacks.getStackCount();
+        long[] sizes = new long[stackCount];
+        int[] counts = new int[stackCount];
+        long totalSize = 0;
+        int distinct = 0;
+        for (int i = 0 ; i < stackIds.length ; i++) {
+            NativeAllocationInfo info = allocations.get(i);
+            int id = stackIds[i];
+            if (counts[id] == 0) {
+                distinct++;
+            }
+            long size = (long)info.getSize() * info.getAllocationCount();
+            sizes[id] += size;
+            counts[id] += info.getAllocationCount();
+            totalSize += size;
+        }
+
+        int[] ids = new int[distinct];
+        long[] snapshotSizes = new long[distinct];
+        int[] snapshotCounts = new int[distinct];
+        int n = 0;
+        for (int id = 0 ; id < stackCount ; id++) {
+            if (counts[id] != 0) {
+                ids[n] = id;
+                snapshotSizes[n] = sizes[id];
+                snapshotCounts[n] = counts[id];
+                n++;
+            }
+        }
+
+        if (mSnapshots.size() == mCapacity) {
+            mSnapshots.remove(0);
+        }
+        mSnapshots.add(new Snapshot(time, ids, snapshotSizes, snapshotCounts, totalSize));
+    }
+
+    /** Returns the number of snapshots kept. */
+    public synchronized int getSnapshotCount() {
+        return mSnapshots.size();
+    }
+
+    /** Returns the times of the snapshots, in ms, oldest first. */
+    public synchronized long[] getSnapshotTimes() {
+        long[] times = new long[mSnapshots.size()];
+        for (int i = 0 ; i < times.length ; i++) {
+            times[i] = mSnapshots.get(i).mTime;
+        }
+        return times;
+    }
+
+    /** Returns the total size of the allocations of the snapshots, oldest first. */
+    public synchronized long[] getTotalSizes() {
+        long[] sizes = new long[mSnapshots.size()];
+        for (int i = 0 ; i < sizes.length ; i++) {
+            sizes[i] = mSnapshots.get(i).mTotalSize;
+        }
+        return sizes;
+    }
+
+    /** Returns the number of distinct backtraces seen. */
+    public int getStackCount() {
+        return mStacks.getStackCount();
+    }
+
+    /**
+     * Returns the growth of every call site with allocations in the most recent snapshots,
+     * by decreasing growth.
+     * @param snapshotCount the number of most recent snapshots to use.
+     * @return the trends, empty if there are less than 2 snapshots.
+     */
+    public synchronized List<CallSiteTrend> getCallSiteTrends(int snapshotCount) {
+        return getTrends(snapshotCount, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Returns the call sites whose allocations grow by at least a given rate over the most
+     * recent snapshots, by decreasing growth.
+     * @param snapshotCount the number of most recent snapshots to use.
+     * @param minBytesPerSecond the minimum growth, in bytes per second.
+     */
+    public synchronized List<CallSiteTrend> getGrowingCallSites(int snapshotCount,
+            double minBytesPerSecond) {
+        return getTrends(snapshotCount, minBytesPerSecond);
+    }
+
+    private List<CallSiteTrend> getTrends(int snapshotCount, double minBytesPerSecond) {
+        int n = Math.min(snapshotCount, mSnapshots.size());
+        if (n < 2) {
+            return new ArrayList<CallSiteTrend>();
+        }
+
+        List<Snapshot> snapshots = mSnapshots.subList(mSnapshots.size() - n, mSnapshots.size());
+        long t0 = snapshots.get(0).mTime;
+
+        // sums over all the snapshots, and per stack. Missing stacks have a size of 0 so
+        // they add nothing to the per stack sums.
+        double sumT = 0;
+        double sumTT = 0;
+        int stackCount = mStacks.getStackCount();
+        double[] sumS = new double[stackCount];
+        double[] sumTS = new double[stackCount];
+        int[] present = new int[stackCount];
+        for (Snapshot snapshot : snapshots) {
+            double t = (snapshot.mTime - t0) / 1000.;
+            sumT += t;
+            sumTT += t * t;
+            for (int i = 0 ; i < snapshot.mStackIds.length ; i++) {
+                int id = snapshot.mStackIds[i];
+                sumS[id] += snapshot.mSizes[i];
+                sumTS[id] += t * snapshot.mSizes[i];
+                present[id]++;
+            }
+        }
+
+        double denominator = n * sumTT - sumT * sumT;
+        if (denominator == 0) {
+            return new ArrayList<CallSiteTrend>();
+        }
+
+        Snapshot last = snapshots.get(n - 1);
+        List<CallSiteTrend> trends = new ArrayList<CallSiteTrend>();
+        for (int id = 0 ; id < stackCount ; id++) {
+            if (present[id] == 0) {
+                continue;
+            }
+            double slope = (n * sumTS[id] - sumT * sumS[id]) / denominator;
+            if (slope < minBytesPerSecond) {
+                continue;
+            }
+
+            long lastSize = 0;
+            int lastCount = 0;
+            int index = Arrays.binarySearch(last.mStackIds, id);
+            if (index >= 0) {
+                lastSize = last.mSizes[index];
+                lastCount = last.mCounts[index];
+            }
+            trends.add(new CallSiteTrend(mStacks.getFrames(id), slope, lastSize, lastCount,
+                    present[id]));
+        }
+
+        Collections.sort(trends, new Comparator<CallSiteTrend>() {
+            @Override
+            public int compare(CallSiteTrend o1, CallSiteTrend o2) {
+                return Double.compare(o2.mBytesPerSecond, o1.mBytesPerSecond);
+            }
+        });
+        return trends;
+    }
+
+    /** Removes all the snapshots. */
+    public synchronized void clear() {
+        mSnapshots.clear();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable index of the address ranges of native libraries, to find the library containing
+ * an address with a binary search.
+ * <p/>
+ * The ranges are sorted by start address in primitive arrays. Ranges may overlap, in which
+ * case the range with the highest start address containing the address wins.
+ */
+public final class NativeLibraryMapIndex {
+
+    private final NativeLibraryMapInfo[] mLibraries;
+    private final long[] mStarts;
+    /** max end address of the ranges up to each index, to bound the search of overlaps. */
+    private final long[] mMaxEnds;
+
+    /**
+     * Creates an index.
+     * @param libraries the libraries, in any order.
+     */
+    public NativeLibraryMapIndex(List<NativeLibraryMapInfo> libraries) {
+        mLibraries = libraries.toArray(new NativeLibraryMapInfo[libraries.size()]);
+        Arrays.sort(mLibraries, new Comparator<NativeLibraryMapInfo>() {
+            @Override
+            public int compare(NativeLibraryMapInfo o1, NativeLibraryMapInfo o2) {
+                long a = o1.getStartAddress();
+                long b = o2.getStartAddress();
+                return a < b ? -1 : (a == b ? 0 : 1);
+            }
+        });
+
+        mStarts = new long[mLibraries.length];
+        mMaxEnds = new long[mLibraries.length];
+        long maxEnd = Long.MIN_VALUE;
+        for (int i = 0 ; i < mLibraries.length ; i++) {
+            mStarts[i] = mLibraries[i].getStartAddress();
+            maxEnd = Math.max(maxEnd, mLibraries[i].getEndAddress());
+            mMaxEnds[i] = maxEnd;
+        }
+    }
+
+    /**
+     * Returns the number of libraries.
+     */
+    public int size() {
+        return mLibraries.length;
+    }
+
+    /**
+     * Returns the libraries, sorted by start address.
+     */
+    public List<NativeLibraryMapInfo> getLibraries() {
+        return Collections.unmodifiableList(Arrays.asList(mLibraries));
+    }
+
+    /**
+     * Returns the library containing an address, or null if there is none.
+     * @see NativeLibraryMapInfo#isWithinLibrary(long)
+     */
+    public NativeLibraryMapInfo getLibrary(long address) {
+        // last range starting at or before the address.
+        int low = 0;
+        int high = mStarts.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mStarts[mid] <= address) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        for (int i = high ; i >= 0 && mMaxEnds[i] >= address ; i--) {
+            if (mLibraries[i].getEndAddress() >= address) {
+                return mLibraries[i];
+            }
+        }
+        return null;
+    }
+}
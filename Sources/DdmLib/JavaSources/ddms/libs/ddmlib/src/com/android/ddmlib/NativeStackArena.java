@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.util.Arrays;
+
+/**
+ * Shared storage for the native backtraces of a set of {@link NativeAllocationInfo}.
+ * <p/>
+ * The frames of all the backtraces are stored in a single primitive array, and identical
+ * backtraces are interned: they are stored once and get the same id. The hash of each
+ * backtrace is computed once when it is interned.
+ * <p/>
+ * Since allocations of the same call site usually share their backtrace, a snapshot of a few
+ * hundred thousand allocations only stores a few thousand backtraces.
+ */
+public final class NativeStackArena {
+
+    private long[] mFrames;
+    private int mFrameCount;
+
+    /** start of each stack in mFrames. The length is up to the start of the next one. */
+    private int[] mStarts;
+    private int[] mHashes;
+    private int mStackCount;
+
+    /** open addressing table of stack id + 1, 0 for empty slots. */
+    private int[] mTable;
+
+    /**
+     * Creates an arena.
+     * @param expectedStacks the expected number of distinct backtraces.
+     */
+    public NativeStackArena(int expectedStacks) {
+        int capacity = Math.max(16, expectedStacks);
+        mFrames = new long[capacity * 4];
+        mStarts = new int[capacity + 1];
+        mHashes = new int[capacity];
+        mTable = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+    }
+
+    /**
+     * Computes the hash of a backtrace, as stored by the arena.
+     */
+    public static int hash(long[] frames, int offset, int length) {
+        int result = 17;
+        for (int i = offset ; i < offset + length ; i++) {
+            long addr = frames[i];
+            result = 31 * result + (int) (addr ^ (addr >>> 32));
+        }
+        return result;
+    }
+
+    /**
+     * Interns a backtrace.
+     * @param frames the array holding the addresses of the backtrace
+     * @param offset the offset of the backtrace in the array
+     * @param length the number of addresses
+     * @return the id of the backtrace in the arena. Identical backtraces get the same id.
+     */
+    public synchronized int intern(long[] frames, int offset, int length) {
+        int hash = hash(frames, offset, length);
+
+        int mask = mTable.length - 1;
+        int slot = mix(hash) & mask;
+        while (mTable[slot] != 0) {
+            int id = mTable[slot] - 1;
+            if (mHashes[id] == hash && equals(id, frames, offset, length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int id = mStackCount;
+        if (id + 1 >= mStarts.length) {
+            mStarts = Arrays.copyOf(mStarts, mStarts.length * 2);
+            mHashes = Arrays.copyOf(mHashes, mStarts.length);
+        }
+        if (mFrameCount + length > mFrames.length) {
+            mFrames = Arrays.copyOf(mFrames, Math.max(mFrames.length * 2, mFrameCount + length));
+        }
+
+        System.arraycopy(frames, offset, mFrames, mFrameCount, length);
+        mStarts[id] = mFrameCount;
+        mFrameCount += length;
+        mStarts[id + 1] = mFrameCount;
+        mHashes[id] = hash;
+        mStackCount++;
+
+        mTable[slot] = id + 1;
+        if (mStackCount * 2 > mTable.length) {
+            rehash();
+        }
+
+        return id;
+    }
+
+    /** Returns the number of distinct backtraces. */
+    public synchronized int getStackCount() {
+        return mStackCount;
+    }
+
+    /** Returns the total number of addresses stored. */
+    public synchronized int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /** Returns the number of addresses of a backtrace. */
+    public synchronized int getLength(int id) {
+        return mStarts[id + 1] - mStarts[id];
+    }
+
+    /** Returns an address of a backtrace. */
+    public synchronized long getFrame(int id, int index) {
+        return mFrames[mStarts[id] + index];
+    }
+
+    /** Returns the hash of a backtrace. */
+    public synchronized int getHash(int id) {
+        return mHashes[id];
+    }
+
+    /** Returns a copy of the addresses of a backtrace. */
+    public synchronized long[] getFrames(int id) {
+        return Arrays.copyOfRange(mFrames, mStarts[id], mStarts[id + 1]);
+    }
+
+    /**
+     * Returns whether a backtrace is equal to a list of addresses.
+     */
+    public synchronized boolean equals(int id, long[] frames, int offset, int length) {
+        int start = mStarts[id];
+        if (mStarts[id + 1] - start != length) {
+            return false;
+        }
+        for (int i = 0 ; i < length ; i++) {
+            if (mFrames[start + i] != frames[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        int[] table = new int[mTable.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0 ; id < mStackCount ; id++) {
+            int slot = mix(mHashes[id]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+        mTable = table;
+    }
+
+    /** spreads the bits of the hash, as backtraces often only differ in their last frames. */
+    private static int mix(int hash) {
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        return hash ^ (hash >>> 13);
+    }
+}
@@ -22,6 +22,9 @@ import java.nio.ByteBuffer;
  * Data representing an image taken from a device frame buffer.
  */
 public final class RawImage {
+    /** size of the square tiles used to rotate images. */
+    private static final int ROTATION_TILE_SIZE = 32;
+
     public int version;
     public int bpp;
     public int size;
@@ -132,7 +135,17 @@ public final class RawImage {
      * The image is rotated counter-clockwise.
      */
     public RawImage getRotated() {
-        RawImage rotated = new RawImage();
+        return rotateInto(new RawImage());
+    }
+
+    /**
+     * Rotates the image counter-clockwise into another image.
+     * <p/>The data of <var>rotated</var> is reused if its size matches, so a pair of images
+     * can be rotated repeatedly without allocating.
+     * @param rotated the image receiving the rotated image. It must not be this image.
+     * @return <var>rotated</var>
+     */
+    public RawImage rotateInto(RawImage rotated) {
         rotated.version = this.version;
         rotated.bpp = this.bpp;
         rotated.size = this.size;
@@ -149,23 +162,126 @@ public final class RawImage {
         rotated.height = this.width;
 
         int count = this.data.length;
-        rotated.data = new byte[count];
+        if (rotated.data == null || rotated.data.length != count) {
+            rotated.data = new byte[count];
+        }
 
-        int byteCount = this.bpp >> 3; // bpp is in bits, we want bytes to match our array
+        final byte[] src = this.data;
+        final byte[] dst = rotated.data;
+        final int byteCount = this.bpp >> 3; // bpp is in bits, we want bytes to match our array
         final int w = this.width;
         final int h = this.height;
-        for (int y = 0 ; y < h ; y++) {
-            for (int x = 0 ; x < w ; x++) {
-                System.arraycopy(
-                        this.data, (y * w + x) * byteCount,
-                        rotated.data, ((w-x-1) * h + y) * byteCount,
-                        byteCount);
+        final int srcStride = w * byteCount;
+
+        // Source column x becomes destination row (w - x - 1). Work on square tiles so that
+        // the source rows of a tile stay in the cache while its columns are written out.
+        for (int y0 = 0 ; y0 < h ; y0 += ROTATION_TILE_SIZE) {
+            final int y1 = Math.min(y0 + ROTATION_TILE_SIZE, h);
+            for (int x0 = 0 ; x0 < w ; x0 += ROTATION_TILE_SIZE) {
+                final int x1 = Math.min(x0 + ROTATION_TILE_SIZE, w);
+                for (int x = x0 ; x < x1 ; x++) {
+                    int s = (y0 * w + x) * byteCount;
+                    int d = ((w - x - 1) * h + y0) * byteCount;
+                    int n = y1 - y0;
+                    if (byteCount == 4) {
+                        for ( ; n > 0 ; n--, s += srcStride, d += 4) {
+                            dst[d] = src[s];
+                            dst[d + 1] = src[s + 1];
+                            dst[d + 2] = src[s + 2];
+                            dst[d + 3] = src[s + 3];
+                        }
+                    } else if (byteCount == 2) {
+                        for ( ; n > 0 ; n--, s += srcStride, d += 2) {
+                            dst[d] = src[s];
+                            dst[d + 1] = src[s + 1];
+                        }
+                    } else {
+                        for ( ; n > 0 ; n--, s += srcStride, d += byteCount) {
+                            for (int b = 0 ; b < byteCount ; b++) {
+                                dst[d + b] = src[s + b];
+                            }
+                        }
+                    }
+                }
             }
         }
 
         return rotated;
     }
 
+    /**
+     * Converts all the pixels of the image to ARGB integer values, as returned by
+     * {@link #getARGB(int)}.
+     * <p/>The channel masks and shifts are computed once for the whole image.
+     * <p/>This is for callers which need ARGB pixels, e.g. to fill a
+     * <code>java.awt.image.BufferedImage</code>. Callers which can use {@link #data} as is,
+     * with the channel masks, need no conversion.
+     * @param argb the array receiving the pixels, row by row. It is used if it can hold
+     * <code>width * height</code> values, otherwise a new array is allocated. Can be null.
+     * @return the array holding the pixels.
+     */
+    public int[] toARGB(int[] argb) {
+        final int count = width * height;
+        if (argb == null || argb.length < count) {
+            argb = new int[count];
+        }
+
+        final byte[] d = data;
+        final int rOffset = red_offset;
+        final int rMask = getMask(red_length);
+        final int rShift = 8 - red_length;
+        final int gOffset = green_offset;
+        final int gMask = getMask(green_length);
+        final int gShift = 8 - green_length;
+        final int bOffset = blue_offset;
+        final int bMask = getMask(blue_length);
+        final int bShift = 8 - blue_length;
+        // force alpha to opaque if there's no alpha value in the framebuffer.
+        final int aOffset = alpha_offset;
+        final int aMask = alpha_length == 0 ? 0 : getMask(alpha_length);
+        final int aShift = 8 - alpha_length;
+        final int aForced = alpha_length == 0 ? 0xFF000000 : 0;
+
+        if (bpp == 16) {
+            for (int i = 0, index = 0 ; i < count ; i++, index += 2) {
+                int value = (d[index] & 0x00FF) | ((d[index + 1] << 8) & 0x0FF00);
+                argb[i] = aForced
+                        | (((value >>> aOffset) & aMask) << aShift) << 24
+                        | (((value >>> rOffset) & rMask) << rShift) << 16
+                        | (((value >>> gOffset) & gMask) << gShift) << 8
+                        | (((value >>> bOffset) & bMask) << bShift);
+            }
+        } else if (bpp == 32 && isByteAligned()) {
+            // each channel is one byte of the little endian pixel.
+            final int r = rOffset >> 3;
+            final int g = gOffset >> 3;
+            final int b = bOffset >> 3;
+            final int a = aOffset >> 3;
+            for (int i = 0, index = 0 ; i < count ; i++, index += 4) {
+                argb[i] = (aForced | (d[index + a] & aMask) << 24)
+                        | (d[index + r] & 0x00FF) << 16
+                        | (d[index + g] & 0x00FF) << 8
+                        | (d[index + b] & 0x00FF);
+            }
+        } else if (bpp == 32) {
+            for (int i = 0, index = 0 ; i < count ; i++, index += 4) {
+                int value = (d[index] & 0x00FF)
+                        | (d[index + 1] & 0x00FF) << 8
+                        | (d[index + 2] & 0x00FF) << 16
+                        | (d[index + 3] & 0x00FF) << 24;
+                argb[i] = aForced
+                        | (((value >>> aOffset) & aMask) << aShift) << 24
+                        | (((value >>> rOffset) & rMask) << rShift) << 16
+                        | (((value >>> gOffset) & gMask) << gShift) << 8
+                        | (((value >>> bOffset) & bMask) << bShift);
+            }
+        } else {
+            throw new UnsupportedOperationException("RawImage.toARGB(int[]) only works in 16 and 32 bit mode.");
+        }
+
+        return argb;
+    }
+
     /**
      * Returns an ARGB integer value for the pixel at <var>index</var> in {@link #data}.
      */
@@ -196,6 +312,19 @@ public final class RawImage {
         return a << 24 | r << 16 | g << 8 | b;
     }
 
+    /**
+     * Returns whether the color channels are 8 bit long and byte aligned, with an optional
+     * alpha channel.
+     */
+    private boolean isByteAligned() {
+        return red_length == 8 && green_length == 8 && blue_length == 8
+                && (alpha_length == 8 || alpha_length == 0)
+                && (red_offset & 7) == 0 && (green_offset & 7) == 0
+                && (blue_offset & 7) == 0 && (alpha_offset & 7) == 0
+                && red_offset < 32 && green_offset < 32
+                && blue_offset < 32 && alpha_offset < 32;
+    }
+
     /**
      * creates a mask value based on a length and offset.
      * <p/>This value is compatible with org.eclipse.swt.graphics.PaletteData
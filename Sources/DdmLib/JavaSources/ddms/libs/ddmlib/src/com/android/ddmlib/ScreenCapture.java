@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.io.IOException;
+
+/**
+ * Continuous capture of the screen of a device, started with
+ * {@link IDevice#startScreenCapture(IScreenCaptureListener, int)}.
+ * <p/>
+ * Frames are captured on a dedicated thread at a target frame rate, and sent to a
+ * {@link IScreenCaptureListener}. The adb framebuffer service only sends one frame per
+ * connection, so each frame uses one connection, but the image data is read into one of two
+ * buffers used alternately instead of a new array per frame.
+ * <p/>
+ * The capture keeps statistics on the time taken to capture the frames.
+ */
+public final class ScreenCapture {
+
+    /**
+     * Classes which implement this interface provide methods that deal with the frames of a
+     * {@link ScreenCapture}.
+     */
+    public interface IScreenCaptureListener {
+        /**
+         * Sent when a frame was captured.
+         * <p/>
+         * This is sent from the capture thread. The data of the image is reused for the
+         * frame after the next one, so it must be copied to be kept longer.
+         * @param capture the capture.
+         * @param image the frame.
+         * @param frameNumber the number of the frame, starting at 0.
+         */
+        public void frameCaptured(ScreenCapture capture, RawImage image, int frameNumber);
+
+        /**
+         * Sent when a frame could not be captured. The capture is stopped.
+         * @param capture the capture.
+         * @param e the error.
+         */
+        public void captureFailed(ScreenCapture capture, Exception e);
+    }
+
+    private final Device mDevice;
+    private final IScreenCaptureListener mListener;
+    private final int mFramesPerSecond;
+    private final long mPeriodNanos;
+
+    /** the two buffers the frames are read into. */
+    private final byte[][] mBuffers = new byte[2][];
+
+    private Thread mThread;
+    private volatile boolean mStopped;
+
+    private int mFrameCount;
+    private int mLateFrameCount;
+    private long mStartNanos;
+    private long mLastFrameNanos;
+    private long mLastCaptureNanos;
+    private long mMaxCaptureNanos;
+    private long mTotalCaptureNanos;
+
+    ScreenCapture(Device device, IScreenCaptureListener listener, int framesPerSecond) {
+        mDevice = device;
+        mListener = listener;
+        mFramesPerSecond = framesPerSecond;
+        mPeriodNanos = framesPerSecond > 0 ? 1000000000L / framesPerSecond : 0;
+    }
+
+    synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+
+        mThread = new Thread("Screen Capture " + mDevice.getSerialNumber()) { //$NON-NLS-1$
+            @Override
+            public void run() {
+                capture();
+            }
+        };
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Stops the capture. The frame being captured, if any, is not sent to the listener.
+     */
+    public void stop() {
+        mStopped = true;
+    }
+
+    /**
+     * Returns whether the capture is running.
+     */
+    public boolean isRunning() {
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+        }
+        return thread != null && thread.isAlive() && !mStopped;
+    }
+
+    /**
+     * Returns the target frame rate, 0 if frames are captured as fast as possible.
+     */
+    public int getTargetFramesPerSecond() {
+        return mFramesPerSecond;
+    }
+
+    /**
+     * Returns the number of frames captured.
+     */
+    public synchronized int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Returns the number of frames which took longer than the target frame period to capture
+     * and deliver to the listener.
+     */
+    public synchronized int getLateFrameCount() {
+        return mLateFrameCount;
+    }
+
+    /**
+     * Returns the actual frame rate since the start of the capture.
+     */
+    public synchronized double getFramesPerSecond() {
+        if (mFrameCount == 0 || mLastFrameNanos == mStartNanos) {
+            return 0;
+        }
+        return mFrameCount * 1000000000. / (mLastFrameNanos - mStartNanos);
+    }
+
+    /**
+     * Returns the time taken to capture the last frame, in ms.
+     */
+    public synchronized double getLastCaptureTime() {
+        return mLastCaptureNanos / 1000000.;
+    }
+
+    /**
+     * Returns the average time taken to capture a frame, in ms.
+     */
+    public synchronized double getAverageCaptureTime() {
+        if (mFrameCount == 0) {
+            return 0;
+        }
+        return mTotalCaptureNanos / 1000000. / mFrameCount;
+    }
+
+    /**
+     * Returns the longest time taken to capture a frame, in ms.
+     */
+    public synchronized double getMaxCaptureTime() {
+        return mMaxCaptureNanos / 1000000.;
+    }
+
+    private void capture() {
+        long next = System.nanoTime();
+        synchronized (this) {
+            mStartNanos = next;
+        }
+
+        int frame = 0;
+        while (mStopped == false) {
+            long start = System.nanoTime();
+            RawImage image;
+            try {
+                image = AdbHelper.getFrameBuffer(AndroidDebugBridge.getSocketAddress(),
+                        mDevice, mBuffers[frame & 1]);
+                if (image == null) {
+                    throw new IOException("Unsupported framebuffer protocol");
+                }
+            } catch (TimeoutException e) {
+                fail(e);
+                return;
+            } catch (AdbCommandRejectedException e) {
+                fail(e);
+                return;
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+
+            if (mStopped) {
+                return;
+            }
+
+            long end = System.nanoTime();
+            mBuffers[frame & 1] = image.data;
+            synchronized (this) {
+                mFrameCount++;
+                mLastFrameNanos = end;
+                mLastCaptureNanos = end - start;
+                mMaxCaptureNanos = Math.max(mMaxCaptureNanos, mLastCaptureNanos);
+                mTotalCaptureNanos += mLastCaptureNanos;
+            }
+
+            try {
+                mListener.frameCaptured(this, image, frame);
+            } catch (Exception e) {
+                Log.e("ddms", e); //$NON-NLS-1$
+            }
+            frame++;
+
+            next += mPeriodNanos;
+            long now = System.nanoTime();
+            if (now > next) {
+                if (mPeriodNanos > 0) {
+                    synchronized (this) {
+                        mLateFrameCount++;
+                    }
+                }
+                next = now;
+            } else {
+                try {
+                    Thread.sleep((next - now) / 1000000, (int) ((next - now) % 1000000));
+                } catch (InterruptedException e) {
+                    // capture the next frame early.
+                }
+            }
+        }
+    }
+
+    private void fail(Exception e) {
+        if (mStopped == false) {
+            mStopped = true;
+            mListener.captureFailed(this, e);
+        }
+    }
+}
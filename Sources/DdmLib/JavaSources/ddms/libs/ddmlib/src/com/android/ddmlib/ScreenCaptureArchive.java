@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the screen captures written by a {@link ScreenCaptureArchiveWriter}.
+ * <p/>
+ * A frame is reconstructed from the previous key frame by applying the tiles of the frames
+ * in between. The last frame read is kept, so reading the frames in order, or scrubbing
+ * forward, only applies one delta per frame.
+ */
+public final class ScreenCaptureArchive {
+
+    private final RandomAccessFile mFile;
+    private final int mTileSize;
+    private final long[] mOffsets;
+    private final long[] mTimes;
+    private final byte[] mTypes;
+
+    private final Inflater mInflater = new Inflater();
+    private byte[] mDeflated = new byte[0];
+    private byte[] mRaw = new byte[0];
+
+    /** the last frame reconstructed, and its index. */
+    private RawImage mCurrent;
+    private int mCurrentIndex = -1;
+
+    /**
+     * Opens an archive.
+     * @param file the file to read.
+     * @throws IOException if the file cannot be read or is not a complete archive.
+     */
+    public ScreenCaptureArchive(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+        try {
+            if (mFile.readInt() != ScreenCaptureArchiveWriter.MAGIC) {
+                throw new IOException(String.format("%1$s is not a screen capture archive.",
+                        file.getPath()));
+            }
+            int version = mFile.readInt();
+            if (version != ScreenCaptureArchiveWriter.VERSION) {
+                throw new IOException(String.format(
+                        "Unsupported screen capture archive version: %1$d", version));
+            }
+            mTileSize = mFile.readInt();
+
+            long length = mFile.length();
+            mFile.seek(length - ScreenCaptureArchiveWriter.TRAILER_SIZE);
+            long indexOffset = mFile.readLong();
+            int frameCount = mFile.readInt();
+            if (mFile.readInt() != ScreenCaptureArchiveWriter.MAGIC) {
+                throw new IOException(String.format(
+                        "%1$s is incomplete: the archive was not closed.", file.getPath()));
+            }
+
+            byte[] index = new byte[frameCount * 17];
+            mFile.seek(indexOffset);
+            mFile.readFully(index);
+            ByteBuffer buf = ByteBuffer.wrap(index);
+            mOffsets = new long[frameCount];
+            mTimes = new long[frameCount];
+            mTypes = new byte[frameCount];
+            for (int i = 0 ; i < frameCount ; i++) {
+                mOffsets[i] = buf.getLong();
+                mTimes[i] = buf.getLong();
+                mTypes[i] = buf.get();
+            }
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of frames.
+     */
+    public int getFrameCount() {
+        return mOffsets.length;
+    }
+
+    /**
+     * Returns the time of a frame, in ms.
+     */
+    public long getFrameTime(int index) {
+        return mTimes[index];
+    }
+
+    /**
+     * Returns the index of the last frame at or before a time, or -1 if all the frames are
+     * after the time.
+     */
+    public int getFrameIndex(long time) {
+        int low = 0;
+        int high = mTimes.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mTimes[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Returns a frame.
+     * @param index the index of the frame.
+     * @return a new image, which the caller can keep.
+     * @throws IOException
+     */
+    public synchronized RawImage getFrame(int index) throws IOException {
+        int keyFrame = index;
+        while (mTypes[keyFrame] != ScreenCaptureArchiveWriter.KEY_FRAME) {
+            keyFrame--;
+        }
+
+        int start;
+        if (mCurrentIndex >= keyFrame && mCurrentIndex <= index) {
+            start = mCurrentIndex + 1;
+        } else {
+            start = keyFrame;
+        }
+
+        for (int i = start ; i <= index ; i++) {
+            readFrame(i);
+        }
+
+        RawImage copy = new RawImage();
+        ScreenCaptureArchiveWriter.setHeaderFields(copy,
+                ScreenCaptureArchiveWriter.getHeaderFields(mCurrent));
+        copy.data = mCurrent.data.clone();
+        return copy;
+    }
+
+    /**
+     * Closes the archive.
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        mInflater.end();
+        mFile.close();
+    }
+
+    /**
+     * Reads a frame and applies it to {@link #mCurrent}.
+     */
+    private void readFrame(int index) throws IOException {
+        mCurrentIndex = -1;
+
+        byte[] header = new byte[1 + 8 + 13 * 4 + 4 + 4];
+        mFile.seek(mOffsets[index]);
+        mFile.readFully(header);
+        ByteBuffer buf = ByteBuffer.wrap(header);
+        byte type = buf.get();
+        buf.getLong(); // time, already in the index.
+        int[] fields = new int[13];
+        for (int i = 0 ; i < fields.length ; i++) {
+            fields[i] = buf.getInt();
+        }
+        int rawLength = buf.getInt();
+        int deflatedLength = buf.getInt();
+
+        if (mDeflated.length < deflatedLength) {
+            mDeflated = new byte[deflatedLength];
+        }
+        mFile.readFully(mDeflated, 0, deflatedLength);
+        if (mRaw.length < rawLength) {
+            mRaw = new byte[rawLength];
+        }
+        mInflater.reset();
+        mInflater.setInput(mDeflated, 0, deflatedLength);
+        try {
+            int inflated = 0;
+            while (inflated < rawLength && !mInflater.finished()) {
+                int count = mInflater.inflate(mRaw, inflated, rawLength - inflated);
+                if (count == 0 && mInflater.needsInput()) {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated != rawLength) {
+                throw new IOException("Truncated screen capture frame");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted screen capture frame: " + e.getMessage());
+        }
+
+        if (type == ScreenCaptureArchiveWriter.KEY_FRAME) {
+            if (mCurrent == null || mCurrent.data.length != rawLength) {
+                mCurrent = new RawImage();
+                mCurrent.data = new byte[rawLength];
+            }
+            ScreenCaptureArchiveWriter.setHeaderFields(mCurrent, fields);
+            System.arraycopy(mRaw, 0, mCurrent.data, 0, rawLength);
+        } else {
+            applyDelta(mCurrent, rawLength);
+        }
+
+        mCurrentIndex = index;
+    }
+
+    private void applyDelta(RawImage image, int rawLength) {
+        ByteBuffer raw = ByteBuffer.wrap(mRaw, 0, rawLength);
+        final int bytesPerPixel = image.bpp >> 3;
+        final int stride = image.width * bytesPerPixel;
+        final int tilesX = (image.width + mTileSize - 1) / mTileSize;
+
+        int tileCount = raw.getInt();
+        for (int t = 0 ; t < tileCount ; t++) {
+            int tile = raw.getInt();
+            int x0 = (tile % tilesX) * mTileSize * bytesPerPixel;
+            int x1 = Math.min(x0 + mTileSize * bytesPerPixel, stride);
+            int y0 = (tile / tilesX) * mTileSize;
+            int y1 = Math.min(y0 + mTileSize, image.height);
+
+            int rowLength = x1 - x0;
+            for (int y = y0 ; y < y1 ; y++) {
+                raw.get(image.data, y * stride + x0, rowLength);
+            }
+        }
+    }
+}
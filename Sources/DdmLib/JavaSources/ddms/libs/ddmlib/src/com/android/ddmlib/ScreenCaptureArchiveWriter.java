@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a series of screen captures to a file, read with {@link ScreenCaptureArchive}.
+ * <p/>
+ * Every {@link #getKeyFrameInterval()} frames, and whenever the size or format of the screen
+ * changes, a key frame stores the whole image. The other frames only store the tiles of
+ * {@link #TILE_SIZE} x {@link #TILE_SIZE} pixels which changed since the previous frame. The
+ * data of each frame is deflated, and an index of the frames is written at the end of the
+ * file when it is closed.
+ * <p/>
+ * File layout, big endian:
+ * <pre>
+ * header:  int magic, int version, int tile size
+ * frame:   byte type, long time, int[13] image header, int raw length, int deflated length,
+ *          deflated data
+ *          key frame data:   the image data
+ *          delta frame data: int tile count, then for each tile: int tile index, the rows of
+ *                            the tile
+ * index:   for each frame: long offset, long time, byte type
+ * trailer: long index offset, int frame count, int magic
+ * </pre>
+ */
+public final class ScreenCaptureArchiveWriter {
+    /** size of the tiles compared between frames, in pixels. */
+    public static final int TILE_SIZE = 32;
+
+    static final int MAGIC = 0x44534341; // DSCA
+    static final int VERSION = 1;
+    static final byte KEY_FRAME = 0;
+    static final byte DELTA_FRAME = 1;
+    /** size of the trailer, in bytes. */
+    static final int TRAILER_SIZE = 8 + 4 + 4;
+
+    private final OutputStream mOutput;
+    private final int mKeyFrameInterval;
+    private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+
+    private long mOffset;
+    private int mFrameCount;
+    private int mFramesSinceKeyFrame;
+    private final ByteArrayOutputStream mIndex = new ByteArrayOutputStream();
+    private final DataOutputStream mIndexOutput = new DataOutputStream(mIndex);
+
+    /** the previous frame. Its data is a copy, since capture buffers are reused. */
+    private RawImage mPrevious;
+    private byte[] mRaw = new byte[0];
+    private byte[] mDeflated = new byte[0];
+
+    /**
+     * Creates an archive.
+     * @param file the file to write.
+     * @param keyFrameInterval the maximum number of frames between two key frames. Frames
+     * are reconstructed from the previous key frame, so this bounds the time to read a frame.
+     * @throws IOException
+     */
+    public ScreenCaptureArchiveWriter(File file, int keyFrameInterval) throws IOException {
+        if (keyFrameInterval < 1) {
+            throw new IllegalArgumentException("keyFrameInterval must be >= 1"); //$NON-NLS-1$
+        }
+        mKeyFrameInterval = keyFrameInterval;
+        mOutput = new FileOutputStream(file);
+
+        byte[] header = new byte[12];
+        putInt(header, 0, MAGIC);
+        putInt(header, 4, VERSION);
+        putInt(header, 8, TILE_SIZE);
+        mOutput.write(header);
+        mOffset = header.length;
+    }
+
+    /**
+     * Returns the maximum number of frames between two key frames.
+     */
+    public int getKeyFrameInterval() {
+        return mKeyFrameInterval;
+    }
+
+    /**
+     * Returns the number of frames written.
+     */
+    public synchronized int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Adds a frame.
+     * @param image the frame. Its data is not kept, so a reused capture buffer can be passed.
+     * @param time the time of the frame, in ms.
+     * @throws IOException
+     */
+    public synchronized void addFrame(RawImage image, long time) throws IOException {
+        byte type;
+        int rawLength;
+        if (mPrevious == null || mFramesSinceKeyFrame + 1 >= mKeyFrameInterval
+                || !isSameFormat(mPrevious, image)) {
+            type = KEY_FRAME;
+            rawLength = image.size;
+            ensureRawCapacity(rawLength);
+            System.arraycopy(image.data, 0, mRaw, 0, rawLength);
+            mFramesSinceKeyFrame = 0;
+        } else {
+            type = DELTA_FRAME;
+            rawLength = encodeDelta(mPrevious, image);
+            mFramesSinceKeyFrame++;
+        }
+
+        // deflate
+        mDeflater.reset();
+        mDeflater.setInput(mRaw, 0, rawLength);
+        mDeflater.finish();
+        int deflatedLength = 0;
+        while (!mDeflater.finished()) {
+            if (deflatedLength == mDeflated.length) {
+                byte[] deflated = new byte[Math.max(4096, mDeflated.length * 2)];
+                System.arraycopy(mDeflated, 0, deflated, 0, deflatedLength);
+                mDeflated = deflated;
+            }
+            deflatedLength += mDeflater.deflate(mDeflated, deflatedLength,
+                    mDeflated.length - deflatedLength);
+        }
+
+        byte[] header = new byte[1 + 8 + 13 * 4 + 4 + 4];
+        header[0] = type;
+        putLong(header, 1, time);
+        int pos = 9;
+        int[] fields = getHeaderFields(image);
+        for (int field : fields) {
+            putInt(header, pos, field);
+            pos += 4;
+        }
+        putInt(header, pos, rawLength);
+        putInt(header, pos + 4, deflatedLength);
+
+        mOutput.write(header);
+        mOutput.write(mDeflated, 0, deflatedLength);
+
+        mIndexOutput.writeLong(mOffset);
+        mIndexOutput.writeLong(time);
+        mIndexOutput.writeByte(type);
+
+        mOffset += header.length + deflatedLength;
+        mFrameCount++;
+
+        // keep a copy of the frame to compute the next delta.
+        if (mPrevious == null || mPrevious.data.length != image.size) {
+            mPrevious = new RawImage();
+            mPrevious.data = new byte[image.size];
+        }
+        setHeaderFields(mPrevious, fields);
+        System.arraycopy(image.data, 0, mPrevious.data, 0, image.size);
+    }
+
+    /**
+     * Writes the index and closes the file.
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        try {
+            mIndexOutput.flush();
+            mIndex.writeTo(mOutput);
+
+            byte[] trailer = new byte[TRAILER_SIZE];
+            putLong(trailer, 0, mOffset);
+            putInt(trailer, 8, mFrameCount);
+            putInt(trailer, 12, MAGIC);
+            mOutput.write(trailer);
+        } finally {
+            mDeflater.end();
+            mOutput.close();
+        }
+    }
+
+    /**
+     * Writes the tiles of <var>image</var> which differ from <var>previous</var> in the raw
+     * buffer.
+     * @return the length of the delta.
+     */
+    private int encodeDelta(RawImage previous, RawImage image) {
+        final byte[] oldData = previous.data;
+        final byte[] newData = image.data;
+        final int bytesPerPixel = image.bpp >> 3;
+        final int stride = image.width * bytesPerPixel;
+        final int tilesX = (image.width + TILE_SIZE - 1) / TILE_SIZE;
+        final int tilesY = (image.height + TILE_SIZE - 1) / TILE_SIZE;
+
+        ensureRawCapacity(4);
+        int pos = 4;
+        int tileCount = 0;
+        for (int ty = 0 ; ty < tilesY ; ty++) {
+            int y0 = ty * TILE_SIZE;
+            int y1 = Math.min(y0 + TILE_SIZE, image.height);
+            for (int tx = 0 ; tx < tilesX ; tx++) {
+                int x0 = tx * TILE_SIZE * bytesPerPixel;
+                int x1 = Math.min(x0 + TILE_SIZE * bytesPerPixel, stride);
+                if (isTileEqual(oldData, newData, stride, x0, x1, y0, y1)) {
+                    continue;
+                }
+
+                int rowLength = x1 - x0;
+                ensureRawCapacity(pos + 4 + rowLength * (y1 - y0));
+                putInt(mRaw, pos, ty * tilesX + tx);
+                pos += 4;
+                for (int y = y0 ; y < y1 ; y++) {
+                    System.arraycopy(newData, y * stride + x0, mRaw, pos, rowLength);
+                    pos += rowLength;
+                }
+                tileCount++;
+            }
+        }
+
+        putInt(mRaw, 0, tileCount);
+        return pos;
+    }
+
+    private static boolean isTileEqual(byte[] a, byte[] b, int stride, int x0, int x1,
+            int y0, int y1) {
+        for (int y = y0 ; y < y1 ; y++) {
+            int row = y * stride;
+            for (int i = row + x0 ; i < row + x1 ; i++) {
+                if (a[i] != b[i]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void ensureRawCapacity(int length) {
+        if (length > mRaw.length) {
+            byte[] raw = new byte[Math.max(length, mRaw.length * 2)];
+            System.arraycopy(mRaw, 0, raw, 0, mRaw.length);
+            mRaw = raw;
+        }
+    }
+
+    private static boolean isSameFormat(RawImage a, RawImage b) {
+        int[] fa = getHeaderFields(a);
+        int[] fb = getHeaderFields(b);
+        for (int i = 0 ; i < fa.length ; i++) {
+            if (fa[i] != fb[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int[] getHeaderFields(RawImage image) {
+        return new int[] {
+                image.version, image.bpp, image.size, image.width, image.height,
+                image.red_offset, image.red_length, image.blue_offset, image.blue_length,
+                image.green_offset, image.green_length, image.alpha_offset, image.alpha_length
+        };
+    }
+
+    static void setHeaderFields(RawImage image, int[] fields) {
+        image.version = fields[0];
+        image.bpp = fields[1];
+        image.size = fields[2];
+        image.width = fields[3];
+        image.height = fields[4];
+        image.red_offset = fields[5];
+        image.red_length = fields[6];
+        image.blue_offset = fields[7];
+        image.blue_length = fields[8];
+        image.green_offset = fields[9];
+        image.green_length = fields[10];
+        image.alpha_offset = fields[11];
+        image.alpha_length = fields[12];
+    }
+
+    private static void putInt(byte[] b, int pos, int value) {
+        b[pos] = (byte) (value >>> 24);
+        b[pos + 1] = (byte) (value >>> 16);
+        b[pos + 2] = (byte) (value >>> 8);
+        b[pos + 3] = (byte) value;
+    }
+
+    private static void putLong(byte[] b, int pos, long value) {
+        putInt(b, pos, (int) (value >>> 32));
+        putInt(b, pos + 4, (int) value);
+    }
+}
@@ -18,6 +18,7 @@ package com.android.ddmlib.log;
 
 import com.android.ddmlib.log.LogReceiver.LogEntry;
 
+import java.nio.charset.Charset;
 import java.util.Locale;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -173,8 +174,23 @@ public class EventContainer {
     public int sec;    /* seconds since Epoch */
     public int nsec;   /* nanoseconds */
 
+    private final static Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+    private final static EventValueType[] VALUE_TYPES = EventValueType.values();
+
     private Object mData;
 
+    /*
+     * Values decoded from a binary entry are not boxed. Each value has a type and a 64 bit slot.
+     * Int and long values are held in the slot itself, while the slot of a string value holds
+     * the offset and length of its UTF-8 bytes in mStringData. The String is only created when
+     * first requested. mValueTypes is null when the data is held in mData instead.
+     */
+    private byte[] mValueTypes;
+    private long[] mValueSlots;
+    private byte[] mStringData;
+    private String[] mStrings;
+    private boolean mIsList;
+
     /**
      * Creates an {@link EventContainer} from a {@link LogEntry}.
      * @param entry  the LogEntry from which pid, tid, and time info is copied.
@@ -192,6 +208,48 @@ public class EventContainer {
         nsec = entry.nsec;
     }
 
+    /**
+     * Creates an {@link EventContainer} from a {@link LogEntry}, with typed values.
+     * @param entry  the LogEntry from which pid, tid, and time info is copied.
+     * @param tag the event tag value
+     * @param valueTypes the ordinal of the {@link EventValueType} of each value.
+     * @param valueSlots the value of each int and long, or the offset (high 32 bits) and
+     * length (low 32 bits) of each string in <var>stringData</var>.
+     * @param stringData the UTF-8 bytes of the strings, or null if there is none.
+     * @param isList whether the values are a list, rather than a single value.
+     */
+    EventContainer(LogEntry entry, int tag, byte[] valueTypes, long[] valueSlots,
+            byte[] stringData, boolean isList) {
+        mTag = tag;
+        mValueTypes = valueTypes;
+        mValueSlots = valueSlots;
+        mStringData = stringData;
+        mIsList = isList;
+
+        pid = entry.pid;
+        tid = entry.tid;
+        sec = entry.sec;
+        nsec = entry.nsec;
+    }
+
+    /**
+     * Creates an {@link EventContainer} with typed values, and strings already decoded.
+     * @see #EventContainer(LogEntry, int, byte[], long[], byte[], boolean)
+     */
+    EventContainer(int tag, int pid, int tid, int sec, int nsec, byte[] valueTypes,
+            long[] valueSlots, String[] strings, boolean isList) {
+        mTag = tag;
+        mValueTypes = valueTypes;
+        mValueSlots = valueSlots;
+        mStrings = strings;
+        mIsList = isList;
+
+        this.pid = pid;
+        this.tid = tid;
+        this.sec = sec;
+        this.nsec = nsec;
+    }
+
     /**
      * Creates an {@link EventContainer} with raw data
      */
@@ -212,6 +270,13 @@ public class EventContainer {
      * @see #getType()
      */
     public final Integer getInt() throws InvalidTypeException {
+        if (mValueTypes != null) {
+            if (!mIsList && getSlotType(0) == EventValueType.INT) {
+                return Integer.valueOf((int)mValueSlots[0]);
+            }
+            throw new InvalidTypeException();
+        }
+
         if (getType(mData) == EventValueType.INT) {
             return (Integer)mData;
         }
@@ -225,6 +290,13 @@ public class EventContainer {
      * @see #getType()
      */
     public final Long getLong() throws InvalidTypeException {
+        if (mValueTypes != null) {
+            if (!mIsList && getSlotType(0) == EventValueType.LONG) {
+                return Long.valueOf(mValueSlots[0]);
+            }
+            throw new InvalidTypeException();
+        }
+
         if (getType(mData) == EventValueType.LONG) {
             return (Long)mData;
         }
@@ -238,6 +310,13 @@ public class EventContainer {
      * @see #getType()
      */
     public final String getString() throws InvalidTypeException {
+        if (mValueTypes != null) {
+            if (!mIsList && getSlotType(0) == EventValueType.STRING) {
+                return getStringValue(0);
+            }
+            throw new InvalidTypeException();
+        }
+
         if (getType(mData) == EventValueType.STRING) {
             return (String)mData;
         }
@@ -250,9 +329,47 @@ public class EventContainer {
      * @param valueIndex the index of the value. If the data is not a list, this is ignored.
      */
     public Object getValue(int valueIndex) {
+        if (mValueTypes != null) {
+            int slot = getSlot(valueIndex);
+            if (slot == -1) {
+                return null;
+            }
+            switch (getSlotType(slot)) {
+                case INT:
+                    return Integer.valueOf((int)mValueSlots[slot]);
+                case LONG:
+                    return Long.valueOf(mValueSlots[slot]);
+                default:
+                    return getStringValue(slot);
+            }
+        }
+
         return getValue(mData, valueIndex, true);
     }
 
+    /**
+     * Returns a value by index as a long, without boxing.
+     * @param valueIndex the index of the value. If the data is not a list, this is ignored.
+     * @throws InvalidTypeException if the value is not of type {@link EventValueType#INT} or
+     * {@link EventValueType#LONG}.
+     * @see #getType()
+     */
+    public long getValueAsLong(int valueIndex) throws InvalidTypeException {
+        if (mValueTypes != null) {
+            int slot = getSlot(valueIndex);
+            if (slot != -1 && getSlotType(slot) != EventValueType.STRING) {
+                return mValueSlots[slot];
+            }
+            throw new InvalidTypeException();
+        }
+
+        Object value = getValue(mData, valueIndex, true);
+        if (value instanceof Integer || value instanceof Long) {
+            return ((Number)value).longValue();
+        }
+        throw new InvalidTypeException();
+    }
+
     /**
      * Returns a value by index as a double.
      * @param valueIndex the index of the value. If the data is not a list, this is ignored.
@@ -263,6 +380,14 @@ public class EventContainer {
      * @see #getType()
      */
     public double getValueAsDouble(int valueIndex) throws InvalidTypeException {
+        if (mValueTypes != null) {
+            int slot = getSlot(valueIndex);
+            if (slot != -1 && getSlotType(slot) != EventValueType.STRING) {
+                return mValueSlots[slot];
+            }
+            throw new InvalidTypeException();
+        }
+
         return getValueAsDouble(mData, valueIndex, true);
     }
 
@@ -276,6 +401,22 @@ public class EventContainer {
      * @see #getType()
      */
     public String getValueAsString(int valueIndex) throws InvalidTypeException {
+        if (mValueTypes != null) {
+            int slot = getSlot(valueIndex);
+            if (slot == -1) {
+                throw new InvalidTypeException(
+                        "getValueAsString() unsupported type:" + EventValueType.LIST);
+            }
+            switch (getSlotType(slot)) {
+                case INT:
+                    return Integer.toString((int)mValueSlots[slot]);
+                case LONG:
+                    return Long.toString(mValueSlots[slot]);
+                default:
+                    return getStringValue(slot);
+            }
+        }
+
         return getValueAsString(mData, valueIndex, true);
     }
 
@@ -283,9 +424,39 @@ public class EventContainer {
      * Returns the type of the data.
      */
     public EventValueType getType() {
+        if (mValueTypes != null) {
+            return mIsList ? EventValueType.LIST : getSlotType(0);
+        }
+
         return getType(mData);
     }
 
+    /**
+     * Returns the type of a value by index, or {@link EventValueType#UNKNOWN} if there is no
+     * such value.
+     * @param valueIndex the index of the value. If the data is not a list, this is ignored.
+     */
+    public EventValueType getValueType(int valueIndex) {
+        if (mValueTypes != null) {
+            int slot = getSlot(valueIndex);
+            return slot != -1 ? getSlotType(slot) : EventValueType.UNKNOWN;
+        }
+
+        Object value = getValue(mData, valueIndex, true);
+        return value != null ? getType(value) : EventValueType.UNKNOWN;
+    }
+
+    /**
+     * Returns the number of values: the size of the list, or 1 if the data is not a list.
+     */
+    public int getValueCount() {
+        if (mValueTypes != null) {
+            return mValueTypes.length;
+        }
+
+        return mData instanceof Object[] ? ((Object[])mData).length : 1;
+    }
+
     /**
      * Returns the type of an object.
      */
@@ -323,6 +494,10 @@ public class EventContainer {
      */
     public boolean testValue(int index, Object value,
             CompareMethod compareMethod) throws InvalidTypeException {
+        if (mValueTypes != null) {
+            return testTypedValue(index, value, compareMethod);
+        }
+
         EventValueType type = getType(mData);
         if (index > 0 && type != EventValueType.LIST) {
             throw new InvalidTypeException();
@@ -390,6 +565,86 @@ public class EventContainer {
         }
     }
 
+    private boolean testTypedValue(int index, Object value, CompareMethod compareMethod)
+            throws InvalidTypeException {
+        if (index > 0 && !mIsList) {
+            throw new InvalidTypeException();
+        }
+
+        int slot = getSlot(index);
+        if (slot == -1) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+
+        EventValueType type = getSlotType(slot);
+        if (type == EventValueType.STRING) {
+            if (compareMethod == CompareMethod.EQUAL_TO) {
+                return getStringValue(slot).equals(value);
+            }
+            throw new InvalidTypeException();
+        }
+
+        // the value to test against must be boxed in the same type as this value.
+        boolean sameType = (type == EventValueType.INT) ?
+                value instanceof Integer : value instanceof Long;
+        if (!sameType) {
+            if (compareMethod == CompareMethod.EQUAL_TO) {
+                return false;
+            }
+            throw new InvalidTypeException();
+        }
+
+        long data = mValueSlots[slot];
+        long test = ((Number)value).longValue();
+        switch (compareMethod) {
+            case EQUAL_TO:
+                return data == test;
+            case LESSER_THAN:
+                return data <= test;
+            case LESSER_THAN_STRICT:
+                return data < test;
+            case GREATER_THAN:
+                return data >= test;
+            case GREATER_THAN_STRICT:
+                return data > test;
+            case BIT_CHECK:
+                return (data & test) != 0;
+            default :
+                throw new InvalidTypeException();
+        }
+    }
+
+    /**
+     * Returns the slot of a typed value by index, or -1 if the index is out of the list.
+     * As for boxed data, the index is ignored if the data is not a list.
+     */
+    private int getSlot(int valueIndex) {
+        if (!mIsList) {
+            return 0;
+        }
+
+        return valueIndex >= 0 && valueIndex < mValueTypes.length ? valueIndex : -1;
+    }
+
+    private EventValueType getSlotType(int slot) {
+        return VALUE_TYPES[mValueTypes[slot]];
+    }
+
+    /** Returns the string held in a slot, creating it on first use. */
+    private String getStringValue(int slot) {
+        if (mStrings == null) {
+            mStrings = new String[mValueTypes.length];
+        }
+
+        String s = mStrings[slot];
+        if (s == null) {
+            long location = mValueSlots[slot];
+            s = new String(mStringData, (int)(location >>> 32), (int)location, UTF8);
+            mStrings[slot] = s;
+        }
+        return s;
+    }
+
     private final Object getValue(Object data, int valueIndex, boolean recursive) {
         EventValueType type = getType(data);
 
@@ -32,9 +32,8 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
 import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -68,6 +67,9 @@ public final class EventLogParser {
 
     private final TreeMap<Integer, String> mTagMap = new TreeMap<Integer, String>();
 
+    /** Reverse of {@link #mTagMap}, to parse text logs. The lowest value wins for a name. */
+    private final HashMap<String, Integer> mTagValueMap = new HashMap<String, Integer>();
+
     private final TreeMap<Integer, EventValueDescription[]> mValueDescriptionMap =
         new TreeMap<Integer, EventValueDescription[]>();
 
@@ -155,6 +157,7 @@ public final class EventLogParser {
                     String name = m.group(2);
                     if (name != null && mTagMap.get(value) == null) {
                         mTagMap.put(value, name);
+                        putTagValue(name, value);
                     }
 
                     // special case for the GC tag. We ignore what is in the file,
@@ -186,6 +189,7 @@ public final class EventLogParser {
                     String name = m.group(2);
                     if (name != null && mTagMap.get(value) == null) {
                         mTagMap.put(value, name);
+                        putTagValue(name, value);
                     }
                 }
             }
@@ -249,7 +253,8 @@ public final class EventLogParser {
             return null;
         }
 
-        int inOffset = 0;
+        int inOffset = entry.offset;
+        int end = entry.offset + entry.len;
 
         int tagValue = ArrayHelper.swap32bitFromArray(entry.data, inOffset);
         inOffset += 4;
@@ -259,8 +264,17 @@ public final class EventLogParser {
             Log.e("EventLogParser", String.format("unknown tag number: %1$d", tagValue));
         }
 
+        // decode the values without boxing them, unless this is a gc event or the values
+        // include nested lists.
+        if (tagValue != GcEventContainer.GC_EVENT_TAG) {
+            EventContainer event = parseTypedEvent(entry, tagValue, inOffset, end);
+            if (event != null) {
+                return event;
+            }
+        }
+
         ArrayList<Object> list = new ArrayList<Object>();
-        if (parseBinaryEvent(entry.data, inOffset, list) == -1) {
+        if (parseBinaryEvent(entry.data, inOffset, end, list) == -1) {
             return null;
         }
 
@@ -312,18 +326,11 @@ public final class EventLogParser {
                 String tag = m.group(7);
 
                 // get the numerical tag value
-                int tagValue = -1;
-                Set<Entry<Integer, String>> tagSet = mTagMap.entrySet();
-                for (Entry<Integer, String> entry : tagSet) {
-                    if (tag.equals(entry.getValue())) {
-                        tagValue = entry.getKey();
-                        break;
-                    }
-                }
-
-                if (tagValue == -1) {
+                Integer tagKey = mTagValueMap.get(tag);
+                if (tagKey == null) {
                     return null;
                 }
+                int tagValue = tagKey.intValue();
 
                 int pid = Integer.parseInt(m.group(8));
 
@@ -349,6 +356,13 @@ public final class EventLogParser {
         return null;
     }
 
+    private void putTagValue(String name, int value) {
+        Integer current = mTagValueMap.get(name);
+        if (current == null || value < current.intValue()) {
+            mTagValueMap.put(name, value);
+        }
+    }
+
     public Map<Integer, String> getTagMap() {
         return mTagMap;
     }
@@ -357,6 +371,90 @@ public final class EventLogParser {
         return mValueDescriptionMap;
     }
 
+    /**
+     * Decodes a binary event holding a single value, or a list of values which are not lists,
+     * into typed values without boxing them. Strings are not decoded: the bytes of the entry
+     * are copied so that they can be decoded when first needed.
+     *
+     * Returns null if the event contains nested lists or cannot be decoded, in which case
+     * {@link #parseBinaryEvent(byte[], int, int, ArrayList)} must be used instead.
+     */
+    private static EventContainer parseTypedEvent(LogEntry entry, int tagValue, int offset,
+            int end) {
+        byte[] eventData = entry.data;
+
+        if (end - offset < 1) {
+            return null;
+        }
+
+        int type = eventData[offset++];
+        boolean isList = type == EVENT_TYPE_LIST;
+        int count = 1;
+        if (isList) {
+            if (end - offset < 1) {
+                return null;
+            }
+            count = Math.max(0, (int)eventData[offset++]);
+        }
+
+        byte[] types = new byte[count];
+        long[] slots = new long[count];
+        boolean hasStrings = false;
+
+        for (int i = 0; i < count; i++) {
+            if (isList) {
+                if (end - offset < 1) {
+                    return null;
+                }
+                type = eventData[offset++];
+            }
+
+            switch (type) {
+                case EVENT_TYPE_INT:
+                    if (end - offset < 4) {
+                        return null;
+                    }
+                    types[i] = (byte)EventValueType.INT.ordinal();
+                    slots[i] = ArrayHelper.swap32bitFromArray(eventData, offset);
+                    offset += 4;
+                    break;
+                case EVENT_TYPE_LONG:
+                    if (end - offset < 8) {
+                        return null;
+                    }
+                    types[i] = (byte)EventValueType.LONG.ordinal();
+                    slots[i] = ArrayHelper.swap64bitFromArray(eventData, offset);
+                    offset += 8;
+                    break;
+                case EVENT_TYPE_STRING:
+                    if (end - offset < 4) {
+                        return null;
+                    }
+                    int strLen = ArrayHelper.swap32bitFromArray(eventData, offset);
+                    offset += 4;
+                    if (strLen < 0 || end - offset < strLen) {
+                        return null;
+                    }
+                    types[i] = (byte)EventValueType.STRING.ordinal();
+                    slots[i] = ((long)(offset - entry.offset) << 32) | strLen;
+                    offset += strLen;
+                    hasStrings = true;
+                    break;
+                default:
+                    // nested list, or unknown type
+                    return null;
+            }
+        }
+
+        byte[] stringData = null;
+        if (hasStrings) {
+            stringData = new byte[end - entry.offset];
+            System.arraycopy(eventData, entry.offset, stringData, 0, stringData.length);
+        }
+
+        return new EventContainer(entry, tagValue, types, slots, stringData, isList);
+    }
+
     /**
      * Recursively convert binary log data to printable form.
      *
@@ -366,11 +464,15 @@ public final class EventLogParser {
      * for us to check for space on every output element to avoid producing
      * garbled output.
      *
+     * The event is read from <code>dataOffset</code> up to at most <code>dataEnd</code>, as
+     * the buffer may be shared with other entries.
+     *
      * Returns the amount read on success, -1 on failure.
      */
-    private static int parseBinaryEvent(byte[] eventData, int dataOffset, ArrayList<Object> list) {
+    private static int parseBinaryEvent(byte[] eventData, int dataOffset, int dataEnd,
+            ArrayList<Object> list) {
 
-        if (eventData.length - dataOffset < 1)
+        if (dataEnd - dataOffset < 1)
             return -1;
 
         int offset = dataOffset;
@@ -383,7 +485,7 @@ public final class EventLogParser {
         case EVENT_TYPE_INT: { /* 32-bit signed int */
                 int ival;
 
-                if (eventData.length - offset < 4)
+                if (dataEnd - offset < 4)
                     return -1;
                 ival = ArrayHelper.swap32bitFromArray(eventData, offset);
                 offset += 4;
@@ -394,7 +496,7 @@ public final class EventLogParser {
         case EVENT_TYPE_LONG: { /* 64-bit signed long */
                 long lval;
 
-                if (eventData.length - offset < 8)
+                if (dataEnd - offset < 8)
                     return -1;
                 lval = ArrayHelper.swap64bitFromArray(eventData, offset);
                 offset += 8;
@@ -405,12 +507,12 @@ public final class EventLogParser {
         case EVENT_TYPE_STRING: { /* UTF-8 chars, not NULL-terminated */
                 int strLen;
 
-                if (eventData.length - offset < 4)
+                if (dataEnd - offset < 4)
                     return -1;
                 strLen = ArrayHelper.swap32bitFromArray(eventData, offset);
                 offset += 4;
 
-                if (eventData.length - offset < strLen)
+                if (dataEnd - offset < strLen)
                     return -1;
 
                 // get the string
@@ -424,7 +526,7 @@ public final class EventLogParser {
             }
         case EVENT_TYPE_LIST: { /* N items, all different types */
 
-                if (eventData.length - offset < 1)
+                if (dataEnd - offset < 1)
                     return -1;
 
                 int count = eventData[offset++];
@@ -432,7 +534,7 @@ public final class EventLogParser {
                 // make a new temp list
                 ArrayList<Object> subList = new ArrayList<Object>();
                 for (int i = 0; i < count; i++) {
-                    int result = parseBinaryEvent(eventData, offset, subList);
+                    int result = parseBinaryEvent(eventData, offset, dataEnd, subList);
                     if (result == -1) {
                         return result;
                     }
@@ -0,0 +1,488 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.log;
+
+import com.android.ddmlib.log.EventContainer.EventValueType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Columnar storage for {@link EventContainer}s.
+ * <p/>
+ * Events are grouped by tag and value types. Each group stores the time, pid and tid of its
+ * events, and each of their values, in primitive arrays. This makes selecting events by tag,
+ * pid or time range a scan over arrays rather than over objects. {@link EventContainer}s are
+ * only created again when an event is read with {@link #get(int)}.
+ * <p/>
+ * Events which do not fit in columns (gc events and events holding nested lists) are kept
+ * as is.
+ * <p/>
+ * This class is thread safe.
+ */
+public final class EventStore {
+    private final static int INITIAL_CAPACITY = 64;
+
+    /** Events of a single tag which share the same value types. */
+    private final static class Columns {
+        /** Index in {@link EventStore#mColumns}. */
+        final int mIndex;
+        final int mTag;
+        /** Ordinals of the value types, or null if the events are kept as objects. */
+        final byte[] mTypes;
+        final boolean mIsList;
+        /** Next columns with the same tag. */
+        Columns mNextSameTag;
+
+        int mSize;
+        /** Whether {@link #mTimes} is in ascending order. */
+        boolean mSorted = true;
+        long[] mTimes = new long[INITIAL_CAPACITY];
+        int[] mPids = new int[INITIAL_CAPACITY];
+        int[] mTids = new int[INITIAL_CAPACITY];
+        /** Values of each int or long column, indexed by value then by row. */
+        final long[][] mNumbers;
+        /** Values of each string column, indexed by value then by row. */
+        final String[][] mStrings;
+        /** Events which do not fit in columns. */
+        EventContainer[] mEvents;
+
+        Columns(int index, int tag, byte[] types, boolean isList) {
+            mIndex = index;
+            mTag = tag;
+            mTypes = types;
+            mIsList = isList;
+
+            int count = types != null ? types.length : 0;
+            mNumbers = new long[count][];
+            mStrings = new String[count][];
+            for (int i = 0; i < count; i++) {
+                if (types[i] == EventValueType.STRING.ordinal()) {
+                    mStrings[i] = new String[INITIAL_CAPACITY];
+                } else {
+                    mNumbers[i] = new long[INITIAL_CAPACITY];
+                }
+            }
+            if (types == null) {
+                mEvents = new EventContainer[INITIAL_CAPACITY];
+            }
+        }
+
+        /** Returns whether an event of the same tag can be stored in these columns. */
+        boolean accepts(EventContainer event) {
+            if (mTypes == null) {
+                return getTypes(event) == null;
+            }
+
+            if (event instanceof GcEventContainer
+                    || mIsList != (event.getType() == EventValueType.LIST)
+                    || event.getValueCount() != mTypes.length) {
+                return false;
+            }
+
+            for (int i = 0; i < mTypes.length; i++) {
+                if (event.getValueType(i).ordinal() != mTypes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        int add(EventContainer event) {
+            if (mSize == mTimes.length) {
+                grow();
+            }
+
+            int row = mSize++;
+            long time = getTimeKey(event.sec, event.nsec);
+            if (row > 0 && time < mTimes[row - 1]) {
+                mSorted = false;
+            }
+            mTimes[row] = time;
+            mPids[row] = event.pid;
+            mTids[row] = event.tid;
+
+            if (mEvents != null) {
+                mEvents[row] = event;
+                return row;
+            }
+
+            try {
+                for (int i = 0; i < mTypes.length; i++) {
+                    if (mStrings[i] != null) {
+                        mStrings[i][row] = event.getValueAsString(i);
+                    } else {
+                        mNumbers[i][row] = event.getValueAsLong(i);
+                    }
+                }
+            } catch (InvalidTypeException e) {
+                // this cannot happen, as the value types were checked by accepts().
+                assert false;
+            }
+            return row;
+        }
+
+        EventContainer get(int row) {
+            if (mEvents != null) {
+                return mEvents[row];
+            }
+
+            int count = mTypes.length;
+            long[] slots = new long[count];
+            String[] strings = null;
+            for (int i = 0; i < count; i++) {
+                if (mStrings[i] != null) {
+                    if (strings == null) {
+                        strings = new String[count];
+                    }
+                    strings[i] = mStrings[i][row];
+                } else {
+                    slots[i] = mNumbers[i][row];
+                }
+            }
+
+            long time = mTimes[row];
+            return new EventContainer(mTag, mPids[row], mTids[row], (int)(time >> 32),
+                    (int)time, mTypes, slots, strings, mIsList);
+        }
+
+        /** Returns the first row at or after the given time. The rows must be sorted. */
+        int findRow(long time) {
+            int low = 0;
+            int high = mSize;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mTimes[mid] < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private void grow() {
+            int capacity = mTimes.length * 2;
+            mTimes = Arrays.copyOf(mTimes, capacity);
+            mPids = Arrays.copyOf(mPids, capacity);
+            mTids = Arrays.copyOf(mTids, capacity);
+            for (int i = 0; i < mNumbers.length; i++) {
+                if (mStrings[i] != null) {
+                    mStrings[i] = Arrays.copyOf(mStrings[i], capacity);
+                } else {
+                    mNumbers[i] = Arrays.copyOf(mNumbers[i], capacity);
+                }
+            }
+            if (mEvents != null) {
+                mEvents = Arrays.copyOf(mEvents, capacity);
+            }
+        }
+    }
+
+    /** All the columns. */
+    private final List<Columns> mColumns = new ArrayList<Columns>();
+
+    /** Open addressing table from tag to the first {@link Columns} of that tag. */
+    private int[] mTagKeys = new int[INITIAL_CAPACITY];
+    private Columns[] mTagColumns = new Columns[INITIAL_CAPACITY];
+
+    /* Events in the order they were added: index of their columns, and row in the columns. */
+    private int mSize;
+    private int[] mOrderColumns = new int[INITIAL_CAPACITY];
+    private int[] mOrderRows = new int[INITIAL_CAPACITY];
+
+    private long mLatestTime = Long.MIN_VALUE;
+
+    /**
+     * Adds an event to the store.
+     */
+    public synchronized void add(EventContainer event) {
+        Columns columns = getColumns(event);
+
+        if (mSize == mOrderColumns.length) {
+            mOrderColumns = Arrays.copyOf(mOrderColumns, mSize * 2);
+            mOrderRows = Arrays.copyOf(mOrderRows, mSize * 2);
+        }
+        mOrderRows[mSize] = columns.add(event);
+        mOrderColumns[mSize] = columns.mIndex;
+        mSize++;
+
+        long time = getTimeKey(event.sec, event.nsec);
+        if (time > mLatestTime) {
+            mLatestTime = time;
+        }
+    }
+
+    /**
+     * Returns the number of events.
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the event at the given index, in the order in which the events were added.
+     * <p/>The returned {@link EventContainer} may be a new object for each call.
+     */
+    public synchronized EventContainer get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+
+        return mColumns.get(mOrderColumns[index]).get(mOrderRows[index]);
+    }
+
+    /**
+     * Removes all the events.
+     */
+    public synchronized void clear() {
+        mColumns.clear();
+        Arrays.fill(mTagColumns, null);
+        mSize = 0;
+        mOrderColumns = new int[INITIAL_CAPACITY];
+        mOrderRows = new int[INITIAL_CAPACITY];
+        mLatestTime = Long.MIN_VALUE;
+    }
+
+    /**
+     * Returns the indexes of the events matching the given criteria, in the order in which the
+     * events were added.
+     * @param tags the tags of the events to select, or null for any tag.
+     * @param pids the pids of the events to select, or null for any pid.
+     * @param fromMsec the time of the oldest event to select, in milliseconds since epoch.
+     * {@link Long#MIN_VALUE} for no limit.
+     * @param toMsec the time after the newest event to select, in milliseconds since epoch.
+     * {@link Long#MAX_VALUE} for no limit.
+     */
+    public synchronized int[] select(int[] tags, int[] pids, long fromMsec, long toMsec) {
+        long fromTime = msecToTimeKey(fromMsec);
+        long toTime = msecToTimeKey(toMsec);
+
+        int[] sortedTags = sortedCopy(tags);
+        int[] sortedPids = sortedCopy(pids);
+
+        // restrict each columns to the selected tags and, if sorted, to the time range.
+        int count = mColumns.size();
+        Columns[] columns = mColumns.toArray(new Columns[count]);
+        int[] firstRows = new int[count];
+        int[] endRows = new int[count];
+        boolean[] checkTimes = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            Columns c = columns[i];
+            if (sortedTags != null && Arrays.binarySearch(sortedTags, c.mTag) < 0) {
+                continue;
+            }
+            if (c.mSorted) {
+                firstRows[i] = c.findRow(fromTime);
+                endRows[i] = toMsec == Long.MAX_VALUE ? c.mSize : c.findRow(toTime);
+            } else {
+                endRows[i] = c.mSize;
+                checkTimes[i] = true;
+            }
+        }
+
+        int[] result = new int[mSize];
+        int resultCount = 0;
+        for (int i = 0; i < mSize; i++) {
+            int index = mOrderColumns[i];
+            int row = mOrderRows[i];
+            if (row < firstRows[index] || row >= endRows[index]) {
+                continue;
+            }
+
+            Columns c = columns[index];
+            if (checkTimes[index]) {
+                long time = c.mTimes[row];
+                if (time < fromTime || (time >= toTime && toMsec != Long.MAX_VALUE)) {
+                    continue;
+                }
+            }
+            if (sortedPids != null && Arrays.binarySearch(sortedPids, c.mPids[row]) < 0) {
+                continue;
+            }
+
+            result[resultCount++] = i;
+        }
+
+        return Arrays.copyOf(result, resultCount);
+    }
+
+    /**
+     * Returns the pids of all the events, in the order in which they first appear.
+     */
+    public synchronized int[] getPids() {
+        BitSet seen = new BitSet();
+        int[] pids = new int[16];
+        int count = 0;
+
+        for (int i = 0; i < mSize; i++) {
+            int pid = mColumns.get(mOrderColumns[i]).mPids[mOrderRows[i]];
+            if (pid >= 0) {
+                if (seen.get(pid)) {
+                    continue;
+                }
+                seen.set(pid);
+            } else if (indexOf(pids, count, pid) != -1) {
+                continue;
+            }
+
+            if (count == pids.length) {
+                pids = Arrays.copyOf(pids, count * 2);
+            }
+            pids[count++] = pid;
+        }
+
+        return Arrays.copyOf(pids, count);
+    }
+
+    /**
+     * Returns the time of the most recent event in milliseconds since epoch, or
+     * {@link Long#MIN_VALUE} if the store is empty.
+     */
+    public synchronized long getLatestTime() {
+        if (mSize == 0) {
+            return Long.MIN_VALUE;
+        }
+        return (mLatestTime >> 32) * 1000L + (mLatestTime & 0xFFFFFFFFL) / 1000000L;
+    }
+
+    /** Returns the columns in which to store an event, creating them if needed. */
+    private Columns getColumns(EventContainer event) {
+        int mask = mTagKeys.length - 1;
+        int i = hash(event.mTag) & mask;
+        while (mTagColumns[i] != null && mTagKeys[i] != event.mTag) {
+            i = (i + 1) & mask;
+        }
+
+        Columns last = null;
+        for (Columns c = mTagColumns[i]; c != null; c = c.mNextSameTag) {
+            if (c.accepts(event)) {
+                return c;
+            }
+            last = c;
+        }
+
+        Columns columns = new Columns(mColumns.size(), event.mTag, getTypes(event),
+                event.getType() == EventValueType.LIST);
+        mColumns.add(columns);
+        if (last != null) {
+            last.mNextSameTag = columns;
+        } else {
+            mTagKeys[i] = event.mTag;
+            mTagColumns[i] = columns;
+            if (mColumns.size() * 2 > mTagKeys.length) {
+                rehash();
+            }
+        }
+        return columns;
+    }
+
+    private void rehash() {
+        int[] keys = mTagKeys;
+        Columns[] columns = mTagColumns;
+        mTagKeys = new int[keys.length * 2];
+        mTagColumns = new Columns[keys.length * 2];
+
+        int mask = mTagKeys.length - 1;
+        for (int j = 0; j < keys.length; j++) {
+            if (columns[j] != null) {
+                int i = hash(keys[j]) & mask;
+                while (mTagColumns[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                mTagKeys[i] = keys[j];
+                mTagColumns[i] = columns[j];
+            }
+        }
+    }
+
+    /**
+     * Returns the ordinals of the types of the values of an event, or null if the event
+     * cannot be stored in columns.
+     */
+    private static byte[] getTypes(EventContainer event) {
+        if (event instanceof GcEventContainer) {
+            return null;
+        }
+
+        EventValueType type = event.getType();
+        if (type != EventValueType.INT && type != EventValueType.LONG
+                && type != EventValueType.STRING && type != EventValueType.LIST) {
+            return null;
+        }
+
+        byte[] types = new byte[event.getValueCount()];
+        for (int i = 0; i < types.length; i++) {
+            EventValueType valueType = event.getValueType(i);
+            if (valueType != EventValueType.INT && valueType != EventValueType.LONG
+                    && valueType != EventValueType.STRING) {
+                return null;
+            }
+            types[i] = (byte)valueType.ordinal();
+        }
+
+        return types;
+    }
+
+    /**
+     * Returns a key ordering event times: the seconds in the high 32 bits and the
+     * nanoseconds in the low 32 bits.
+     */
+    private static long getTimeKey(int sec, int nsec) {
+        return ((long)sec << 32) | (nsec & 0xFFFFFFFFL);
+    }
+
+    private static long msecToTimeKey(long msec) {
+        if (msec == Long.MIN_VALUE || msec == Long.MAX_VALUE) {
+            return msec;
+        }
+
+        long sec = msec / 1000;
+        long millis = msec % 1000;
+        if (millis < 0) {
+            sec--;
+            millis += 1000;
+        }
+        sec = Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, sec));
+        return getTimeKey((int)sec, (int)(millis * 1000000L));
+    }
+
+    private static int[] sortedCopy(int[] values) {
+        if (values == null) {
+            return null;
+        }
+        int[] copy = values.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    private static int indexOf(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int hash(int tag) {
+        int h = tag * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
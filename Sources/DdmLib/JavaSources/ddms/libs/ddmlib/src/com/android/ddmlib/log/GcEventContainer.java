@@ -30,6 +30,9 @@ final class GcEventContainer extends EventContainer {
     
     public final static int GC_EVENT_TAG = 20001;
 
+    /** Number of values decoded from the event, see {@link #getValueDescriptions()}. */
+    private final static int VALUE_COUNT = 21;
+
     private String processId;
     private long gcTime;
     private long bytesFreed;
@@ -111,6 +114,11 @@ final class GcEventContainer extends EventContainer {
         throw new ArrayIndexOutOfBoundsException();
     }
 
+    @Override
+    public int getValueCount() {
+        return VALUE_COUNT;
+    }
+
     @Override
     public Object getValue(int valueIndex) {
         if (valueIndex == 0) {
@@ -296,7 +304,8 @@ final class GcEventContainer extends EventContainer {
      * @param valueIndex the index of the value.
      * @throws InvalidTypeException if index is 0 as it is a string value.
      */
-    private final long getValueAsLong(int valueIndex) throws InvalidTypeException {
+    @Override
+    public long getValueAsLong(int valueIndex) throws InvalidTypeException {
         switch (valueIndex) {
             case 0:
                 throw new InvalidTypeException();
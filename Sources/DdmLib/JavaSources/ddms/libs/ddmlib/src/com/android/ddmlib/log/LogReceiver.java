@@ -47,6 +47,28 @@ public final class LogReceiver {
         public int   nsec;
         /** The entry's raw data. */
         public byte[] data;
+        /**
+         * Offset of the payload in {@link #data}. This is always 0, unless the entry comes from
+         * a {@link LogReceiver} reusing its entries, in which case {@link #data} may be the
+         * receive buffer itself.
+         */
+        public int offset;
+
+        /**
+         * Returns a copy of this entry owning its payload, for listeners which need to keep
+         * an entry given by a {@link LogReceiver} reusing its entries.
+         */
+        public LogEntry copy() {
+            LogEntry entry = new LogEntry();
+            entry.len = len;
+            entry.pid = pid;
+            entry.tid = tid;
+            entry.sec = sec;
+            entry.nsec = nsec;
+            entry.data = new byte[len];
+            System.arraycopy(data, offset, entry.data, 0, len);
+            return entry;
+        }
     };
 
     /**
@@ -63,6 +85,8 @@ public final class LogReceiver {
     public interface ILogListener {
         /**
          * Sent when a new {@link LogEntry} has been parsed by the {@link LogReceiver}.
+         * <p/>If the receiver reuses its entries, the entry and its data are only valid
+         * during this call. Use {@link LogEntry#copy()} to keep it.
          * @param entry the new log entry.
          */
         public void newEntry(LogEntry entry);
@@ -90,6 +114,13 @@ public final class LogReceiver {
     private ILogListener mListener;
 
     private boolean mIsCancelled = false;
+
+    /** Whether a single {@link LogEntry} is given to the listener for all the entries. */
+    private final boolean mReuseEntries;
+    /** The entry given to the listener when reusing entries. */
+    private LogEntry mReusableEntry;
+    /** Buffer holding the payload of an entry split across reads, when reusing entries. */
+    private byte[] mReusableData;
     
     /**
      * Creates a {@link LogReceiver} with an {@link ILogListener}.
@@ -99,7 +130,27 @@ public final class LogReceiver {
      * @param listener the listener to receive new log entries.
      */
     public LogReceiver(ILogListener listener) {
+        this(listener, false /* reuseEntries */);
+    }
+
+    /**
+     * Creates a {@link LogReceiver} with an {@link ILogListener}, optionally reusing the
+     * same {@link LogEntry} for all the entries.
+     * <p/>
+     * When reusing entries, no object is allocated per entry: the entry given to
+     * {@link ILogListener#newEntry(LogEntry)} is overwritten by the next one, and its
+     * {@link LogEntry#data} is usually a slice of the buffer given to
+     * {@link #parseNewData(byte[], int, int)}, starting at {@link LogEntry#offset}.
+     * @param listener the listener to receive new log entries.
+     * @param reuseEntries whether to reuse the same entry.
+     */
+    public LogReceiver(ILogListener listener, boolean reuseEntries) {
         mListener = listener;
+        mReuseEntries = reuseEntries;
+        if (reuseEntries) {
+            mReusableEntry = new LogEntry();
+            mReusableData = new byte[0];
+        }
     }
     
 
@@ -165,8 +216,15 @@ public final class LogReceiver {
                 // based on how much we may already have read.
                 int dataSize = mCurrentEntry.len - mEntryDataOffset;  
     
-                // we only read what we need, and put it in the entry buffer.
-                System.arraycopy(data, offset, mCurrentEntry.data, mEntryDataOffset, dataSize);
+                if (mReuseEntries && mEntryDataOffset == 0) {
+                    // the whole payload is in the buffer, point the entry to it.
+                    mCurrentEntry.data = data;
+                    mCurrentEntry.offset = offset;
+                } else {
+                    // we only read what we need, and put it in the entry buffer.
+                    System.arraycopy(data, offset, mCurrentEntry.data, mEntryDataOffset,
+                            dataSize);
+                }
                 
                 // notify the listener of a new entry
                 if (mListener != null) {
@@ -213,7 +271,8 @@ public final class LogReceiver {
      * to be at least <code>offset + {@link #ENTRY_HEADER_SIZE}</code>.
      * @param data the data buffer the entry is read from.
      * @param offset the offset of the first byte from the buffer representing the entry.
-     * @return a new {@link LogEntry} or <code>null</code> if some error happened.
+     * @return a new {@link LogEntry}, or the reused one, or <code>null</code> if some error
+     * happened.
      */
     private LogEntry createEntry(byte[] data, int offset) {
         if (data.length < offset + ENTRY_HEADER_SIZE) {
@@ -221,8 +280,8 @@ public final class LogReceiver {
                     "Buffer not big enough to hold full LoggerEntry header");
         }
 
-        // create the new entry and fill it.
-        LogEntry entry = new LogEntry();
+        // create the new entry, or reuse the current one, and fill it.
+        LogEntry entry = mReuseEntries ? mReusableEntry : new LogEntry();
         entry.len = ArrayHelper.swapU16bitFromArray(data, offset);
         
         // we've read only 16 bits, but since there's also a 16 bit padding,
@@ -238,8 +297,17 @@ public final class LogReceiver {
         entry.nsec = ArrayHelper.swap32bitFromArray(data, offset);
         offset += 4;
         
-        // allocate the data
-        entry.data = new byte[entry.len];
+        // allocate the data. When reusing entries, this buffer is only used if the payload
+        // is split across several reads.
+        if (mReuseEntries) {
+            if (mReusableData.length < entry.len) {
+                mReusableData = new byte[entry.len];
+            }
+            entry.data = mReusableData;
+        } else {
+            entry.data = new byte[entry.len];
+        }
+        entry.offset = 0;
         
         return entry;
     }
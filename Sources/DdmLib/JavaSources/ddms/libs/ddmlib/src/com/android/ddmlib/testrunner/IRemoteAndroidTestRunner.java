@@ -194,6 +194,15 @@ public interface IRemoteAndroidTestRunner {
      */
     public void setRunName(String runName);
 
+    /**
+     * Sets a history to record the duration and result of the tests of this run into.
+     * <p/>
+     * Nothing is recorded in log only mode.
+     *
+     * @param history the history, or null to not record the tests.
+     */
+    public void setTestDurationHistory(TestDurationHistory history);
+
     /**
      * Execute this test run.
      * <p/>
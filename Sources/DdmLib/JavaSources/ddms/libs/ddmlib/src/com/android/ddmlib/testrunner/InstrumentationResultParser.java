@@ -26,8 +26,6 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Parses the 'raw output mode' results of an instrumentation test run from shell and informs a
@@ -78,6 +76,8 @@ public class InstrumentationResultParser extends MultiLineReceiver {
 
     /** The set of expected status keys. Used to filter which keys should be stored as metrics */
     private static final Set<String> KNOWN_KEYS = new HashSet<String>();
+    /** Known status keys whose values are never used. */
+    private static final Set<String> UNUSED_KEYS = new HashSet<String>();
     static {
         KNOWN_KEYS.add(StatusKeys.TEST);
         KNOWN_KEYS.add(StatusKeys.CLASS);
@@ -86,11 +86,15 @@ public class InstrumentationResultParser extends MultiLineReceiver {
         KNOWN_KEYS.add(StatusKeys.ERROR);
         KNOWN_KEYS.add(StatusKeys.SHORTMSG);
         // unused, but regularly occurring status keys.
-        KNOWN_KEYS.add("stream");
-        KNOWN_KEYS.add("id");
-        KNOWN_KEYS.add("current");
+        UNUSED_KEYS.add("stream");
+        UNUSED_KEYS.add("id");
+        UNUSED_KEYS.add("current");
+        KNOWN_KEYS.addAll(UNUSED_KEYS);
     }
 
+    /** The known keys, to get them without creating a substring of the line. */
+    private static final String[] KNOWN_KEY_ARRAY = KNOWN_KEYS.toArray(new String[0]);
+
     /** Test result status codes. */
     private static class StatusCodes {
         private static final int FAILURE = -2;
@@ -100,13 +104,17 @@ public class InstrumentationResultParser extends MultiLineReceiver {
         private static final int IN_PROGRESS = 2;
     }
 
-    /** Prefixes used to identify output. */
+    /**
+     * Prefixes used to identify output. All the instrumentation prefixes start with
+     * {@link #INSTRUMENTATION}, the others are relative to it.
+     */
     private static class Prefixes {
-        private static final String STATUS = "INSTRUMENTATION_STATUS: ";
-        private static final String STATUS_CODE = "INSTRUMENTATION_STATUS_CODE: ";
-        private static final String STATUS_FAILED = "INSTRUMENTATION_FAILED: ";
-        private static final String CODE = "INSTRUMENTATION_CODE: ";
-        private static final String RESULT = "INSTRUMENTATION_RESULT: ";
+        private static final String INSTRUMENTATION = "INSTRUMENTATION_";
+        private static final String STATUS = "STATUS: ";
+        private static final String STATUS_CODE = "STATUS_CODE: ";
+        private static final String STATUS_FAILED = "FAILED: ";
+        private static final String CODE = "CODE: ";
+        private static final String RESULT = "RESULT: ";
         private static final String TIME_REPORT = "Time: ";
     }
 
@@ -157,8 +165,17 @@ public class InstrumentationResultParser extends MultiLineReceiver {
     /** Stores the current "key" portion of the status key-value being parsed. */
     private String mCurrentKey = null;
 
-    /** Stores the current "value" portion of the status key-value being parsed. */
-    private StringBuilder mCurrentValue = null;
+    /**
+     * Stores the current "value" portion of the status key-value being parsed. Only valid if
+     * {@link #mCurrentKey} is not null. The builder is reused for all the values.
+     */
+    private final StringBuilder mCurrentValue = new StringBuilder();
+
+    /**
+     * True if the value of the current key is ignored, in which case {@link #mCurrentValue}
+     * is not filled. Verbose values like the stream are usually ignored.
+     */
+    private boolean mIgnoreCurrentValue = false;
 
     /** True if start of test has already been reported to listener. */
     private boolean mTestStartReported = false;
@@ -266,39 +283,51 @@ public class InstrumentationResultParser extends MultiLineReceiver {
      * @param line  Text output line
      */
     private void parse(String line) {
-        if (line.startsWith(Prefixes.STATUS_CODE)) {
-            // Previous status key-value has been collected. Store it.
-            submitCurrentKeyValue();
-            mInInstrumentationResultKey = false;
-            parseStatusCode(line);
-        } else if (line.startsWith(Prefixes.STATUS)) {
-            // Previous status key-value has been collected. Store it.
-            submitCurrentKeyValue();
-            mInInstrumentationResultKey = false;
-            parseKey(line, Prefixes.STATUS.length());
-        } else if (line.startsWith(Prefixes.RESULT)) {
-            // Previous status key-value has been collected. Store it.
-            submitCurrentKeyValue();
-            mInInstrumentationResultKey = true;
-            parseKey(line, Prefixes.RESULT.length());
-        } else if (line.startsWith(Prefixes.STATUS_FAILED) ||
-                   line.startsWith(Prefixes.CODE)) {
-            // Previous status key-value has been collected. Store it.
-            submitCurrentKeyValue();
-            mInInstrumentationResultKey = false;
-            // these codes signal the end of the instrumentation run
-            mTestRunFinished = true;
-            // just ignore the remaining data on this line
+        // dispatch on the characters following the common prefix instead of testing each
+        // prefix in turn.
+        if (line.startsWith(Prefixes.INSTRUMENTATION)) {
+            int pos = Prefixes.INSTRUMENTATION.length();
+            if (line.startsWith(Prefixes.STATUS_CODE, pos)) {
+                // Previous status key-value has been collected. Store it.
+                submitCurrentKeyValue();
+                mInInstrumentationResultKey = false;
+                parseStatusCode(line, pos + Prefixes.STATUS_CODE.length());
+                return;
+            } else if (line.startsWith(Prefixes.STATUS, pos)) {
+                // Previous status key-value has been collected. Store it.
+                submitCurrentKeyValue();
+                mInInstrumentationResultKey = false;
+                parseKey(line, pos + Prefixes.STATUS.length());
+                return;
+            } else if (line.startsWith(Prefixes.RESULT, pos)) {
+                // Previous status key-value has been collected. Store it.
+                submitCurrentKeyValue();
+                mInInstrumentationResultKey = true;
+                parseKey(line, pos + Prefixes.RESULT.length());
+                return;
+            } else if (line.startsWith(Prefixes.STATUS_FAILED, pos) ||
+                       line.startsWith(Prefixes.CODE, pos)) {
+                // Previous status key-value has been collected. Store it.
+                submitCurrentKeyValue();
+                mInInstrumentationResultKey = false;
+                // these codes signal the end of the instrumentation run
+                mTestRunFinished = true;
+                // just ignore the remaining data on this line
+                return;
+            }
         } else if (line.startsWith(Prefixes.TIME_REPORT)) {
             parseTime(line);
-        } else {
-            if (mCurrentValue != null) {
-                // this is a value that has wrapped to next line.
+            return;
+        }
+
+        if (mCurrentKey != null) {
+            // this is a value that has wrapped to next line.
+            if (!mIgnoreCurrentValue) {
                 mCurrentValue.append("\r\n");
                 mCurrentValue.append(line);
-            } else if (line.trim().length() > 0){
-                Log.d(LOG_TAG, "unrecognized line " + line);
             }
+        } else if (line.trim().length() > 0){
+            Log.d(LOG_TAG, "unrecognized line " + line);
         }
     }
 
@@ -306,7 +335,9 @@ public class InstrumentationResultParser extends MultiLineReceiver {
      * Stores the currently parsed key-value pair in the appropriate place.
      */
     private void submitCurrentKeyValue() {
-        if (mCurrentKey != null && mCurrentValue != null) {
+        if (mCurrentKey != null && mIgnoreCurrentValue) {
+            mCurrentKey = null;
+        } else if (mCurrentKey != null) {
             String statusValue = mCurrentValue.toString();
             if (mInInstrumentationResultKey) {
                 if (!KNOWN_KEYS.contains(mCurrentKey)) {
@@ -342,7 +373,6 @@ public class InstrumentationResultParser extends MultiLineReceiver {
             }
 
             mCurrentKey = null;
-            mCurrentValue = null;
         }
     }
 
@@ -378,11 +408,38 @@ public class InstrumentationResultParser extends MultiLineReceiver {
     private void parseKey(String line, int keyStartPos) {
         int endKeyPos = line.indexOf('=', keyStartPos);
         if (endKeyPos != -1) {
-            mCurrentKey = line.substring(keyStartPos, endKeyPos).trim();
-            parseValue(line, endKeyPos + 1);
+            mCurrentKey = getKey(line, keyStartPos, endKeyPos);
+            if (mInInstrumentationResultKey) {
+                mIgnoreCurrentValue = KNOWN_KEYS.contains(mCurrentKey)
+                        && !mCurrentKey.equals(StatusKeys.SHORTMSG);
+            } else {
+                mIgnoreCurrentValue = UNUSED_KEYS.contains(mCurrentKey);
+            }
+            if (!mIgnoreCurrentValue) {
+                parseValue(line, endKeyPos + 1);
+            }
         }
     }
 
+    /**
+     * Returns the trimmed key between two positions of a line, reusing the known keys.
+     */
+    private static String getKey(String line, int start, int end) {
+        while (start < end && line.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int length = end - start;
+        for (String key : KNOWN_KEY_ARRAY) {
+            if (key.length() == length && line.startsWith(key, start)) {
+                return key;
+            }
+        }
+        return line.substring(start, end);
+    }
+
     /**
      * Parses the start of a key=value pair.
      *
@@ -390,21 +447,24 @@ public class InstrumentationResultParser extends MultiLineReceiver {
      * @param valueStartPos - the starting position of the value in the given line
      */
     private void parseValue(String line, int valueStartPos) {
-        mCurrentValue = new StringBuilder();
-        mCurrentValue.append(line.substring(valueStartPos));
+        mCurrentValue.setLength(0);
+        mCurrentValue.append(line, valueStartPos, line.length());
     }
 
     /**
      * Parses out a status code result.
+     *
+     * @param line full line of text to parse
+     * @param codeStartPos the starting position of the code in the given line
      */
-    private void parseStatusCode(String line) {
-        String value = line.substring(Prefixes.STATUS_CODE.length()).trim();
+    private void parseStatusCode(String line, int codeStartPos) {
         TestResult testInfo = getCurrentTestInfo();
-        testInfo.mCode = StatusCodes.ERROR;
-        try {
-            testInfo.mCode = Integer.parseInt(value);
-        } catch (NumberFormatException e) {
-            Log.w(LOG_TAG, "Expected integer status code, received: " + value);
+        Integer code = parseInt(line, codeStartPos);
+        if (code != null) {
+            testInfo.mCode = code;
+        } else {
+            Log.w(LOG_TAG, "Expected integer status code, received: "
+                    + line.substring(codeStartPos).trim());
             testInfo.mCode = StatusCodes.ERROR;
         }
         if (testInfo.mCode != StatusCodes.IN_PROGRESS) {
@@ -414,6 +474,50 @@ public class InstrumentationResultParser extends MultiLineReceiver {
         }
     }
 
+    /**
+     * Parses a decimal integer surrounded by optional whitespace, without creating a
+     * substring. Accepts the same text as {@link Integer#parseInt(String)} of the trimmed text.
+     *
+     * @return the value, or null if the text is not an integer.
+     */
+    static Integer parseInt(String line, int start) {
+        int end = line.length();
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int pos = start;
+        while (pos < end && line.charAt(pos) <= ' ') {
+            pos++;
+        }
+
+        boolean negative = false;
+        if (pos < end && (line.charAt(pos) == '-' || line.charAt(pos) == '+')) {
+            negative = line.charAt(pos) == '-';
+            pos++;
+        }
+        if (pos == end) {
+            return null;
+        }
+
+        long value = 0;
+        for ( ; pos < end ; pos++) {
+            int digit = line.charAt(pos) - '0';
+            if (digit < 0 || digit > 9) {
+                return null;
+            }
+            value = value * 10 + digit;
+            if (value > -(long) Integer.MIN_VALUE) {
+                // overflow. Leading zeros are allowed, so the digits can't be counted.
+                return null;
+            }
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return null;
+        }
+        return Integer.valueOf((int) value);
+    }
+
     /**
      * Returns true if test run canceled.
      *
@@ -523,13 +627,20 @@ public class InstrumentationResultParser extends MultiLineReceiver {
      * Parses out and store the elapsed time.
      */
     private void parseTime(String line) {
-        final Pattern timePattern = Pattern.compile(String.format("%s\\s*([\\d\\.]+)",
-                Prefixes.TIME_REPORT));
-        Matcher timeMatcher = timePattern.matcher(line);
-        if (timeMatcher.find()) {
-            String timeString = timeMatcher.group(1);
+        int start = Prefixes.TIME_REPORT.length();
+        while (start < line.length() && Character.isWhitespace(line.charAt(start))) {
+            start++;
+        }
+        int end = start;
+        while (end < line.length()
+                && ((line.charAt(end) >= '0' && line.charAt(end) <= '9')
+                        || line.charAt(end) == '.')) {
+            end++;
+        }
+
+        if (end > start) {
             try {
-                float timeSeconds = Float.parseFloat(timeString);
+                float timeSeconds = Float.parseFloat(line.substring(start, end));
                 mTestTime = (long) (timeSeconds * 1000);
             } catch (NumberFormatException e) {
                 Log.w(LOG_TAG, String.format("Unexpected time format %1$s", line));
@@ -24,9 +24,11 @@ import com.android.ddmlib.ShellCommandUnresponsiveException;
 import com.android.ddmlib.TimeoutException;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -41,6 +43,7 @@ public class RemoteAndroidTestRunner implements IRemoteAndroidTestRunner  {
     // default to no timeout
     private int mMaxTimeToOutputResponse = 0;
     private String mRunName = null;
+    private TestDurationHistory mHistory = null;
 
     /** map of name-value instrumentation argument pairs */
     private Map<String, String> mArgMap;
@@ -234,6 +237,14 @@ public class RemoteAndroidTestRunner implements IRemoteAndroidTestRunner  {
         mRunName = runName;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setTestDurationHistory(TestDurationHistory history) {
+        mHistory = history;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -256,6 +267,11 @@ public class RemoteAndroidTestRunner implements IRemoteAndroidTestRunner  {
         Log.i(LOG_TAG, String.format("Running %1$s on %2$s", runCaseCommandStr,
                 mRemoteDevice.getSerialNumber()));
         String runName = mRunName == null ? mPackageName : mRunName;
+        if (mHistory != null && !Boolean.toString(true).equals(mArgMap.get(LOG_ARG_NAME))) {
+            List<ITestRunListener> allListeners = new ArrayList<ITestRunListener>(listeners);
+            allListeners.add(mHistory);
+            listeners = allListeners;
+        }
         mParser = new InstrumentationResultParser(runName, listeners);
 
         try {
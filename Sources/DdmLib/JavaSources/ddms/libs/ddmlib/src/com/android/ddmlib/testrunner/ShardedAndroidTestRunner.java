@@ -0,0 +1,765 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.Log;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.TimeoutException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the tests of an instrumentation package split in shards over several devices, and
+ * reports the results of all the shards as a single test run.
+ * <p/>
+ * The tests are the ones set with {@link #setTests(Collection)}, or else the ones listed by a
+ * log only run of the instrumentation on the first device. To re-run only the tests which
+ * failed in previous runs, set the tests to {@link TestDurationHistory#getFailedTests()}.
+ * <p/>
+ * Tests are scheduled by class, the longest classes first, from a queue shared by the
+ * devices: each device runs a batch of classes with a {@link RemoteAndroidTestRunner} on its
+ * own thread, then takes the next batch, until the queue is empty. Batches get smaller as the
+ * queue empties, so that the devices finish at about the same time while starting few
+ * instrumentation runs. The cost of a class is the sum of the durations of its tests in the
+ * {@link TestDurationHistory} set with {@link #setTestDurationHistory(TestDurationHistory)},
+ * which also records the tests of the run. Without a history, each test costs the same.
+ * Batches are also split so that the list of their classes or tests fits in the
+ * instrumentation command.
+ * <p/>
+ * The tests of a batch which did not end, because the instrumentation crashed, a test
+ * hung, or the connection to the device failed, are put back on the queue once and run by
+ * method by the next shard taking a batch. A test which does not end the second time either
+ * is reported as failed. A device is left out only after a connection failure. The tests
+ * left in the queue when all the shards are done are reported as not run.
+ * <p/>
+ * The listeners get one
+ * {@link ITestRunListener#testRunStarted(String, int)} with the total number of tests, the
+ * test events of all the shards, at most one {@link ITestRunListener#testRunFailed(String)}
+ * with the errors of the shards which failed, and one
+ * {@link ITestRunListener#testRunEnded(long, Map)} with the run metrics of all the shards.
+ */
+public class ShardedAndroidTestRunner {
+
+    private static final String LOG_TAG = "ShardedAndroidTest";
+
+    /**
+     * The maximum length of the class argument of a batch. adb accepts shell requests of up to
+     * 4 KB, this leaves room for the rest of the instrumentation command.
+     */
+    static final int MAX_CLASS_ARG_LENGTH = 2048;
+
+    /** The failure of a test which did not end in two runs of its batch. */
+    static final String INCOMPLETE_TEST_MSG =
+            "Test did not complete: the test run failed twice before ending it";
+
+    private final String mPackageName;
+    private final String mRunnerName;
+    private final List<IDevice> mDevices;
+
+    private int mMaxTimeToOutputResponse = 0;
+    private String mRunName = null;
+    private final Map<String, String> mArgMap = new LinkedHashMap<String, String>();
+
+    private List<TestIdentifier> mTests;
+    private TestDurationHistory mHistory = null;
+
+    private final List<RemoteAndroidTestRunner> mRunners =
+            new ArrayList<RemoteAndroidTestRunner>();
+    private boolean mCancelled = false;
+
+    /**
+     * Creates a sharded test runner.
+     *
+     * @param packageName the Android application package that contains the tests to run
+     * @param runnerName the instrumentation test runner to execute. If null, will use default
+     *   runner
+     * @param devices the devices to execute tests on, one shard per device
+     */
+    public ShardedAndroidTestRunner(String packageName, String runnerName,
+            Collection<IDevice> devices) {
+        if (devices.isEmpty()) {
+            throw new IllegalArgumentException("devices cannot be empty");
+        }
+        mPackageName = packageName;
+        mRunnerName = runnerName;
+        mDevices = new ArrayList<IDevice>(devices);
+    }
+
+    /**
+     * Adds an argument to the instrumentation command of every shard.
+     *
+     * @see IRemoteAndroidTestRunner#addInstrumentationArg(String, String)
+     */
+    public void addInstrumentationArg(String name, String value) {
+        if (name == null || value == null) {
+            throw new IllegalArgumentException("name or value arguments cannot be null");
+        }
+        mArgMap.put(name, value);
+    }
+
+    /**
+     * @see IRemoteAndroidTestRunner#setMaxtimeToOutputResponse(int)
+     */
+    public void setMaxtimeToOutputResponse(int maxTimeToOutputResponse) {
+        mMaxTimeToOutputResponse = maxTimeToOutputResponse;
+    }
+
+    /**
+     * @see IRemoteAndroidTestRunner#setRunName(String)
+     */
+    public void setRunName(String runName) {
+        mRunName = runName;
+    }
+
+    /**
+     * Sets the tests to run. Each test is run by method, so only these tests are run. If not
+     * set, all the tests of the instrumentation are run, by class.
+     */
+    public void setTests(Collection<TestIdentifier> tests) {
+        mTests = tests != null ? new ArrayList<TestIdentifier>(tests) : null;
+    }
+
+    /**
+     * Sets the history used to schedule the longest tests first, and to record the tests of
+     * this run into.
+     *
+     * @param history the history, or null to give all the tests the same cost.
+     */
+    public void setTestDurationHistory(TestDurationHistory history) {
+        mHistory = history;
+    }
+
+    /**
+     * Runs the tests.
+     *
+     * @param listeners listens for the merged test results
+     * @throws TimeoutException in case of a timeout on the connection while listing the tests.
+     * @throws AdbCommandRejectedException if adb rejects the command listing the tests
+     * @throws ShellCommandUnresponsiveException if the device did not output any test
+     *             information while listing the tests.
+     * @throws IOException if connection to device was lost while listing the tests.
+     */
+    public void run(ITestRunListener... listeners)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
+            IOException {
+        run(Arrays.asList(listeners));
+    }
+
+    /**
+     * Runs the tests.
+     *
+     * @see #run(ITestRunListener...)
+     */
+    public void run(Collection<ITestRunListener> listeners)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
+            IOException {
+        String runName = mRunName == null ? mPackageName : mRunName;
+        long startTime = System.currentTimeMillis();
+
+        List<TestIdentifier> tests = mTests;
+        boolean byMethod = tests != null;
+        if (tests == null) {
+            tests = collectTests(mDevices.get(0));
+        }
+
+        Map<TestIdentifier, Long> durations = mHistory != null ? mHistory.getDurations()
+                : Collections.<TestIdentifier, Long>emptyMap();
+        WorkQueue queue = new WorkQueue(tests, durations, mDevices.size(), byMethod,
+                MAX_CLASS_ARG_LENGTH);
+        MergingListener merger = new MergingListener(listeners);
+        merger.startRun(runName, tests.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(mDevices.size(),
+                new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Test Shard"); //$NON-NLS-1$
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(mDevices.size());
+            for (IDevice device : mDevices) {
+                futures.add(executor.submit(new Shard(device, queue, merger, runName,
+                        byMethod)));
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    merger.shardFailed(e.getCause().toString());
+                }
+            }
+        } catch (InterruptedException e) {
+            cancel();
+            merger.shardFailed("Interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+        }
+
+        int remaining = queue.getRemainingTestCount();
+        if (remaining > 0 && !isCancelled()) {
+            merger.shardFailed(String.format("%1$d tests were not run", remaining));
+        }
+
+        merger.endRun(System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Cancels the run of all the shards.
+     */
+    public synchronized void cancel() {
+        mCancelled = true;
+        for (RemoteAndroidTestRunner runner : mRunners) {
+            runner.cancel();
+        }
+    }
+
+    private synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Registers the runner of a batch, unless the run was cancelled.
+     *
+     * @return false if the run was cancelled.
+     */
+    private synchronized boolean addRunner(RemoteAndroidTestRunner runner) {
+        if (mCancelled) {
+            return false;
+        }
+        mRunners.add(runner);
+        return true;
+    }
+
+    private synchronized void removeRunner(RemoteAndroidTestRunner runner) {
+        mRunners.remove(runner);
+    }
+
+    /**
+     * Lists the tests of the instrumentation with a log only run.
+     */
+    private List<TestIdentifier> collectTests(IDevice device)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
+            IOException {
+        RemoteAndroidTestRunner runner = new RemoteAndroidTestRunner(mPackageName, mRunnerName,
+                device);
+        for (Entry<String, String> arg : mArgMap.entrySet()) {
+            runner.addInstrumentationArg(arg.getKey(), arg.getValue());
+        }
+        runner.setMaxtimeToOutputResponse(mMaxTimeToOutputResponse);
+        runner.setLogOnly(true);
+
+        final List<TestIdentifier> tests = new ArrayList<TestIdentifier>();
+        final String[] error = new String[1];
+        runner.run(new ITestRunListener() {
+            @Override
+            public void testStarted(TestIdentifier test) {
+                tests.add(test);
+            }
+
+            @Override
+            public void testRunFailed(String errorMessage) {
+                error[0] = errorMessage;
+            }
+
+            @Override
+            public void testRunStarted(String runName, int testCount) {
+            }
+
+            @Override
+            public void testFailed(TestFailure status, TestIdentifier test, String trace) {
+            }
+
+            @Override
+            public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+            }
+
+            @Override
+            public void testRunStopped(long elapsedTime) {
+            }
+
+            @Override
+            public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+            }
+        });
+
+        if (error[0] != null) {
+            throw new IOException(String.format("Failed to list the tests of %1$s: %2$s",
+                    mPackageName, error[0]));
+        }
+        Log.d(LOG_TAG, String.format("Found %1$d tests in %2$s", tests.size(), mPackageName));
+        return tests;
+    }
+
+    private RemoteAndroidTestRunner createRunner(IDevice device, List<TestIdentifier> shard,
+            boolean byMethod) {
+        RemoteAndroidTestRunner runner = new RemoteAndroidTestRunner(mPackageName, mRunnerName,
+                device);
+        for (Entry<String, String> arg : mArgMap.entrySet()) {
+            runner.addInstrumentationArg(arg.getKey(), arg.getValue());
+        }
+        runner.setMaxtimeToOutputResponse(mMaxTimeToOutputResponse);
+        runner.setClassNames(getClassNames(shard, byMethod));
+        runner.setTestDurationHistory(mHistory);
+        return runner;
+    }
+
+    /**
+     * Returns the class argument of a shard: its classes, or its test methods.
+     */
+    static String[] getClassNames(List<TestIdentifier> shard, boolean byMethod) {
+        List<String> names = new ArrayList<String>();
+        String lastClass = null;
+        for (TestIdentifier test : shard) {
+            if (byMethod) {
+                names.add(test.getClassName() + '#' + test.getTestName());
+            } else if (!test.getClassName().equals(lastClass)) {
+                names.add(test.getClassName());
+            }
+            lastClass = test.getClassName();
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * Returns the length of the class argument of some tests, as returned by
+     * {@link #getClassNames(List, boolean)}. The tests are grouped by class.
+     */
+    static int getArgLength(List<TestIdentifier> tests, int start, int end, boolean byMethod) {
+        int length = -1;
+        String lastClass = null;
+        for (int i = start ; i < end ; i++) {
+            TestIdentifier test = tests.get(i);
+            if (byMethod) {
+                length += test.getClassName().length() + test.getTestName().length() + 2;
+            } else if (!test.getClassName().equals(lastClass)) {
+                length += test.getClassName().length() + 1;
+            }
+            lastClass = test.getClassName();
+        }
+        return Math.max(length, 0);
+    }
+
+    /**
+     * Returns how many tests, from a position, fit in a class argument run by method. This is
+     * at least one, so that a test with a name too long is run alone.
+     */
+    static int countFitting(List<TestIdentifier> tests, int start, int maxLength) {
+        int length = getArgLength(tests, start, start + 1, true);
+        int end = start + 1;
+        while (end < tests.size()) {
+            TestIdentifier test = tests.get(end);
+            length += test.getClassName().length() + test.getTestName().length() + 2;
+            if (length > maxLength) {
+                break;
+            }
+            end++;
+        }
+        return end - start;
+    }
+
+    /**
+     * The classes left to run, the longest first, taken in batches by the shards.
+     */
+    static final class WorkQueue {
+        private final List<List<TestIdentifier>> mClasses;
+        private final long[] mCosts;
+        private final int mShardCount;
+        private final boolean mByMethod;
+        private final int mMaxArgLength;
+        private int mNext = 0;
+        private long mRemainingCost = 0;
+        private int mRemainingTestCount;
+        private final List<List<TestIdentifier>> mRequeued = new ArrayList<List<TestIdentifier>>();
+        /** The tests which were put back once. */
+        private final Set<TestIdentifier> mRequeuedTests = new HashSet<TestIdentifier>();
+
+        /**
+         * @param tests the tests to run.
+         * @param durations the expected durations of the tests. Tests without one count as the
+         *            average of the others, or 1 if none is known.
+         * @param shardCount the number of shards taking batches.
+         * @param byMethod whether the batches are run by method, or by class.
+         * @param maxArgLength the maximum length of the class argument of a batch, as returned
+         *            by {@link ShardedAndroidTestRunner#getClassNames(List, boolean)}. A class
+         *            which is longer on its own is taken alone, or split if run by method.
+         */
+        WorkQueue(List<TestIdentifier> tests, Map<TestIdentifier, Long> durations,
+                int shardCount, boolean byMethod, int maxArgLength) {
+            mShardCount = shardCount;
+            mByMethod = byMethod;
+            mMaxArgLength = maxArgLength;
+            mRemainingTestCount = tests.size();
+
+            // group the tests by class, keeping the order of the tests.
+            Map<String, List<TestIdentifier>> classes =
+                    new LinkedHashMap<String, List<TestIdentifier>>();
+            long knownTotal = 0;
+            int knownCount = 0;
+            for (TestIdentifier test : tests) {
+                List<TestIdentifier> classTests = classes.get(test.getClassName());
+                if (classTests == null) {
+                    classTests = new ArrayList<TestIdentifier>();
+                    classes.put(test.getClassName(), classTests);
+                }
+                classTests.add(test);
+
+                Long duration = durations.get(test);
+                if (duration != null) {
+                    knownTotal += duration;
+                    knownCount++;
+                }
+            }
+            long defaultCost = knownCount > 0 ? Math.max(1, knownTotal / knownCount) : 1;
+
+            final Map<List<TestIdentifier>, Long> costs =
+                    new HashMap<List<TestIdentifier>, Long>();
+            for (List<TestIdentifier> classTests : classes.values()) {
+                long cost = 0;
+                for (TestIdentifier test : classTests) {
+                    Long duration = durations.get(test);
+                    cost += duration != null ? duration : defaultCost;
+                }
+                costs.put(classTests, cost);
+            }
+
+            mClasses = new ArrayList<List<TestIdentifier>>(classes.values());
+            Collections.sort(mClasses, new Comparator<List<TestIdentifier>>() {
+                @Override
+                public int compare(List<TestIdentifier> o1, List<TestIdentifier> o2) {
+                    return costs.get(o2).compareTo(costs.get(o1));
+                }
+            });
+            mCosts = new long[mClasses.size()];
+            for (int i = 0 ; i < mCosts.length ; i++) {
+                mCosts[i] = costs.get(mClasses.get(i));
+                mRemainingCost += mCosts[i];
+            }
+        }
+
+        /**
+         * Takes the next batch of classes. A batch costs at least half of an even share of the
+         * remaining cost, so the first batches are large, and the last ones are single classes
+         * which go to the shards finishing first. A batch ends earlier if its class argument
+         * would get too long.
+         *
+         * @return the tests of the batch, or null if the queue is empty.
+         */
+        synchronized List<TestIdentifier> poll() {
+            if (mNext == mClasses.size()) {
+                return null;
+            }
+
+            long target = mRemainingCost / (2 * mShardCount);
+            List<TestIdentifier> batch = new ArrayList<TestIdentifier>();
+            long cost = 0;
+            int length = -1;
+            do {
+                List<TestIdentifier> classTests = mClasses.get(mNext);
+                int classLength = getArgLength(classTests, 0, classTests.size(), mByMethod);
+                if (length + 1 + classLength <= mMaxArgLength || (batch.isEmpty() && !mByMethod)) {
+                    batch.addAll(classTests);
+                    cost += mCosts[mNext];
+                    length += 1 + classLength;
+                    mNext++;
+                } else if (batch.isEmpty()) {
+                    // a class too long on its own, run by method: take the tests which fit.
+                    int count = countFitting(classTests, 0, mMaxArgLength);
+                    long partCost = mCosts[mNext] * count / classTests.size();
+                    batch.addAll(classTests.subList(0, count));
+                    mClasses.set(mNext, new ArrayList<TestIdentifier>(
+                            classTests.subList(count, classTests.size())));
+                    mCosts[mNext] -= partCost;
+                    cost += partCost;
+                    break;
+                } else {
+                    break;
+                }
+            } while (cost < target && mNext < mClasses.size());
+
+            mRemainingCost -= cost;
+            mRemainingTestCount -= batch.size();
+            return batch;
+        }
+
+        /**
+         * Puts back tests taken from the queue which were not run. They are taken by
+         * {@link #pollRequeued()} before the classes left in the queue. A test is put back
+         * once only.
+         *
+         * @return the tests which were already put back once, and are not put back again.
+         */
+        synchronized List<TestIdentifier> requeue(List<TestIdentifier> tests) {
+            List<TestIdentifier> requeued = new ArrayList<TestIdentifier>();
+            List<TestIdentifier> retried = new ArrayList<TestIdentifier>();
+            for (TestIdentifier test : tests) {
+                if (mRequeuedTests.add(test)) {
+                    requeued.add(test);
+                } else {
+                    retried.add(test);
+                }
+            }
+            // they are run by method, which can make the class argument longer than it was.
+            for (int start = 0 ; start < requeued.size() ; ) {
+                int count = countFitting(requeued, start, mMaxArgLength);
+                mRequeued.add(new ArrayList<TestIdentifier>(
+                        requeued.subList(start, start + count)));
+                start += count;
+            }
+            mRemainingTestCount += requeued.size();
+            return retried;
+        }
+
+        /**
+         * Takes the oldest tests put back with {@link #requeue(List)}. They may be a part of
+         * their classes only, so they must be run by method.
+         *
+         * @return the tests, or null if none were put back.
+         */
+        synchronized List<TestIdentifier> pollRequeued() {
+            if (mRequeued.isEmpty()) {
+                return null;
+            }
+            List<TestIdentifier> tests = mRequeued.remove(0);
+            mRemainingTestCount -= tests.size();
+            return tests;
+        }
+
+        /**
+         * Returns the number of tests not taken yet, including the ones put back.
+         */
+        synchronized int getRemainingTestCount() {
+            return mRemainingTestCount;
+        }
+    }
+
+    /**
+     * Runs batches from the queue on one device until it is empty.
+     */
+    private final class Shard implements Runnable {
+        private final IDevice mDevice;
+        private final WorkQueue mQueue;
+        private final MergingListener mMerger;
+        private final String mRunName;
+        private final boolean mByMethod;
+
+        Shard(IDevice device, WorkQueue queue, MergingListener merger, String runName,
+                boolean byMethod) {
+            mDevice = device;
+            mQueue = queue;
+            mMerger = merger;
+            mRunName = runName;
+            mByMethod = byMethod;
+        }
+
+        @Override
+        public void run() {
+            while (!isCancelled()) {
+                boolean byMethod = true;
+                List<TestIdentifier> batch = mQueue.pollRequeued();
+                if (batch == null) {
+                    batch = mQueue.poll();
+                    byMethod = mByMethod;
+                }
+                if (batch == null || !runBatch(batch, byMethod)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Runs a batch, and puts its tests which did not end back on the queue.
+         *
+         * @return false if the device should be left out.
+         */
+        private boolean runBatch(List<TestIdentifier> batch, boolean byMethod) {
+            RemoteAndroidTestRunner runner = createRunner(mDevice, batch, byMethod);
+            runner.setRunName(mRunName);
+            if (!addRunner(runner)) {
+                return false;
+            }
+
+            // the errors are already logged, and reported to the listener by the parser.
+            Set<TestIdentifier> unfinished = new LinkedHashSet<TestIdentifier>(batch);
+            boolean deviceFailed = false;
+            try {
+                runner.run(mMerger.createShardListener(unfinished));
+            } catch (TimeoutException e) {
+                // the batch failed, the device can run the next one.
+            } catch (ShellCommandUnresponsiveException e) {
+                // a test hung, and was ended by the parser.
+            } catch (AdbCommandRejectedException e) {
+                deviceFailed = true;
+            } catch (IOException e) {
+                deviceFailed = true;
+            } finally {
+                removeRunner(runner);
+            }
+
+            if (!unfinished.isEmpty() && !isCancelled()) {
+                List<TestIdentifier> retried =
+                        mQueue.requeue(new ArrayList<TestIdentifier>(unfinished));
+                for (TestIdentifier test : retried) {
+                    mMerger.testIncomplete(test, INCOMPLETE_TEST_MSG);
+                    if (mHistory != null) {
+                        Long duration = mHistory.getDuration(test);
+                        mHistory.addResult(test, duration != null ? duration : 0, true);
+                    }
+                }
+            }
+            return !deviceFailed;
+        }
+    }
+
+    /**
+     * Forwards the test events of all the shards to the listeners, one at a time, and reports
+     * the start, failure and end of the whole run once.
+     */
+    static final class MergingListener {
+        private final Collection<ITestRunListener> mListeners;
+        private final List<String> mErrors = new ArrayList<String>();
+        private final Map<String, String> mRunMetrics = new HashMap<String, String>();
+
+        MergingListener(Collection<ITestRunListener> listeners) {
+            mListeners = listeners;
+        }
+
+        synchronized void startRun(String runName, int testCount) {
+            for (ITestRunListener listener : mListeners) {
+                listener.testRunStarted(runName, testCount);
+            }
+        }
+
+        synchronized void shardFailed(String errorMessage) {
+            mErrors.add(errorMessage);
+        }
+
+        synchronized void endRun(long elapsedTime) {
+            if (!mErrors.isEmpty()) {
+                StringBuilder sb = new StringBuilder();
+                for (String error : mErrors) {
+                    if (sb.length() > 0) {
+                        sb.append("; ");
+                    }
+                    sb.append(error);
+                }
+                for (ITestRunListener listener : mListeners) {
+                    listener.testRunFailed(sb.toString());
+                }
+            }
+            for (ITestRunListener listener : mListeners) {
+                listener.testRunEnded(elapsedTime, mRunMetrics);
+            }
+        }
+
+        /**
+         * Reports a test which did not end as failed.
+         */
+        synchronized void testIncomplete(TestIdentifier test, String message) {
+            Map<String, String> empty = Collections.emptyMap();
+            for (ITestRunListener listener : mListeners) {
+                listener.testStarted(test);
+                listener.testFailed(ITestRunListener.TestFailure.ERROR, test, message);
+                listener.testEnded(test, empty);
+            }
+        }
+
+        /**
+         * Creates the listener of the run of a batch.
+         *
+         * @param unfinished the tests of the batch. The tests which end are removed from it.
+         */
+        ITestRunListener createShardListener(final Collection<TestIdentifier> unfinished) {
+            return new ITestRunListener() {
+                @Override
+                public void testRunStarted(String runName, int testCount) {
+                    // reported once for all the shards.
+                }
+
+                @Override
+                public void testStarted(TestIdentifier test) {
+                    synchronized (MergingListener.this) {
+                        for (ITestRunListener listener : mListeners) {
+                            listener.testStarted(test);
+                        }
+                    }
+                }
+
+                @Override
+                public void testFailed(TestFailure status, TestIdentifier test, String trace) {
+                    synchronized (MergingListener.this) {
+                        for (ITestRunListener listener : mListeners) {
+                            listener.testFailed(status, test, trace);
+                        }
+                    }
+                }
+
+                @Override
+                public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+                    synchronized (MergingListener.this) {
+                        unfinished.remove(test);
+                        for (ITestRunListener listener : mListeners) {
+                            listener.testEnded(test, testMetrics);
+                        }
+                    }
+                }
+
+                @Override
+                public void testRunFailed(String errorMessage) {
+                    shardFailed(errorMessage);
+                }
+
+                @Override
+                public void testRunStopped(long elapsedTime) {
+                    shardFailed("Test run stopped");
+                }
+
+                @Override
+                public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+                    synchronized (MergingListener.this) {
+                        mRunMetrics.putAll(runMetrics);
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The durations and results of tests over several runs, used to schedule the longest tests
+ * first and to re-run only the tests which failed.
+ * <p/>
+ * The history is a {@link ITestRunListener} which records the time between the start and the
+ * end of each test it is sent, as reported by {@link InstrumentationResultParser}. It is
+ * usually set on a runner with
+ * {@link RemoteAndroidTestRunner#setTestDurationHistory(TestDurationHistory)} or
+ * {@link ShardedAndroidTestRunner#setTestDurationHistory(TestDurationHistory)}.
+ * <p/>
+ * The duration kept for a test is the average of its last duration and the duration kept
+ * before, so that one slow run does not reorder the schedule.
+ * <p/>
+ * The history is saved as a text file with one line per test:
+ * <pre>duration&lt;tab&gt;1 if failed, 0 otherwise&lt;tab&gt;class name&lt;tab&gt;test name</pre>
+ */
+public final class TestDurationHistory implements ITestRunListener {
+
+    private static final String LOG_TAG = "TestDurationHistory";
+    private static final String ENCODING = "UTF-8"; //$NON-NLS-1$
+    private static final char SEPARATOR = '\t';
+
+    private static final class Result {
+        long mDuration;
+        boolean mFailed;
+    }
+
+    private final Map<TestIdentifier, Result> mResults =
+            new LinkedHashMap<TestIdentifier, Result>();
+
+    /** the start time of the running tests, and whether they failed. */
+    private final Map<TestIdentifier, Long> mStartTimes = new HashMap<TestIdentifier, Long>();
+    private final Map<TestIdentifier, Boolean> mRunningFailed =
+            new HashMap<TestIdentifier, Boolean>();
+
+    /**
+     * Creates an empty history.
+     */
+    public TestDurationHistory() {
+    }
+
+    /**
+     * Loads a history saved with {@link #save(File)}.
+     *
+     * @param file the file to read.
+     * @return the history, empty if the file does not exist.
+     * @throws IOException if the file cannot be read.
+     */
+    public static TestDurationHistory load(File file) throws IOException {
+        TestDurationHistory history = new TestDurationHistory();
+
+        BufferedReader reader;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                    ENCODING));
+        } catch (FileNotFoundException e) {
+            return history;
+        }
+
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int sep1 = line.indexOf(SEPARATOR);
+                int sep2 = sep1 < 0 ? -1 : line.indexOf(SEPARATOR, sep1 + 1);
+                int sep3 = sep2 < 0 ? -1 : line.indexOf(SEPARATOR, sep2 + 1);
+                if (sep3 < 0) {
+                    Log.w(LOG_TAG, String.format("Invalid line %1$d in %2$s", lineNumber,
+                            file.getPath()));
+                    continue;
+                }
+
+                Result result = new Result();
+                try {
+                    result.mDuration = Long.parseLong(line.substring(0, sep1));
+                } catch (NumberFormatException e) {
+                    Log.w(LOG_TAG, String.format("Invalid duration at line %1$d in %2$s",
+                            lineNumber, file.getPath()));
+                    continue;
+                }
+                result.mFailed = line.charAt(sep1 + 1) == '1';
+                history.mResults.put(new TestIdentifier(line.substring(sep2 + 1, sep3),
+                        line.substring(sep3 + 1)), result);
+            }
+        } finally {
+            reader.close();
+        }
+        return history;
+    }
+
+    /**
+     * Saves the history. The file is replaced once the history is fully written.
+     *
+     * @param file the file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public synchronized void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp"); //$NON-NLS-1$
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(temp), ENCODING));
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<TestIdentifier, Result> e : mResults.entrySet()) {
+                sb.setLength(0);
+                sb.append(e.getValue().mDuration).append(SEPARATOR);
+                sb.append(e.getValue().mFailed ? '1' : '0').append(SEPARATOR);
+                sb.append(e.getKey().getClassName()).append(SEPARATOR);
+                sb.append(e.getKey().getTestName()).append('\n');
+                writer.write(sb.toString());
+            }
+        } finally {
+            writer.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            // renameTo does not replace an existing file on all platforms.
+            file.delete();
+            if (!temp.renameTo(file)) {
+                throw new IOException(String.format("Failed to write %1$s", file.getPath()));
+            }
+        }
+    }
+
+    /**
+     * Records the result of a test.
+     *
+     * @param test the test.
+     * @param duration the duration of the test, in ms.
+     * @param failed whether the test failed.
+     */
+    public synchronized void addResult(TestIdentifier test, long duration, boolean failed) {
+        Result result = mResults.get(test);
+        if (result == null) {
+            result = new Result();
+            result.mDuration = duration;
+            mResults.put(test, result);
+        } else {
+            result.mDuration = (result.mDuration + duration) / 2;
+        }
+        result.mFailed = failed;
+    }
+
+    /**
+     * Returns the duration of a test in ms, or null if the test never ran.
+     */
+    public synchronized Long getDuration(TestIdentifier test) {
+        Result result = mResults.get(test);
+        return result != null ? Long.valueOf(result.mDuration) : null;
+    }
+
+    /**
+     * Returns the duration in ms of all the tests which ran.
+     */
+    public synchronized Map<TestIdentifier, Long> getDurations() {
+        Map<TestIdentifier, Long> durations = new HashMap<TestIdentifier, Long>();
+        for (Map.Entry<TestIdentifier, Result> e : mResults.entrySet()) {
+            durations.put(e.getKey(), e.getValue().mDuration);
+        }
+        return durations;
+    }
+
+    /**
+     * Returns the tests which failed the last time they ran.
+     */
+    public synchronized List<TestIdentifier> getFailedTests() {
+        List<TestIdentifier> tests = new ArrayList<TestIdentifier>();
+        for (Map.Entry<TestIdentifier, Result> e : mResults.entrySet()) {
+            if (e.getValue().mFailed) {
+                tests.add(e.getKey());
+            }
+        }
+        return tests;
+    }
+
+    /**
+     * Returns the number of tests in the history.
+     */
+    public synchronized int getTestCount() {
+        return mResults.size();
+    }
+
+    /**
+     * Removes all the tests from the history.
+     */
+    public synchronized void clear() {
+        mResults.clear();
+    }
+
+    @Override
+    public void testRunStarted(String runName, int testCount) {
+        // nothing to do.
+    }
+
+    @Override
+    public synchronized void testStarted(TestIdentifier test) {
+        mStartTimes.put(test, System.currentTimeMillis());
+        mRunningFailed.put(test, Boolean.FALSE);
+    }
+
+    @Override
+    public synchronized void testFailed(TestFailure status, TestIdentifier test, String trace) {
+        if (mRunningFailed.containsKey(test)) {
+            mRunningFailed.put(test, Boolean.TRUE);
+        }
+    }
+
+    @Override
+    public synchronized void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+        Long start = mStartTimes.remove(test);
+        Boolean failed = mRunningFailed.remove(test);
+        if (start != null) {
+            addResult(test, System.currentTimeMillis() - start, failed.booleanValue());
+        }
+    }
+
+    @Override
+    public void testRunFailed(String errorMessage) {
+        // the test which was running, if any, was reported as failed.
+    }
+
+    @Override
+    public void testRunStopped(long elapsedTime) {
+        // nothing to do.
+    }
+
+    @Override
+    public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+        // nothing to do. Several runs can share the history, so running tests are kept.
+    }
+}
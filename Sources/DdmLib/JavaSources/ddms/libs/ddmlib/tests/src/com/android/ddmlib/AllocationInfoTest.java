@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+public class AllocationInfoTest extends TestCase {
+
+    public void testDescriptorToDot() {
+        assertEquals("android.os.Debug", HandleHeap.descriptorToDot("Landroid/os/Debug;"));
+        assertEquals("int[][]", HandleHeap.descriptorToDot("[[I"));
+        assertEquals("java.lang.String[]", HandleHeap.descriptorToDot("[Ljava/lang/String;"));
+        assertEquals("boolean", HandleHeap.descriptorToDot("Z"));
+        assertEquals("Foo", HandleHeap.descriptorToDot("Foo"));
+
+        // conversions are shared
+        assertSame(HandleHeap.descriptorToDot(new String("Lcom/Foo;")),
+                HandleHeap.descriptorToDot(new String("Lcom/Foo;")));
+    }
+
+    public void testFrames() {
+        AllocationInfo.StringTables strings = new AllocationInfo.StringTables(
+                new String[] { "java.lang.Object", "com.example.Main" },
+                new String[] { "<init>", "main" },
+                new String[] { "Object.java", "Main.java" });
+        AllocationInfo info = new AllocationInfo(1, "com.example.Main", 16, (short)3, strings,
+                new long[] {
+                    AllocationInfo.encodeFrame(0, 0, 0, (short)-2),
+                    AllocationInfo.encodeFrame(1, 1, 1, (short)42),
+                });
+
+        assertEquals(2, info.getStackDepth());
+        assertEquals("java.lang.Object", info.getFirstTraceClassName());
+        assertEquals("<init>", info.getFirstTraceMethodName());
+
+        StackTraceElement[] trace = info.getStackTrace();
+        assertEquals(2, trace.length);
+        assertTrue(trace[0].isNativeMethod());
+        assertEquals("com.example.Main", trace[1].getClassName());
+        assertEquals("main", trace[1].getMethodName());
+        assertEquals("Main.java", trace[1].getFileName());
+        assertEquals(42, trace[1].getLineNumber());
+
+        assertTrue(info.filter("main", true, Locale.US));
+        assertFalse(info.filter("zzz", true, Locale.US));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import com.android.ddmlib.AllocationTracker.AllocationSite;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class AllocationTrackerTest extends TestCase {
+    private static final AllocationInfo.StringTables STRINGS = new AllocationInfo.StringTables(
+            new String[] { "com.example.A", "com.example.B" },
+            new String[] { "run", "loop" },
+            new String[] { "A.java", "B.java" });
+
+    /** Allocation number i, allocated from line 10 + i % 2, with size i. */
+    private static AllocationInfo alloc(int i) {
+        return new AllocationInfo(i, i % 3 == 0 ? "byte[]" : "java.lang.String", i,
+                (short)1, STRINGS, new long[] {
+                    AllocationInfo.encodeFrame(i % 2, i % 2, i % 2, (short)(10 + i % 2))
+                });
+    }
+
+    /** Returns the REAL response for allocations from..to, most recent first. */
+    private static AllocationInfo[] ring(int from, int to) {
+        AllocationInfo[] result = new AllocationInfo[to - from + 1];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = alloc(to - i);
+        }
+        return result;
+    }
+
+    public void testDeltaMerge() {
+        AllocationTracker tracker = new AllocationTracker(null);
+
+        tracker.merge(ring(1, 100));
+        tracker.merge(ring(51, 150));  // overlaps 51..100
+        tracker.merge(ring(101, 150)); // nothing new
+        tracker.merge(ring(101, 200)); // 151..200 are new
+
+        assertEquals(200, tracker.getTotalCount());
+        assertEquals(200 * 201 / 2, tracker.getTotalSize());
+        assertEquals(4, tracker.getPollCount());
+        assertEquals(0, tracker.getOverflowCount());
+
+        long count = 0;
+        List<AllocationSite> sites = tracker.getSites();
+        for (AllocationSite site : sites) {
+            count += site.getCount();
+        }
+        assertEquals(200, count);
+        // 2 frames x 2 classes
+        assertEquals(4, sites.size());
+        assertTrue(sites.get(0).getTotalSize() >= sites.get(1).getTotalSize());
+    }
+
+    public void testOverflow() {
+        AllocationTracker tracker = new AllocationTracker(null);
+
+        tracker.merge(ring(1, 100));
+        tracker.merge(ring(301, 400)); // 101..300 were lost
+
+        assertEquals(200, tracker.getTotalCount());
+        assertEquals(1, tracker.getOverflowCount());
+    }
+
+    public void testOverflowWithCollisionAtEnd() {
+        AllocationTracker tracker = new AllocationTracker(null);
+
+        tracker.merge(ring(1, 100));
+
+        // 201..299 after an overflow, and an allocation identical to the most recent one
+        // of the previous poll at the end: a single matching entry is not an overlap.
+        AllocationInfo[] allocations = new AllocationInfo[100];
+        System.arraycopy(ring(201, 299), 0, allocations, 0, 99);
+        allocations[99] = alloc(100);
+        tracker.merge(allocations);
+
+        assertEquals(200, tracker.getTotalCount());
+        assertEquals(1, tracker.getOverflowCount());
+    }
+}
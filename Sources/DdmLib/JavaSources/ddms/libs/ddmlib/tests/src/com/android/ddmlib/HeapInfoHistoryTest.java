@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import junit.framework.TestCase;
+
+public class HeapInfoHistoryTest extends TestCase {
+
+    /** Only the most recent samples are kept, oldest first. */
+    public void testRing() {
+        HeapInfoHistory history = new HeapInfoHistory(4);
+        for (int i = 0; i < 10; i++) {
+            history.add(1, i * 1000, 100, 50 + i, 10 * i, i);
+        }
+        history.add(2, 0, 100, 1, 1, 1);
+
+        assertEquals(2, history.getHeapIds().length);
+        assertEquals(4, history.getSampleCount(1));
+        assertEquals(1, history.getSampleCount(2));
+        assertEquals(0, history.getSampleCount(3));
+
+        long[] times = history.getTimes(1);
+        long[] bytes = history.getBytesAllocated(1);
+        assertEquals(4, times.length);
+        for (int i = 0; i < 4; i++) {
+            assertEquals((6 + i) * 1000, times[i]);
+            assertEquals(10 * (6 + i), bytes[i]);
+        }
+        assertEquals(9, history.getObjectsAllocated(1)[3]);
+        assertEquals(59, history.getHeapSizes(1)[3]);
+    }
+
+    /** A steady growth shows up as a positive trend. */
+    public void testTrend() {
+        HeapInfoHistory history = new HeapInfoHistory(100);
+        assertEquals(0.0, history.getBytesAllocatedTrend(1), 0.0);
+
+        for (int i = 0; i < 50; i++) {
+            // 1000 bytes per second, with some GC noise.
+            long noise = (i % 2 == 0) ? 300 : -300;
+            history.add(1, 1300000000000L + i * 10000, 0, 0, 5000000 + i * 10000 + noise, 0);
+        }
+        assertEquals(1000.0, history.getBytesAllocatedTrend(1), 10.0);
+    }
+}
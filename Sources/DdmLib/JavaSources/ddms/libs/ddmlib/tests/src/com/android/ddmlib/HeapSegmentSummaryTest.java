@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import com.android.ddmlib.HeapSegment.HeapSegmentElement;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+public class HeapSegmentSummaryTest extends TestCase {
+    private static final int HEAP_ID = 1;
+    private static final int UNIT_SIZE = 8;
+
+    private static int state(int solidity, int kind) {
+        return (kind << 3) | solidity;
+    }
+
+    /** Builds an HPSG chunk. Elements are (state, units) pairs. */
+    private static ByteBuffer chunk(long start, int... elements) {
+        ByteBuffer buf = ByteBuffer.allocate(17 + elements.length * 2 + 64);
+        buf.putInt(HEAP_ID);
+        buf.put((byte)UNIT_SIZE);
+        buf.putInt((int)start);
+        buf.putInt(0);
+        buf.putInt(0);
+        for (int i = 0; i < elements.length; i += 2) {
+            int units = elements[i + 1];
+            while (units > 256) {
+                buf.put((byte)(elements[i] | 0x80));
+                buf.put((byte)255);
+                units -= 256;
+            }
+            buf.put((byte)elements[i]);
+            buf.put((byte)(units - 1));
+        }
+        buf.flip();
+        return buf;
+    }
+
+    public void testHistograms() {
+        int object = state(HeapSegmentElement.SOLIDITY_HARD, HeapSegmentElement.KIND_OBJECT);
+        int free = state(HeapSegmentElement.SOLIDITY_FREE, HeapSegmentElement.KIND_OBJECT);
+
+        HeapSegmentSummary summary = new HeapSegmentSummary();
+        assertTrue(summary.add(chunk(0x1000, object, 2, object, 2, object, 4, free, 300)));
+
+        HeapSegmentHistogram objects =
+                summary.getHistogram(HeapSegmentElement.KIND_OBJECT + 2);
+        assertEquals(3, objects.getCount());
+        assertEquals(64, objects.getTotalSize());
+        assertEquals(16, objects.getSmallestSize());
+        assertEquals(32, objects.getLargestSize());
+        assertEquals(16, objects.getMedianSize());
+        assertEquals(2, objects.getSizeCount());
+        assertEquals(2, objects.getCounts()[0]);
+
+        // the partial elements are merged into one.
+        HeapSegmentHistogram freeBlocks = summary.getHistogram(HeapSegmentSummary.TYPE_FREE);
+        assertEquals(1, freeBlocks.getCount());
+        assertEquals(300 * UNIT_SIZE, freeBlocks.getLargestSize());
+
+        assertNull(summary.getHistogram(HeapSegmentElement.KIND_ARRAY_1 + 2));
+        assertSame(objects, summary.getHistogram(HEAP_ID, HeapSegmentElement.KIND_OBJECT + 2));
+    }
+
+    /** The usage map is in address order, whatever the order of arrival of the chunks. */
+    public void testUsageMap() {
+        int object = state(HeapSegmentElement.SOLIDITY_HARD, HeapSegmentElement.KIND_OBJECT);
+        int array = state(HeapSegmentElement.SOLIDITY_HARD, HeapSegmentElement.KIND_ARRAY_1);
+
+        HeapSegmentSummary summary = new HeapSegmentSummary();
+        summary.add(chunk(0x2000, array, 3));
+        summary.add(chunk(0x1000, object, 1, object, 1, array, 1));
+
+        assertEquals(6, summary.getUsageMapLength());
+        assertEquals(3, summary.getUsageRunCount());
+
+        byte[] map = summary.getUsageMap();
+        byte o = (byte)(HeapSegmentElement.KIND_OBJECT + 2);
+        byte a = (byte)(HeapSegmentElement.KIND_ARRAY_1 + 2);
+        byte[] expected = new byte[] { o, o, a, a, a, a };
+        assertEquals(expected.length, map.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], map[i]);
+        }
+    }
+
+    public void testMalformed() {
+        HeapSegmentSummary summary = new HeapSegmentSummary();
+        assertFalse(summary.add(ByteBuffer.allocate(3)));
+
+        // partial element followed by a different state
+        ByteBuffer buf = chunk(0, 0x80 | state(1, 0), 1, state(1, 2), 1);
+        assertFalse(summary.add(buf));
+        assertEquals(2, summary.getMalformedChunkCount());
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests for the output queue and the file rotation of {@link LogCatCollector}.
+ */
+public class LogCatCollectorTest extends TestCase {
+
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        mDirectory = File.createTempFile("logcat", "");
+        mDirectory.delete();
+        mDirectory.mkdir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File f : mDirectory.listFiles()) {
+            f.delete();
+        }
+        mDirectory.delete();
+    }
+
+    private static String read(File f) throws IOException {
+        InputStream in = new GZIPInputStream(new FileInputStream(f));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int count;
+            while ((count = in.read(buf)) != -1) {
+                out.write(buf, 0, count);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Test that files are rotated at the last line boundary of the chunk which fills them.
+     */
+    public void testRotateAtLineBoundary() throws IOException {
+        LogCatCollector.RotatingLog log = new LogCatCollector.RotatingLog(mDirectory, "dev",
+                10, 16);
+        log.write("aaaa\nbbbb\n".getBytes("UTF-8"));
+        log.write("cc\ndd\nee".getBytes("UTF-8"));
+        // no line boundary: the whole chunk goes to the next file.
+        log.write("ffffffffffff".getBytes("UTF-8"));
+        log.close();
+
+        List<File> files = log.getFiles();
+        assertEquals(3, files.size());
+        assertEquals("aaaa\nbbbb\ncc\ndd\n", read(files.get(0)));
+        assertEquals("ee", read(files.get(1)));
+        assertEquals("ffffffffffff", read(files.get(2)));
+        assertEquals(3, log.getFileCount());
+        assertEquals(30, log.getBytesWritten());
+    }
+
+    /**
+     * Test that only the most recent files are kept.
+     */
+    public void testMaxFiles() throws IOException {
+        LogCatCollector.RotatingLog log = new LogCatCollector.RotatingLog(mDirectory, "dev",
+                2, 2);
+        for (int i = 0 ; i < 6 ; i++) {
+            log.write(("" + i + "\n").getBytes("UTF-8"));
+        }
+        log.close();
+
+        // a chunk ending a line is written whole before rotating, without an empty file.
+        List<File> files = log.getFiles();
+        assertEquals(2, files.size());
+        assertEquals("2\n3\n", read(files.get(0)));
+        assertEquals("4\n5\n", read(files.get(1)));
+        assertEquals(3, log.getFileCount());
+        assertEquals(2, mDirectory.listFiles().length);
+    }
+
+    /**
+     * Test that a full queue pauses, and requests a single resume once half empty.
+     */
+    public void testPauseAndResume() {
+        LogCatCollector.ChunkQueue queue = new LogCatCollector.ChunkQueue(4, false);
+        for (int i = 0 ; i < 4 ; i++) {
+            assertTrue(queue.offer(new byte[] { (byte) i }));
+            assertFalse(queue.needsResume());
+        }
+        assertFalse(queue.offer(new byte[] { 4 }));
+        assertTrue(queue.isPaused());
+        assertEquals(1, queue.getStalls());
+
+        assertEquals(0, queue.poll()[0]);
+        assertFalse(queue.needsResume());
+        assertEquals(1, queue.poll()[0]);
+        assertTrue(queue.needsResume());
+        // only one resume per pause.
+        assertFalse(queue.needsResume());
+
+        // the held back chunk is queued after the others.
+        assertTrue(queue.resume());
+        assertFalse(queue.isPaused());
+        assertEquals(3, queue.size());
+        assertEquals(2, queue.poll()[0]);
+        assertEquals(3, queue.poll()[0]);
+        assertEquals(4, queue.poll()[0]);
+        assertNull(queue.poll());
+        assertFalse(queue.needsResume());
+        assertEquals(0, queue.getChunksDropped());
+    }
+
+    /**
+     * Test a resume while the queue is still full.
+     */
+    public void testResumeWhileFull() {
+        LogCatCollector.ChunkQueue queue = new LogCatCollector.ChunkQueue(2, false);
+        queue.offer(new byte[] { 0 });
+        queue.offer(new byte[] { 1 });
+        assertFalse(queue.offer(new byte[] { 2 }));
+
+        assertFalse(queue.resume());
+        assertTrue(queue.isPaused());
+
+        queue.poll();
+        assertTrue(queue.needsResume());
+        assertTrue(queue.resume());
+        assertNull(queue.takePending());
+    }
+
+    /**
+     * Test that the chunk held back by a pause can be taken when stopping.
+     */
+    public void testTakePending() {
+        LogCatCollector.ChunkQueue queue = new LogCatCollector.ChunkQueue(1, false);
+        queue.offer(new byte[] { 0 });
+        assertFalse(queue.offer(new byte[] { 1 }));
+        assertEquals(1, queue.takePending()[0]);
+        assertNull(queue.takePending());
+    }
+
+    public void testDropWhenFull() {
+        LogCatCollector.ChunkQueue queue = new LogCatCollector.ChunkQueue(2, true);
+        assertTrue(queue.offer(new byte[1]));
+        assertTrue(queue.offer(new byte[1]));
+        assertTrue(queue.offer(new byte[1]));
+        assertFalse(queue.isPaused());
+        assertEquals(1, queue.getChunksDropped());
+        assertEquals(2, queue.size());
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import com.android.ddmlib.NativeHeapTracker.CallSiteTrend;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link NativeHeapTracker}.
+ */
+public class NativeHeapTrackerTest extends TestCase {
+
+    private static NativeAllocationInfo allocation(int size, int count, long... frames) {
+        NativeAllocationInfo info = new NativeAllocationInfo(size, count);
+        for (long frame : frames) {
+            info.addStackCallAddress(frame);
+        }
+        return info;
+    }
+
+    public void testTrends() {
+        NativeHeapTracker tracker = new NativeHeapTracker(null, 3);
+
+        for (int i = 0 ; i < 4 ; i++) {
+            List<NativeAllocationInfo> allocations = new ArrayList<NativeAllocationInfo>();
+            // leaks 100 bytes per snapshot, split over two identical backtraces.
+            allocations.add(allocation(50, i + 1, 0x1000, 0x2000));
+            allocations.add(allocation(50, i + 1, 0x1000, 0x2000));
+            // stable.
+            allocations.add(allocation(64, 1, 0x3000));
+            // freed after the first snapshots.
+            if (i < 2) {
+                allocations.add(allocation(1000, 1, 0x4000));
+            }
+            tracker.addSnapshot(i * 1000L, allocations);
+        }
+
+        assertEquals(3, tracker.getSnapshotCount());
+        assertEquals(3, tracker.getStackCount());
+        assertEquals(1000, tracker.getSnapshotTimes()[0]);
+        assertEquals(200 + 64 + 1000, tracker.getTotalSizes()[0]);
+
+        List<CallSiteTrend> trends = tracker.getCallSiteTrends(10);
+        assertEquals(3, trends.size());
+
+        CallSiteTrend leak = trends.get(0);
+        assertEquals(100., leak.getBytesPerSecond(), 1e-9);
+        assertEquals(400, leak.getLastSize());
+        assertEquals(8, leak.getLastAllocationCount());
+        assertEquals(3, leak.getSnapshotCount());
+        assertEquals(0x2000, leak.getStackCallAddresses()[1]);
+
+        assertEquals(0., trends.get(1).getBytesPerSecond(), 1e-9);
+        assertEquals(-500., trends.get(2).getBytesPerSecond(), 1e-9);
+        assertEquals(0, trends.get(2).getLastSize());
+        assertEquals(1, trends.get(2).getSnapshotCount());
+
+        List<CallSiteTrend> growing = tracker.getGrowingCallSites(2, 1.);
+        assertEquals(1, growing.size());
+        assertEquals(0x1000, growing.get(0).getStackCallAddresses()[0]);
+
+        assertTrue(tracker.getGrowingCallSites(1, 0.).isEmpty());
+    }
+}
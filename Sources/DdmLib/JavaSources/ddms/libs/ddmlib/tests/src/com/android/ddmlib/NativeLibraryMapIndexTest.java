@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Tests for the maps parsing of {@link HandleNativeHeap} and {@link NativeLibraryMapIndex}.
+ */
+public class NativeLibraryMapIndexTest extends TestCase {
+    private static final String MAPS =
+            "00008000-00009000 r-xp 00000000 1f:00 446        /system/bin/app_process\n" +
+            "00009000-0000a000 rwxp 00001000 1f:00 446        /system/bin/app_process\n" +
+            "0000a000-00200000 rwxp 0000a000 00:00 0          [heap]\n" +
+            "40000000-40008000 r-xp 00000000 1f:00 602        /system/lib/libc.so\n" +
+            "40008000-4000a000 rwxp 00008000 1f:00 602        /system/lib/libc.so\r\n" +
+            "4000a000-4000b000 rwxp 00000000 00:00 0\n" +
+            "garbage line\n" +
+            "7f0000000000-7f0000001000 r-xp 00000000 1f:00 99 /system/lib64/libm.so";
+
+    public void testParseMaps() throws Exception {
+        byte[] bytes = ("header" + MAPS + "trailer").getBytes("UTF-8");
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position(6);
+
+        List<NativeLibraryMapInfo> libraries =
+                HandleNativeHeap.parseMaps(buffer, MAPS.length());
+
+        assertEquals(6 + MAPS.length(), buffer.position());
+        assertEquals(3, libraries.size());
+
+        NativeLibraryMapInfo app = libraries.get(0);
+        assertEquals("/system/bin/app_process", app.getLibraryName());
+        assertEquals(0x8000, app.getStartAddress());
+        assertEquals(0xa000, app.getEndAddress());
+
+        NativeLibraryMapInfo libc = libraries.get(1);
+        assertEquals("/system/lib/libc.so", libc.getLibraryName());
+        assertEquals(0x40000000L, libc.getStartAddress());
+        assertEquals(0x4000a000L, libc.getEndAddress());
+
+        assertEquals(0x7f0000001000L, libraries.get(2).getEndAddress());
+    }
+
+    public void testLookup() {
+        ByteBuffer buffer = ByteBuffer.wrap(MAPS.getBytes());
+        NativeLibraryMapIndex index = new NativeLibraryMapIndex(
+                HandleNativeHeap.parseMaps(buffer, MAPS.length()));
+
+        assertEquals(3, index.size());
+        assertNull(index.getLibrary(0x7fff));
+        assertEquals("/system/bin/app_process", index.getLibrary(0x8000).getLibraryName());
+        assertEquals("/system/bin/app_process", index.getLibrary(0xa000).getLibraryName());
+        assertNull(index.getLibrary(0xa001));
+        assertEquals("/system/lib/libc.so", index.getLibrary(0x40001234L).getLibraryName());
+        assertNull(index.getLibrary(0x50000000L));
+        assertEquals("/system/lib64/libm.so", index.getLibrary(0x7f0000000800L).getLibraryName());
+    }
+}
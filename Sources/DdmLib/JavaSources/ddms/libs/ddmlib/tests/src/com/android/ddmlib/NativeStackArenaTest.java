@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link NativeStackArena} and the {@link NativeAllocationInfo} stored in it.
+ */
+public class NativeStackArenaTest extends TestCase {
+
+    public void testIntern() {
+        NativeStackArena arena = new NativeStackArena(0);
+        long[] frames = new long[] { 0, 0x1000, 0x2000, 0x3000 };
+
+        int a = arena.intern(frames, 1, 3);
+        int b = arena.intern(frames, 1, 2);
+        int c = arena.intern(new long[] { 0x1000, 0x2000, 0x3000 }, 0, 3);
+
+        assertEquals(a, c);
+        assertTrue(a != b);
+        assertEquals(2, arena.getStackCount());
+        assertEquals(5, arena.getFrameCount());
+        assertEquals(3, arena.getLength(a));
+        assertEquals(0x3000, arena.getFrame(a, 2));
+        assertEquals(NativeStackArena.hash(frames, 1, 3), arena.getHash(a));
+    }
+
+    public void testGrowth() {
+        NativeStackArena arena = new NativeStackArena(1);
+        long[] frames = new long[2];
+        for (int i = 0 ; i < 1000 ; i++) {
+            frames[0] = i;
+            frames[1] = i * 7;
+            assertEquals(i, arena.intern(frames, 0, 2));
+        }
+        for (int i = 0 ; i < 1000 ; i++) {
+            frames[0] = i;
+            frames[1] = i * 7;
+            assertEquals(i, arena.intern(frames, 0, 2));
+            assertEquals(i * 7, arena.getFrame(i, 1));
+        }
+        assertEquals(1000, arena.getStackCount());
+    }
+
+    public void testAllocationEquality() {
+        NativeStackArena arena = new NativeStackArena(4);
+        long[] frames = new long[] { 0x1000, 0x2000 };
+
+        NativeAllocationInfo a = new NativeAllocationInfo(32, 2, arena,
+                arena.intern(frames, 0, 2));
+        NativeAllocationInfo b = new NativeAllocationInfo(32, 2, arena,
+                arena.intern(frames, 0, 2));
+        NativeAllocationInfo local = new NativeAllocationInfo(32, 2);
+        local.addStackCallAddress(0x1000);
+        local.addStackCallAddress(0x2000);
+
+        assertEquals(a, b);
+        assertEquals(a, local);
+        assertEquals(a.hashCode(), local.hashCode());
+        assertEquals(2, local.getStackCallAddressCount());
+        assertEquals(0x2000, a.getStackCallAddresses().get(1).longValue());
+
+        // adding to an interned stack detaches it from the arena.
+        b.addStackCallAddress(0x3000);
+        assertFalse(a.equals(b));
+        assertEquals(3, b.getStackCallAddressCount());
+        assertEquals(2, a.getStackCallAddressCount());
+    }
+}
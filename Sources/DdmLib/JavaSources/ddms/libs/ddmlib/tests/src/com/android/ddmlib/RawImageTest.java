@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests for the bulk conversions of {@link RawImage}.
+ */
+public class RawImageTest extends TestCase {
+
+    private static RawImage createImage(int bpp, int width, int height) {
+        ByteBuffer header = ByteBuffer.allocate(48).order(ByteOrder.LITTLE_ENDIAN);
+        if (bpp == 16) {
+            header.putInt(width * height * 2).putInt(width).putInt(height);
+        } else {
+            // RGBA 8888
+            header.putInt(32).putInt(width * height * 4).putInt(width).putInt(height)
+                    .putInt(0).putInt(8).putInt(16).putInt(8).putInt(8).putInt(8)
+                    .putInt(24).putInt(8);
+        }
+        header.flip();
+
+        RawImage image = new RawImage();
+        assertTrue(image.readHeader(bpp == 16 ? 16 : 1, header));
+        image.data = new byte[image.size];
+        new Random(bpp).nextBytes(image.data);
+        return image;
+    }
+
+    public void testToARGB() {
+        for (int bpp : new int[] { 16, 32 }) {
+            RawImage image = createImage(bpp, 13, 7);
+            int[] argb = image.toARGB(null);
+            int byteCount = bpp >> 3;
+            for (int i = 0 ; i < 13 * 7 ; i++) {
+                assertEquals(image.getARGB(i * byteCount), argb[i]);
+            }
+            assertSame(argb, image.toARGB(argb));
+        }
+
+        // 32 bit channels which are not byte aligned, without alpha.
+        RawImage image = createImage(32, 5, 3);
+        image.red_offset = 3;
+        image.red_length = 5;
+        image.alpha_length = 0;
+        int[] argb = image.toARGB(null);
+        for (int i = 0 ; i < 5 * 3 ; i++) {
+            assertEquals(image.getARGB(i * 4), argb[i]);
+        }
+    }
+
+    public void testRotate() {
+        for (int bpp : new int[] { 16, 32 }) {
+            // not a multiple of the tile size.
+            RawImage image = createImage(bpp, 37, 70);
+            RawImage rotated = image.getRotated();
+            assertEquals(70, rotated.width);
+            assertEquals(37, rotated.height);
+
+            int byteCount = bpp >> 3;
+            for (int y = 0 ; y < 70 ; y++) {
+                for (int x = 0 ; x < 37 ; x++) {
+                    assertEquals(image.getARGB((y * 37 + x) * byteCount),
+                            rotated.getARGB(((37 - x - 1) * 70 + y) * byteCount));
+                }
+            }
+
+            // a full turn gives back the image, reusing the buffers.
+            RawImage other = new RawImage();
+            byte[] data = rotated.data;
+            rotated.rotateInto(other).rotateInto(rotated).rotateInto(other);
+            assertSame(data, rotated.data);
+            assertTrue(Arrays.equals(image.data, other.data));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests for {@link ScreenCaptureArchiveWriter} and {@link ScreenCaptureArchive}.
+ */
+public class ScreenCaptureArchiveTest extends TestCase {
+
+    private static RawImage createImage(int width, int height) {
+        RawImage image = new RawImage();
+        image.version = 16;
+        image.bpp = 16;
+        image.width = width;
+        image.height = height;
+        image.size = width * height * 2;
+        image.red_offset = 11;
+        image.red_length = 5;
+        image.green_offset = 5;
+        image.green_length = 6;
+        image.blue_length = 5;
+        image.data = new byte[image.size];
+        return image;
+    }
+
+    public void testFrames() throws Exception {
+        File file = File.createTempFile("capture", ".dsca");
+        try {
+            Random random = new Random(0);
+            byte[][] frames = new byte[7][];
+
+            ScreenCaptureArchiveWriter writer = new ScreenCaptureArchiveWriter(file, 3);
+            RawImage image = createImage(70, 40);
+            for (int i = 0 ; i < frames.length ; i++) {
+                if (i == 5) {
+                    // rotation: forces a key frame.
+                    image = createImage(40, 70);
+                }
+                // change a few pixels.
+                for (int j = 0 ; j < 4 ; j++) {
+                    image.data[random.nextInt(image.size)] = (byte) random.nextInt();
+                }
+                frames[i] = image.data.clone();
+                writer.addFrame(image, 1000 + i * 100);
+            }
+            writer.close();
+
+            assertTrue(file.length() < frames.length * image.size / 4);
+
+            ScreenCaptureArchive archive = new ScreenCaptureArchive(file);
+            try {
+                assertEquals(frames.length, archive.getFrameCount());
+                assertEquals(1200, archive.getFrameTime(2));
+                assertEquals(2, archive.getFrameIndex(1250));
+                assertEquals(-1, archive.getFrameIndex(999));
+
+                for (int i : new int[] { 4, 0, 1, 2, 6, 5, 3, 4 }) {
+                    RawImage frame = archive.getFrame(i);
+                    assertTrue(Arrays.equals(frames[i], frame.data));
+                    assertEquals(i < 5 ? 70 : 40, frame.width);
+                }
+            } finally {
+                archive.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
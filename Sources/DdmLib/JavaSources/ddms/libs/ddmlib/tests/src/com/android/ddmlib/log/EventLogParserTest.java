@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.log;
+
+import com.android.ddmlib.log.EventContainer.CompareMethod;
+import com.android.ddmlib.log.EventContainer.EventValueType;
+import com.android.ddmlib.log.LogReceiver.LogEntry;
+
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+public class EventLogParserTest extends TestCase {
+    private EventLogParser mParser;
+
+    @Override
+    protected void setUp() throws Exception {
+        mParser = new EventLogParser();
+        mParser.init(new String[] {
+                "2718 e (value|1|3)",
+                "2722 battery_level (level|1|6),(voltage|1|1),(temperature|1|1)",
+        });
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(0); // EVENT_TYPE_INT
+        for (int i = 0; i < 4; i++) {
+            out.write(value >> (i * 8));
+        }
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        out.write(1); // EVENT_TYPE_LONG
+        for (int i = 0; i < 8; i++) {
+            out.write((int)(value >> (i * 8)));
+        }
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) throws Exception {
+        byte[] bytes = value.getBytes("UTF-8");
+        out.write(2); // EVENT_TYPE_STRING
+        for (int i = 0; i < 4; i++) {
+            out.write(bytes.length >> (i * 8));
+        }
+        out.write(bytes);
+    }
+
+    /** Creates an entry holding the event in a larger shared buffer. */
+    private static LogEntry createEntry(int tag, ByteArrayOutputStream values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xAA);
+        for (int i = 0; i < 4; i++) {
+            out.write(tag >> (i * 8));
+        }
+        byte[] v = values.toByteArray();
+        out.write(v, 0, v.length);
+        out.write(0xAA);
+
+        LogEntry entry = new LogEntry();
+        entry.data = out.toByteArray();
+        entry.offset = 1;
+        entry.len = entry.data.length - 2;
+        entry.pid = 42;
+        return entry;
+    }
+
+    public void testSingleValue() throws Exception {
+        ByteArrayOutputStream values = new ByteArrayOutputStream();
+        writeLong(values, 1L << 40);
+
+        EventContainer event = mParser.parse(createEntry(2718, values));
+        assertEquals(EventValueType.LONG, event.getType());
+        assertEquals(1, event.getValueCount());
+        assertEquals(1L << 40, event.getValueAsLong(0));
+        assertEquals(Long.valueOf(1L << 40), event.getValue(0));
+        assertEquals(42, event.pid);
+    }
+
+    public void testList() throws Exception {
+        ByteArrayOutputStream values = new ByteArrayOutputStream();
+        values.write(3); // EVENT_TYPE_LIST
+        values.write(3);
+        writeInt(values, -5);
+        writeString(values, "h\u00e9llo");
+        writeLong(values, 7);
+
+        EventContainer event = mParser.parse(createEntry(2722, values));
+        assertEquals(EventValueType.LIST, event.getType());
+        assertEquals(3, event.getValueCount());
+        assertEquals(-5.0, event.getValueAsDouble(0), 0);
+        assertEquals("h\u00e9llo", event.getValueAsString(1));
+        assertEquals("7", event.getValueAsString(2));
+        assertEquals(Integer.valueOf(-5), event.getValue(0));
+        assertNull(event.getValue(3));
+
+        assertTrue(event.testValue(0, Integer.valueOf(-5), CompareMethod.EQUAL_TO));
+        assertTrue(event.testValue(2, Long.valueOf(8), CompareMethod.LESSER_THAN_STRICT));
+        assertFalse(event.testValue(2, Integer.valueOf(7), CompareMethod.EQUAL_TO));
+        assertTrue(event.testValue(1, "h\u00e9llo", CompareMethod.EQUAL_TO));
+
+        try {
+            event.getValueAsDouble(1);
+            fail();
+        } catch (InvalidTypeException e) {
+            // expected
+        }
+    }
+
+    public void testNestedList() throws Exception {
+        ByteArrayOutputStream values = new ByteArrayOutputStream();
+        values.write(3); // EVENT_TYPE_LIST
+        values.write(2);
+        writeInt(values, 1);
+        values.write(3);
+        values.write(1);
+        writeInt(values, 2);
+
+        EventContainer event = mParser.parse(createEntry(2722, values));
+        assertEquals(EventValueType.TREE, event.getType());
+        assertEquals(2, event.getValueCount());
+    }
+
+    public void testTruncated() {
+        ByteArrayOutputStream values = new ByteArrayOutputStream();
+        values.write(3); // EVENT_TYPE_LIST
+        values.write(2);
+        writeInt(values, 1);
+
+        assertNull(mParser.parse(createEntry(2722, values)));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.log;
+
+import com.android.ddmlib.log.EventContainer.EventValueType;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class EventStoreTest extends TestCase {
+    private EventStore mStore;
+
+    @Override
+    protected void setUp() throws Exception {
+        mStore = new EventStore();
+
+        // events of tag 1 with an int and a string, every second, alternating pids.
+        // events of tag 2 with a single long, and one of them with a string instead.
+        for (int i = 0; i < 100; i++) {
+            mStore.add(new EventContainer(1, 100 + i % 2, 0, 1000 + i, 500000000,
+                    new Object[] { Integer.valueOf(i), "value" + i }));
+            if (i % 10 == 0) {
+                Object data = i == 50 ? "fifty" : Long.valueOf(i * 1000000000L);
+                mStore.add(new EventContainer(2, 200, 0, 1000 + i, 0, data));
+            }
+        }
+    }
+
+    public void testGet() throws InvalidTypeException {
+        assertEquals(110, mStore.size());
+
+        // tag 2 at i = 0 is after tag 1 at i = 0
+        EventContainer event = mStore.get(1);
+        assertEquals(2, event.mTag);
+        assertEquals(EventValueType.LONG, event.getType());
+        assertEquals(0L, event.getValueAsLong(0));
+
+        event = mStore.get(2);
+        assertEquals(1, event.mTag);
+        assertEquals(101, event.pid);
+        assertEquals(1001, event.sec);
+        assertEquals(500000000, event.nsec);
+        assertEquals(EventValueType.LIST, event.getType());
+        assertEquals(1.0, event.getValueAsDouble(0), 0);
+        assertEquals("value1", event.getValueAsString(1));
+
+        // the event with a different value type is kept too.
+        event = mStore.get(56);
+        assertEquals(2, event.mTag);
+        assertEquals("fifty", event.getString());
+    }
+
+    public void testSelectByTag() {
+        int[] selected = mStore.select(new int[] { 2 }, null, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(10, selected.length);
+        assertEquals(1, selected[0]);
+        assertEquals(2, mStore.get(selected[9]).mTag);
+    }
+
+    public void testSelectByPidAndTime() {
+        // events from 1010.000 to 1019.999 for pid 100: tag 1 for i = 10, 12, ..., 18
+        int[] selected = mStore.select(null, new int[] { 100 }, 1010000, 1020000);
+        assertEquals(5, selected.length);
+        for (int index : selected) {
+            EventContainer event = mStore.get(index);
+            assertEquals(100, event.pid);
+            assertTrue(event.sec >= 1010 && event.sec < 1020);
+        }
+    }
+
+    public void testGetPids() {
+        assertEquals("[100, 200, 101]", Arrays.toString(mStore.getPids()));
+        assertEquals(1099500L, mStore.getLatestTime());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.log;
+
+import com.android.ddmlib.log.LogReceiver.ILogListener;
+import com.android.ddmlib.log.LogReceiver.LogEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class LogReceiverTest extends TestCase {
+
+    /** Listener keeping a copy of the entries, and whether they were the same object. */
+    private static class CollectingListener implements ILogListener {
+        final List<LogEntry> mEntries = new ArrayList<LogEntry>();
+        LogEntry mLastEntry;
+        boolean mSameEntry;
+
+        @Override
+        public void newEntry(LogEntry entry) {
+            mSameEntry |= entry == mLastEntry;
+            mLastEntry = entry;
+            mEntries.add(entry.copy());
+        }
+
+        @Override
+        public void newData(byte[] data, int offset, int length) {
+        }
+    }
+
+    /** Encodes a logger entry: 16 bit length, padding, pid, tid, sec, nsec, payload. */
+    private static void writeEntry(ByteArrayOutputStream out, int pid, byte[] payload) {
+        int[] words = new int[] { payload.length, pid, pid + 1, 1000 + pid, 2000 + pid };
+        for (int w : words) {
+            out.write(w);
+            out.write(w >> 8);
+            out.write(w >> 16);
+            out.write(w >> 24);
+        }
+        out.write(payload, 0, payload.length);
+    }
+
+    private static byte[] createLog() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 10; i++) {
+            byte[] payload = new byte[i * 7];
+            for (int j = 0; j < payload.length; j++) {
+                payload[j] = (byte) (i + j);
+            }
+            writeEntry(out, i, payload);
+        }
+        return out.toByteArray();
+    }
+
+    /** Feeds the log in chunks of the given size, so that headers and payloads are split. */
+    private static CollectingListener parse(boolean reuseEntries, int chunkSize) {
+        CollectingListener listener = new CollectingListener();
+        LogReceiver receiver = new LogReceiver(listener, reuseEntries);
+        byte[] log = createLog();
+
+        // copy each chunk into a shared buffer, as the adb read loop does
+        byte[] buffer = new byte[chunkSize + 3];
+        for (int offset = 0; offset < log.length; offset += chunkSize) {
+            int length = Math.min(chunkSize, log.length - offset);
+            System.arraycopy(log, offset, buffer, 3, length);
+            receiver.parseNewData(buffer, 3, length);
+        }
+        return listener;
+    }
+
+    private static void checkEntries(CollectingListener listener) {
+        assertEquals(10, listener.mEntries.size());
+        for (int i = 0; i < 10; i++) {
+            LogEntry entry = listener.mEntries.get(i);
+            assertEquals(i, entry.pid);
+            assertEquals(i + 1, entry.tid);
+            assertEquals(1000 + i, entry.sec);
+            assertEquals(2000 + i, entry.nsec);
+            assertEquals(i * 7, entry.len);
+            assertEquals(0, entry.offset);
+            for (int j = 0; j < entry.len; j++) {
+                assertEquals((byte) (i + j), entry.data[j]);
+            }
+        }
+    }
+
+    public void testNewEntries() {
+        for (int chunkSize : new int[] { 1, 5, 20, 33, 4096 }) {
+            CollectingListener listener = parse(false, chunkSize);
+            checkEntries(listener);
+            assertFalse(listener.mSameEntry);
+        }
+    }
+
+    public void testReusedEntries() {
+        for (int chunkSize : new int[] { 1, 5, 20, 33, 4096 }) {
+            CollectingListener listener = parse(true, chunkSize);
+            checkEntries(listener);
+            assertTrue(listener.mSameEntry);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.testrunner.ITestRunListener.TestFailure;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Times {@link InstrumentationResultParser} on the synthetic output of a large test run.
+ * <p/>
+ * This is not a unit test. Run it with
+ * <pre>
+ * java -cp &lt;ddmlib and tests classes&gt;
+ *         com.android.ddmlib.testrunner.InstrumentationResultParserBenchmark [tests] [iterations]
+ * </pre>
+ * It prints the median time of {@link InstrumentationResultParser#processNewLines(String[])}
+ * on the already split lines, and of the whole parsing from bytes, after warm-up.
+ */
+public class InstrumentationResultParserBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 5;
+
+    /** One test in this many fails, with a stack trace. */
+    private static final int FAILURE_INTERVAL = 20;
+    /** One test in this many reports metrics. */
+    private static final int METRICS_INTERVAL = 10;
+
+    private interface Operation {
+        void run();
+    }
+
+    /** Counts the events, so that the parsing cannot be optimized away. */
+    private static class CountingListener implements ITestRunListener {
+        private int mTestCount = 0;
+        private int mFailureCount = 0;
+        private long mElapsedTime = 0;
+
+        @Override
+        public void testRunStarted(String runName, int testCount) {
+        }
+
+        @Override
+        public void testStarted(TestIdentifier test) {
+        }
+
+        @Override
+        public void testFailed(TestFailure status, TestIdentifier test, String trace) {
+            mFailureCount++;
+        }
+
+        @Override
+        public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+            mTestCount++;
+        }
+
+        @Override
+        public void testRunFailed(String errorMessage) {
+            throw new AssertionError("run failed: " + errorMessage);
+        }
+
+        @Override
+        public void testRunStopped(long elapsedTime) {
+        }
+
+        @Override
+        public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+            mElapsedTime = elapsedTime;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int testCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        String output = generateOutput(testCount);
+        final byte[] data = output.getBytes("UTF-8");
+        final String[] lines = output.split("\r\n");
+
+        // check the output is parsed as generated.
+        CountingListener check = new CountingListener();
+        parse(data, check);
+        if (check.mTestCount != testCount
+                || check.mFailureCount != (testCount + FAILURE_INTERVAL - 1) / FAILURE_INTERVAL
+                || check.mElapsedTime != 1234567) {
+            throw new AssertionError(String.format("parsed %1$d tests, %2$d failures, %3$d ms",
+                    check.mTestCount, check.mFailureCount, check.mElapsedTime));
+        }
+
+        System.out.println(String.format("%1$d tests, %2$d lines, %3$.1f MB:", testCount,
+                lines.length, data.length / (1024. * 1024.)));
+        time("  processNewLines", iterations, new Operation() {
+            @Override
+            public void run() {
+                InstrumentationResultParser parser =
+                        new InstrumentationResultParser("run", new CountingListener());
+                parser.processNewLines(lines);
+                parser.done();
+            }
+        });
+        time("  addOutput", iterations, new Operation() {
+            @Override
+            public void run() {
+                parse(data, new CountingListener());
+            }
+        });
+    }
+
+    private static void parse(byte[] data, ITestRunListener listener) {
+        InstrumentationResultParser parser = new InstrumentationResultParser("run", listener);
+        // the size of the buffer of the shell command output.
+        for (int offset = 0 ; offset < data.length ; offset += 16384) {
+            parser.addOutput(data, offset, Math.min(16384, data.length - offset));
+        }
+        parser.flush();
+    }
+
+    /**
+     * Generates the raw output of an instrumentation run, as printed by
+     * 'am instrument -r': a start and an end status bundle per test, with wrapped stream
+     * values, some failures with stack traces and some metrics, then the run result.
+     */
+    static String generateOutput(int testCount) {
+        StringBuilder output = new StringBuilder();
+        int classCount = (testCount + 9) / 10;
+        for (int i = 0 ; i < testCount ; i++) {
+            String className = "com.android.foo.tests.SomeFeature" + (i % classCount) + "Test";
+            String testName = "testSomeBehavior" + i;
+            boolean failed = i % FAILURE_INTERVAL == 0;
+
+            String stream = i % 10 == 0 ? "\r\n" + className + ":" : "";
+            addStatus(output, i, testCount, className, testName, stream);
+            addLine(output, "INSTRUMENTATION_STATUS_CODE: 1");
+
+            if (failed) {
+                stream = "\r\nError in " + testName + ":\r\n" + createStackTrace(className);
+            } else {
+                stream = ".";
+            }
+            addStatus(output, i, testCount, className, testName, stream);
+            if (failed) {
+                addLine(output, "INSTRUMENTATION_STATUS: stack=" + createStackTrace(className));
+            }
+            if (i % METRICS_INTERVAL == 0) {
+                addLine(output, "INSTRUMENTATION_STATUS: duration=" + (i % 1000));
+                addLine(output, "INSTRUMENTATION_STATUS: memory=" + (i * 7 % 65536));
+            }
+            addLine(output, "INSTRUMENTATION_STATUS_CODE: " + (failed ? "-2" : "0"));
+        }
+
+        addLine(output, "INSTRUMENTATION_RESULT: stream=");
+        addLine(output, "Test results for InstrumentationTestRunner=" + createDots(testCount));
+        addLine(output, "Time: 1234.567");
+        addLine(output, "");
+        addLine(output, "FAILURES!!!");
+        addLine(output, "Tests run: " + testCount);
+        addLine(output, "");
+        addLine(output, "INSTRUMENTATION_CODE: -1");
+        return output.toString();
+    }
+
+    private static void addStatus(StringBuilder output, int index, int testCount,
+            String className, String testName, String stream) {
+        addLine(output, "INSTRUMENTATION_STATUS: id=InstrumentationTestRunner");
+        addLine(output, "INSTRUMENTATION_STATUS: current=" + (index + 1));
+        addLine(output, "INSTRUMENTATION_STATUS: class=" + className);
+        addLine(output, "INSTRUMENTATION_STATUS: stream=" + stream);
+        addLine(output, "INSTRUMENTATION_STATUS: numtests=" + testCount);
+        addLine(output, "INSTRUMENTATION_STATUS: test=" + testName);
+    }
+
+    private static String createStackTrace(String className) {
+        StringBuilder trace = new StringBuilder();
+        trace.append("junit.framework.AssertionFailedError: expected:<1> but was:<2>");
+        trace.append("\r\n\tat ").append(className).append(".testSomeBehavior(Test.java:42)");
+        for (int i = 0 ; i < 10 ; i++) {
+            trace.append("\r\n\tat android.test.InstrumentationTestCase.runMethod")
+                    .append("(InstrumentationTestCase.java:").append(200 + i).append(')');
+        }
+        return trace.toString();
+    }
+
+    private static String createDots(int testCount) {
+        char[] dots = new char[testCount];
+        Arrays.fill(dots, '.');
+        for (int i = 0 ; i < testCount ; i += FAILURE_INTERVAL) {
+            dots[i] = 'F';
+        }
+        return new String(dots);
+    }
+
+    private static void addLine(StringBuilder output, String line) {
+        output.append(line).append("\r\n");
+    }
+
+    private static void time(String name, int iterations, Operation operation) {
+        for (int i = 0 ; i < WARMUP_ITERATIONS ; i++) {
+            operation.run();
+        }
+
+        long[] times = new long[iterations];
+        for (int i = 0 ; i < iterations ; i++) {
+            long start = System.nanoTime();
+            operation.run();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        System.out.println(String.format("%1$-20s %2$8.2f ms", name,
+                times[iterations / 2] / 1000000.));
+    }
+}
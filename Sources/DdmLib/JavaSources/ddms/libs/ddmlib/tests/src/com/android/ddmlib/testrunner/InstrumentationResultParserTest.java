@@ -316,6 +316,120 @@ public class InstrumentationResultParserTest extends TestCase {
         assertEquals(3, captureMetrics.getValue().size());
     }
 
+    /**
+     * Test that the ignored values of stream, id and current are skipped with the lines they
+     * wrap onto, without being added to the neighbouring keys.
+     */
+    public void testParse_ignoredWrappedValues() {
+        StringBuilder output = new StringBuilder();
+        addIgnoredWrappedStatus(output);
+        addStartCode(output);
+        addIgnoredWrappedStatus(output);
+        addStatusKey(output, "randomKey", "randomValue");
+        addSuccessCode(output);
+
+        final Capture<Map<String, String>> captureMetrics = new Capture<Map<String, String>>();
+        mMockListener.testRunStarted(RUN_NAME, 1);
+        mMockListener.testStarted(TEST_ID);
+        mMockListener.testEnded(EasyMock.eq(TEST_ID), EasyMock.capture(captureMetrics));
+        mMockListener.testRunEnded(0, Collections.EMPTY_MAP);
+
+        injectAndVerifyTestString(output.toString());
+
+        assertEquals("randomValue", captureMetrics.getValue().get("randomKey"));
+        assertEquals(1, captureMetrics.getValue().size());
+    }
+
+    /**
+     * Test that a value does not keep any part of the previous one, whether that one was
+     * stored, ignored or longer.
+     */
+    public void testParse_valuesNotMixed() {
+        StringBuilder output = buildCommonResult();
+        addStatusKey(output, "first", "a long first value\r\nwrapped");
+        addStatusKey(output, "stream", "ignored\r\nignored too");
+        addStatusKey(output, "second", "b");
+        addStatusKey(output, "third", "");
+        addSuccessCode(output);
+        addResultKey(output, "stream", "ignored\r\nignored too");
+        addResultKey(output, "foo", "bar");
+        addLine(output, "INSTRUMENTATION_CODE: -1");
+
+        final Capture<Map<String, String>> captureMetrics = new Capture<Map<String, String>>();
+        final Capture<Map<String, String>> captureRunMetrics = new Capture<Map<String, String>>();
+        mMockListener.testRunStarted(RUN_NAME, 1);
+        mMockListener.testStarted(TEST_ID);
+        mMockListener.testEnded(EasyMock.eq(TEST_ID), EasyMock.capture(captureMetrics));
+        mMockListener.testRunEnded(EasyMock.anyLong(), EasyMock.capture(captureRunMetrics));
+
+        injectAndVerifyTestString(output.toString());
+
+        assertEquals("a long first value\r\nwrapped", captureMetrics.getValue().get("first"));
+        assertEquals("b", captureMetrics.getValue().get("second"));
+        assertEquals("", captureMetrics.getValue().get("third"));
+        assertEquals(3, captureMetrics.getValue().size());
+        assertEquals("bar", captureRunMetrics.getValue().get("foo"));
+        assertEquals(1, captureRunMetrics.getValue().size());
+    }
+
+    /**
+     * Test that status codes are parsed like {@link Integer#parseInt(String)} of the trimmed
+     * text.
+     */
+    public void testParseInt() {
+        assertEquals(0, InstrumentationResultParser.parseInt("0", 0).intValue());
+        assertEquals(-2, InstrumentationResultParser.parseInt("code: -2", 5).intValue());
+        assertEquals(1, InstrumentationResultParser.parseInt(" \t+1 \r", 0).intValue());
+        assertEquals(1, InstrumentationResultParser.parseInt("00000000001", 0).intValue());
+        assertEquals(Integer.MAX_VALUE,
+                InstrumentationResultParser.parseInt("2147483647", 0).intValue());
+        assertEquals(Integer.MIN_VALUE,
+                InstrumentationResultParser.parseInt("-2147483648", 0).intValue());
+
+        assertNull(InstrumentationResultParser.parseInt("2147483648", 0));
+        assertNull(InstrumentationResultParser.parseInt("-2147483649", 0));
+        assertNull(InstrumentationResultParser.parseInt("99999999999999999999", 0));
+        assertNull(InstrumentationResultParser.parseInt("", 0));
+        assertNull(InstrumentationResultParser.parseInt("  ", 0));
+        assertNull(InstrumentationResultParser.parseInt("-", 0));
+        assertNull(InstrumentationResultParser.parseInt("1 2", 0));
+        assertNull(InstrumentationResultParser.parseInt("-1at", 0));
+        assertNull(InstrumentationResultParser.parseInt("0x1", 0));
+        assertNull(InstrumentationResultParser.parseInt("--1", 0));
+    }
+
+    /**
+     * Test parsing of time output with extra whitespace and a unit.
+     */
+    public void testParse_timeWhitespace() {
+        StringBuilder output = createSuccessTest();
+        addLine(output, "Time:   12.5 s");
+
+        mMockListener.testRunStarted(RUN_NAME, 1);
+        mMockListener.testStarted(TEST_ID);
+        mMockListener.testEnded(TEST_ID, Collections.EMPTY_MAP);
+        mMockListener.testRunEnded(12500, Collections.EMPTY_MAP);
+
+        injectAndVerifyTestString(output.toString());
+    }
+
+    /**
+     * Test that time output without a number is ignored.
+     */
+    public void testParse_timeInvalid() {
+        StringBuilder output = createSuccessTest();
+        addLine(output, "Time: unknown");
+        addLine(output, "Time: ");
+        addLine(output, "Time: .");
+
+        mMockListener.testRunStarted(RUN_NAME, 1);
+        mMockListener.testStarted(TEST_ID);
+        mMockListener.testEnded(TEST_ID, Collections.EMPTY_MAP);
+        mMockListener.testRunEnded(0, Collections.EMPTY_MAP);
+
+        injectAndVerifyTestString(output.toString());
+    }
+
     /**
      * Builds a common test result using TEST_NAME and TEST_CLASS.
      */
@@ -350,6 +464,19 @@ public class InstrumentationResultParserTest extends TestCase {
         addStatusKey(output, "id", "InstrumentationTestRunner");
     }
 
+    /**
+     * Adds the common status results, with the ignored values wrapping onto several lines that
+     * follow the keys which are used.
+     */
+    private void addIgnoredWrappedStatus(StringBuilder output) {
+        addStatusKey(output, "test", TEST_NAME);
+        addStatusKey(output, "stream", "\r\n" + CLASS_NAME + ":\r\nfoo=bar\r\n");
+        addStatusKey(output, "class", CLASS_NAME);
+        addStatusKey(output, "current", "1\r\n2");
+        addStatusKey(output, "numtests", "1");
+        addStatusKey(output, "id", "InstrumentationTestRunner\r\n ");
+    }
+
     /**
      * Adds a stack trace status bundle to output.
      */
@@ -0,0 +1,467 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.testrunner.ITestRunListener.TestFailure;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tests for the scheduling and result merging of {@link ShardedAndroidTestRunner}.
+ */
+public class ShardedAndroidTestRunnerTest extends TestCase {
+
+    private static List<TestIdentifier> createTests(int classCount, int testsPerClass) {
+        List<TestIdentifier> tests = new ArrayList<TestIdentifier>();
+        for (int c = 0 ; c < classCount ; c++) {
+            for (int t = 0 ; t < testsPerClass ; t++) {
+                tests.add(new TestIdentifier("com.foo.Class" + c, "test" + t));
+            }
+        }
+        return tests;
+    }
+
+    private static List<List<TestIdentifier>> pollAll(ShardedAndroidTestRunner.WorkQueue queue) {
+        List<List<TestIdentifier>> batches = new ArrayList<List<TestIdentifier>>();
+        List<TestIdentifier> batch;
+        while ((batch = queue.poll()) != null) {
+            batches.add(batch);
+        }
+        assertEquals(0, queue.getRemainingTestCount());
+        return batches;
+    }
+
+    /**
+     * Test that classes are not split across batches, and that batches get smaller.
+     */
+    public void testWorkQueueByClass() {
+        List<TestIdentifier> tests = createTests(20, 2);
+        ShardedAndroidTestRunner.WorkQueue queue = new ShardedAndroidTestRunner.WorkQueue(
+                tests, Collections.<TestIdentifier, Long>emptyMap(), 2, false,
+                ShardedAndroidTestRunner.MAX_CLASS_ARG_LENGTH);
+        assertEquals(40, queue.getRemainingTestCount());
+
+        List<List<TestIdentifier>> batches = pollAll(queue);
+        // a cost of at least 40 / 4, then 30 / 4, etc.
+        assertEquals(10, batches.get(0).size());
+        assertEquals(8, batches.get(1).size());
+        assertEquals(2, batches.get(batches.size() - 1).size());
+        // equal costs: the tests keep their order.
+        List<TestIdentifier> all = new ArrayList<TestIdentifier>();
+        for (List<TestIdentifier> batch : batches) {
+            assertEquals(0, batch.size() % 2);
+            all.addAll(batch);
+        }
+        assertEquals(tests, all);
+    }
+
+    /**
+     * Test that the longest classes are taken first.
+     */
+    public void testWorkQueueByDuration() {
+        List<TestIdentifier> tests = createTests(4, 1);
+        TestDurationHistory history = new TestDurationHistory();
+        history.addResult(tests.get(0), 100, false);
+        history.addResult(tests.get(1), 30, false);
+        history.addResult(tests.get(2), 60, false);
+        // unknown: the average, 63.
+
+        ShardedAndroidTestRunner.WorkQueue queue = new ShardedAndroidTestRunner.WorkQueue(
+                tests, history.getDurations(), 2, false,
+                ShardedAndroidTestRunner.MAX_CLASS_ARG_LENGTH);
+        assertEquals(Arrays.asList(Arrays.asList(tests.get(0)), Arrays.asList(tests.get(3)),
+                Arrays.asList(tests.get(2)), Arrays.asList(tests.get(1))), pollAll(queue));
+    }
+
+    /**
+     * Test that tests put back are taken first, counted as remaining until then, and put back
+     * once only.
+     */
+    public void testWorkQueueRequeue() {
+        List<TestIdentifier> tests = createTests(4, 2);
+        ShardedAndroidTestRunner.WorkQueue queue = new ShardedAndroidTestRunner.WorkQueue(
+                tests, Collections.<TestIdentifier, Long>emptyMap(), 1, false,
+                ShardedAndroidTestRunner.MAX_CLASS_ARG_LENGTH);
+        assertNull(queue.pollRequeued());
+
+        List<TestIdentifier> batch = queue.poll();
+        assertEquals(tests.subList(0, 4), batch);
+        assertEquals(4, queue.getRemainingTestCount());
+
+        assertTrue(queue.requeue(batch.subList(1, 4)).isEmpty());
+        assertEquals(7, queue.getRemainingTestCount());
+        assertEquals(tests.subList(1, 4), queue.pollRequeued());
+        assertNull(queue.pollRequeued());
+        assertEquals(4, queue.getRemainingTestCount());
+
+        // a test is put back once only.
+        assertEquals(tests.subList(1, 3), queue.requeue(tests.subList(0, 3)));
+        assertEquals(Arrays.asList(tests.get(0)), queue.pollRequeued());
+        assertEquals(Arrays.asList(tests.subList(4, 6), tests.subList(6, 8)), pollAll(queue));
+    }
+
+    /**
+     * Test that batches, and the tests put back, are split to keep their class argument short.
+     */
+    public void testWorkQueueArgLength() {
+        // by class: "com.foo.ClassN" is 14 characters, so two classes fit in 40.
+        List<TestIdentifier> tests = createTests(20, 3);
+        ShardedAndroidTestRunner.WorkQueue queue = new ShardedAndroidTestRunner.WorkQueue(
+                tests, Collections.<TestIdentifier, Long>emptyMap(), 1, false, 40);
+        List<TestIdentifier> all = new ArrayList<TestIdentifier>();
+        for (List<TestIdentifier> batch : pollAll(queue)) {
+            assertTrue(getArgLength(batch, false) <= 40);
+            all.addAll(batch);
+        }
+        assertEquals(tests, all);
+
+        // by method: a class longer than the limit on its own is split.
+        tests = createTests(1, 50);
+        queue = new ShardedAndroidTestRunner.WorkQueue(tests,
+                Collections.<TestIdentifier, Long>emptyMap(), 1, true, 100);
+        all.clear();
+        List<List<TestIdentifier>> batches = pollAll(queue);
+        assertTrue(batches.size() > 1);
+        for (List<TestIdentifier> batch : batches) {
+            assertTrue(getArgLength(batch, true) <= 100);
+            all.addAll(batch);
+        }
+        assertEquals(tests, all);
+
+        // the tests put back are split too.
+        assertTrue(queue.requeue(tests).isEmpty());
+        all.clear();
+        List<TestIdentifier> chunk;
+        while ((chunk = queue.pollRequeued()) != null) {
+            assertTrue(getArgLength(chunk, true) <= 100);
+            all.addAll(chunk);
+        }
+        assertEquals(tests, all);
+    }
+
+    private static int getArgLength(List<TestIdentifier> tests, boolean byMethod) {
+        String[] names = ShardedAndroidTestRunner.getClassNames(tests, byMethod);
+        int length = names.length - 1;
+        for (String name : names) {
+            length += name.length();
+        }
+        assertEquals(length,
+                ShardedAndroidTestRunner.getArgLength(tests, 0, tests.size(), byMethod));
+        return length;
+    }
+
+    public void testGetClassNames() {
+        List<TestIdentifier> tests = createTests(2, 2);
+        assertTrue(Arrays.equals(new String[] { "com.foo.Class0", "com.foo.Class1" },
+                ShardedAndroidTestRunner.getClassNames(tests, false)));
+        assertTrue(Arrays.equals(new String[] {
+                "com.foo.Class0#test0", "com.foo.Class0#test1",
+                "com.foo.Class1#test0", "com.foo.Class1#test1" },
+                ShardedAndroidTestRunner.getClassNames(tests, true)));
+    }
+
+    /**
+     * Test that the events of several shards are reported as one run.
+     */
+    public void testMergingListener() {
+        RecordingListener listener = new RecordingListener();
+        List<String> events = listener.mEvents;
+
+        ShardedAndroidTestRunner.MergingListener merger =
+                new ShardedAndroidTestRunner.MergingListener(
+                        Collections.singletonList(listener));
+        TestIdentifier test1 = new TestIdentifier("Foo", "test1");
+        TestIdentifier test2 = new TestIdentifier("Bar", "test2");
+        List<TestIdentifier> unfinished1 = new ArrayList<TestIdentifier>(Arrays.asList(test1));
+        List<TestIdentifier> unfinished2 = new ArrayList<TestIdentifier>(Arrays.asList(test2));
+        ITestRunListener shard1 = merger.createShardListener(unfinished1);
+        ITestRunListener shard2 = merger.createShardListener(unfinished2);
+        Map<String, String> empty = Collections.emptyMap();
+
+        merger.startRun("run", 2);
+        shard1.testRunStarted("run", 1);
+        shard2.testRunStarted("run", 1);
+        shard1.testStarted(test1);
+        shard1.testFailed(TestFailure.FAILURE, test1, "trace");
+        shard1.testEnded(test1, empty);
+        shard1.testRunEnded(10, Collections.singletonMap("a", "1"));
+        shard2.testStarted(test2);
+        shard2.testRunFailed("crash");
+        shard2.testRunEnded(20, empty);
+        merger.endRun(30);
+
+        assertEquals(Arrays.asList(
+                "started run 2",
+                "test " + test1,
+                "failed " + test1,
+                "ended " + test1,
+                "test " + test2,
+                "run failed crash",
+                "run ended 30 {a=1}"), events);
+        assertTrue(unfinished1.isEmpty());
+        assertEquals(Arrays.asList(test2), unfinished2);
+    }
+
+    /**
+     * Test that the tests of a batch which did not end because the instrumentation crashed are
+     * run again by method, without running the others twice.
+     */
+    public void testRequeueAfterCrash() throws Exception {
+        FakeDevice fake = new FakeDevice(createTests(3, 3), 0, false,
+                Collections.<TestIdentifier>emptyList());
+        RecordingListener listener = new RecordingListener();
+        new ShardedAndroidTestRunner("com.foo", null, Arrays.asList(fake.createDevice()))
+                .run(listener);
+
+        // every test ended once.
+        assertEquals(9, listener.mEnded.size());
+        assertEquals(new HashSet<TestIdentifier>(createTests(3, 3)),
+                new HashSet<TestIdentifier>(listener.mEnded));
+
+        // the log only run, the batch which crashed, the tests put back, then the last class.
+        assertEquals(4, fake.mClassArgs.size());
+        assertEquals("com.foo.Class0,com.foo.Class1", fake.mClassArgs.get(1));
+        assertEquals("com.foo.Class0#test2,com.foo.Class1#test0,com.foo.Class1#test1,"
+                + "com.foo.Class1#test2", fake.mClassArgs.get(2));
+        assertEquals("com.foo.Class2", fake.mClassArgs.get(3));
+        // the crash is reported, and no test is left.
+        String failure = listener.mEvents.get(listener.mEvents.size() - 2);
+        assertEquals("run failed Instrumentation run failed due to 'Process crashed.'", failure);
+    }
+
+    /**
+     * Test that the tests which did not end are reported as not run when no device is left to
+     * run them.
+     */
+    public void testNotRunAfterConnectionFailure() throws Exception {
+        FakeDevice fake = new FakeDevice(createTests(3, 3), 0, true,
+                Collections.<TestIdentifier>emptyList());
+        RecordingListener listener = new RecordingListener();
+        new ShardedAndroidTestRunner("com.foo", null, Arrays.asList(fake.createDevice()))
+                .run(listener);
+
+        // the device is left out after the failure.
+        assertEquals(2, fake.mClassArgs.size());
+        assertEquals(2, listener.mEnded.size());
+        String failure = listener.mEvents.get(listener.mEvents.size() - 2);
+        assertTrue(failure, failure.startsWith("run failed "));
+        assertTrue(failure, failure.endsWith("; 7 tests were not run"));
+    }
+
+    /**
+     * Test that a hanging test fails alone, and that the devices on which tests hang keep
+     * running the other tests.
+     */
+    public void testHangingTests() throws Exception {
+        List<TestIdentifier> tests = createTests(4, 3);
+        // one test in each of the first two batches, so that both devices run one.
+        List<TestIdentifier> hanging = Arrays.asList(tests.get(1), tests.get(4));
+        FakeDevice fake1 = new FakeDevice(tests, -1, false, hanging);
+        FakeDevice fake2 = new FakeDevice(tests, -1, false, hanging);
+        RecordingListener listener = new RecordingListener();
+        ShardedAndroidTestRunner runner = new ShardedAndroidTestRunner("com.foo", null,
+                Arrays.asList(fake1.createDevice(), fake2.createDevice()));
+        runner.setTests(tests);
+        runner.run(listener);
+
+        // every test ended once, and only the tests which hung failed.
+        assertEquals(12, listener.mEnded.size());
+        assertEquals(new HashSet<TestIdentifier>(tests),
+                new HashSet<TestIdentifier>(listener.mEnded));
+        List<String> failed = new ArrayList<String>();
+        for (String event : listener.mEvents) {
+            if (event.startsWith("failed ")) {
+                failed.add(event);
+            }
+            assertFalse(event, event.endsWith("tests were not run"));
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("failed " + hanging.get(0),
+                "failed " + hanging.get(1))), new HashSet<String>(failed));
+        assertEquals(2, failed.size());
+    }
+
+    /**
+     * Records the events it gets as strings, and the tests which ended.
+     */
+    private static class RecordingListener implements ITestRunListener {
+        private final List<String> mEvents = new ArrayList<String>();
+        private final List<TestIdentifier> mEnded = new ArrayList<TestIdentifier>();
+
+        @Override
+        public void testRunStarted(String runName, int testCount) {
+            mEvents.add("started " + runName + " " + testCount);
+        }
+
+        @Override
+        public void testStarted(TestIdentifier test) {
+            mEvents.add("test " + test);
+        }
+
+        @Override
+        public void testFailed(TestFailure status, TestIdentifier test, String trace) {
+            mEvents.add("failed " + test);
+        }
+
+        @Override
+        public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+            mEvents.add("ended " + test);
+            mEnded.add(test);
+        }
+
+        @Override
+        public void testRunFailed(String errorMessage) {
+            mEvents.add("run failed " + errorMessage);
+        }
+
+        @Override
+        public void testRunStopped(long elapsedTime) {
+            mEvents.add("stopped");
+        }
+
+        @Override
+        public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+            mEvents.add("run ended " + elapsedTime + " " + runMetrics);
+        }
+    }
+
+    /**
+     * A device running the instrumentation of a fixed set of tests. One of its runs may fail
+     * after the first test, while the second test runs, and one of the tests may hang.
+     */
+    private static class FakeDevice implements InvocationHandler {
+        private static final Pattern CLASS_ARG = Pattern.compile("-e class (\\S+)");
+
+        private final List<TestIdentifier> mTests;
+        private final int mFailingRun;
+        private final boolean mConnectionFailure;
+        private final Collection<TestIdentifier> mHangingTests;
+        /** The class argument of each run, empty for the log only run. */
+        private final List<String> mClassArgs = new ArrayList<String>();
+        private int mRunCount = 0;
+
+        /**
+         * @param tests the tests of the instrumentation.
+         * @param failingRun the index of the run which fails, not counting the log only run,
+         *            or -1.
+         * @param connectionFailure true if the connection fails, false if the
+         *            instrumentation crashes.
+         * @param hangingTests the tests which never end.
+         */
+        FakeDevice(List<TestIdentifier> tests, int failingRun, boolean connectionFailure,
+                Collection<TestIdentifier> hangingTests) {
+            mTests = tests;
+            mFailingRun = failingRun;
+            mConnectionFailure = connectionFailure;
+            mHangingTests = hangingTests;
+        }
+
+        IDevice createDevice() {
+            return (IDevice) Proxy.newProxyInstance(IDevice.class.getClassLoader(),
+                    new Class<?>[] { IDevice.class }, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws IOException, ShellCommandUnresponsiveException {
+            if (method.getName().equals("getSerialNumber")) {
+                return "fake";
+            } else if (method.getName().equals("executeShellCommand")) {
+                executeShellCommand((String) args[0], (IShellOutputReceiver) args[1]);
+                return null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+
+        private void executeShellCommand(String command, IShellOutputReceiver receiver)
+                throws IOException, ShellCommandUnresponsiveException {
+            Matcher m = CLASS_ARG.matcher(command);
+            String classArg = m.find() ? m.group(1) : "";
+            mClassArgs.add(classArg);
+
+            List<TestIdentifier> tests = new ArrayList<TestIdentifier>();
+            if (classArg.length() == 0) {
+                tests.addAll(mTests);
+            } else {
+                Set<String> names = new HashSet<String>(Arrays.asList(classArg.split(",")));
+                for (TestIdentifier test : mTests) {
+                    if (names.contains(test.getClassName())
+                            || names.contains(test.getClassName() + '#' + test.getTestName())) {
+                        tests.add(test);
+                    }
+                }
+            }
+
+            boolean fails = classArg.length() > 0 && mRunCount++ == mFailingRun;
+            StringBuilder output = new StringBuilder();
+            boolean hangs = false;
+            for (int i = 0 ; i < tests.size() ; i++) {
+                addStatus(output, tests.get(i), tests.size(), 1);
+                hangs = classArg.length() > 0 && mHangingTests.contains(tests.get(i));
+                if (hangs || (fails && i == 1)) {
+                    break;
+                }
+                addStatus(output, tests.get(i), tests.size(), 0);
+            }
+            byte[] data = output.toString().getBytes();
+            receiver.addOutput(data, 0, data.length);
+            if (hangs) {
+                throw new ShellCommandUnresponsiveException();
+            }
+            if (fails && mConnectionFailure) {
+                throw new IOException("connection lost");
+            }
+
+            if (fails) {
+                output.setLength(0);
+                output.append("INSTRUMENTATION_RESULT: shortMsg=Process crashed.\r\n");
+                output.append("INSTRUMENTATION_CODE: 0\r\n");
+            } else {
+                output.setLength(0);
+                output.append("INSTRUMENTATION_CODE: -1\r\n");
+            }
+            data = output.toString().getBytes();
+            receiver.addOutput(data, 0, data.length);
+            receiver.flush();
+        }
+
+        private static void addStatus(StringBuilder output, TestIdentifier test, int count,
+                int code) {
+            output.append("INSTRUMENTATION_STATUS: class=").append(test.getClassName());
+            output.append("\r\nINSTRUMENTATION_STATUS: test=").append(test.getTestName());
+            output.append("\r\nINSTRUMENTATION_STATUS: numtests=").append(count);
+            output.append("\r\nINSTRUMENTATION_STATUS_CODE: ").append(code).append("\r\n");
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.testrunner.ITestRunListener.TestFailure;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Tests for {@link TestDurationHistory}.
+ */
+public class TestDurationHistoryTest extends TestCase {
+
+    private static final TestIdentifier TEST1 = new TestIdentifier("com.foo.Foo", "testA");
+    private static final TestIdentifier TEST2 = new TestIdentifier("com.foo.Bar", "testB");
+
+    /**
+     * Test that the history records the tests it listens to.
+     */
+    public void testListener() {
+        TestDurationHistory history = new TestDurationHistory();
+        Map<String, String> empty = Collections.emptyMap();
+
+        history.testRunStarted("run", 2);
+        history.testStarted(TEST1);
+        history.testEnded(TEST1, empty);
+        history.testStarted(TEST2);
+        history.testFailed(TestFailure.ERROR, TEST2, "trace");
+        history.testEnded(TEST2, empty);
+        history.testRunEnded(0, empty);
+
+        assertEquals(2, history.getTestCount());
+        assertNotNull(history.getDuration(TEST1));
+        assertEquals(Arrays.asList(TEST2), history.getFailedTests());
+
+        // a test which passes is no longer failed.
+        history.testStarted(TEST2);
+        history.testEnded(TEST2, empty);
+        assertTrue(history.getFailedTests().isEmpty());
+    }
+
+    public void testAverage() {
+        TestDurationHistory history = new TestDurationHistory();
+        history.addResult(TEST1, 100, false);
+        assertEquals(100, history.getDuration(TEST1).longValue());
+        history.addResult(TEST1, 300, false);
+        assertEquals(200, history.getDuration(TEST1).longValue());
+        assertNull(history.getDuration(TEST2));
+    }
+
+    public void testSaveLoad() throws Exception {
+        File file = File.createTempFile("history", ".txt");
+        try {
+            TestDurationHistory history = new TestDurationHistory();
+            history.addResult(TEST1, 1234, false);
+            history.addResult(TEST2, 56, true);
+            history.save(file);
+
+            TestDurationHistory loaded = TestDurationHistory.load(file);
+            assertEquals(history.getDurations(), loaded.getDurations());
+            assertEquals(Arrays.asList(TEST2), loaded.getFailedTests());
+        } finally {
+            file.delete();
+        }
+
+        // a missing file is an empty history.
+        assertEquals(0, TestDurationHistory.load(file).getTestCount());
+    }
+}
@@ -268,17 +268,19 @@ public class Addr2Line {
      */
     public void stop() {
         synchronized (sProcessCache) {
-            if (mProcess != null) {
-                // remove the process from the list
-                sProcessCache.remove(mLibrary);
+            synchronized (this) {
+                if (mProcess != null) {
+                    // remove the process from the list
+                    sProcessCache.remove(mLibrary);
 
-                // then stops the process
-                mProcess.destroy();
+                    // then stops the process
+                    mProcess.destroy();
 
-                // set the reference to null.
-                // this allows to make sure another thread calling getAddress()
-                // will not query a stopped thread
-                mProcess = null;
+                    // set the reference to null.
+                    // this allows to make sure another thread calling getAddress()
+                    // will not query a stopped thread
+                    mProcess = null;
+                }
             }
         }
     }
@@ -312,10 +314,10 @@ public class Addr2Line {
     public NativeStackCallInfo getAddress(long addr) {
         long offset = addr - mLibrary.getStartAddress();
 
-        // even though we don't access the hashmap object, we need to
-        // synchronized on it to prevent
-        // another thread from stopping the process we're going to query.
-        synchronized (sProcessCache) {
+        // synchronize on this process only, so that other libraries can be queried in
+        // parallel. stop() also locks it, which prevents another thread from stopping
+        // the process we're going to query.
+        synchronized (this) {
             // check the process is still alive/allocated
             if (mProcess != null) {
                 // prepare to the write the address to the output buffer.
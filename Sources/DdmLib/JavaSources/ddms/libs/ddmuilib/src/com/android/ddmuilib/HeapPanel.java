@@ -20,6 +20,8 @@ import com.android.ddmlib.AndroidDebugBridge.IClientChangeListener;
 import com.android.ddmlib.Client;
 import com.android.ddmlib.ClientData;
 import com.android.ddmlib.HeapSegment.HeapSegmentElement;
+import com.android.ddmlib.HeapSegmentHistogram;
+import com.android.ddmlib.HeapSegmentSummary;
 import com.android.ddmlib.Log;
 
 import org.eclipse.jface.preference.IPreferenceStore;
@@ -68,10 +70,8 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.NumberFormat;
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
 
 
 /**
@@ -581,12 +581,9 @@ public final class HeapPanel extends BaseHeapPanel {
                     TableItem item = mStatisticsTable.getItem(index);
 
                     if (item != null) {
-                        Map<Integer, ArrayList<HeapSegmentElement>> heapMap =
-                            client.getClientData().getVmHeapData().getProcessedHeapMap();
-
-                        ArrayList<HeapSegmentElement> list = heapMap.get(item.getData());
-                        if (list != null) {
-                            showChart(list);
+                        HeapSegmentSummary summary = getHeapSummary();
+                        if (summary != null) {
+                            showChart(summary.getHistogram((Integer)item.getData()));
                         }
                     }
                 }
@@ -769,7 +766,7 @@ public final class HeapPanel extends BaseHeapPanel {
 
         ClientData cd = client.getClientData();
 
-        Map<Integer, ArrayList<HeapSegmentElement>> heapMap;
+        HeapSegmentSummary summary;
 
         // Atomically get and clear the heap data.
         synchronized (cd) {
@@ -778,7 +775,7 @@ public final class HeapPanel extends BaseHeapPanel {
                 return;
             }
 
-            heapMap = cd.getVmHeapData().getProcessedHeapMap();
+            summary = getHeapSummary();
         }
 
         // we have new data, lets display it.
@@ -794,21 +791,21 @@ public final class HeapPanel extends BaseHeapPanel {
         mStatisticsTable.setRedraw(false);
         mStatisticsTable.removeAll();
 
-        if (heapMap != null) {
+        if (summary != null) {
             int selectedIndex = -1;
-            ArrayList<HeapSegmentElement> selectedList = null;
+            HeapSegmentHistogram selectedHistogram = null;
 
-            // get the keys
-            Set<Integer> keys = heapMap.keySet();
-            int iter = 0; // use a manual iter int because Set<?> doesn't have an index
-            // based accessor.
-            for (Integer key : keys) {
-                ArrayList<HeapSegmentElement> list = heapMap.get(key);
+            int iter = 0;
+            for (int key = 0 ; key < HeapSegmentSummary.TYPE_COUNT ; key++) {
+                HeapSegmentHistogram histogram = summary.getHistogram(key);
+                if (histogram == null) {
+                    continue;
+                }
 
                 // check if this is the key that is supposed to be selected
-                if (key.equals(selectedKey)) {
+                if (selectedKey != null && key == selectedKey.intValue()) {
                     selectedIndex = iter;
-                    selectedList = list;
+                    selectedHistogram = histogram;
                 }
                 iter++;
 
@@ -819,29 +816,17 @@ public final class HeapPanel extends BaseHeapPanel {
                 item.setText(0, mMapLegend[key]);
 
                 // set the count, smallest, largest
-                int count = list.size();
+                long count = histogram.getCount();
                 item.setText(1, addCommasToNumber(count));
 
                 if (count > 0) {
-                    item.setText(3, prettyByteCount(list.get(0).getLength()));
-                    item.setText(4, prettyByteCount(list.get(count-1).getLength()));
-
-                    int median = count / 2;
-                    HeapSegmentElement element = list.get(median);
-                    long size = element.getLength();
-                    item.setText(5, prettyByteCount(size));
-
-                    long totalSize = 0;
-                    for (int i = 0 ; i < count; i++) {
-                        element = list.get(i);
-
-                        size = element.getLength();
-                        totalSize += size;
-                    }
+                    item.setText(3, prettyByteCount(histogram.getSmallestSize()));
+                    item.setText(4, prettyByteCount(histogram.getLargestSize()));
+                    item.setText(5, prettyByteCount(histogram.getMedianSize()));
 
                     // set the average and total
-                    item.setText(2, prettyByteCount(totalSize));
-                    item.setText(6, prettyByteCount(totalSize / count));
+                    item.setText(2, prettyByteCount(histogram.getTotalSize()));
+                    item.setText(6, prettyByteCount(histogram.getAverageSize()));
                 }
             }
 
@@ -849,7 +834,7 @@ public final class HeapPanel extends BaseHeapPanel {
 
             if (selectedIndex != -1) {
                 mStatisticsTable.setSelection(selectedIndex);
-                showChart(selectedList);
+                showChart(selectedHistogram);
             } else {
                 showChart(null);
             }
@@ -885,34 +870,19 @@ public final class HeapPanel extends BaseHeapPanel {
     }
 
     /**
-     * Fills the chart with the content of the list of {@link HeapSegmentElement}.
+     * Fills the chart with the content of a {@link HeapSegmentHistogram}.
      */
-    private void showChart(ArrayList<HeapSegmentElement> list) {
+    private void showChart(HeapSegmentHistogram histogram) {
         mAllocCountDataSet.clear();
 
-        if (list != null) {
+        if (histogram != null) {
             String rowKey = "Alloc Count";
 
-            long currentSize = -1;
-            int currentCount = 0;
-            for (HeapSegmentElement element : list) {
-                if (element.getLength() != currentSize) {
-                    if (currentSize != -1) {
-                        ByteLong columnKey = new ByteLong(currentSize);
-                        mAllocCountDataSet.addValue(currentCount, rowKey, columnKey);
-                    }
-
-                    currentSize = element.getLength();
-                    currentCount = 1;
-                } else {
-                    currentCount++;
-                }
-            }
-
-            // add the last item
-            if (currentSize != -1) {
-                ByteLong columnKey = new ByteLong(currentSize);
-                mAllocCountDataSet.addValue(currentCount, rowKey, columnKey);
+            int[] sizes = histogram.getSizes();
+            int[] counts = histogram.getCounts();
+            for (int i = 0 ; i < sizes.length ; i++) {
+                ByteLong columnKey = new ByteLong(sizes[i]);
+                mAllocCountDataSet.addValue(counts[i], rowKey, columnKey);
             }
         }
     }
@@ -332,10 +332,9 @@ public final class NativeHeapPanel extends BaseHeapPanel {
         }
 
         private NativeLibraryMapInfo getLibraryFor(long addr) {
-            for (NativeLibraryMapInfo info : mClientData.getMappedNativeLibraries()) {
-                if (info.isWithinLibrary(addr)) {
-                    return info;
-                }
+            NativeLibraryMapInfo info = mClientData.getNativeLibraryMapIndex().getLibrary(addr);
+            if (info != null) {
+                return info;
             }
 
             Log.d("ddm-nativeheap", "Failed finding Library for " + Long.toHexString(addr));
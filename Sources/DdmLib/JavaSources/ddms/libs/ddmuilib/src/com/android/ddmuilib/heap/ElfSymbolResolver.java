@@ -0,0 +1,592 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.heap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * In-process resolver of addresses to function names and source locations, reading the
+ * symbol table and the DWARF line table of an unstripped ELF file.
+ * <p/>
+ * The file is memory mapped, and the function symbols and line table rows are sorted once
+ * into primitive arrays, so each lookup is a binary search. Symbol names are decoded from the
+ * mapped file on lookup.
+ * <p/>
+ * Addresses are the ones given to addr2line, and results use its "-f" output format. Unlike
+ * "addr2line -C", names are not demangled, and source files are not prefixed with the
+ * compilation folder. DWARF 5 line tables are not supported, their units are skipped.
+ */
+public final class ElfSymbolResolver {
+    /** method name returned by addr2line for unknown functions. */
+    public static final String UNKNOWN_METHOD = "??"; //$NON-NLS-1$
+    /** source location returned by addr2line for unknown locations. */
+    public static final String UNKNOWN_SOURCE = "??:0"; //$NON-NLS-1$
+
+    private static final int SHT_SYMTAB = 2;
+    private static final int SHT_DYNSYM = 11;
+    private static final int STT_FUNC = 2;
+    private static final int EM_ARM = 40;
+
+    private static final int DW_LNS_COPY = 1;
+    private static final int DW_LNS_ADVANCE_PC = 2;
+    private static final int DW_LNS_ADVANCE_LINE = 3;
+    private static final int DW_LNS_SET_FILE = 4;
+    private static final int DW_LNS_CONST_ADD_PC = 8;
+    private static final int DW_LNS_FIXED_ADVANCE_PC = 9;
+    private static final int DW_LNE_END_SEQUENCE = 1;
+    private static final int DW_LNE_SET_ADDRESS = 2;
+    private static final int DW_LNE_DEFINE_FILE = 3;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    private final ByteBuffer mBuffer;
+    private final boolean mIs64;
+
+    /** function symbols, sorted by start address. */
+    private long[] mSymbolStarts = new long[0];
+    private long[] mSymbolSizes = new long[0];
+    private int[] mSymbolNames = new int[0];
+    /** offset of the string table of the symbols in the file. */
+    private int mSymbolNameTable;
+
+    /**
+     * line table rows, sorted by address. A line of 0 marks the end of a sequence or an
+     * unknown location.
+     */
+    private long[] mLineAddresses = new long[0];
+    private int[] mLineFiles = new int[0];
+    private int[] mLines = new int[0];
+    private final List<String> mFileNames = new ArrayList<String>();
+
+    /** section headers: name offset, type, offset, size, link. */
+    private int[][] mSections;
+
+    /**
+     * Opens an ELF file.
+     * @return the resolver, or null if the file is not an ELF file.
+     * @throws IOException if the file cannot be read.
+     */
+    public static ElfSymbolResolver open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+        ByteBuffer buffer;
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < 52 || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            // the mapping stays valid after the file is closed.
+            raf.close();
+        }
+
+        if (buffer.get(0) != 0x7f || buffer.get(1) != 'E' || buffer.get(2) != 'L'
+                || buffer.get(3) != 'F') {
+            return null;
+        }
+
+        try {
+            return new ElfSymbolResolver(buffer);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Malformed ELF file " + file); //$NON-NLS-1$
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed ELF file " + file); //$NON-NLS-1$
+        }
+    }
+
+    private ElfSymbolResolver(ByteBuffer buffer) {
+        mBuffer = buffer;
+        mIs64 = buffer.get(4) == 2;
+        buffer.order(buffer.get(5) == 2 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+
+        readSections();
+
+        int symtab = findSection(SHT_SYMTAB, null);
+        if (symtab < 0) {
+            symtab = findSection(SHT_DYNSYM, null);
+        }
+        if (symtab >= 0) {
+            boolean thumb = (buffer.getShort(0x12) & 0xffff) == EM_ARM;
+            readSymbols(symtab, thumb);
+        }
+
+        int debugLine = findSection(-1, ".debug_line"); //$NON-NLS-1$
+        if (debugLine >= 0) {
+            readLineTable(debugLine);
+        }
+    }
+
+    /** Returns the number of function symbols. */
+    public int getSymbolCount() {
+        return mSymbolStarts.length;
+    }
+
+    /** Returns the number of line table rows. */
+    public int getLineCount() {
+        return mLineAddresses.length;
+    }
+
+    /**
+     * Returns the name of the function containing an address, or null.
+     */
+    public String getMethodName(long address) {
+        int i = floor(mSymbolStarts, mSymbolStarts.length, address);
+        if (i < 0) {
+            return null;
+        }
+
+        // like addr2line, symbols without a size extend to the next symbol.
+        long size = mSymbolSizes[i];
+        if (size == 0 || address - mSymbolStarts[i] < size) {
+            return readString(mSymbolNameTable + mSymbolNames[i]);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the "file:line" source location of an address, or null.
+     */
+    public String getSourceLocation(long address) {
+        int i = floor(mLineAddresses, mLineAddresses.length, address);
+        if (i < 0 || mLines[i] == 0) {
+            return null;
+        }
+        return mFileNames.get(mLineFiles[i]) + ":" + mLines[i]; //$NON-NLS-1$
+    }
+
+    /**
+     * Resolves an address.
+     * @return the method name and source location, as printed by "addr2line -f", or null
+     * if the address is not in a known function.
+     */
+    public String[] resolve(long address) {
+        String method = getMethodName(address);
+        if (method == null) {
+            return null;
+        }
+        String source = getSourceLocation(address);
+        return new String[] { method, source != null ? source : UNKNOWN_SOURCE };
+    }
+
+    /** Returns the index of the last value <= key in a sorted array, or -1. */
+    private static int floor(long[] values, int length, long key) {
+        int low = 0;
+        int high = length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    private void readSections() {
+        ByteBuffer b = mBuffer;
+        long shoff = mIs64 ? b.getLong(0x28) : b.getInt(0x20) & 0xffffffffL;
+        int shentsize = b.getShort(mIs64 ? 0x3a : 0x2e) & 0xffff;
+        int shnum = b.getShort(mIs64 ? 0x3c : 0x30) & 0xffff;
+
+        mSections = new int[shnum][];
+        for (int i = 0 ; i < shnum ; i++) {
+            int base = (int)(shoff + (long)i * shentsize);
+            if (mIs64) {
+                mSections[i] = new int[] {
+                        b.getInt(base), b.getInt(base + 4),
+                        (int)b.getLong(base + 0x18), (int)b.getLong(base + 0x20),
+                        b.getInt(base + 0x28) };
+            } else {
+                mSections[i] = new int[] {
+                        b.getInt(base), b.getInt(base + 4),
+                        b.getInt(base + 0x10), b.getInt(base + 0x14),
+                        b.getInt(base + 0x18) };
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the first section with a type, or with a name if type is -1,
+     * or -1 if there is none.
+     */
+    private int findSection(int type, String name) {
+        int shstrndx = mBuffer.getShort(mIs64 ? 0x3e : 0x32) & 0xffff;
+        for (int i = 0 ; i < mSections.length ; i++) {
+            int[] section = mSections[i];
+            if (type >= 0) {
+                if (section[1] == type) {
+                    return i;
+                }
+            } else if (shstrndx < mSections.length
+                    && name.equals(readString(mSections[shstrndx][2] + section[0]))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void readSymbols(int symtab, boolean thumb) {
+        int[] section = mSections[symtab];
+        int entrySize = mIs64 ? 24 : 16;
+        int count = section[3] / entrySize;
+        mSymbolNameTable = mSections[section[4]][2];
+
+        long[] starts = new long[count];
+        long[] sizes = new long[count];
+        int[] names = new int[count];
+        int n = 0;
+
+        ByteBuffer b = mBuffer;
+        for (int i = 0 ; i < count ; i++) {
+            int base = section[2] + i * entrySize;
+            int info = b.get(base + (mIs64 ? 4 : 12)) & 0xff;
+            short shndx = b.getShort(base + (mIs64 ? 6 : 14));
+            if ((info & 0xf) != STT_FUNC || shndx == 0) {
+                continue;
+            }
+
+            long value = mIs64 ? b.getLong(base + 8) : b.getInt(base + 4) & 0xffffffffL;
+            if (thumb) {
+                value &= ~1L;
+            }
+            starts[n] = value;
+            sizes[n] = mIs64 ? b.getLong(base + 16) : b.getInt(base + 8) & 0xffffffffL;
+            names[n] = b.getInt(base);
+            n++;
+        }
+
+        // sort the symbols by start address through a packed index.
+        Integer[] order = new Integer[n];
+        for (int i = 0 ; i < n ; i++) {
+            order[i] = i;
+        }
+        final long[] keys = starts;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                long a = keys[o1.intValue()];
+                long b = keys[o2.intValue()];
+                return a < b ? -1 : (a == b ? 0 : 1);
+            }
+        });
+
+        mSymbolStarts = new long[n];
+        mSymbolSizes = new long[n];
+        mSymbolNames = new int[n];
+        for (int i = 0 ; i < n ; i++) {
+            int j = order[i].intValue();
+            mSymbolStarts[i] = starts[j];
+            mSymbolSizes[i] = sizes[j];
+            mSymbolNames[i] = names[j];
+        }
+    }
+
+    private void readLineTable(int debugLine) {
+        int[] section = mSections[debugLine];
+        int start = section[2];
+        int end = start + section[3];
+
+        LineRows rows = new LineRows();
+        ByteBuffer b = mBuffer.duplicate().order(mBuffer.order());
+        int unit = start;
+        while (unit < end) {
+            b.position(unit);
+            long length = b.getInt() & 0xffffffffL;
+            boolean dwarf64 = length == 0xffffffffL;
+            if (dwarf64) {
+                length = b.getLong();
+            }
+            int unitEnd = (int)(b.position() + length);
+            if (length == 0 || unitEnd > end || unitEnd < b.position()) {
+                break;
+            }
+
+            int version = b.getShort() & 0xffff;
+            if (version >= 2 && version <= 4) {
+                readLineProgram(b, version, dwarf64, unitEnd, rows);
+            }
+            unit = unitEnd;
+        }
+
+        rows.sortInto(this);
+    }
+
+    private void readLineProgram(ByteBuffer b, int version, boolean dwarf64, int unitEnd,
+            LineRows rows) {
+        long headerLength = dwarf64 ? b.getLong() : b.getInt() & 0xffffffffL;
+        int program = (int)(b.position() + headerLength);
+
+        int minInstructionLength = b.get() & 0xff;
+        if (version >= 4) {
+            b.get(); // maximum_operations_per_instruction, only for VLIW.
+        }
+        b.get(); // default_is_stmt, all rows are used like addr2line does.
+        int lineBase = b.get();
+        int lineRange = b.get() & 0xff;
+        int opcodeBase = b.get() & 0xff;
+        int[] opcodeLengths = new int[opcodeBase];
+        for (int i = 1 ; i < opcodeBase ; i++) {
+            opcodeLengths[i] = b.get() & 0xff;
+        }
+        if (lineRange == 0) {
+            return;
+        }
+
+        List<String> directories = new ArrayList<String>();
+        directories.add(""); //$NON-NLS-1$
+        String dir;
+        while ((dir = readString(b)).length() > 0) {
+            directories.add(dir);
+        }
+
+        // file indices of this unit, starting at 1, into mFileNames.
+        List<Integer> files = new ArrayList<Integer>();
+        files.add(-1);
+        String name;
+        while ((name = readString(b)).length() > 0) {
+            files.add(addFile(directories, name, readULeb128(b)));
+            readULeb128(b); // modification time
+            readULeb128(b); // length
+        }
+
+        b.position(program);
+
+        long address = 0;
+        int file = 1;
+        int line = 1;
+        while (b.position() < unitEnd) {
+            int opcode = b.get() & 0xff;
+            if (opcode >= opcodeBase) {
+                int adjusted = opcode - opcodeBase;
+                address += (adjusted / lineRange) * minInstructionLength;
+                line += lineBase + adjusted % lineRange;
+                rows.add(address, fileIndex(files, file), line);
+            } else if (opcode == 0) {
+                int length = (int)readULeb128(b);
+                int next = b.position() + length;
+                int extended = length > 0 ? b.get() & 0xff : 0;
+                switch (extended) {
+                    case DW_LNE_END_SEQUENCE:
+                        rows.endSequence(address);
+                        address = 0;
+                        file = 1;
+                        line = 1;
+                        break;
+                    case DW_LNE_SET_ADDRESS:
+                        address = length - 1 == 8 ? b.getLong() : b.getInt() & 0xffffffffL;
+                        break;
+                    case DW_LNE_DEFINE_FILE:
+                        name = readString(b);
+                        files.add(addFile(directories, name, readULeb128(b)));
+                        break;
+                    default:
+                        break;
+                }
+                b.position(next);
+            } else {
+                switch (opcode) {
+                    case DW_LNS_COPY:
+                        rows.add(address, fileIndex(files, file), line);
+                        break;
+                    case DW_LNS_ADVANCE_PC:
+                        address += readULeb128(b) * minInstructionLength;
+                        break;
+                    case DW_LNS_ADVANCE_LINE:
+                        line += (int)readSLeb128(b);
+                        break;
+                    case DW_LNS_SET_FILE:
+                        file = (int)readULeb128(b);
+                        break;
+                    case DW_LNS_CONST_ADD_PC:
+                        address += ((255 - opcodeBase) / lineRange) * minInstructionLength;
+                        break;
+                    case DW_LNS_FIXED_ADVANCE_PC:
+                        address += b.getShort() & 0xffff;
+                        break;
+                    default:
+                        // set_column, negate_stmt, set_basic_block, prologue/epilogue,
+                        // set_isa and unknown opcodes: skip their operands.
+                        for (int i = 0 ; i < opcodeLengths[opcode] ; i++) {
+                            readULeb128(b);
+                        }
+                        break;
+                }
+            }
+        }
+    }
+
+    private int addFile(List<String> directories, String name, long dirIndex) {
+        String path = name;
+        if (dirIndex > 0 && dirIndex < directories.size() && name.startsWith("/") == false) {
+            path = directories.get((int)dirIndex) + "/" + name; //$NON-NLS-1$
+        }
+        mFileNames.add(path);
+        return mFileNames.size() - 1;
+    }
+
+    private static int fileIndex(List<Integer> files, int file) {
+        if (file > 0 && file < files.size()) {
+            return files.get(file).intValue();
+        }
+        return -1;
+    }
+
+    /** Reads a null terminated string at an offset of the file. */
+    private String readString(int offset) {
+        int end = offset;
+        int limit = mBuffer.limit();
+        while (end < limit && mBuffer.get(end) != 0) {
+            end++;
+        }
+        byte[] bytes = new byte[end - offset];
+        for (int i = 0 ; i < bytes.length ; i++) {
+            bytes[i] = mBuffer.get(offset + i);
+        }
+        return new String(bytes, 0, bytes.length, UTF8);
+    }
+
+    /** Reads a null terminated string at the position of a buffer. */
+    private static String readString(ByteBuffer b) {
+        int start = b.position();
+        int end = start;
+        while (end < b.limit() && b.get(end) != 0) {
+            end++;
+        }
+        byte[] bytes = new byte[end - start];
+        b.get(bytes);
+        b.get();
+        return new String(bytes, 0, bytes.length, UTF8);
+    }
+
+    private static long readULeb128(ByteBuffer b) {
+        long result = 0;
+        int shift = 0;
+        int value;
+        do {
+            value = b.get() & 0xff;
+            result |= (long)(value & 0x7f) << shift;
+            shift += 7;
+        } while ((value & 0x80) != 0);
+        return result;
+    }
+
+    private static long readSLeb128(ByteBuffer b) {
+        long result = 0;
+        int shift = 0;
+        int value;
+        do {
+            value = b.get() & 0xff;
+            result |= (long)(value & 0x7f) << shift;
+            shift += 7;
+        } while ((value & 0x80) != 0);
+        if (shift < 64 && (value & 0x40) != 0) {
+            result |= -1L << shift;
+        }
+        return result;
+    }
+
+    /**
+     * Growable line table rows, grouped in sequences. Rows are sorted within a sequence, so
+     * only the sequences are sorted.
+     */
+    private static final class LineRows {
+        long[] mAddresses = new long[1024];
+        int[] mFiles = new int[1024];
+        int[] mLines = new int[1024];
+        int mCount;
+        /** start row of each sequence. */
+        int[] mSequences = new int[64];
+        int mSequenceCount;
+        boolean mInSequence;
+
+        /** Adds a row. A file of -1 means an unknown file. */
+        void add(long address, int file, int line) {
+            append(address, file, file < 0 ? 0 : line);
+        }
+
+        /** Adds the row ending the current sequence. */
+        void endSequence(long address) {
+            append(address, -1, 0);
+            mInSequence = false;
+        }
+
+        private void append(long address, int file, int line) {
+            if (mCount == mAddresses.length) {
+                mAddresses = Arrays.copyOf(mAddresses, mCount * 2);
+                mFiles = Arrays.copyOf(mFiles, mCount * 2);
+                mLines = Arrays.copyOf(mLines, mCount * 2);
+            }
+            if (mInSequence == false) {
+                if (mSequenceCount == mSequences.length) {
+                    mSequences = Arrays.copyOf(mSequences, mSequenceCount * 2);
+                }
+                mSequences[mSequenceCount++] = mCount;
+                mInSequence = true;
+            }
+            mAddresses[mCount] = address;
+            mFiles[mCount] = file;
+            mLines[mCount] = line;
+            mCount++;
+        }
+
+        void sortInto(ElfSymbolResolver resolver) {
+            final int[] sequences = Arrays.copyOf(mSequences, mSequenceCount);
+            Integer[] order = new Integer[sequences.length];
+            for (int i = 0 ; i < order.length ; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    long a = mAddresses[sequences[o1.intValue()]];
+                    long b = mAddresses[sequences[o2.intValue()]];
+                    return a < b ? -1 : (a == b ? 0 : 1);
+                }
+            });
+
+            long[] addresses = new long[mCount];
+            int[] files = new int[mCount];
+            int[] lines = new int[mCount];
+            int n = 0;
+            for (Integer index : order) {
+                int i = index.intValue();
+                int from = sequences[i];
+                int to = i + 1 < sequences.length ? sequences[i + 1] : mCount;
+                System.arraycopy(mAddresses, from, addresses, n, to - from);
+                System.arraycopy(mFiles, from, files, n, to - from);
+                System.arraycopy(mLines, from, lines, n, to - from);
+                n += to - from;
+            }
+
+            resolver.mLineAddresses = addresses;
+            resolver.mLineFiles = files;
+            resolver.mLines = lines;
+        }
+    }
+}
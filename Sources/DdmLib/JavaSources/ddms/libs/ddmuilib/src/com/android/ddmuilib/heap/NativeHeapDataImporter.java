@@ -17,206 +17,630 @@
 package com.android.ddmuilib.heap;
 
 import com.android.ddmlib.NativeAllocationInfo;
+import com.android.ddmlib.NativeStackArena;
 import com.android.ddmlib.NativeStackCallInfo;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.LineNumberReader;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.InputMismatchException;
 import java.util.List;
-import java.util.Scanner;
-import java.util.regex.Pattern;
-
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Imports native heap data exported with {@link NativeAllocationInfo#toString()}.
+ * <p/>
+ * Files are memory mapped. The data is split in ranges at allocation block boundaries, and
+ * the ranges are parsed in parallel directly from the bytes. The backtraces of all the
+ * allocations are interned in a single {@link NativeStackArena}.
+ */
 public class NativeHeapDataImporter implements IRunnableWithProgress {
-    private LineNumberReader mReader;
-    private int mStartLineNumber;
-    private int mEndLineNumber;
+    /** minimum size of the ranges parsed in parallel. */
+    private static final int MIN_RANGE_SIZE = 1024 * 1024;
+    /** number of ranges per thread, so that threads finishing early pick up more work. */
+    private static final int RANGES_PER_THREAD = 4;
+    private static final long CANCELLATION_POLL_MSEC = 100;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+    private static final byte[] SEPARATOR = new byte[] { '-', '-', '-' };
+
+    private Reader mReader;
+    private File mFile;
 
     private NativeHeapSnapshot mSnapshot;
 
     public NativeHeapDataImporter(Reader stream) {
-        mReader = new LineNumberReader(stream);
-        mReader.setLineNumber(1); // start numbering at 1
+        mReader = stream;
+    }
+
+    public NativeHeapDataImporter(File file) {
+        mFile = file;
     }
 
     @Override
     public void run(IProgressMonitor monitor)
             throws InvocationTargetException, InterruptedException {
-        monitor.beginTask("Importing Heap Data", IProgressMonitor.UNKNOWN);
-
-        List<NativeAllocationInfo> allocations = new ArrayList<NativeAllocationInfo>();
+        ExecutorService executor = null;
         try {
-            while (true) {
-                String line;
-                StringBuilder sb = new StringBuilder();
-
-                // read in a sequence of lines corresponding to a single NativeAllocationInfo
-                mStartLineNumber = mReader.getLineNumber();
-                while ((line = mReader.readLine()) != null) {
-                    if (line.trim().length() == 0) {
-                        // each block of allocations end with an empty line
-                        break;
+            ByteBuffer data = load();
+            monitor.beginTask("Importing Heap Data", data.limit() / 1024 + 1);
+
+            int[] bounds = split(data);
+            int rangeCount = bounds.length - 1;
+            NativeStackArena arena = new NativeStackArena(1024);
+            AtomicLong parsed = new AtomicLong();
+
+            int threadCount = Math.max(1,
+                    Math.min(rangeCount, Runtime.getRuntime().availableProcessors()));
+            executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Native Heap Import"); //$NON-NLS-1$
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+            List<Future<List<NativeAllocationInfo>>> futures =
+                    new ArrayList<Future<List<NativeAllocationInfo>>>(rangeCount);
+            for (int i = 0 ; i < rangeCount ; i++) {
+                futures.add(executor.submit(new RangeParser(data.duplicate(), bounds[i],
+                        bounds[i + 1], arena, parsed)));
+            }
+
+            List<NativeAllocationInfo> allocations = new ArrayList<NativeAllocationInfo>();
+            long reported = 0;
+            for (Future<List<NativeAllocationInfo>> future : futures) {
+                while (true) {
+                    if (monitor.isCanceled()) {
+                        throw new InterruptedException();
                     }
 
-                    sb.append(line);
-                    sb.append('\n');
+                    long kb = parsed.get() / 1024;
+                    monitor.worked((int) (kb - reported));
+                    reported = kb;
+
+                    try {
+                        allocations.addAll(
+                                future.get(CANCELLATION_POLL_MSEC, TimeUnit.MILLISECONDS));
+                        break;
+                    } catch (TimeoutException e) {
+                        // check for cancellation again.
+                    }
                 }
-                mEndLineNumber = mReader.getLineNumber();
+            }
 
-                // parse those lines into a NativeAllocationInfo object
-                String allocationBlock = sb.toString();
-                if (allocationBlock.trim().length() > 0) {
-                    allocations.add(getNativeAllocation(allocationBlock));
+            mSnapshot = new NativeHeapSnapshot(allocations);
+        } catch (ExecutionException e) {
+            throw new InvocationTargetException(getParseError(e.getCause()));
+        } catch (IOException e) {
+            throw new InvocationTargetException(e);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            if (mReader != null) {
+                try {
+                    mReader.close();
+                } catch (IOException e) {
+                    // we can ignore this exception
                 }
+            }
+            monitor.done();
+        }
+    }
 
-                if (line == null) { // EOF
-                    break;
+    public NativeHeapSnapshot getImportedSnapshot() {
+        return mSnapshot;
+    }
+
+    private Throwable getParseError(Throwable t) {
+        if (t.getMessage() == null) {
+            return new RuntimeException("Unexpected Parse error");
+        }
+        return t;
+    }
+
+    /**
+     * Returns the data to import: the mapped file, or the content of the reader.
+     */
+    private ByteBuffer load() throws IOException {
+        if (mFile != null) {
+            RandomAccessFile raf = new RandomAccessFile(mFile, "r"); //$NON-NLS-1$
+            try {
+                FileChannel channel = raf.getChannel();
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException(String.format("%1$s is too large to import.",
+                            mFile.getPath()));
                 }
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                raf.close();
             }
-        } catch (Exception e) {
-            if (e.getMessage() == null) {
-                e = new RuntimeException(genericErrorMessage("Unexpected Parse error"));
+        }
+
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[8192];
+        int count;
+        while ((count = mReader.read(buffer)) != -1) {
+            sb.append(buffer, 0, count);
+        }
+        return ByteBuffer.wrap(sb.toString().getBytes(UTF8));
+    }
+
+    /**
+     * Splits the data in ranges of whole allocation blocks.
+     * @return the bounds of the ranges: range i is [bounds[i], bounds[i+1]).
+     */
+    private static int[] split(ByteBuffer data) {
+        int size = data.limit();
+        int threads = Runtime.getRuntime().availableProcessors();
+        int rangeSize = Math.max(MIN_RANGE_SIZE, size / (threads * RANGES_PER_THREAD) + 1);
+
+        List<Integer> bounds = new ArrayList<Integer>();
+        bounds.add(0);
+        int start = 0;
+        while (start < size) {
+            int end = start + rangeSize >= size ? size : nextBlockStart(data, start + rangeSize);
+            bounds.add(end);
+            start = end;
+        }
+
+        int[] result = new int[bounds.size()];
+        for (int i = 0 ; i < result.length ; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the position after the first blank line starting after a position. Blocks of
+     * allocations are separated by blank lines.
+     */
+    private static int nextBlockStart(ByteBuffer data, int position) {
+        int size = data.limit();
+        int pos = position;
+
+        // skip the rest of the current line.
+        while (pos < size && data.get(pos) != '\n') {
+            pos++;
+        }
+
+        while (pos < size) {
+            pos++; // skip the '\n'
+            boolean blank = true;
+            while (pos < size && data.get(pos) != '\n') {
+                if (!isWhitespace(data.get(pos))) {
+                    blank = false;
+                }
+                pos++;
             }
-            throw new InvocationTargetException(e);
-        } finally {
-            try {
-                mReader.close();
-            } catch (IOException e) {
-                // we can ignore this exception
+            if (blank) {
+                return Math.min(pos + 1, size);
             }
-            monitor.done();
         }
+        return size;
+    }
 
-        mSnapshot = new NativeHeapSnapshot(allocations);
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
     }
 
-    /** Parse a single native allocation dump. This is the complement of
+    /**
+     * Parses the allocations of a range of the data. This is the complement of
      * {@link NativeAllocationInfo#toString()}.
      *
      * An allocation is of the following form:
      * Allocations: 1
      * Size: 344748
-     * Total Size: 344748
-     * BeginStackTrace:
+     * TotalSize: 344748
+     * BeginStacktrace:
      *    40069bd8    /lib/libc_malloc_leak.so --- get_backtrace --- /libc/bionic/malloc_leak.c:258
      *    40069dd8    /lib/libc_malloc_leak.so --- leak_calloc --- /libc/bionic/malloc_leak.c:576
      *    40069bd8    /lib/libc_malloc_leak.so --- 40069bd8 ---
      *    40069dd8    /lib/libc_malloc_leak.so --- 40069dd8 ---
-     * EndStackTrace
+     * EndStacktrace
      * Note that in the above stack trace, the last two lines are examples where the address
      * was not resolved.
-     *
-     * @param block a string of lines corresponding to a single {@code NativeAllocationInfo}
-     * @return parse the input and return the corresponding {@link NativeAllocationInfo}
-     * @throws InputMismatchException if there are any parse errors
+     * <p/>
+     * All the allocations of an export come from the same process, so the frames are cached
+     * by address and each address is only decoded once per range.
      */
-    private NativeAllocationInfo getNativeAllocation(String block) {
-        Scanner sc = new Scanner(block);
+    private static final class RangeParser implements Callable<List<NativeAllocationInfo>> {
+        private static final byte[] ALLOCATIONS_KW =
+                NativeAllocationInfo.ALLOCATIONS_KW.getBytes(UTF8);
+        private static final byte[] SIZE_KW = NativeAllocationInfo.SIZE_KW.getBytes(UTF8);
+        private static final byte[] TOTAL_SIZE_KW =
+                NativeAllocationInfo.TOTAL_SIZE_KW.getBytes(UTF8);
+        private static final byte[] BEGIN_STACKTRACE_KW =
+                NativeAllocationInfo.BEGIN_STACKTRACE_KW.getBytes(UTF8);
+        private static final byte[] END_STACKTRACE_KW =
+                NativeAllocationInfo.END_STACKTRACE_KW.getBytes(UTF8);
+
+        private final ByteBuffer mData;
+        private final int mEnd;
+        private final NativeStackArena mArena;
+        private final AtomicLong mParsed;
+
+        private int mPos;
+        private int mBlockStart;
+        /** bounds of the last token read. */
+        private int mTokenStart;
+        private int mTokenEnd;
+
+        private long[] mFrames = new long[32];
+        private byte[] mBytes = new byte[256];
+        private final Map<Long, NativeStackCallInfo> mFrameCache =
+                new HashMap<Long, NativeStackCallInfo>();
+
+        RangeParser(ByteBuffer data, int start, int end, NativeStackArena arena,
+                AtomicLong parsed) {
+            mData = data;
+            mPos = start;
+            mEnd = end;
+            mArena = arena;
+            mParsed = parsed;
+        }
 
-        String kw = sc.next();
-        if (!NativeAllocationInfo.ALLOCATIONS_KW.equals(kw)) {
-            throw new InputMismatchException(
-                    expectedKeywordErrorMessage(NativeAllocationInfo.ALLOCATIONS_KW, kw));
+        @Override
+        public List<NativeAllocationInfo> call() {
+            List<NativeAllocationInfo> allocations = new ArrayList<NativeAllocationInfo>();
+            int reported = mPos;
+            while (true) {
+                skipWhitespace();
+                if (mPos >= mEnd) {
+                    break;
+                }
+
+                mBlockStart = mPos;
+                allocations.add(parseAllocation());
+                skipBlock();
+
+                mParsed.addAndGet(mPos - reported);
+                reported = mPos;
+
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+            }
+            return allocations;
         }
 
-        int allocations = sc.nextInt();
+        private NativeAllocationInfo parseAllocation() {
+            expectKeyword(ALLOCATIONS_KW, NativeAllocationInfo.ALLOCATIONS_KW);
+            int allocations = nextInt();
+
+            expectKeyword(SIZE_KW, NativeAllocationInfo.SIZE_KW);
+            int size = nextInt();
+
+            expectKeyword(TOTAL_SIZE_KW, NativeAllocationInfo.TOTAL_SIZE_KW);
+            int totalSize = nextInt();
+            if (totalSize != size * allocations) {
+                throw new InputMismatchException(
+                        genericErrorMessage("Total Size does not match size * # of allocations"));
+            }
+
+            expectKeyword(BEGIN_STACKTRACE_KW, NativeAllocationInfo.BEGIN_STACKTRACE_KW);
+
+            List<NativeStackCallInfo> stackInfo = new ArrayList<NativeStackCallInfo>();
+            int count = 0;
+            while (true) {
+                if (!nextToken()) {
+                    throw new InputMismatchException(expectedKeywordErrorMessage(
+                            NativeAllocationInfo.END_STACKTRACE_KW, "")); //$NON-NLS-1$
+                }
+                if (tokenEquals(END_STACKTRACE_KW)) {
+                    break;
+                }
+
+                long address = parseHexToken();
+                if (count == mFrames.length) {
+                    long[] frames = new long[count * 2];
+                    System.arraycopy(mFrames, 0, frames, 0, count);
+                    mFrames = frames;
+                }
+                mFrames[count++] = address;
+
+                NativeStackCallInfo frame = mFrameCache.get(address);
+                if (frame == null) {
+                    frame = parseFrame(address);
+                    mFrameCache.put(address, frame);
+                } else {
+                    skipLine();
+                }
+                stackInfo.add(frame);
+            }
 
-        kw = sc.next();
-        if (!NativeAllocationInfo.SIZE_KW.equals(kw)) {
-            throw new InputMismatchException(
-                    expectedKeywordErrorMessage(NativeAllocationInfo.SIZE_KW, kw));
+            NativeAllocationInfo info = new NativeAllocationInfo(size, allocations, mArena,
+                    mArena.intern(mFrames, 0, count));
+            info.setResolvedStackCall(stackInfo);
+            return info;
         }
 
-        int size = sc.nextInt();
+        /**
+         * Parses the rest of a frame line, after the address.
+         */
+        private NativeStackCallInfo parseFrame(long address) {
+            nextTokenInLine();
+            String library = tokenString();
+
+            nextTokenInLine();
+            if (!tokenEquals(SEPARATOR)) {
+                throw new InputMismatchException(expectedKeywordErrorMessage("---", //$NON-NLS-1$
+                        tokenString()));
+            }
+
+            // the method is everything up to the next separator.
+            skipSpaces();
+            int methodStart = mPos;
+            int methodEnd = mPos;
+            while (true) {
+                nextTokenInLine();
+                if (tokenEquals(SEPARATOR)) {
+                    break;
+                }
+                methodEnd = mTokenEnd;
+            }
+            String method = string(methodStart, methodEnd);
+
+            String filename = ""; //$NON-NLS-1$
+            if (!Long.toString(address, 16).equals(method)) {
+                skipSpaces();
+                int start = mPos;
+                int end = lineEnd();
+                while (end > start && isWhitespace(mData.get(end - 1))) {
+                    end--;
+                }
+                filename = string(start, end);
+            }
+            skipLine();
 
-        kw = sc.next();
-        if (!NativeAllocationInfo.TOTAL_SIZE_KW.equals(kw)) {
-            throw new InputMismatchException(
-                    expectedKeywordErrorMessage(NativeAllocationInfo.TOTAL_SIZE_KW, kw));
+            return new NativeStackCallInfo(address, library, method, filename);
         }
 
-        int totalSize = sc.nextInt();
-        if (totalSize != size * allocations) {
-            throw new InputMismatchException(
-                    genericErrorMessage("Total Size does not match size * # of allocations"));
+        private void expectKeyword(byte[] keyword, String name) {
+            if (!nextToken() || !tokenEquals(keyword)) {
+                throw new InputMismatchException(expectedKeywordErrorMessage(name,
+                        mTokenEnd > mTokenStart ? tokenString() : "")); //$NON-NLS-1$
+            }
         }
 
-        NativeAllocationInfo info = new NativeAllocationInfo(size, allocations);
+        private int nextInt() {
+            if (!nextToken()) {
+                throw new InputMismatchException(genericErrorMessage("Expected a number"));
+            }
+
+            int pos = mTokenStart;
+            boolean negative = mData.get(pos) == '-';
+            if (negative) {
+                pos++;
+            }
+            if (pos == mTokenEnd) {
+                throw new InputMismatchException(notANumberErrorMessage());
+            }
+
+            long value = 0;
+            for ( ; pos < mTokenEnd ; pos++) {
+                int digit = mData.get(pos) - '0';
+                if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE) {
+                    throw new InputMismatchException(notANumberErrorMessage());
+                }
+                value = value * 10 + digit;
+            }
 
-        kw = sc.next();
-        if (!NativeAllocationInfo.BEGIN_STACKTRACE_KW.equals(kw)) {
-            throw new InputMismatchException(
-                    expectedKeywordErrorMessage(NativeAllocationInfo.BEGIN_STACKTRACE_KW, kw));
+            value = negative ? -value : value;
+            if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+                throw new InputMismatchException(notANumberErrorMessage());
+            }
+            return (int) value;
         }
 
-        List<NativeStackCallInfo> stackInfo = new ArrayList<NativeStackCallInfo>();
-        Pattern endTracePattern = Pattern.compile(NativeAllocationInfo.END_STACKTRACE_KW);
+        private long parseHexToken() {
+            if (mTokenEnd - mTokenStart > 16) {
+                throw new InputMismatchException(notANumberErrorMessage());
+            }
 
-        while (true) {
-            long address = sc.nextLong(16);
-            info.addStackCallAddress(address);
+            long value = 0;
+            for (int pos = mTokenStart ; pos < mTokenEnd ; pos++) {
+                int digit = Character.digit(mData.get(pos), 16);
+                if (digit < 0) {
+                    throw new InputMismatchException(notANumberErrorMessage());
+                }
+                value = (value << 4) | digit;
+            }
+            return value;
+        }
 
-            String library = sc.next();
-            sc.next();  // ignore "---"
-            String method = scanTillSeparator(sc, "---");
+        /**
+         * Reads the next token, across lines but not across blocks.
+         * @return false if the block ended before a token.
+         */
+        private boolean nextToken() {
+            while (mPos < mEnd) {
+                byte b = mData.get(mPos);
+                if (b == '\n') {
+                    mPos++;
+                    if (isBlankLine()) {
+                        mTokenStart = mTokenEnd = mPos;
+                        return false;
+                    }
+                } else if (isWhitespace(b)) {
+                    mPos++;
+                } else {
+                    break;
+                }
+            }
 
-            String filename = "";
-            if (!isUnresolved(method, address)) {
-                filename = sc.next();
+            mTokenStart = mPos;
+            while (mPos < mEnd && !isWhitespace(mData.get(mPos))) {
+                mPos++;
             }
+            mTokenEnd = mPos;
+            return mTokenEnd > mTokenStart;
+        }
 
-            stackInfo.add(new NativeStackCallInfo(address, library, method, filename));
+        /**
+         * Reads the next token of the current line.
+         */
+        private void nextTokenInLine() {
+            skipSpaces();
+            mTokenStart = mPos;
+            while (mPos < mEnd && !isWhitespace(mData.get(mPos))) {
+                mPos++;
+            }
+            mTokenEnd = mPos;
+            if (mTokenEnd == mTokenStart) {
+                throw new InputMismatchException(genericErrorMessage("Incomplete stack frame"));
+            }
+        }
 
-            if (sc.hasNext(endTracePattern)) {
-                break;
+        private void skipSpaces() {
+            while (mPos < mEnd) {
+                byte b = mData.get(mPos);
+                if (b != ' ' && b != '\t' && b != '\r') {
+                    break;
+                }
+                mPos++;
             }
         }
 
-        info.setResolvedStackCall(stackInfo);
-        return info;
-    }
+        private void skipWhitespace() {
+            while (mPos < mEnd && isWhitespace(mData.get(mPos))) {
+                mPos++;
+            }
+        }
 
-    private String scanTillSeparator(Scanner sc, String separator) {
-        StringBuilder sb = new StringBuilder();
+        private int lineEnd() {
+            int pos = mPos;
+            while (pos < mEnd && mData.get(pos) != '\n') {
+                pos++;
+            }
+            return pos;
+        }
+
+        private void skipLine() {
+            mPos = lineEnd();
+        }
 
-        while (true) {
-            String token = sc.next();
-            if (token.equals(separator)) {
-                break;
+        /** returns whether the line starting at the current position is blank. */
+        private boolean isBlankLine() {
+            for (int pos = mPos ; pos < mEnd ; pos++) {
+                byte b = mData.get(pos);
+                if (b == '\n') {
+                    return true;
+                }
+                if (!isWhitespace(b)) {
+                    return false;
+                }
             }
+            return true;
+        }
 
-            sb.append(token);
+        /** skips the rest of the block, up to the next blank line. */
+        private void skipBlock() {
+            while (mPos < mEnd) {
+                skipLine();
+                if (mPos < mEnd) {
+                    mPos++;
+                }
+                if (isBlankLine()) {
+                    break;
+                }
+            }
+        }
 
-            // We do not know the exact delimiter that was skipped over, but we know
-            // that there was atleast 1 whitespace. Add a single whitespace character
-            // to account for this.
-            sb.append(' ');
+        private boolean tokenEquals(byte[] keyword) {
+            if (mTokenEnd - mTokenStart != keyword.length) {
+                return false;
+            }
+            for (int i = 0 ; i < keyword.length ; i++) {
+                if (mData.get(mTokenStart + i) != keyword[i]) {
+                    return false;
+                }
+            }
+            return true;
         }
 
-        return sb.toString().trim();
-    }
+        private String tokenString() {
+            return string(mTokenStart, mTokenEnd);
+        }
 
-    private boolean isUnresolved(String method, long address) {
-        // a method is unresolved if it is just the hex representation of the address
-        return Long.toString(address, 16).equals(method);
-    }
+        private String string(int start, int end) {
+            int length = end - start;
+            if (length > mBytes.length) {
+                mBytes = new byte[Math.max(length, mBytes.length * 2)];
+            }
+            for (int i = 0 ; i < length ; i++) {
+                mBytes[i] = mData.get(start + i);
+            }
+            return new String(mBytes, 0, length, UTF8);
+        }
 
-    private String genericErrorMessage(String message) {
-        return String.format("%1$s between lines %2$d and %3$d",
-                message, mStartLineNumber, mEndLineNumber);
-    }
+        /** returns the line number of a position, starting at 1. */
+        private int lineNumber(int position) {
+            int line = 1;
+            for (int pos = 0 ; pos < position ; pos++) {
+                if (mData.get(pos) == '\n') {
+                    line++;
+                }
+            }
+            return line;
+        }
 
-    private String expectedKeywordErrorMessage(String expected, String actual) {
-        return String.format("Expected keyword '%1$s', saw '%2$s' between lines %3$d to %4$d.",
-                expected, actual, mStartLineNumber, mEndLineNumber);
-    }
+        /** returns the position of the blank line ending the current block. */
+        private int blockEnd() {
+            int pos = mBlockStart;
+            int limit = mData.limit();
+            while (pos < limit) {
+                while (pos < limit && mData.get(pos) != '\n') {
+                    pos++;
+                }
+                if (pos < limit) {
+                    pos++;
+                }
+                int line = pos;
+                while (line < limit && mData.get(line) != '\n'
+                        && isWhitespace(mData.get(line))) {
+                    line++;
+                }
+                if (line >= limit || mData.get(line) == '\n') {
+                    return pos;
+                }
+            }
+            return limit;
+        }
 
-    public NativeHeapSnapshot getImportedSnapshot() {
-        return mSnapshot;
+        private String notANumberErrorMessage() {
+            return genericErrorMessage(String.format("Invalid number '%1$s'", tokenString()));
+        }
+
+        private String genericErrorMessage(String message) {
+            return String.format("%1$s between lines %2$d and %3$d",
+                    message, lineNumber(mBlockStart), lineNumber(blockEnd()));
+        }
+
+        private String expectedKeywordErrorMessage(String expected, String actual) {
+            return String.format("Expected keyword '%1$s', saw '%2$s' between lines %3$d to %4$d.",
+                    expected, actual, lineNumber(mBlockStart), lineNumber(blockEnd()));
+        }
     }
 }
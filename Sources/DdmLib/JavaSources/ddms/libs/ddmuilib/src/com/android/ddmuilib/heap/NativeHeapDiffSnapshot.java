@@ -19,9 +19,7 @@ package com.android.ddmuilib.heap;
 import com.android.ddmlib.NativeAllocationInfo;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 /**
  * Models a heap snapshot that is the difference between two snapshots.
@@ -32,22 +30,73 @@ public class NativeHeapDiffSnapshot extends NativeHeapSnapshot {
     public NativeHeapDiffSnapshot(NativeHeapSnapshot newSnapshot, NativeHeapSnapshot oldSnapshot) {
         // The diff snapshots behaves like a snapshot that only contains the new allocations
         // not present in the old snapshot
-        super(getNewAllocations(newSnapshot, oldSnapshot));
+        this(new AllocationIndex(newSnapshot.getAllocations()),
+                new AllocationIndex(oldSnapshot.getAllocations()));
+    }
 
-        Set<NativeAllocationInfo> commonAllocations =
-                new HashSet<NativeAllocationInfo>(oldSnapshot.getAllocations());
-        commonAllocations.retainAll(newSnapshot.getAllocations());
+    private NativeHeapDiffSnapshot(AllocationIndex newIndex, AllocationIndex oldIndex) {
+        super(getNewAllocations(newIndex, oldIndex));
 
         // Memory common between the old and new snapshots
+        List<NativeAllocationInfo> commonAllocations = new ArrayList<NativeAllocationInfo>();
+        for (NativeAllocationInfo info : oldIndex.getAllocations()) {
+            if (newIndex.contains(info)) {
+                commonAllocations.add(info);
+            }
+        }
         mCommonAllocationsTotalMemory = getTotalMemory(commonAllocations);
     }
 
-    private static List<NativeAllocationInfo> getNewAllocations(NativeHeapSnapshot newSnapshot,
-            NativeHeapSnapshot oldSnapshot) {
-        Set<NativeAllocationInfo> allocations =
-                new HashSet<NativeAllocationInfo>(newSnapshot.getAllocations());
-        allocations.removeAll(oldSnapshot.getAllocations());
-        return new ArrayList<NativeAllocationInfo>(allocations);
+    private static List<NativeAllocationInfo> getNewAllocations(AllocationIndex newIndex,
+            AllocationIndex oldIndex) {
+        List<NativeAllocationInfo> allocations = new ArrayList<NativeAllocationInfo>();
+        for (NativeAllocationInfo info : newIndex.getAllocations()) {
+            if (oldIndex.contains(info) == false) {
+                allocations.add(info);
+            }
+        }
+        return allocations;
+    }
+
+    /**
+     * Distinct allocations of a snapshot, in an open addressing table probed with their
+     * cached hash codes. Allocations sharing a stack arena are compared by stack id.
+     */
+    private static final class AllocationIndex {
+        private final List<NativeAllocationInfo> mAllocations;
+        /** index in mAllocations + 1, 0 for empty slots. */
+        private final int[] mTable;
+
+        AllocationIndex(List<NativeAllocationInfo> allocations) {
+            mAllocations = new ArrayList<NativeAllocationInfo>(allocations.size());
+            mTable = new int[Integer.highestOneBit(Math.max(allocations.size(), 8) * 2) * 2];
+            for (NativeAllocationInfo info : allocations) {
+                int slot = find(info);
+                if (mTable[slot] == 0) {
+                    mAllocations.add(info);
+                    mTable[slot] = mAllocations.size();
+                }
+            }
+        }
+
+        List<NativeAllocationInfo> getAllocations() {
+            return mAllocations;
+        }
+
+        boolean contains(NativeAllocationInfo info) {
+            return mTable[find(info)] != 0;
+        }
+
+        /** Returns the slot of an allocation, or the empty slot where it would go. */
+        private int find(NativeAllocationInfo info) {
+            int mask = mTable.length - 1;
+            int hash = info.hashCode();
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (mTable[slot] != 0 && mAllocations.get(mTable[slot] - 1).equals(info) == false) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
     }
 
     @Override
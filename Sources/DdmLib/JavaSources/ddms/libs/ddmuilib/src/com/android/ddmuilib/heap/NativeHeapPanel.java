@@ -19,6 +19,7 @@ package com.android.ddmuilib.heap;
 import com.android.ddmlib.Client;
 import com.android.ddmlib.Log;
 import com.android.ddmlib.NativeAllocationInfo;
+import com.android.ddmlib.NativeLibraryMapIndex;
 import com.android.ddmlib.NativeLibraryMapInfo;
 import com.android.ddmlib.NativeStackCallInfo;
 import com.android.ddmuilib.Addr2Line;
@@ -67,12 +68,9 @@ import org.eclipse.swt.widgets.TreeItem;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.Reader;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -563,17 +561,10 @@ public class NativeHeapPanel extends BaseHeapPanel {
             return;
         }
 
-        Reader reader = null;
-        try {
-            reader = new FileReader(path);
-        } catch (FileNotFoundException e) {
-            // cannot occur since user input was via a FileDialog
-        }
-
         Shell shell = Display.getDefault().getActiveShell();
         ProgressMonitorDialog d = new ProgressMonitorDialog(shell);
 
-        NativeHeapDataImporter importer = new NativeHeapDataImporter(reader);
+        NativeHeapDataImporter importer = new NativeHeapDataImporter(new File(path));
         try {
             d.run(true, true, importer);
         } catch (InvocationTargetException e) {
@@ -1073,13 +1064,13 @@ public class NativeHeapPanel extends BaseHeapPanel {
 
     private class SymbolResolverTask implements Runnable {
         private List<NativeAllocationInfo> mCallSites;
-        private List<NativeLibraryMapInfo> mMappedLibraries;
+        private NativeLibraryMapIndex mMappedLibraries;
         private Map<Long, NativeStackCallInfo> mResolvedSymbolCache;
 
         public SymbolResolverTask(List<NativeAllocationInfo> callSites,
                 List<NativeLibraryMapInfo> mappedLibraries) {
             mCallSites = callSites;
-            mMappedLibraries = mappedLibraries;
+            mMappedLibraries = new NativeLibraryMapIndex(mappedLibraries);
 
             mResolvedSymbolCache = new HashMap<Long, NativeStackCallInfo>();
         }
@@ -1139,10 +1130,9 @@ public class NativeHeapPanel extends BaseHeapPanel {
         }
 
         private NativeLibraryMapInfo getLibraryFor(long addr) {
-            for (NativeLibraryMapInfo info : mMappedLibraries) {
-                if (info.isWithinLibrary(addr)) {
-                    return info;
-                }
+            NativeLibraryMapInfo info = mMappedLibraries.getLibrary(addr);
+            if (info != null) {
+                return info;
             }
 
             Log.d("ddm-nativeheap", "Failed finding Library for " + Long.toHexString(addr));
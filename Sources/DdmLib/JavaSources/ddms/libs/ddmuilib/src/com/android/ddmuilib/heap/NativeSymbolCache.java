@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.heap;
+
+import com.android.ddmlib.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persistent cache of symbol resolutions, keyed by library identity and offset in the
+ * library.
+ * <p/>
+ * A library is identified by its GNU build id when it has one, and otherwise by its name,
+ * path, size and modification time. The resolutions of each library are stored in their own
+ * text file in the cache folder, one "offset, method, source" line per address, and new
+ * resolutions are appended to it. The file of a library is only read the first time the
+ * library is looked up.
+ * <p/>
+ * Only complete resolutions are stored: an unknown method or source location may be found
+ * later in another copy of the library with the same build id, such as an unstripped one.
+ * <p/>
+ * The cache keeps the files of the {@link #MAX_LIBRARIES} libraries most recently looked up,
+ * and at most {@link #MAX_ENTRIES_PER_LIBRARY} resolutions per library.
+ */
+public final class NativeSymbolCache {
+    private static final String CACHE_FOLDER = ".android" + File.separator //$NON-NLS-1$
+            + "ddms-symbols"; //$NON-NLS-1$
+    private static final String CACHE_FILE_EXTENSION = ".txt"; //$NON-NLS-1$
+    private static final String CHARSET = "UTF-8"; //$NON-NLS-1$
+
+    /** Maximum number of library files kept in the cache folder. */
+    static final int MAX_LIBRARIES = 256;
+    /** Maximum number of resolutions kept per library. */
+    static final int MAX_ENTRIES_PER_LIBRARY = 100000;
+    /** Maximum number of libraries kept in memory. */
+    private static final int MAX_LIBRARIES_IN_MEMORY = 32;
+
+    private static final int SHT_NOTE = 7;
+    private static final int NT_GNU_BUILD_ID = 3;
+
+    private static NativeSymbolCache sDefault;
+
+    /** cache folder, or null if the cache is only kept in memory. */
+    private final File mFolder;
+
+    /** Maximum number of library files kept in {@link #mFolder}. */
+    private final int mMaxLibraries;
+
+    /** library key -> (offset -> { method, source }), the most recently used last. */
+    private final Map<String, Map<Long, String[]>> mLibraries =
+            new LinkedHashMap<String, Map<Long, String[]>>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map<Long, String[]>> eldest) {
+            return size() > MAX_LIBRARIES_IN_MEMORY;
+        }
+    };
+
+    /**
+     * Returns the cache stored in the user's .android folder.
+     */
+    public static synchronized NativeSymbolCache getDefault() {
+        if (sDefault == null) {
+            sDefault = new NativeSymbolCache(
+                    new File(System.getProperty("user.home"), CACHE_FOLDER)); //$NON-NLS-1$
+        }
+        return sDefault;
+    }
+
+    /**
+     * Creates a cache.
+     * @param folder the folder holding the cache files, created if needed. If null or if it
+     * cannot be created, the cache is only kept in memory.
+     */
+    public NativeSymbolCache(File folder) {
+        this(folder, MAX_LIBRARIES);
+    }
+
+    /**
+     * Creates a cache keeping the files of at most <var>maxLibraries</var> libraries.
+     */
+    NativeSymbolCache(File folder, int maxLibraries) {
+        mMaxLibraries = maxLibraries;
+        if (folder != null && folder.isDirectory() == false && folder.mkdirs() == false) {
+            Log.w("ddms", "Unable to create symbol cache folder " + folder); //$NON-NLS-1$
+            folder = null;
+        }
+        mFolder = folder;
+    }
+
+    /**
+     * Returns the key identifying a library file in the cache.
+     */
+    public static String getLibraryKey(File library) {
+        String buildId = null;
+        try {
+            buildId = readBuildId(library);
+        } catch (IOException e) {
+            // fall back to the file attributes.
+        }
+
+        if (buildId != null) {
+            return buildId;
+        }
+
+        String name = library.getName().replaceAll("[^A-Za-z0-9._-]", "_"); //$NON-NLS-1$
+        return String.format("%1$s-%2$08x-%3$x-%4$x", //$NON-NLS-1$
+                name,
+                library.getAbsolutePath().hashCode(),
+                library.length(),
+                library.lastModified());
+    }
+
+    /**
+     * Returns the cached resolution of an offset in a library.
+     * @param libraryKey the key of the library, from {@link #getLibraryKey(File)}
+     * @param offset the offset of the address in the library
+     * @return the method name and the "file:line" source location, or null.
+     */
+    public synchronized String[] get(String libraryKey, long offset) {
+        return getLibrary(libraryKey).get(offset);
+    }
+
+    /**
+     * Returns whether a resolution is complete, and can be stored in the cache.
+     */
+    public static boolean isResolved(String method, String source) {
+        // addr2line prints "??:0" or "??:?" for an unknown source location.
+        return method != null && source != null
+                && ElfSymbolResolver.UNKNOWN_METHOD.equals(method) == false
+                && source.startsWith(ElfSymbolResolver.UNKNOWN_METHOD) == false;
+    }
+
+    /**
+     * Adds resolutions of a library to the cache. The incomplete ones are ignored, see
+     * {@link #isResolved(String, String)}.
+     * @param libraryKey the key of the library, from {@link #getLibraryKey(File)}
+     * @param offsets the offsets of the addresses in the library
+     * @param methods the method name of each offset
+     * @param sources the "file:line" source location of each offset
+     */
+    public synchronized void put(String libraryKey, long[] offsets, String[] methods,
+            String[] sources) {
+        Map<Long, String[]> library = getLibrary(libraryKey);
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0 ; i < offsets.length ; i++) {
+            if (isResolved(methods[i], sources[i]) == false
+                    || library.containsKey(offsets[i])) {
+                continue;
+            }
+            if (library.size() >= MAX_ENTRIES_PER_LIBRARY) {
+                break;
+            }
+            library.put(offsets[i], new String[] { methods[i], sources[i] });
+            sb.append(Long.toHexString(offsets[i])).append('\t');
+            sb.append(methods[i]).append('\t');
+            sb.append(sources[i]).append('\n');
+        }
+
+        if (mFolder == null || sb.length() == 0) {
+            return;
+        }
+
+        File file = getFile(libraryKey);
+        if (file.exists() == false) {
+            trimFolder();
+        }
+
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file, true), CHARSET);
+            writer.write(sb.toString());
+        } catch (IOException e) {
+            Log.w("ddms", "Unable to write symbol cache: " + e.getMessage()); //$NON-NLS-1$
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /** Returns the entries of a library, reading them from disk the first time. */
+    private Map<Long, String[]> getLibrary(String libraryKey) {
+        Map<Long, String[]> library = mLibraries.get(libraryKey);
+        if (library == null) {
+            library = new HashMap<Long, String[]>();
+            if (mFolder != null) {
+                load(getFile(libraryKey), library);
+            }
+            mLibraries.put(libraryKey, library);
+        }
+        return library;
+    }
+
+    private File getFile(String libraryKey) {
+        return new File(mFolder, libraryKey + CACHE_FILE_EXTENSION);
+    }
+
+    /**
+     * Deletes the least recently used library files, to make room for a new one.
+     */
+    private void trimFolder() {
+        File[] files = mFolder.listFiles();
+        if (files == null || files.length < mMaxLibraries) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+                return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+            }
+        });
+        for (int i = 0 ; i <= files.length - mMaxLibraries ; i++) {
+            if (files[i].getName().endsWith(CACHE_FILE_EXTENSION)) {
+                files[i].delete();
+            }
+        }
+    }
+
+    private static void load(File file, Map<Long, String[]> library) {
+        if (file.isFile() == false) {
+            return;
+        }
+        // the least recently used files are deleted first.
+        file.setLastModified(System.currentTimeMillis());
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                    CHARSET));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab1 = line.indexOf('\t');
+                int tab2 = tab1 > 0 ? line.indexOf('\t', tab1 + 1) : -1;
+                if (tab2 < 0) {
+                    // truncated line, from an interrupted write.
+                    continue;
+                }
+                try {
+                    long offset = Long.parseLong(line.substring(0, tab1), 16);
+                    String method = line.substring(tab1 + 1, tab2);
+                    String source = line.substring(tab2 + 1);
+                    // skip the unknown resolutions written by older versions.
+                    if (isResolved(method, source)) {
+                        library.put(offset, new String[] { method, source });
+                    }
+                } catch (NumberFormatException e) {
+                    // skip the line.
+                }
+            }
+        } catch (IOException e) {
+            Log.w("ddms", "Unable to read symbol cache: " + e.getMessage()); //$NON-NLS-1$
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the GNU build id of an ELF file from its notes.
+     * @return the build id as an hex string, or null if the file is not an ELF file or has
+     * no build id.
+     */
+    static String readBuildId(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+        try {
+            FileChannel channel = raf.getChannel();
+
+            ByteBuffer header = ByteBuffer.allocate(64);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < 52
+                    || header.get(0) != 0x7f || header.get(1) != 'E'
+                    || header.get(2) != 'L' || header.get(3) != 'F') {
+                return null;
+            }
+
+            boolean is64 = header.get(4) == 2;
+            header.order(header.get(5) == 2 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+            if (is64 && header.remaining() < 64) {
+                return null;
+            }
+
+            long sectionOffset = is64 ? header.getLong(0x28) : header.getInt(0x20) & 0xffffffffL;
+            int sectionSize = header.getShort(is64 ? 0x3a : 0x2e) & 0xffff;
+            int sectionCount = header.getShort(is64 ? 0x3c : 0x30) & 0xffff;
+            if (sectionOffset == 0 || sectionSize == 0 || sectionCount == 0
+                    || sectionSize * sectionCount > 0x100000) {
+                return null;
+            }
+
+            ByteBuffer sections = ByteBuffer.allocate(sectionSize * sectionCount);
+            sections.order(header.order());
+            channel.read(sections, sectionOffset);
+            sections.flip();
+
+            for (int i = 0 ; i < sectionCount ; i++) {
+                int base = i * sectionSize;
+                if (base + sectionSize > sections.limit()
+                        || sections.getInt(base + 4) != SHT_NOTE) {
+                    continue;
+                }
+
+                long offset = is64 ? sections.getLong(base + 0x18)
+                        : sections.getInt(base + 0x10) & 0xffffffffL;
+                long size = is64 ? sections.getLong(base + 0x20)
+                        : sections.getInt(base + 0x14) & 0xffffffffL;
+                if (size <= 0 || size > 0x10000) {
+                    continue;
+                }
+
+                ByteBuffer notes = ByteBuffer.allocate((int)size);
+                notes.order(header.order());
+                channel.read(notes, offset);
+                notes.flip();
+
+                String id = findBuildId(notes);
+                if (id != null) {
+                    return id;
+                }
+            }
+        } finally {
+            raf.close();
+        }
+
+        return null;
+    }
+
+    /** Looks for the GNU build id note in the content of a note section. */
+    private static String findBuildId(ByteBuffer notes) {
+        while (notes.remaining() >= 12) {
+            int nameSize = notes.getInt();
+            int descSize = notes.getInt();
+            int type = notes.getInt();
+            int nameLength = (nameSize + 3) & ~3;
+            int descLength = (descSize + 3) & ~3;
+            if (nameSize < 0 || descSize < 0
+                    || notes.remaining() < nameLength + descLength) {
+                return null;
+            }
+
+            int name = notes.position();
+            int desc = name + nameLength;
+            if (type == NT_GNU_BUILD_ID && nameSize == 4 && notes.get(name) == 'G'
+                    && notes.get(name + 1) == 'N' && notes.get(name + 2) == 'U') {
+                StringBuilder sb = new StringBuilder(descSize * 2);
+                for (int i = 0 ; i < descSize ; i++) {
+                    sb.append(String.format("%02x", notes.get(desc + i) & 0xff)); //$NON-NLS-1$
+                }
+                return sb.toString();
+            }
+
+            notes.position(desc + descLength);
+        }
+        return null;
+    }
+}
@@ -17,6 +17,7 @@
 package com.android.ddmuilib.heap;
 
 import com.android.ddmlib.NativeAllocationInfo;
+import com.android.ddmlib.NativeLibraryMapIndex;
 import com.android.ddmlib.NativeLibraryMapInfo;
 import com.android.ddmlib.NativeStackCallInfo;
 import com.android.ddmuilib.DdmUiPreferences;
@@ -35,23 +36,43 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * A symbol resolver task that can resolve a set of addresses to their corresponding
  * source method name + file name:line number.
  *
- * It first identifies the library that contains the address, and then runs addr2line on
- * the library to get the symbol name + source location.
+ * It first identifies the library that contains the address, and then looks up the address
+ * in the library's symbol and line tables with an {@link ElfSymbolResolver}. The addresses it
+ * cannot fully resolve are passed to addr2line to get the symbol name + source location.
+ * Libraries are read in parallel, and kept read for the next runs. The addresses of a
+ * library are split into batches resolved in parallel by several addr2line processes, and
+ * the results are kept in a {@link NativeSymbolCache} so that they are not resolved again.
  */
 public class NativeSymbolResolverTask implements IRunnableWithProgress {
     private static final String ADDR2LINE;
     private static final String DEFAULT_SYMBOLS_FOLDER;
 
+    /** Maximum number of addr2line processes resolving the addresses of one library. */
+    private static final int MAX_PROCESSES_PER_LIBRARY = 4;
+    /** Minimum number of addresses for which another addr2line process is started. */
+    private static final int MIN_ADDRESSES_PER_PROCESS = 256;
+    /** Number of addresses written to addr2line before reading back the results. */
+    private static final int PIPE_CHUNK_SIZE = 64;
+    private static final long CANCELLATION_POLL_MSEC = 100;
+    /** Maximum number of libraries kept read in process across runs. */
+    private static final int MAX_ELF_RESOLVERS = 16;
+
     static {
         String addr2lineEnv = System.getenv("ANDROID_ADDR2LINE");
         ADDR2LINE = addr2lineEnv != null ? addr2lineEnv : DdmUiPreferences.getAddr2Line();
@@ -60,18 +81,29 @@ public class NativeSymbolResolverTask implements IRunnableWithProgress {
         DEFAULT_SYMBOLS_FOLDER = symbols != null ? symbols : DdmUiPreferences.getSymbolDirectory();
     }
 
+    /** Libraries read in process, by library key, kept across runs. */
+    private static final Map<String, ElfSymbolResolver> sElfResolvers =
+            new LinkedHashMap<String, ElfSymbolResolver>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ElfSymbolResolver> eldest) {
+            return size() > MAX_ELF_RESOLVERS;
+        }
+    };
+
     private List<NativeAllocationInfo> mCallSites;
-    private List<NativeLibraryMapInfo> mMappedLibraries;
+    private NativeLibraryMapIndex mMappedLibraries;
     private List<String> mSymbolSearchFolders;
 
-    /** All unresolved addresses from all the callsites. */
-    private SortedSet<Long> mUnresolvedAddresses;
+    /** All unresolved addresses from all the callsites, sorted and without duplicates. */
+    private long[] mUnresolvedAddresses;
 
     /** Set of all addresses that could were not resolved at the end of the resolution process. */
     private Set<Long> mUnresolvableAddresses;
 
     /** Map of library -> [unresolved addresses mapping to this library]. */
-    private Map<NativeLibraryMapInfo, Set<Long>> mUnresolvedAddressesPerLibrary;
+    private Map<NativeLibraryMapInfo, long[]> mUnresolvedAddressesPerLibrary;
 
     /** Addresses that could not be mapped to a library, should be mostly empty. */
     private Set<Long> mUnmappedAddresses;
@@ -83,23 +115,46 @@ public class NativeSymbolResolverTask implements IRunnableWithProgress {
     private Set<String> mNotFoundLibraries;
     private String mAddr2LineErrorMessage = null;
 
+    private final NativeSymbolCache mSymbolCache;
+
+    /** Whether addresses are first resolved in process, see {@link ElfSymbolResolver}. */
+    private boolean mUseElfResolver = true;
+
+    /** In process resolutions left to addr2line, used if it fails. */
+    private final Map<Long, String[]> mPartialResolution = new HashMap<Long, String[]>();
+
     public NativeSymbolResolverTask(List<NativeAllocationInfo> callSites,
                 List<NativeLibraryMapInfo> mappedLibraries,
                 String symbolSearchPath) {
+        this(callSites, mappedLibraries, symbolSearchPath, NativeSymbolCache.getDefault());
+    }
+
+    public NativeSymbolResolverTask(List<NativeAllocationInfo> callSites,
+                List<NativeLibraryMapInfo> mappedLibraries,
+                String symbolSearchPath,
+                NativeSymbolCache symbolCache) {
+        mSymbolCache = symbolCache;
         mCallSites = callSites;
-        mMappedLibraries = mappedLibraries;
+        mMappedLibraries = new NativeLibraryMapIndex(mappedLibraries);
         mSymbolSearchFolders = new ArrayList<String>();
         mSymbolSearchFolders.add(DEFAULT_SYMBOLS_FOLDER);
         mSymbolSearchFolders.addAll(Arrays.asList(symbolSearchPath.split(":")));
 
-        mUnresolvedAddresses = new TreeSet<Long>();
         mUnresolvableAddresses = new HashSet<Long>();
-        mUnresolvedAddressesPerLibrary = new HashMap<NativeLibraryMapInfo, Set<Long>>();
+        mUnresolvedAddressesPerLibrary = new HashMap<NativeLibraryMapInfo, long[]>();
         mUnmappedAddresses = new HashSet<Long>();
         mAddressResolution = new HashMap<Long, NativeStackCallInfo>();
         mNotFoundLibraries = new HashSet<String>();
     }
 
+    /**
+     * Sets whether addresses are resolved by reading the libraries in process before
+     * falling back to addr2line. This is enabled by default.
+     */
+    public void setUseElfResolver(boolean useElfResolver) {
+        mUseElfResolver = useElfResolver;
+    }
+
     @Override
     public void run(IProgressMonitor monitor)
             throws InvocationTargetException, InterruptedException {
@@ -120,100 +175,530 @@ public class NativeSymbolResolverTask implements IRunnableWithProgress {
     }
 
     private void collectAllUnresolvedAddresses() {
+        int total = 0;
         for (NativeAllocationInfo callSite : mCallSites) {
-            mUnresolvedAddresses.addAll(callSite.getStackCallAddresses());
+            total += callSite.getStackCallAddressCount();
+        }
+
+        long[] addresses = new long[total];
+        int n = 0;
+        for (NativeAllocationInfo callSite : mCallSites) {
+            int count = callSite.getStackCallAddressCount();
+            for (int i = 0 ; i < count ; i++) {
+                addresses[n++] = callSite.getStackCallAddress(i);
+            }
         }
+
+        // sort and remove the duplicates.
+        Arrays.sort(addresses);
+        int distinct = 0;
+        for (int i = 0 ; i < n ; i++) {
+            if (distinct == 0 || addresses[i] != addresses[distinct - 1]) {
+                addresses[distinct++] = addresses[i];
+            }
+        }
+        mUnresolvedAddresses = Arrays.copyOf(addresses, distinct);
     }
 
     private void mapUnresolvedAddressesToLibrary() {
-        Set<Long> mappedAddresses = new HashSet<Long>();
+        NativeLibraryMapInfo[] libraries = new NativeLibraryMapInfo[mUnresolvedAddresses.length];
+        Map<NativeLibraryMapInfo, int[]> counts = new HashMap<NativeLibraryMapInfo, int[]>();
+
+        for (int i = 0 ; i < mUnresolvedAddresses.length ; i++) {
+            NativeLibraryMapInfo lib = mMappedLibraries.getLibrary(mUnresolvedAddresses[i]);
+            if (lib == null) {
+                mUnmappedAddresses.add(mUnresolvedAddresses[i]);
+                continue;
+            }
 
-        for (NativeLibraryMapInfo lib : mMappedLibraries) {
-            SortedSet<Long> addressesInLibrary = mUnresolvedAddresses.subSet(lib.getStartAddress(),
-                    lib.getEndAddress() + 1);
-            if (addressesInLibrary.size() > 0) {
-                mUnresolvedAddressesPerLibrary.put(lib, addressesInLibrary);
-                mappedAddresses.addAll(addressesInLibrary);
+            libraries[i] = lib;
+            int[] count = counts.get(lib);
+            if (count == null) {
+                counts.put(lib, count = new int[1]);
             }
+            count[0]++;
         }
 
-        // unmapped addresses = unresolved addresses - mapped addresses
-        mUnmappedAddresses.addAll(mUnresolvedAddresses);
-        mUnmappedAddresses.removeAll(mappedAddresses);
+        for (int i = 0 ; i < mUnresolvedAddresses.length ; i++) {
+            NativeLibraryMapInfo lib = libraries[i];
+            if (lib == null) {
+                continue;
+            }
+
+            long[] addresses = mUnresolvedAddressesPerLibrary.get(lib);
+            int[] count = counts.get(lib);
+            if (addresses == null) {
+                addresses = new long[count[0]];
+                mUnresolvedAddressesPerLibrary.put(lib, addresses);
+                count[0] = 0;
+            }
+            addresses[count[0]++] = mUnresolvedAddresses[i];
+        }
     }
 
     private void resolveLibraryAddresses(IProgressMonitor monitor) throws InterruptedException {
+        List<LibraryResolution> libraries = new ArrayList<LibraryResolution>();
+
         for (NativeLibraryMapInfo lib : mUnresolvedAddressesPerLibrary.keySet()) {
             String libPath = getLibraryLocation(lib);
-            Set<Long> addressesToResolve = mUnresolvedAddressesPerLibrary.get(lib);
+            long[] addressesToResolve = mUnresolvedAddressesPerLibrary.get(lib);
 
             if (libPath == null) {
                 mNotFoundLibraries.add(lib.getLibraryName());
                 markAddressesNotResolvable(addressesToResolve, lib);
             } else {
-                monitor.subTask(String.format("Resolving addresses mapped to %s.", libPath));
-                resolveAddresses(lib, libPath, addressesToResolve);
+                monitor.subTask(String.format("Looking up cached symbols of %s.", libPath));
+                LibraryResolution library = lookUpCache(lib, libPath, addressesToResolve);
+                if (library != null) {
+                    libraries.add(library);
+                }
             }
 
             checkCancellation(monitor);
         }
-    }
 
-    private void resolveAddresses(NativeLibraryMapInfo lib, String libPath,
-            Set<Long> addressesToResolve) {
-        Process addr2line = null;
-        try {
-            addr2line = new ProcessBuilder(ADDR2LINE,
-                    "-C",   // demangle
-                    "-f",   // display function names in addition to file:number
-                    "-e", libPath).start();
-        } catch (IOException e) {
-            // Since the library path is known to be valid, the only reason for an exception
-            // is that addr2line was not found. We just save the message in this case.
-            mAddr2LineErrorMessage = e.getMessage();
-            markAddressesNotResolvable(addressesToResolve, lib);
+        if (libraries.isEmpty()) {
             return;
         }
 
-        BufferedReader resultReader = new BufferedReader(new InputStreamReader(
-                                                                    addr2line.getInputStream()));
-        BufferedWriter addressWriter = new BufferedWriter(new OutputStreamWriter(
-                                                                    addr2line.getOutputStream()));
+        int threadCount = Math.min(libraries.size() * MAX_PROCESSES_PER_LIBRARY,
+                Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "addr2line"); //$NON-NLS-1$
+                t.setDaemon(true);
+                return t;
+            }
+        });
 
-        long libStartAddress = isExecutable(lib) ? 0 : lib.getStartAddress();
         try {
-            for (Long addr : addressesToResolve) {
-                long offset = addr.longValue() - libStartAddress;
-                addressWriter.write(Long.toHexString(offset));
-                addressWriter.newLine();
-                addressWriter.flush();
-                String method = resultReader.readLine();
-                String sourceFile = resultReader.readLine();
+            List<Future<?>> futures = new ArrayList<Future<?>>(libraries.size());
+            for (LibraryResolution library : libraries) {
+                futures.add(library.submit(executor));
+            }
 
+            for (int i = 0 ; i < libraries.size() ; i++) {
+                LibraryResolution library = libraries.get(i);
+                monitor.subTask(String.format("Resolving addresses mapped to %s.",
+                        library.mLibPath));
+                waitFor(futures.get(i), libraries, monitor);
+                collectLibrary(library);
+
+                List<Addr2LineBatch> batches = library.getBatches();
+                if (batches == null) {
+                    continue;
+                }
+                List<Future<?>> batchFutures = library.getBatchFutures();
+                for (int j = 0 ; j < batches.size() ; j++) {
+                    waitFor(batchFutures.get(j), libraries, monitor);
+                    collectBatch(batches.get(j));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Resolves the addresses of a library found in the symbol cache.
+     * @return the resolution of the other addresses, or null if they were all cached.
+     */
+    private LibraryResolution lookUpCache(NativeLibraryMapInfo lib, String libPath,
+            long[] addressesToResolve) {
+        String libKey = NativeSymbolCache.getLibraryKey(new File(libPath));
+        long libStartAddress = isExecutable(lib) ? 0 : lib.getStartAddress();
+
+        long[] addresses = new long[addressesToResolve.length];
+        int count = 0;
+        for (long addr : addressesToResolve) {
+            String[] cached = mSymbolCache.get(libKey, addr - libStartAddress);
+            if (cached != null) {
                 mAddressResolution.put(addr,
-                        new NativeStackCallInfo(addr.longValue(),
+                        new NativeStackCallInfo(addr,
                                 lib.getLibraryName(),
-                                method,
-                                sourceFile));
+                                cached[0],
+                                cached[1]));
+            } else {
+                addresses[count++] = addr;
             }
-        } catch (IOException e) {
-            // if there is any error, then mark the addresses not already resolved
-            // as unresolvable.
-            for (Long addr : addressesToResolve) {
-                if (mAddressResolution.get(addr) == null) {
-                    markAddressNotResolvable(lib, addr);
-                }
+        }
+
+        if (count == 0) {
+            return null;
+        }
+        return new LibraryResolution(lib, libPath, libKey, libStartAddress,
+                Arrays.copyOf(addresses, count), mUseElfResolver, mSymbolCache);
+    }
+
+    /**
+     * Collects the addresses of a library resolved in process. If the library failed before
+     * starting its addr2line batches, the other addresses are not resolvable.
+     */
+    private void collectLibrary(LibraryResolution library) {
+        NativeLibraryMapInfo lib = library.mLib;
+        boolean started = library.getBatches() != null;
+        for (int i = 0 ; i < library.mAddresses.length ; i++) {
+            long addr = library.mAddresses[i];
+            if (library.mMethods[i] != null) {
+                mAddressResolution.put(addr,
+                        new NativeStackCallInfo(addr,
+                                lib.getLibraryName(),
+                                library.mMethods[i],
+                                library.mSources[i]));
+            } else if (started == false) {
+                markAddressNotResolvable(lib, addr);
+            }
+        }
+        mPartialResolution.putAll(library.mPartialResolution);
+    }
+
+    /**
+     * Returns the in process resolver of a library, parsed once and kept across runs.
+     * @return the resolver, or null if the library cannot be read.
+     */
+    private static ElfSymbolResolver getElfResolver(String libKey, String libPath) {
+        synchronized (sElfResolvers) {
+            ElfSymbolResolver resolver = sElfResolvers.get(libKey);
+            if (resolver != null) {
+                return resolver;
             }
         }
 
+        ElfSymbolResolver resolver;
         try {
-            resultReader.close();
-            addressWriter.close();
+            resolver = ElfSymbolResolver.open(new File(libPath));
         } catch (IOException e) {
-            // we can ignore these exceptions
+            return null;
+        }
+        if (resolver != null) {
+            synchronized (sElfResolvers) {
+                sElfResolvers.put(libKey, resolver);
+            }
         }
+        return resolver;
+    }
+
+    /**
+     * Waits for a library or a batch to be done, checking for cancellation. On cancellation,
+     * all the addr2line processes are killed.
+     */
+    private void waitFor(Future<?> future, List<LibraryResolution> libraries,
+            IProgressMonitor monitor) throws InterruptedException {
+        while (true) {
+            if (monitor.isCanceled()) {
+                for (LibraryResolution library : libraries) {
+                    library.cancel();
+                }
+                throw new InterruptedException();
+            }
 
-        addr2line.destroy();
+            try {
+                future.get(CANCELLATION_POLL_MSEC, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException e) {
+                // check for cancellation again.
+            } catch (ExecutionException e) {
+                // the batch records its own errors, unresolved addresses are handled
+                // by collectLibrary and collectBatch.
+                return;
+            }
+        }
+    }
+
+    private void collectBatch(Addr2LineBatch batch) {
+        if (batch.mErrorMessage != null) {
+            mAddr2LineErrorMessage = batch.mErrorMessage;
+        }
+
+        NativeLibraryMapInfo lib = batch.mLib;
+        long[] offsets = new long[batch.mAddresses.length];
+        for (int i = 0 ; i < batch.mAddresses.length ; i++) {
+            long addr = batch.mAddresses[i];
+            offsets[i] = addr - batch.mLibStartAddress;
+            String[] result = mergeResolution(batch.mMethods[i], batch.mSources[i],
+                    mPartialResolution.get(addr));
+            if (result != null) {
+                mAddressResolution.put(addr,
+                        new NativeStackCallInfo(addr,
+                                lib.getLibraryName(),
+                                result[0],
+                                result[1]));
+            } else {
+                markAddressNotResolvable(lib, addr);
+            }
+        }
+
+        // only what addr2line resolved, the cache ignores its unknown answers.
+        mSymbolCache.put(batch.mLibKey, offsets, batch.mMethods, batch.mSources);
+    }
+
+    /**
+     * Combines the addr2line resolution of an address with the in process one: the method
+     * or source location that addr2line did not find, or that it answered with "??", is taken
+     * from the in process result.
+     * @param method the method from addr2line, or null
+     * @param source the source location from addr2line, or null
+     * @param partial the in process result, or null
+     * @return the method and source location, or null if the address was not resolved.
+     */
+    static String[] mergeResolution(String method, String source, String[] partial) {
+        if (partial != null) {
+            if (method == null || ElfSymbolResolver.UNKNOWN_METHOD.equals(method)) {
+                method = partial[0];
+            }
+            if (source == null || source.startsWith(ElfSymbolResolver.UNKNOWN_METHOD)) {
+                source = partial[1];
+            }
+        }
+        if (method == null || source == null) {
+            return null;
+        }
+        return new String[] { method, source };
+    }
+
+    /**
+     * Addresses of one library not found in the symbol cache. They are first resolved in
+     * process, then the others are split into batches, each resolved by its own addr2line
+     * process.
+     */
+    private static final class LibraryResolution implements Runnable {
+        private final NativeLibraryMapInfo mLib;
+        private final String mLibPath;
+        private final String mLibKey;
+        private final long mLibStartAddress;
+        private final long[] mAddresses;
+        private final boolean mUseElfResolver;
+        private final NativeSymbolCache mSymbolCache;
+
+        /** in process results, null for the addresses left to addr2line. */
+        private final String[] mMethods;
+        private final String[] mSources;
+        /** in process results left to addr2line, used if it fails. */
+        private final Map<Long, String[]> mPartialResolution = new HashMap<Long, String[]>();
+
+        private ExecutorService mExecutor;
+        /** the addr2line batches and their futures, null until they are started. */
+        private List<Addr2LineBatch> mBatches;
+        private List<Future<?>> mBatchFutures;
+        private boolean mCanceled;
+
+        LibraryResolution(NativeLibraryMapInfo lib, String libPath, String libKey,
+                long libStartAddress, long[] addresses, boolean useElfResolver,
+                NativeSymbolCache symbolCache) {
+            mLib = lib;
+            mLibPath = libPath;
+            mLibKey = libKey;
+            mLibStartAddress = libStartAddress;
+            mAddresses = addresses;
+            mUseElfResolver = useElfResolver;
+            mSymbolCache = symbolCache;
+            mMethods = new String[addresses.length];
+            mSources = new String[addresses.length];
+        }
+
+        Future<?> submit(ExecutorService executor) {
+            mExecutor = executor;
+            return executor.submit(this);
+        }
+
+        synchronized List<Addr2LineBatch> getBatches() {
+            return mBatches;
+        }
+
+        synchronized List<Future<?>> getBatchFutures() {
+            return mBatchFutures;
+        }
+
+        synchronized void cancel() {
+            mCanceled = true;
+            if (mBatches != null) {
+                for (Addr2LineBatch batch : mBatches) {
+                    batch.cancel();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int count = mAddresses.length;
+            long[] addresses = mAddresses;
+            if (mUseElfResolver) {
+                addresses = new long[count];
+                count = resolveInProcess(addresses);
+            }
+
+            List<Addr2LineBatch> batches = new ArrayList<Addr2LineBatch>();
+            if (count > 0) {
+                // a single process for small libraries, as starting addr2line means parsing
+                // the library's debug info.
+                int batchCount = Math.min(MAX_PROCESSES_PER_LIBRARY,
+                        (count + MIN_ADDRESSES_PER_PROCESS - 1) / MIN_ADDRESSES_PER_PROCESS);
+                int batchSize = (count + batchCount - 1) / batchCount;
+                for (int start = 0 ; start < count ; start += batchSize) {
+                    int end = Math.min(count, start + batchSize);
+                    batches.add(new Addr2LineBatch(mLib, mLibPath, mLibKey, mLibStartAddress,
+                            Arrays.copyOfRange(addresses, start, end)));
+                }
+            }
+
+            synchronized (this) {
+                mBatches = batches;
+                mBatchFutures = new ArrayList<Future<?>>(batches.size());
+                for (Addr2LineBatch batch : batches) {
+                    if (mCanceled) {
+                        batch.cancel();
+                    }
+                    mBatchFutures.add(mExecutor.submit(batch));
+                }
+            }
+        }
+
+        /**
+         * Resolves addresses by reading the library's symbol and line tables. Addresses with
+         * a mangled name or without a source location are left to addr2line, which demangles
+         * and understands more debug info, with the partial result kept in case addr2line
+         * fails.
+         * @param left receives the addresses left to resolve.
+         * @return the number of addresses left to resolve.
+         */
+        private int resolveInProcess(long[] left) {
+            ElfSymbolResolver resolver = getElfResolver(mLibKey, mLibPath);
+            if (resolver == null) {
+                System.arraycopy(mAddresses, 0, left, 0, mAddresses.length);
+                return mAddresses.length;
+            }
+
+            long[] offsets = new long[mAddresses.length];
+            String[] methods = new String[mAddresses.length];
+            String[] sources = new String[mAddresses.length];
+            int resolved = 0;
+            int count = 0;
+            for (int i = 0 ; i < mAddresses.length ; i++) {
+                long addr = mAddresses[i];
+                long offset = addr - mLibStartAddress;
+                String[] result = resolver.resolve(offset);
+                if (result != null && result[0].startsWith("_Z") == false //$NON-NLS-1$
+                        && ElfSymbolResolver.UNKNOWN_SOURCE.equals(result[1]) == false) {
+                    mMethods[i] = result[0];
+                    mSources[i] = result[1];
+                    offsets[resolved] = offset;
+                    methods[resolved] = result[0];
+                    sources[resolved] = result[1];
+                    resolved++;
+                } else {
+                    if (result != null) {
+                        mPartialResolution.put(addr, result);
+                    }
+                    left[count++] = addr;
+                }
+            }
+
+            if (resolved > 0) {
+                mSymbolCache.put(mLibKey, Arrays.copyOf(offsets, resolved),
+                        Arrays.copyOf(methods, resolved), Arrays.copyOf(sources, resolved));
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Addresses of one library resolved by one addr2line process.
+     */
+    private static final class Addr2LineBatch implements Runnable {
+        private final NativeLibraryMapInfo mLib;
+        private final String mLibPath;
+        private final String mLibKey;
+        private final long mLibStartAddress;
+        private final long[] mAddresses;
+
+        /** results, null for the addresses that were not resolved. */
+        private final String[] mMethods;
+        private final String[] mSources;
+
+        private volatile String mErrorMessage;
+        private Process mProcess;
+        private boolean mCanceled;
+
+        Addr2LineBatch(NativeLibraryMapInfo lib, String libPath, String libKey,
+                long libStartAddress, long[] addresses) {
+            mLib = lib;
+            mLibPath = libPath;
+            mLibKey = libKey;
+            mLibStartAddress = libStartAddress;
+            mAddresses = addresses;
+            mMethods = new String[addresses.length];
+            mSources = new String[addresses.length];
+        }
+
+        synchronized void cancel() {
+            mCanceled = true;
+            if (mProcess != null) {
+                mProcess.destroy();
+            }
+        }
+
+        @Override
+        public void run() {
+            Process addr2line;
+            synchronized (this) {
+                if (mCanceled) {
+                    return;
+                }
+                try {
+                    mProcess = addr2line = new ProcessBuilder(ADDR2LINE,
+                            "-C",   // demangle
+                            "-f",   // display function names in addition to file:number
+                            "-e", mLibPath).start();
+                } catch (IOException e) {
+                    // Since the library path is known to be valid, the only reason for an
+                    // exception is that addr2line was not found. We just save the message
+                    // in this case.
+                    mErrorMessage = e.getMessage();
+                    return;
+                }
+            }
+
+            BufferedReader resultReader = new BufferedReader(new InputStreamReader(
+                                                                    addr2line.getInputStream()));
+            BufferedWriter addressWriter = new BufferedWriter(new OutputStreamWriter(
+                                                                    addr2line.getOutputStream()));
+
+            try {
+                // send the addresses in chunks, so that one write and one flush serve many
+                // addresses while the output of a chunk still fits in the pipe.
+                for (int start = 0 ; start < mAddresses.length ; start += PIPE_CHUNK_SIZE) {
+                    int end = Math.min(mAddresses.length, start + PIPE_CHUNK_SIZE);
+                    for (int i = start ; i < end ; i++) {
+                        addressWriter.write(Long.toHexString(mAddresses[i] - mLibStartAddress));
+                        addressWriter.newLine();
+                    }
+                    addressWriter.flush();
+
+                    for (int i = start ; i < end ; i++) {
+                        String method = resultReader.readLine();
+                        String sourceFile = resultReader.readLine();
+                        if (method == null || sourceFile == null) {
+                            return;
+                        }
+                        mMethods[i] = method;
+                        mSources[i] = sourceFile;
+                    }
+                }
+            } catch (IOException e) {
+                // the addresses not already resolved are marked as unresolvable by
+                // collectBatch.
+            } finally {
+                try {
+                    resultReader.close();
+                    addressWriter.close();
+                } catch (IOException e) {
+                    // we can ignore these exceptions
+                }
+
+                addr2line.destroy();
+            }
+        }
     }
 
     private boolean isExecutable(NativeLibraryMapInfo object) {
@@ -224,16 +709,16 @@ public class NativeSymbolResolverTask implements IRunnableWithProgress {
         return devicePath.contains("/bin/");
     }
 
-    private void markAddressesNotResolvable(Set<Long> addressesToResolve,
+    private void markAddressesNotResolvable(long[] addressesToResolve,
                                 NativeLibraryMapInfo lib) {
-        for (Long addr : addressesToResolve) {
+        for (long addr : addressesToResolve) {
             markAddressNotResolvable(lib, addr);
         }
     }
 
-    private void markAddressNotResolvable(NativeLibraryMapInfo lib, Long addr) {
+    private void markAddressNotResolvable(NativeLibraryMapInfo lib, long addr) {
         mAddressResolution.put(addr,
-                new NativeStackCallInfo(addr.longValue(),
+                new NativeStackCallInfo(addr,
                         lib.getLibraryName(),
                         Long.toHexString(addr),
                         ""));
@@ -270,8 +755,9 @@ public class NativeSymbolResolverTask implements IRunnableWithProgress {
         for (NativeAllocationInfo callSite : callSites) {
             List<NativeStackCallInfo> stackInfo = new ArrayList<NativeStackCallInfo>();
 
-            for (Long addr : callSite.getStackCallAddresses()) {
-                NativeStackCallInfo info = mAddressResolution.get(addr);
+            int count = callSite.getStackCallAddressCount();
+            for (int i = 0 ; i < count ; i++) {
+                NativeStackCallInfo info = mAddressResolution.get(callSite.getStackCallAddress(i));
 
                 if (info != null) {
                     stackInfo.add(info);
@@ -17,12 +17,15 @@
 package com.android.ddmuilib.log.event;
 
 import java.io.BufferedReader;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 
+/**
+ * Imports the event log of a bug report. The tags are read right away, while the log
+ * itself is streamed by the {@link StreamingEventLogImporter} returned by
+ * {@link #getLog()}.
+ */
 public class BugReportImporter {
 
     private final static String TAG_HEADER = "------ EVENT LOG TAGS ------";
@@ -30,23 +33,23 @@ public class BugReportImporter {
     private final static String HEADER_TAG = "------";
 
     private String[] mTags;
-    private String[] mLog;
+    private StreamingEventLogImporter mLog;
 
     public BugReportImporter(String filePath) throws FileNotFoundException {
-        BufferedReader reader = new BufferedReader(
-                new InputStreamReader(new FileInputStream(filePath)));
+        BufferedReader reader = StreamingEventLogImporter.openReader(filePath);
 
         try {
             String line;
             while ((line = reader.readLine()) != null) {
                 if (TAG_HEADER.equals(line)) {
                     readTags(reader);
-                    return;
+                    break;
                 }
             }
         } catch (IOException e) {
         } finally {
-            if (reader != null) {
+            // the reader is now owned by the log importer, if any.
+            if (mLog == null) {
                 try {
                     reader.close();
                 } catch (IOException ignore) {
@@ -59,7 +62,11 @@ public class BugReportImporter {
         return mTags;
     }
 
-    public String[] getLog() {
+    /**
+     * Returns the importer for the event log section, or null if it was not found.
+     * The caller must either run or close it.
+     */
+    public StreamingEventLogImporter getLog() {
         return mLog;
     }
 
@@ -70,7 +77,7 @@ public class BugReportImporter {
         while ((line = reader.readLine()) != null) {
             if (LOG_HEADER.equals(line)) {
                 mTags = content.toArray(new String[content.size()]);
-                readLog(reader);
+                mLog = new StreamingEventLogImporter(reader, HEADER_TAG);
                 return;
             } else {
                 content.add(line);
@@ -78,19 +85,4 @@ public class BugReportImporter {
         }
     }
 
-    private void readLog(BufferedReader reader) throws IOException {
-        String line;
-
-        ArrayList<String> content = new ArrayList<String>();
-        while ((line = reader.readLine()) != null) {
-            if (line.startsWith(HEADER_TAG) == false) {
-                content.add(line);
-            } else {
-                break;
-            }
-        }
-
-        mLog = content.toArray(new String[content.size()]);
-    }
-
 }
@@ -27,6 +27,16 @@ public class DisplayFilteredLog extends DisplayLog {
         super(name);
     }
 
+    @Override
+    int[] getEventTags() {
+        return getDescriptorTags();
+    }
+
+    @Override
+    int[] getEventPids() {
+        return getFilteredPids();
+    }
+
     /**
      * Adds event to the display.
      */
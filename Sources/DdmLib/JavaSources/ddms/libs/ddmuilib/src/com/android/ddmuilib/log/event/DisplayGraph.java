@@ -73,6 +73,26 @@ public class DisplayGraph extends EventDisplay {
         return createCompositeChart(parent, logParser, title);
     }
 
+    @Override
+    int[] getEventTags() {
+        return getDescriptorTags();
+    }
+
+    @Override
+    int[] getEventPids() {
+        return getFilteredPids();
+    }
+
+    @Override
+    long getOldestEventTime(long latestTime) {
+        if (mMaximumChartItemAge == -1 || latestTime == Long.MIN_VALUE) {
+            return Long.MIN_VALUE;
+        }
+
+        // the time series drop the items older than the limit anyway.
+        return latestTime - mMaximumChartItemAge * 1000;
+    }
+
     /**
      * Adds event to the display.
      */
@@ -115,6 +115,31 @@ abstract class EventDisplay {
      */
     abstract void resetUI();
 
+    /**
+     * Returns the tags of the events that this display may show, or null if it may show
+     * events of any tag. This is used to only give the relevant events to the display when
+     * it is rebuilt.
+     */
+    int[] getEventTags() {
+        return null;
+    }
+
+    /**
+     * Returns the pids of the events that this display may show, or null if it may show
+     * events of any pid.
+     */
+    int[] getEventPids() {
+        return null;
+    }
+
+    /**
+     * Returns the time in milliseconds of the oldest event that this display may show.
+     * @param latestTime the time of the most recent event.
+     */
+    long getOldestEventTime(long latestTime) {
+        return Long.MIN_VALUE;
+    }
+
     /**
      * Gets display type
      *
@@ -894,6 +919,37 @@ abstract class EventDisplay {
         return (valueDescriptors.size() > 0 || occurrenceDescriptors.size() > 0);
     }
 
+    /**
+     * Returns the tags of the events accepted by {@link #filterEvent}.
+     */
+    protected int[] getDescriptorTags() {
+        int[] tags = new int[mValueDescriptors.size() + mOccurrenceDescriptors.size()];
+        int i = 0;
+        for (OccurrenceDisplayDescriptor descriptor : mValueDescriptors) {
+            tags[i++] = descriptor.eventTag;
+        }
+        for (OccurrenceDisplayDescriptor descriptor : mOccurrenceDescriptors) {
+            tags[i++] = descriptor.eventTag;
+        }
+        return tags;
+    }
+
+    /**
+     * Returns the pids of the events accepted by {@link #filterEvent}, or null if it
+     * accepts any pid.
+     */
+    protected int[] getFilteredPids() {
+        if (mPidFiltering == false || mPidFilterList == null) {
+            return null;
+        }
+
+        int[] pids = new int[mPidFilterList.size()];
+        for (int i = 0; i < pids.length; i++) {
+            pids[i] = mPidFilterList.get(i);
+        }
+        return pids;
+    }
+
     /**
      * Checks all the {@link ValueDisplayDescriptor} for similarity.
      * If all the event values are from the same tag, the method will return EVENT_CHECK_SAME_TAG.
@@ -16,8 +16,8 @@
 
 package com.android.ddmuilib.log.event;
 
-import com.android.ddmlib.log.EventContainer;
 import com.android.ddmlib.log.EventLogParser;
+import com.android.ddmlib.log.EventStore;
 import com.android.ddmlib.log.EventValueDescription;
 import com.android.ddmuilib.DdmUiPreferences;
 import com.android.ddmuilib.ImageLoader;
@@ -126,7 +126,7 @@ class EventDisplayOptions  extends Dialog {
      * @return true if the list of {@link EventDisplay} objects was updated.
      */
     boolean open(EventLogParser logParser, ArrayList<EventDisplay> displayList,
-            ArrayList<EventContainer> eventList) {
+            EventStore eventList) {
         mLogParser = logParser;
 
         if (logParser != null) {
@@ -706,12 +706,10 @@ class EventDisplayOptions  extends Dialog {
         }
     }
 
-    private void buildPidList(ArrayList<EventContainer> eventList) {
+    private void buildPidList(EventStore eventList) {
         mPidList = new ArrayList<Integer>();
-        for (EventContainer event : eventList) {
-            if (mPidList.indexOf(event.pid) == -1) {
-                mPidList.add(event.pid);
-            }
+        for (int pid : eventList.getPids()) {
+            mPidList.add(pid);
         }
     }
 
@@ -27,11 +27,14 @@ import java.util.ArrayList;
 
 /**
  * Imports a textual event log.  Gets tags from build path.
+ * <p/>
+ * The log itself is streamed by the {@link StreamingEventLogImporter} returned by
+ * {@link #getLog()}.
  */
 public class EventLogImporter {
 
     private String[] mTags;
-    private String[] mLog;
+    private StreamingEventLogImporter mLog;
 
     public EventLogImporter(String filePath) throws FileNotFoundException {
         String top = System.getenv("ANDROID_BUILD_TOP");
@@ -41,33 +44,28 @@ public class EventLogImporter {
         final String tagFile = top + "/system/core/logcat/event-log-tags";
         BufferedReader tagReader = new BufferedReader(
                 new InputStreamReader(new FileInputStream(tagFile)));
-        BufferedReader eventReader = new BufferedReader(
-                new InputStreamReader(new FileInputStream(filePath)));
         try {
             readTags(tagReader);
-            readLog(eventReader);
         } catch (IOException e) {
         } finally {
-            if (tagReader != null) {
-                try {
-                    tagReader.close();
-                } catch (IOException ignore) {
-                }
-            }
-            if (eventReader != null) {
-                try {
-                    eventReader.close();
-                } catch (IOException ignore) {
-                }
+            try {
+                tagReader.close();
+            } catch (IOException ignore) {
             }
         }
+
+        mLog = new StreamingEventLogImporter(
+                StreamingEventLogImporter.openReader(filePath), null /* endPrefix */);
     }
 
     public String[] getTags() {
         return mTags;
     }
 
-    public String[] getLog() {
+    /**
+     * Returns the importer for the log. The caller must either run or close it.
+     */
+    public StreamingEventLogImporter getLog() {
         return mLog;
     }
 
@@ -81,15 +79,4 @@ public class EventLogImporter {
         mTags = content.toArray(new String[content.size()]);
     }
 
-    private void readLog(BufferedReader reader) throws IOException {
-        String line;
-
-        ArrayList<String> content = new ArrayList<String>();
-        while ((line = reader.readLine()) != null) {
-            content.add(line);
-        }
-
-        mLog = content.toArray(new String[content.size()]);
-    }
-
 }
@@ -22,6 +22,7 @@ import com.android.ddmlib.Log;
 import com.android.ddmlib.Log.LogLevel;
 import com.android.ddmlib.log.EventContainer;
 import com.android.ddmlib.log.EventLogParser;
+import com.android.ddmlib.log.EventStore;
 import com.android.ddmlib.log.LogReceiver;
 import com.android.ddmlib.log.LogReceiver.ILogListener;
 import com.android.ddmlib.log.LogReceiver.LogEntry;
@@ -58,6 +59,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 /**
@@ -84,11 +89,17 @@ public class EventLogPanel extends TablePanel implements ILogListener,
 
     private Object mLock = new Object();
 
-    /** list of all the events. */
-    private final ArrayList<EventContainer> mEvents = new ArrayList<EventContainer>();
-
-    /** list of all the new events, that have yet to be displayed by the ui */
-    private final ArrayList<EventContainer> mNewEvents = new ArrayList<EventContainer>();
+    /** all the events. */
+    private final EventStore mEvents = new EventStore();
+
+    /** lock for the events that have yet to be displayed by the ui */
+    private final Object mNewEventsLock = new Object();
+    /** index in {@link #mEvents} of the first event not given to the displays yet. */
+    private int mNextEvent = 0;
+    /** indexes in {@link #mEvents} of the events to give again to rebuilt displays. */
+    private int[] mReplayedEvents = null;
+    /** position of the next event to display in {@link #mReplayedEvents}. */
+    private int mReplayPosition = 0;
     /** indicates a pending ui thread display */
     private boolean mPendingDisplay = false;
 
@@ -230,9 +241,7 @@ public class EventLogPanel extends TablePanel implements ILogListener,
     public void clearLog() {
         try {
             synchronized (mLock) {
-                mEvents.clear();
-                mNewEvents.clear();
-                mPendingDisplay = false;
+                clearEvents();
                 for (EventDisplay eventDisplay : mEventDisplays) {
                     eventDisplay.resetUI();
                 }
@@ -282,9 +291,7 @@ public class EventLogPanel extends TablePanel implements ILogListener,
         } else {
             try {
                 EventLogImporter importer = new EventLogImporter(filePath);
-                String[] tags = importer.getTags();
-                String[] log = importer.getLog();
-                startEventLogFromContent(tags, log);
+                startEventLogFromContent(importer.getTags(), importer.getLog());
             } catch (FileNotFoundException e) {
                 // If this fails, display the error message from startEventLogFromFiles,
                 // and pretend we never tried EventLogImporter
@@ -298,11 +305,14 @@ public class EventLogPanel extends TablePanel implements ILogListener,
     public void importBugReport(String filePath) {
         try {
             BugReportImporter importer = new BugReportImporter(filePath);
+            StreamingEventLogImporter log = importer.getLog();
+            if (log == null) {
+                Log.logAndDisplay(LogLevel.ERROR, "Import",
+                        "No event log found in bug report " + filePath);
+                return;
+            }
 
-            String[] tags = importer.getTags();
-            String[] log = importer.getLog();
-
-            startEventLogFromContent(tags, log);
+            startEventLogFromContent(importer.getTags(), log);
 
         } catch (FileNotFoundException e) {
             Log.logAndDisplay(LogLevel.ERROR, "Import",
@@ -351,7 +361,7 @@ public class EventLogPanel extends TablePanel implements ILogListener,
                         mCurrentEventLogParser = null;
                         mCurrentLoggedDevice = null;
                         mEventDisplays.clear();
-                        mEvents.clear();
+                        clearEvents();
                     }
                 }
             }
@@ -424,7 +434,7 @@ public class EventLogPanel extends TablePanel implements ILogListener,
 
         if (device != null) {
             // create a new output receiver
-            mCurrentLogReceiver = new LogReceiver(this);
+            mCurrentLogReceiver = new LogReceiver(this, true /* reuseEntries */);
 
             // start the logcat in a different thread
             new Thread("EventLog")  { //$NON-NLS-1$
@@ -477,7 +487,7 @@ public class EventLogPanel extends TablePanel implements ILogListener,
         mCurrentLogFile = null;
 
         // create a new output receiver
-        mCurrentLogReceiver = new LogReceiver(this);
+        mCurrentLogReceiver = new LogReceiver(this, true /* reuseEntries */);
 
         mSaveAction.setEnabled(false);
 
@@ -509,7 +519,8 @@ public class EventLogPanel extends TablePanel implements ILogListener,
         }.start();
     }
 
-    private void startEventLogFromContent(final String[] tags, final String[] log) {
+    private void startEventLogFromContent(final String[] tags,
+            final StreamingEventLogImporter log) {
         // if we have a logcat already running
         if (mCurrentLogReceiver != null) {
             stopEventLog(false);
@@ -518,7 +529,7 @@ public class EventLogPanel extends TablePanel implements ILogListener,
         mCurrentLogFile = null;
 
         // create a new output receiver
-        mCurrentLogReceiver = new LogReceiver(this);
+        mCurrentLogReceiver = new LogReceiver(this, true /* reuseEntries */);
 
         mSaveAction.setEnabled(false);
 
@@ -529,7 +540,7 @@ public class EventLogPanel extends TablePanel implements ILogListener,
                 try {
                     synchronized (mLock) {
                         mCurrentEventLogParser = new EventLogParser();
-                        if (mCurrentEventLogParser.init(tags) == false) {
+                        if (tags == null || mCurrentEventLogParser.init(tags) == false) {
                             mCurrentEventLogParser = null;
                             return;
                         }
@@ -542,6 +553,7 @@ public class EventLogPanel extends TablePanel implements ILogListener,
                 } catch (Exception e) {
                     Log.e("EventLog", e);
                 } finally {
+                    log.close();
                 }
             }
         }.start();
@@ -559,9 +571,7 @@ public class EventLogPanel extends TablePanel implements ILogListener,
                 mCurrentEventLogParser = null;
 
                 mCurrentLoggedDevice = null;
-                mEvents.clear();
-                mNewEvents.clear();
-                mPendingDisplay = false;
+                clearEvents();
             }
 
             resetUI(inUiThread);
@@ -574,7 +584,7 @@ public class EventLogPanel extends TablePanel implements ILogListener,
     }
 
     private void resetUI(boolean inUiThread) {
-        mEvents.clear();
+        clearEvents();
 
         // the ui is static we just empty it.
         if (inUiThread) {
@@ -647,6 +657,71 @@ public class EventLogPanel extends TablePanel implements ILogListener,
         mBottomParentPanel.layout();
     }
 
+    /**
+     * Clears all the events, including the ones waiting to be displayed.
+     */
+    private void clearEvents() {
+        synchronized (mNewEventsLock) {
+            mEvents.clear();
+            mNextEvent = 0;
+            mReplayedEvents = null;
+            mPendingDisplay = false;
+        }
+    }
+
+    /**
+     * Returns the indexes of the events that the current displays may show. If all the displays
+     * only show some tags or pids, or only recent events, the other events are skipped.
+     * @param end the index after the last event to select.
+     */
+    private int[] selectEventsToReplay(int end) {
+        Set<Integer> tags = new HashSet<Integer>();
+        Set<Integer> pids = new HashSet<Integer>();
+        boolean allTags = false;
+        boolean allPids = false;
+        long fromTime = Long.MAX_VALUE;
+        long latestTime = mEvents.getLatestTime();
+
+        for (EventDisplay eventDisplay : mEventDisplays) {
+            int[] displayTags = eventDisplay.getEventTags();
+            if (displayTags == null) {
+                allTags = true;
+            } else {
+                for (int tag : displayTags) {
+                    tags.add(tag);
+                }
+            }
+
+            int[] displayPids = eventDisplay.getEventPids();
+            if (displayPids == null) {
+                allPids = true;
+            } else {
+                for (int pid : displayPids) {
+                    pids.add(pid);
+                }
+            }
+
+            fromTime = Math.min(fromTime, eventDisplay.getOldestEventTime(latestTime));
+        }
+
+        int[] selected = mEvents.select(allTags ? null : toArray(tags),
+                allPids ? null : toArray(pids), fromTime, Long.MAX_VALUE);
+
+        // events may have been added since end was read, they are not replayed but displayed
+        // as new events.
+        int count = Arrays.binarySearch(selected, end);
+        return Arrays.copyOf(selected, count >= 0 ? count : -count - 1);
+    }
+
+    private static int[] toArray(Set<Integer> values) {
+        int[] array = new int[values.size()];
+        int i = 0;
+        for (Integer value : values) {
+            array[i++] = value;
+        }
+        return array;
+    }
+
     /**
      * Rebuild the display ui.
      */
@@ -660,11 +735,15 @@ public class EventLogPanel extends TablePanel implements ILogListener,
             prepareDisplayUi();
             createDisplayUi();
 
-            // and fill it
+            // and fill it, with only the events that the new displays may show.
+            int end = mEvents.size();
+            int[] replayedEvents = selectEventsToReplay(end);
 
             boolean start_event = false;
-            synchronized (mNewEvents) {
-                mNewEvents.addAll(0, mEvents);
+            synchronized (mNewEventsLock) {
+                mReplayedEvents = replayedEvents;
+                mReplayPosition = 0;
+                mNextEvent = end;
 
                 if (mPendingDisplay == false) {
                     mPendingDisplay = true;
@@ -703,15 +782,12 @@ public class EventLogPanel extends TablePanel implements ILogListener,
 
     @WorkerThread
     private void handleNewEvent(EventContainer event) {
-        // add the event to the generic list
+        // add the event to the store. Events not given to the displays yet are after
+        // mNextEvent. Trigger a new display if needed.
         mEvents.add(event);
 
-        // add to the list of events that needs to be displayed, and trigger a
-        // new display if needed.
         boolean start_event = false;
-        synchronized (mNewEvents) {
-            mNewEvents.add(event);
-
+        synchronized (mNewEventsLock) {
             if (mPendingDisplay == false) {
                 mPendingDisplay = true;
                 start_event = true;
@@ -778,9 +854,12 @@ public class EventLogPanel extends TablePanel implements ILogListener,
         EventContainer event = null;
         boolean need_to_reloop = false;
         do {
-            // get the next event to display.
-            synchronized (mNewEvents) {
-                if (mNewEvents.size() > 0) {
+            // get the next event to display: first the events replayed after the displays
+            // were rebuilt, then the new events.
+            synchronized (mNewEventsLock) {
+                boolean replaying = mReplayedEvents != null &&
+                        mReplayPosition < mReplayedEvents.length;
+                if (replaying || mNextEvent < mEvents.size()) {
                     if (count > 200) {
                         // there are still events to be displayed, but we don't want to hog the
                         // UI thread for too long, so we stop this runnable, but launch a new
@@ -788,11 +867,13 @@ public class EventLogPanel extends TablePanel implements ILogListener,
                         need_to_reloop = true;
                         event = null;
                     } else {
-                        event = mNewEvents.remove(0);
+                        int index = replaying ? mReplayedEvents[mReplayPosition++] : mNextEvent++;
+                        event = mEvents.get(index);
                         count++;
                     }
                 } else {
                     // we're done.
+                    mReplayedEvents = null;
                     event = null;
                     mPendingDisplay = false;
                 }
@@ -921,15 +1002,39 @@ public class EventLogPanel extends TablePanel implements ILogListener,
         }
     }
 
+    /**
+     * Streams a textual event log into the panel. The lock is only held while the events
+     * of a chunk are added, so that the UI thread can display them while the rest of the
+     * file is read and parsed.
+     * @param log the importer reading the log
+     * @param logReceiver the receiver of this import, used to detect cancellation
+     * @throws IOException
+     */
     @WorkerThread
-    private void runLocalEventLogService(String[] log, LogReceiver currentLogReceiver) {
+    private void runLocalEventLogService(StreamingEventLogImporter log,
+            final LogReceiver logReceiver) throws IOException {
+        EventLogParser parser;
         synchronized (mLock) {
-            for (String line : log) {
-                EventContainer event = mCurrentEventLogParser.parse(line);
-                if (event != null) {
-                    handleNewEvent(event);
+            parser = mCurrentEventLogParser;
+        }
+        if (parser == null) {
+            return;
+        }
+
+        log.run(parser, new StreamingEventLogImporter.IEventSink() {
+            @Override
+            public boolean addEvents(List<EventContainer> events) {
+                synchronized (mLock) {
+                    if (logReceiver == null || mCurrentLogReceiver != logReceiver
+                            || logReceiver.isCancelled()) {
+                        return false;
+                    }
+                    for (EventContainer event : events) {
+                        handleNewEvent(event);
+                    }
                 }
+                return true;
             }
-        }
+        });
     }
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.log.event;
+
+import com.android.ddmlib.log.EventContainer;
+import com.android.ddmlib.log.EventLogParser;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Streams the lines of a textual event log to an {@link IEventSink}.
+ * <p/>
+ * Lines are read in chunks, and the chunks are parsed in parallel with
+ * {@link EventLogParser#parse(String)}. The parsed events are delivered in file order, and
+ * only a few chunks are in flight at any time, so the memory used does not depend on the
+ * size of the file.
+ */
+public final class StreamingEventLogImporter {
+
+    /** Receives the parsed events. */
+    public interface IEventSink {
+        /**
+         * Called with the events of a chunk of lines, in file order.
+         * @return <code>false</code> to stop the import.
+         */
+        boolean addEvents(List<EventContainer> events);
+    }
+
+    private final static int CHUNK_LINES = 2048;
+    private final static int READ_BUFFER_SIZE = 256 * 1024;
+
+    private final BufferedReader mReader;
+    private final String mEndPrefix;
+
+    /**
+     * Creates an importer reading the rest of the given reader.
+     * @param reader the reader, closed once the import is done.
+     * @param endPrefix if not null, the import stops at the first line starting with it.
+     */
+    public StreamingEventLogImporter(BufferedReader reader, String endPrefix) {
+        mReader = reader;
+        mEndPrefix = endPrefix;
+    }
+
+    /**
+     * Opens a file for reading through a large buffer. Malformed UTF-8 is replaced rather
+     * than aborting the import.
+     */
+    public static BufferedReader openReader(String filePath) throws FileNotFoundException {
+        FileChannel channel = new FileInputStream(filePath).getChannel();
+        CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder() //$NON-NLS-1$
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        return new BufferedReader(Channels.newReader(channel, decoder, -1), READ_BUFFER_SIZE);
+    }
+
+    /**
+     * Reads and parses the log, and gives the events to the sink.
+     * <p/>
+     * The parser must be fully initialized: it is shared by the parsing threads.
+     * @param parser the parser
+     * @param sink the sink receiving the events
+     * @throws IOException
+     */
+    public void run(final EventLogParser parser, IEventSink sink) throws IOException {
+        int threadCount = Math.max(1, Runtime.getRuntime().availableProcessors());
+        int maxInFlight = threadCount * 2;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount,
+                new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "EventLog Import"); //$NON-NLS-1$
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        LinkedList<Future<List<EventContainer>>> inFlight =
+                new LinkedList<Future<List<EventContainer>>>();
+
+        try {
+            boolean done = false;
+            while (done == false) {
+                final String[] lines = new String[CHUNK_LINES];
+                int count = 0;
+                String line;
+                while (count < CHUNK_LINES && (line = mReader.readLine()) != null) {
+                    if (mEndPrefix != null && line.startsWith(mEndPrefix)) {
+                        done = true;
+                        break;
+                    }
+                    lines[count++] = line;
+                }
+                if (count < CHUNK_LINES) {
+                    done = true;
+                }
+
+                if (count > 0) {
+                    final int lineCount = count;
+                    inFlight.add(executor.submit(new Callable<List<EventContainer>>() {
+                        @Override
+                        public List<EventContainer> call() {
+                            List<EventContainer> events = new ArrayList<EventContainer>(lineCount);
+                            for (int i = 0 ; i < lineCount ; i++) {
+                                EventContainer event = parser.parse(lines[i]);
+                                if (event != null) {
+                                    events.add(event);
+                                }
+                            }
+                            return events;
+                        }
+                    }));
+                }
+
+                // deliver the oldest chunks once enough are in flight, or at the end.
+                while (inFlight.size() > 0 && (done || inFlight.size() >= maxInFlight)) {
+                    if (sink.addEvents(waitFor(inFlight.removeFirst())) == false) {
+                        return;
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            close();
+        }
+    }
+
+    /**
+     * Closes the underlying reader without importing anything.
+     */
+    public void close() {
+        try {
+            mReader.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    private static List<EventContainer> waitFor(Future<List<EventContainer>> future)
+            throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Event log import interrupted"); //$NON-NLS-1$
+        } catch (ExecutionException e) {
+            throw new IOException("Event log import failed: " + e.getCause()); //$NON-NLS-1$
+        }
+    }
+}
@@ -204,6 +204,16 @@ public final class LogCatFilter {
         return mLogLevel;
     }
 
+    /** Returns the compiled tag regex, or null if the tag is not checked by this filter. */
+    Pattern getTagPattern() {
+        return mCheckTag ? mTagPattern : null;
+    }
+
+    /** Returns the compiled text regex, or null if the text is not checked by this filter. */
+    Pattern getTextPattern() {
+        return mCheckText ? mTextPattern : null;
+    }
+
     /**
      * Check whether a given message will make it through this filter.
      * @param m message to check
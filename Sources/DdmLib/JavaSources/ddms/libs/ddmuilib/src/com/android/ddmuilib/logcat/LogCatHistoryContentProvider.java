@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import org.eclipse.jface.viewers.ILazyContentProvider;
+import org.eclipse.jface.viewers.TableViewer;
+import org.eclipse.jface.viewers.Viewer;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A JFace lazy content provider for a virtual table displaying the logcat history kept
+ * in a {@link LogCatMessageStore}, used in the {@link LogCatPanel}. Messages are read from
+ * the store a page at a time, and only a few recently used pages are kept in memory.
+ */
+public final class LogCatHistoryContentProvider implements ILazyContentProvider {
+    private static final int PAGE_SIZE = 256;
+    private static final int MAX_CACHED_PAGES = 16;
+
+    private TableViewer mViewer;
+    private LogCatMessageStore mStore;
+
+    /** Sequence number of the message displayed at row 0. */
+    private long mBaseSeq;
+
+    private final Map<Long, List<LogCatMessage>> mPages =
+            new LinkedHashMap<Long, List<LogCatMessage>>(MAX_CACHED_PAGES, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, List<LogCatMessage>> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+
+    @Override
+    public void dispose() {
+        mPages.clear();
+    }
+
+    @Override
+    public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+        mViewer = (TableViewer) viewer;
+        mStore = newInput instanceof LogCatMessageStore ? (LogCatMessageStore) newInput : null;
+        mPages.clear();
+    }
+
+    /**
+     * Update the number of rows of the table to the number of messages in the store.
+     * Rows are numbered from the oldest message in the store at the time of this call.
+     */
+    public void updateItemCount() {
+        if (mStore == null) {
+            return;
+        }
+
+        long first = mStore.getFirstSequence();
+        if (first != mBaseSeq) {
+            mBaseSeq = first;
+            mPages.clear();
+        }
+
+        long size = mStore.getNextSequence() - mBaseSeq;
+        mViewer.setItemCount((int) Math.min(size, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Obtain the message displayed at the given row.
+     * @return the message, or null if it is no longer in the store
+     */
+    public LogCatMessage getMessage(int index) {
+        if (mStore == null) {
+            return null;
+        }
+
+        long seq = mBaseSeq + index;
+        if (seq < mStore.getFirstSequence()) {
+            return null;
+        }
+
+        long pageStart = seq - seq % PAGE_SIZE;
+        if (pageStart < mStore.getFirstSequence()) {
+            // the start of this page was evicted from the store, read the single message
+            List<LogCatMessage> messages = mStore.getMessages(seq, 1);
+            return messages.isEmpty() ? null : messages.get(0);
+        }
+
+        Long page = Long.valueOf(pageStart);
+        int offset = (int) (seq - pageStart);
+        List<LogCatMessage> messages = mPages.get(page);
+        if (messages == null || offset >= messages.size()) {
+            // the last page is only partially filled until the store receives more messages
+            messages = mStore.getMessages(pageStart, PAGE_SIZE);
+            mPages.put(page, messages);
+        }
+
+        return offset < messages.size() ? messages.get(offset) : null;
+    }
+
+    @Override
+    public void updateElement(int index) {
+        LogCatMessage m = getMessage(index);
+        if (m != null) {
+            mViewer.replace(m, index);
+        }
+    }
+}
@@ -23,6 +23,16 @@ import org.eclipse.jface.viewers.Viewer;
  * A JFace content provider for the LogCat log messages, used in the {@link LogCatPanel}.
  */
 public final class LogCatMessageContentProvider implements IStructuredContentProvider {
+    private LogCatMessageIndex.Query mIndexQuery;
+
+    /**
+     * Restrict the elements provided to the ones matching the given index query.
+     * @param query query to use, null to provide all the messages in the list
+     */
+    public void setIndexQuery(LogCatMessageIndex.Query query) {
+        mIndexQuery = query;
+    }
+
     @Override
     public void dispose() {
     }
@@ -34,6 +44,11 @@ public final class LogCatMessageContentProvider implements IStructuredContentPro
     @Override
     public Object[] getElements(Object model) {
         if (model instanceof LogCatMessageList) {
+            LogCatMessageIndex.Query query = mIndexQuery;
+            if (query != null) {
+                return query.getMatches();
+            }
+
             Object[] e = ((LogCatMessageList) model).toArray();
             return e;
         }
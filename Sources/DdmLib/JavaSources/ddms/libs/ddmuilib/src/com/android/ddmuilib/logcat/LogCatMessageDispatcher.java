@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers logcat messages to {@link ILogCatMessageEventListener}s on a separate thread,
+ * at most once per frame interval.
+ * <p/>
+ * Batches posted by the logcat receiver thread are only appended to a pending list, so that
+ * a slow listener never blocks the adb read loop. All the batches posted during a frame
+ * interval are merged and delivered as a single list. If listeners fall so far behind that
+ * more than {@link #setMaxPendingMessages(int)} messages are pending, the oldest pending
+ * messages are dropped: they have already been evicted from the message FIFO anyway.
+ */
+public final class LogCatMessageDispatcher {
+    /** Default minimum delay between two deliveries, about 30 frames per second. */
+    public static final long DEFAULT_INTERVAL_MSEC = 33;
+
+    private final Set<ILogCatMessageEventListener> mListeners =
+            new CopyOnWriteArraySet<ILogCatMessageEventListener>();
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final long mIntervalNanos;
+
+    private final Object mLock = new Object();
+    private ArrayList<LogCatMessage> mPending = new ArrayList<LogCatMessage>();
+    private int mPendingBatches;
+    private int mMaxPendingMessages;
+    private boolean mDeliveryScheduled;
+    private boolean mDisposed;
+    private long mLastDeliveryNanos;
+
+    private final AtomicLong mPostedBatches = new AtomicLong();
+    private final AtomicLong mDeliveries = new AtomicLong();
+    private final AtomicLong mMergedBatches = new AtomicLong();
+    private final AtomicLong mDroppedMessages = new AtomicLong();
+
+    private final Runnable mDeliverTask = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    /**
+     * Construct a dispatcher.
+     * @param name name of the delivery thread
+     * @param intervalMsec minimum delay between two deliveries
+     * @param maxPendingMessages maximum number of messages waiting for delivery
+     */
+    public LogCatMessageDispatcher(final String name, long intervalMsec,
+            int maxPendingMessages) {
+        mIntervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMsec);
+        mMaxPendingMessages = maxPendingMessages;
+        mLastDeliveryNanos = System.nanoTime() - mIntervalNanos;
+
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public void addListener(ILogCatMessageEventListener l) {
+        mListeners.add(l);
+    }
+
+    public void removeListener(ILogCatMessageEventListener l) {
+        mListeners.remove(l);
+    }
+
+    /**
+     * Set the maximum number of messages waiting for delivery. Older messages are
+     * dropped beyond that.
+     */
+    public void setMaxPendingMessages(int max) {
+        synchronized (mLock) {
+            mMaxPendingMessages = max;
+            trimPending();
+        }
+    }
+
+    /**
+     * Queue a batch of messages for delivery. This never blocks on the listeners.
+     * @param messages the messages, which must not be modified afterwards
+     */
+    public void post(List<LogCatMessage> messages) {
+        mPostedBatches.incrementAndGet();
+
+        synchronized (mLock) {
+            if (mDisposed) {
+                return;
+            }
+
+            mPending.addAll(messages);
+            mPendingBatches++;
+            trimPending();
+
+            if (!mDeliveryScheduled) {
+                mDeliveryScheduled = true;
+                long delay = mLastDeliveryNanos + mIntervalNanos - System.nanoTime();
+                mExecutor.schedule(mDeliverTask, Math.max(0, delay), TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /** Drop the oldest pending messages beyond the maximum. Must hold {@link #mLock}. */
+    private void trimPending() {
+        int excess = mPending.size() - mMaxPendingMessages;
+        if (mMaxPendingMessages > 0 && excess > 0) {
+            mPending.subList(0, excess).clear();
+            mDroppedMessages.addAndGet(excess);
+        }
+    }
+
+    private void deliver() {
+        List<LogCatMessage> messages;
+        int batches;
+
+        synchronized (mLock) {
+            messages = mPending;
+            batches = mPendingBatches;
+            mPending = new ArrayList<LogCatMessage>();
+            mPendingBatches = 0;
+            mDeliveryScheduled = false;
+            mLastDeliveryNanos = System.nanoTime();
+        }
+
+        if (batches == 0 || messages.isEmpty()) {
+            return;
+        }
+
+        mDeliveries.incrementAndGet();
+        mMergedBatches.addAndGet(batches - 1);
+
+        for (ILogCatMessageEventListener l : mListeners) {
+            try {
+                l.messageReceived(messages);
+            } catch (RuntimeException e) {
+                // do not let a faulty listener kill the delivery thread
+                Log.e("LogCat", e);
+            }
+        }
+    }
+
+    /**
+     * Stop delivering messages. Pending messages are discarded.
+     */
+    public void dispose() {
+        synchronized (mLock) {
+            mDisposed = true;
+            mPending.clear();
+            mPendingBatches = 0;
+        }
+        mExecutor.shutdownNow();
+        mListeners.clear();
+
+        if (mDroppedMessages.get() > 0) {
+            Log.d("LogCat", String.format(
+                    "%1$d batches posted, %2$d merged, %3$d messages dropped", //$NON-NLS-1$
+                    mPostedBatches.get(), mMergedBatches.get(), mDroppedMessages.get()));
+        }
+    }
+
+    /** Returns the number of batches posted by the receiver. */
+    public long getPostedBatchCount() {
+        return mPostedBatches.get();
+    }
+
+    /** Returns the number of times the listeners were notified. */
+    public long getDeliveryCount() {
+        return mDeliveries.get();
+    }
+
+    /** Returns the number of batches that were merged into another one before delivery. */
+    public long getMergedBatchCount() {
+        return mMergedBatches.get();
+    }
+
+    /** Returns the number of messages that were dropped before they could be delivered. */
+    public long getDroppedMessageCount() {
+        return mDroppedMessages.get();
+    }
+}
@@ -0,0 +1,484 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * An inverted index over the text and tag fields of the logcat messages held by a
+ * {@link LogCatReceiver}. Every message appended to the index is given a sequence number,
+ * and each word (maximal run of letters and digits, lower cased) of its tag and text is
+ * mapped to the list of sequence numbers of the messages containing it.
+ * <p/>
+ * The index keeps the same FIFO semantics as {@link LogCatMessageList}: once the capacity
+ * is reached, the oldest message is evicted. Postings of evicted messages are trimmed lazily.
+ * <p/>
+ * Searches are done through a {@link Query} built from a list of {@link LogCatFilter}s. The
+ * literal parts of the filters' tag and text regexes are used to compute a set of candidate
+ * messages from the postings, and only those candidates are then matched against the filters.
+ */
+public final class LogCatMessageIndex {
+    /** Preference key to enable indexing of the logcat messages. */
+    public static final String INDEX_ENABLED_PREFKEY = "logcat.messagelist.index.enabled";
+
+    /** Default value for whether the logcat messages are indexed. */
+    public static final boolean INDEX_ENABLED_DEFAULT = false;
+
+    /** Characters which prevent extracting required literals out of a regex. */
+    private static final String UNSUPPORTED_REGEX_CHARS = "|()[]{}\\"; //$NON-NLS-1$
+
+    /** Characters of a regex which never match themselves. */
+    private static final String REGEX_META_CHARS = ".^$*+?"; //$NON-NLS-1$
+
+    private LogCatMessage[] mMessages;
+    private int mFirstSeq;
+    private int mNextSeq;
+    private int mEvictedSincePurge;
+
+    /** Incremented whenever sequence numbers given out so far become invalid. */
+    private int mGeneration;
+
+    private final Map<String, Postings> mTextPostings = new HashMap<String, Postings>();
+    private final Map<String, Postings> mTagPostings = new HashMap<String, Postings>();
+    private final StringBuilder mTokenBuilder = new StringBuilder();
+
+    /**
+     * Construct an empty index.
+     * @param maxMessages capacity of the index, this should match the capacity of the
+     * {@link LogCatMessageList} it accompanies.
+     */
+    public LogCatMessageIndex(int maxMessages) {
+        mMessages = new LogCatMessage[maxMessages];
+    }
+
+    /**
+     * Add a message to the index. If the index is full, the oldest message is evicted.
+     * @param m message to index
+     */
+    public synchronized void appendMessage(LogCatMessage m) {
+        if (mNextSeq == Integer.MAX_VALUE) {
+            renumber();
+        }
+
+        if (mNextSeq - mFirstSeq == mMessages.length) {
+            evictOldest();
+        }
+
+        int seq = mNextSeq++;
+        mMessages[seq % mMessages.length] = m;
+        addTokens(mTextPostings, m.getMessage(), seq);
+        addTokens(mTagPostings, m.getTag(), seq);
+    }
+
+    /**
+     * Resize the index, keeping the most recent messages.
+     * @param n new capacity
+     */
+    public synchronized void resize(int n) {
+        LogCatMessage[] messages = new LogCatMessage[n];
+        int first = Math.max(mFirstSeq, mNextSeq - n);
+        for (int seq = first; seq < mNextSeq; seq++) {
+            messages[seq % n] = mMessages[seq % mMessages.length];
+        }
+
+        mMessages = messages;
+        mEvictedSincePurge += first - mFirstSeq;
+        mFirstSeq = first;
+        purgeIfNeeded();
+    }
+
+    /**
+     * Remove all messages from the index.
+     */
+    public synchronized void clear() {
+        mMessages = new LogCatMessage[mMessages.length];
+        mTextPostings.clear();
+        mTagPostings.clear();
+        mFirstSeq = mNextSeq = 0;
+        mEvictedSincePurge = 0;
+        mGeneration++;
+    }
+
+    /**
+     * Returns the number of messages currently in the index.
+     */
+    public synchronized int size() {
+        return mNextSeq - mFirstSeq;
+    }
+
+    /**
+     * Returns whether the index can narrow down the messages matching the given filters,
+     * i.e. whether at least one of them has a tag or text regex with a required literal.
+     * If not, searching through the index is no faster than a linear scan.
+     */
+    public static boolean canSearch(List<LogCatFilter> filters) {
+        for (LogCatFilter f : filters) {
+            if (getRequiredLiterals(f.getTextPattern()) != null
+                    || getRequiredLiterals(f.getTagPattern()) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Create a query matching messages accepted by all the given filters. The query is
+     * evaluated incrementally: each call to {@link Query#getMatches()} only looks at the
+     * messages appended since the previous call.
+     * @param filters filters that messages should match
+     */
+    public Query newQuery(List<LogCatFilter> filters) {
+        return new Query(filters);
+    }
+
+    /**
+     * A search over the index. See {@link LogCatMessageIndex#newQuery(List)}.
+     */
+    public final class Query {
+        private final List<LogCatFilter> mFilters;
+
+        private int mQueryGeneration = -1;
+
+        /** All messages with a sequence number below this have been evaluated. */
+        private int mEvaluatedSeq;
+
+        /** Sequence numbers of the matching messages, in increasing order. */
+        private int[] mMatches = new int[16];
+        private int mStart;
+        private int mEnd;
+
+        private Query(List<LogCatFilter> filters) {
+            mFilters = new ArrayList<LogCatFilter>(filters);
+        }
+
+        /**
+         * Obtain the messages currently in the index matching this query.
+         * @return array of the matching messages, oldest first
+         */
+        public LogCatMessage[] getMatches() {
+            synchronized (LogCatMessageIndex.this) {
+                if (mQueryGeneration != mGeneration) {
+                    mQueryGeneration = mGeneration;
+                    mEvaluatedSeq = mFirstSeq;
+                    mStart = mEnd = 0;
+                }
+
+                /* drop matches that have been evicted */
+                while (mStart < mEnd && mMatches[mStart] < mFirstSeq) {
+                    mStart++;
+                }
+                mEvaluatedSeq = Math.max(mEvaluatedSeq, mFirstSeq);
+
+                if (mEvaluatedSeq < mNextSeq) {
+                    evaluate(mEvaluatedSeq, mNextSeq);
+                    mEvaluatedSeq = mNextSeq;
+                }
+
+                LogCatMessage[] result = new LogCatMessage[mEnd - mStart];
+                for (int i = mStart; i < mEnd; i++) {
+                    result[i - mStart] = mMessages[mMatches[i] % mMessages.length];
+                }
+                return result;
+            }
+        }
+
+        private void evaluate(int from, int to) {
+            BitSet candidates = new BitSet(to - from);
+            candidates.set(0, to - from);
+
+            for (LogCatFilter f : mFilters) {
+                restrictCandidates(candidates, mTextPostings, f.getTextPattern(), from, to);
+                restrictCandidates(candidates, mTagPostings, f.getTagPattern(), from, to);
+            }
+
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                int seq = from + i;
+                if (matchesAll(mMessages[seq % mMessages.length])) {
+                    addMatch(seq);
+                }
+            }
+        }
+
+        private boolean matchesAll(LogCatMessage m) {
+            for (LogCatFilter f : mFilters) {
+                if (!f.matches(m)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void addMatch(int seq) {
+            if (mEnd == mMatches.length) {
+                if (mStart > mMatches.length / 2) {
+                    System.arraycopy(mMatches, mStart, mMatches, 0, mEnd - mStart);
+                } else {
+                    int[] matches = new int[mMatches.length * 2];
+                    System.arraycopy(mMatches, mStart, matches, 0, mEnd - mStart);
+                    mMatches = matches;
+                }
+                mEnd -= mStart;
+                mStart = 0;
+            }
+            mMatches[mEnd++] = seq;
+        }
+    }
+
+    /**
+     * Intersect the candidate set with the messages that may match the given pattern.
+     * Candidate bit i stands for the message with sequence number from + i.
+     */
+    private void restrictCandidates(BitSet candidates, Map<String, Postings> postings,
+            Pattern p, int from, int to) {
+        List<String> literals = getRequiredLiterals(p);
+        if (literals == null) {
+            return;
+        }
+
+        for (String literal : literals) {
+            int i = 0;
+            while (i < literal.length()) {
+                if (!Character.isLetterOrDigit(literal.charAt(i))) {
+                    i++;
+                    continue;
+                }
+
+                int start = i;
+                while (i < literal.length() && Character.isLetterOrDigit(literal.charAt(i))) {
+                    i++;
+                }
+
+                String word = toLowerCase(literal, start, i);
+                boolean boundedLeft = start > 0;
+                boolean boundedRight = i < literal.length();
+
+                BitSet matches = new BitSet(to - from);
+                if (boundedLeft && boundedRight) {
+                    Postings exact = postings.get(word);
+                    if (exact != null) {
+                        exact.collect(matches, from, to);
+                    }
+                } else {
+                    for (Map.Entry<String, Postings> e : postings.entrySet()) {
+                        String token = e.getKey();
+                        boolean match;
+                        if (boundedLeft) {
+                            match = token.startsWith(word);
+                        } else if (boundedRight) {
+                            match = token.endsWith(word);
+                        } else {
+                            match = token.contains(word);
+                        }
+                        if (match) {
+                            e.getValue().collect(matches, from, to);
+                        }
+                    }
+                }
+
+                candidates.and(matches);
+            }
+        }
+    }
+
+    /**
+     * Obtain the literal strings that any text found by the given pattern must contain.
+     * Only simple regexes are analyzed: the ones using alternation, groups, character
+     * classes, escapes or bounded repetition yield no literals.
+     * @return list of required literals, null if there are none or they cannot be determined
+     */
+    static List<String> getRequiredLiterals(Pattern p) {
+        if (p == null) {
+            return null;
+        }
+
+        String regex = p.pattern();
+        for (int i = 0; i < regex.length(); i++) {
+            if (UNSUPPORTED_REGEX_CHARS.indexOf(regex.charAt(i)) != -1) {
+                return null;
+            }
+        }
+
+        List<String> literals = new ArrayList<String>();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            char next = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+
+            // a character followed by '*' or '?' is optional, and therefore ends the literal
+            if (REGEX_META_CHARS.indexOf(c) != -1 || next == '*' || next == '?') {
+                addLiteral(literals, sb);
+            } else {
+                sb.append(c);
+            }
+        }
+        addLiteral(literals, sb);
+
+        return literals.isEmpty() ? null : literals;
+    }
+
+    private static void addLiteral(List<String> literals, StringBuilder sb) {
+        for (int i = 0; i < sb.length(); i++) {
+            if (Character.isLetterOrDigit(sb.charAt(i))) {
+                literals.add(sb.toString());
+                break;
+            }
+        }
+        sb.setLength(0);
+    }
+
+    /**
+     * Lower cases a word of a query the way {@link #addTokens(Map, String, int)} lower cases
+     * the words of the messages: one char at a time, independently of the default locale.
+     */
+    private static String toLowerCase(String s, int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            sb.append(Character.toLowerCase(s.charAt(i)));
+        }
+        return sb.toString();
+    }
+
+    private void addTokens(Map<String, Postings> postings, String s, int seq) {
+        StringBuilder sb = mTokenBuilder;
+        int n = s.length();
+        for (int i = 0; i <= n; i++) {
+            char c = i < n ? s.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            } else if (sb.length() > 0) {
+                String token = sb.toString();
+                Postings p = postings.get(token);
+                if (p == null) {
+                    p = new Postings();
+                    postings.put(token, p);
+                }
+                p.add(seq);
+                sb.setLength(0);
+            }
+        }
+    }
+
+    private void evictOldest() {
+        mMessages[mFirstSeq % mMessages.length] = null;
+        mFirstSeq++;
+        mEvictedSincePurge++;
+        purgeIfNeeded();
+    }
+
+    /**
+     * Trim postings of evicted messages once a full capacity worth of messages has been
+     * evicted, so that the cost is amortized over the appended messages.
+     */
+    private void purgeIfNeeded() {
+        if (mEvictedSincePurge < mMessages.length) {
+            return;
+        }
+
+        purge(mTextPostings);
+        purge(mTagPostings);
+        mEvictedSincePurge = 0;
+    }
+
+    private void purge(Map<String, Postings> postings) {
+        Iterator<Postings> it = postings.values().iterator();
+        while (it.hasNext()) {
+            Postings p = it.next();
+            p.trim(mFirstSeq);
+            if (p.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    /** Re-index the current messages from sequence number 0 on, to avoid overflowing. */
+    private void renumber() {
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>(mNextSeq - mFirstSeq);
+        for (int seq = mFirstSeq; seq < mNextSeq; seq++) {
+            messages.add(mMessages[seq % mMessages.length]);
+        }
+
+        clear();
+        for (LogCatMessage m : messages) {
+            appendMessage(m);
+        }
+    }
+
+    /** Sorted list of sequence numbers of the messages containing a given token. */
+    private static final class Postings {
+        private int[] mSeqs = new int[4];
+        private int mStart;
+        private int mEnd;
+
+        void add(int seq) {
+            if (mEnd > mStart && mSeqs[mEnd - 1] == seq) {
+                /* token occurs more than once in the same message */
+                return;
+            }
+
+            if (mEnd == mSeqs.length) {
+                int[] seqs = new int[Math.max(4, (mEnd - mStart) * 2)];
+                System.arraycopy(mSeqs, mStart, seqs, 0, mEnd - mStart);
+                mSeqs = seqs;
+                mEnd -= mStart;
+                mStart = 0;
+            }
+            mSeqs[mEnd++] = seq;
+        }
+
+        void trim(int firstSeq) {
+            mStart = lowerBound(firstSeq);
+            if (mStart > mSeqs.length / 2) {
+                int[] seqs = new int[Math.max(4, (mEnd - mStart) * 2)];
+                System.arraycopy(mSeqs, mStart, seqs, 0, mEnd - mStart);
+                mSeqs = seqs;
+                mEnd -= mStart;
+                mStart = 0;
+            }
+        }
+
+        boolean isEmpty() {
+            return mStart == mEnd;
+        }
+
+        /** Set the bits for the postings in [from, to), relative to from. */
+        void collect(BitSet bits, int from, int to) {
+            for (int i = lowerBound(from); i < mEnd && mSeqs[i] < to; i++) {
+                bits.set(mSeqs[i] - from);
+            }
+        }
+
+        private int lowerBound(int seq) {
+            int lo = mStart;
+            int hi = mEnd;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (mSeqs[mid] < seq) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+}
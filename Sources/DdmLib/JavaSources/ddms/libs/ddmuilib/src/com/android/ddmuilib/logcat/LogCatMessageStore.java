@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log;
+import com.android.ddmlib.Log.LogLevel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only, disk backed history of logcat messages.
+ * <p/>
+ * Messages are serialized into fixed size segment files which are memory-mapped, so that
+ * the history does not live on the Java heap. Each message is given a sequence number, and
+ * every segment keeps a sparse index of the offsets and times of every
+ * {@link #INDEX_INTERVAL}th message, which is the only per-message data kept in memory.
+ * Once the total size of the segments exceeds the configured maximum, the oldest segment
+ * is deleted.
+ */
+public final class LogCatMessageStore {
+    /** Preference key to enable the on disk logcat history. */
+    public static final String HISTORY_ENABLED_PREFKEY = "logcat.history.enabled";
+
+    /** Default value for whether the logcat history is kept on disk. */
+    public static final boolean HISTORY_ENABLED_DEFAULT = false;
+
+    /** Preference key for the maximum size of the on disk history, in MB. */
+    public static final String HISTORY_MAX_MB_PREFKEY = "logcat.history.max.mb";
+
+    /** Default value for the maximum size of the on disk history, in MB. */
+    public static final int HISTORY_MAX_MB_DEFAULT = 512;
+
+    private static final String LOG_TAG = "LogCatMessageStore"; //$NON-NLS-1$
+    private static final String SEGMENT_SUFFIX = ".seg"; //$NON-NLS-1$
+
+    private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int INDEX_INTERVAL = 64;
+
+    /** Largest message text kept, in bytes, so that any record fits in a segment. */
+    private static final int MAX_STRING_SIZE = 64 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    private final List<Segment> mSegments = new ArrayList<Segment>();
+    private long mNextSeq;
+    private int mNextSegmentId;
+
+    /**
+     * Create a message store writing its segments in the given directory.
+     * @param directory directory in which to create the segment files. It is created if needed.
+     * @param maxBytes maximum size of the history on disk, 0 or less for no limit.
+     */
+    public LogCatMessageStore(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        mDirectory.mkdirs();
+    }
+
+    /**
+     * Create a message store in a new temporary directory.
+     * @param prefix prefix for the name of the temporary directory
+     * @param maxBytes maximum size of the history on disk, 0 or less for no limit.
+     */
+    public static LogCatMessageStore createTemporary(String prefix, long maxBytes)
+            throws IOException {
+        File f = File.createTempFile(prefix, null);
+        if (!f.delete() || !f.mkdir()) {
+            throw new IOException("Unable to create directory " + f.getAbsolutePath());
+        }
+        f.deleteOnExit();
+        return new LogCatMessageStore(f, maxBytes);
+    }
+
+    /**
+     * Append a message to the store.
+     * @return the sequence number of the message
+     */
+    public synchronized long appendMessage(LogCatMessage m) throws IOException {
+        byte[] pid = encode(m.getPid());
+        byte[] app = encode(m.getAppName());
+        byte[] tag = encode(m.getTag());
+        byte[] time = encode(m.getTime());
+        byte[] msg = encode(m.getMessage());
+
+        int size = 4 + 1 + 4 * 5 + pid.length + app.length + tag.length + time.length
+                + msg.length;
+
+        Segment s = mSegments.isEmpty() ? null : mSegments.get(mSegments.size() - 1);
+        if (s == null || s.mBuffer.remaining() < size) {
+            s = newSegment();
+        }
+
+        if (s.mCount % INDEX_INTERVAL == 0) {
+            s.addIndexEntry(s.mBuffer.position(), m.getTime());
+        }
+
+        ByteBuffer b = s.mBuffer;
+        b.putInt(size);
+        b.put((byte) m.getLogLevel().getPriorityLetter());
+        put(b, pid);
+        put(b, app);
+        put(b, tag);
+        put(b, time);
+        put(b, msg);
+        s.mCount++;
+
+        return mNextSeq++;
+    }
+
+    /** Returns the sequence number of the oldest message in the store. */
+    public synchronized long getFirstSequence() {
+        return mSegments.isEmpty() ? mNextSeq : mSegments.get(0).mFirstSeq;
+    }
+
+    /** Returns the sequence number the next appended message will get. */
+    public synchronized long getNextSequence() {
+        return mNextSeq;
+    }
+
+    /** Returns the number of messages in the store. */
+    public synchronized long size() {
+        return mNextSeq - getFirstSequence();
+    }
+
+    /**
+     * Read messages from the store.
+     * @param fromSeq sequence number of the first message to read. If the message is no
+     * longer in the store, reading starts from the oldest message.
+     * @param count maximum number of messages to read
+     * @return the messages read, in order
+     */
+    public synchronized List<LogCatMessage> getMessages(long fromSeq, int count) {
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>(Math.max(0,
+                (int) Math.min(count, mNextSeq - fromSeq)));
+
+        long seq = Math.max(fromSeq, getFirstSequence());
+        int segIndex = findSegment(seq);
+        while (segIndex >= 0 && segIndex < mSegments.size() && messages.size() < count) {
+            Segment s = mSegments.get(segIndex);
+            ByteBuffer b = s.mBuffer.duplicate();
+            b.position(s.seek(seq));
+
+            int n = (int) Math.min(count - messages.size(), s.mFirstSeq + s.mCount - seq);
+            for (int i = 0; i < n; i++) {
+                messages.add(decode(b));
+            }
+
+            seq += n;
+            segIndex++;
+        }
+
+        return messages;
+    }
+
+    /**
+     * Find the first message logged at or after the given time. This relies on the
+     * format of the time of {@code logcat -v long} messages, which sort lexicographically
+     * within a year.
+     * @param time time in the format used by {@link LogCatMessage#getTime()}
+     * @return sequence number of the message, or {@link #getNextSequence()} if none
+     */
+    public synchronized long findSequence(String time) {
+        for (Segment s : mSegments) {
+            int block = s.findBlock(time);
+            if (block == -1) {
+                continue;
+            }
+
+            long seq = s.mFirstSeq + (long) block * INDEX_INTERVAL;
+            ByteBuffer b = s.mBuffer.duplicate();
+            b.position(s.mIndexOffsets[block]);
+            for (long end = s.mFirstSeq + s.mCount; seq < end; seq++) {
+                if (decode(b).getTime().compareTo(time) >= 0) {
+                    return seq;
+                }
+            }
+        }
+
+        return mNextSeq;
+    }
+
+    /**
+     * Remove all messages from the store and delete its segment files.
+     */
+    public synchronized void clear() {
+        for (Segment s : mSegments) {
+            s.delete();
+        }
+        mSegments.clear();
+    }
+
+    /**
+     * Clear the store and delete its directory. The store must not be used afterwards.
+     */
+    public synchronized void dispose() {
+        clear();
+        mDirectory.delete();
+    }
+
+    private Segment newSegment() throws IOException {
+        if (!mSegments.isEmpty()) {
+            mSegments.get(mSegments.size() - 1).seal();
+        }
+
+        File f = new File(mDirectory, String.format("%08d%s", //$NON-NLS-1$
+                mNextSegmentId++, SEGMENT_SUFFIX));
+        Segment s = new Segment(f, mNextSeq);
+        mSegments.add(s);
+
+        // enforce the retention limit, but always keep the segment being written to
+        while (mMaxBytes > 0 && mSegments.size() > 1
+                && (long) mSegments.size() * SEGMENT_SIZE > mMaxBytes) {
+            mSegments.remove(0).delete();
+        }
+
+        return s;
+    }
+
+    /** Returns the index of the segment holding the given sequence number, or -1. */
+    private int findSegment(long seq) {
+        int lo = 0;
+        int hi = mSegments.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            Segment s = mSegments.get(mid);
+            if (seq < s.mFirstSeq) {
+                hi = mid - 1;
+            } else if (seq >= s.mFirstSeq + s.mCount) {
+                lo = mid + 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] encode(String s) {
+        byte[] b = s.getBytes(UTF8);
+        if (b.length > MAX_STRING_SIZE) {
+            byte[] truncated = new byte[MAX_STRING_SIZE];
+            System.arraycopy(b, 0, truncated, 0, MAX_STRING_SIZE);
+            return truncated;
+        }
+        return b;
+    }
+
+    private static void put(ByteBuffer b, byte[] s) {
+        b.putInt(s.length);
+        b.put(s);
+    }
+
+    private static String getString(ByteBuffer b) {
+        byte[] s = new byte[b.getInt()];
+        b.get(s);
+        return new String(s, UTF8);
+    }
+
+    private static LogCatMessage decode(ByteBuffer b) {
+        b.getInt(); // record size
+        LogLevel level = LogLevel.getByLetter((char) b.get());
+        String pid = getString(b);
+        String app = getString(b);
+        String tag = getString(b);
+        String time = getString(b);
+        String msg = getString(b);
+        return new LogCatMessage(level, pid, app, tag, time, msg);
+    }
+
+    /** A memory-mapped segment file holding consecutive messages. */
+    private static final class Segment {
+        private final File mFile;
+        private final RandomAccessFile mRaf;
+        private final long mFirstSeq;
+        private MappedByteBuffer mBuffer;
+        private int mCount;
+
+        private int[] mIndexOffsets = new int[64];
+        private String[] mIndexTimes = new String[64];
+        private int mIndexSize;
+
+        Segment(File f, long firstSeq) throws IOException {
+            mFile = f;
+            mFirstSeq = firstSeq;
+            mRaf = new RandomAccessFile(f, "rw"); //$NON-NLS-1$
+            mBuffer = mRaf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        }
+
+        void addIndexEntry(int offset, String time) {
+            if (mIndexSize == mIndexOffsets.length) {
+                int[] offsets = new int[mIndexSize * 2];
+                System.arraycopy(mIndexOffsets, 0, offsets, 0, mIndexSize);
+                mIndexOffsets = offsets;
+                String[] times = new String[mIndexSize * 2];
+                System.arraycopy(mIndexTimes, 0, times, 0, mIndexSize);
+                mIndexTimes = times;
+            }
+            mIndexOffsets[mIndexSize] = offset;
+            mIndexTimes[mIndexSize] = time;
+            mIndexSize++;
+        }
+
+        /** Returns the buffer offset of the message with the given sequence number. */
+        int seek(long seq) {
+            int rel = (int) (seq - mFirstSeq);
+            ByteBuffer b = mBuffer.duplicate();
+            int offset = mIndexOffsets[rel / INDEX_INTERVAL];
+            for (int i = rel % INDEX_INTERVAL; i > 0; i--) {
+                offset += b.getInt(offset);
+            }
+            return offset;
+        }
+
+        /**
+         * Returns the index block which may hold the first message at or after the given
+         * time, or -1 if all messages in this segment are older.
+         */
+        int findBlock(String time) {
+            if (mIndexSize == 0) {
+                return -1;
+            }
+
+            int lo = 0;
+            int hi = mIndexSize - 1;
+            while (lo < hi) {
+                // find the last block starting strictly before the given time
+                int mid = (lo + hi + 1) >>> 1;
+                if (mIndexTimes[mid].compareTo(time) < 0) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+
+            if (lo == mIndexSize - 1) {
+                // the answer may lie in this last block or in a later segment
+                ByteBuffer b = mBuffer.duplicate();
+                b.position(mIndexOffsets[lo]);
+                int n = mCount - lo * INDEX_INTERVAL;
+                for (int i = 0; i < n; i++) {
+                    if (decode(b).getTime().compareTo(time) >= 0) {
+                        return lo;
+                    }
+                }
+                return -1;
+            }
+            return lo;
+        }
+
+        /** Called once no more messages will be written to this segment. */
+        void seal() {
+            mBuffer.force();
+        }
+
+        void delete() {
+            try {
+                mRaf.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, e);
+            }
+
+            // The mapping is only released once the buffer is garbage collected, which
+            // prevents the deletion on some platforms. Retry on exit in that case.
+            mBuffer = null;
+            if (!mFile.delete()) {
+                mFile.deleteOnExit();
+            }
+        }
+    }
+}
@@ -35,6 +35,7 @@ import org.eclipse.jface.viewers.ColumnViewerToolTipSupport;
 import org.eclipse.jface.viewers.TableViewer;
 import org.eclipse.jface.viewers.TableViewerColumn;
 import org.eclipse.jface.viewers.ViewerCell;
+import org.eclipse.jface.viewers.ViewerFilter;
 import org.eclipse.jface.window.ToolTip;
 import org.eclipse.jface.window.Window;
 import org.eclipse.swt.SWT;
@@ -122,6 +123,7 @@ public final class LogCatPanel extends SelectionDependentPanel
     private static final String IMAGE_CLEAR_LOG = "clear.png"; //$NON-NLS-1$
     private static final String IMAGE_DISPLAY_FILTERS = "displayfilters.png"; //$NON-NLS-1$
     private static final String IMAGE_PAUSE_LOGCAT = "pause_logcat.png"; //$NON-NLS-1$
+    private static final String IMAGE_SHOW_HISTORY = "backward.png"; //$NON-NLS-1$
 
     private static final int[] WEIGHTS_SHOW_FILTERS = new int[] {15, 85};
     private static final int[] WEIGHTS_LOGCAT_ONLY = new int[] {0, 100};
@@ -141,6 +143,10 @@ public final class LogCatPanel extends SelectionDependentPanel
     private Text mLiveFilterText;
 
     private TableViewer mViewer;
+    private LogCatMessageContentProvider mContentProvider;
+    private LogCatHistoryContentProvider mHistoryContentProvider;
+    private boolean mShowHistory;
+    private ToolItem mShowHistoryToolItem;
 
     private boolean mShouldScrollToLatestLog = true;
     private ToolItem mPauseLogcatCheckBox;
@@ -186,6 +192,12 @@ public final class LogCatPanel extends SelectionDependentPanel
         mPrefStore.setDefault(LogCatMessageList.MAX_MESSAGES_PREFKEY,
                 LogCatMessageList.MAX_MESSAGES_DEFAULT);
         mPrefStore.setDefault(DISPLAY_FILTERS_COLUMN_PREFKEY, true);
+        mPrefStore.setDefault(LogCatMessageIndex.INDEX_ENABLED_PREFKEY,
+                LogCatMessageIndex.INDEX_ENABLED_DEFAULT);
+        mPrefStore.setDefault(LogCatMessageStore.HISTORY_ENABLED_PREFKEY,
+                LogCatMessageStore.HISTORY_ENABLED_DEFAULT);
+        mPrefStore.setDefault(LogCatMessageStore.HISTORY_MAX_MB_PREFKEY,
+                LogCatMessageStore.HISTORY_MAX_MB_DEFAULT);
     }
 
     private void initializePreferenceUpdateListeners() {
@@ -243,7 +255,7 @@ public final class LogCatPanel extends SelectionDependentPanel
 
         mReceiver = LogCatReceiverFactory.INSTANCE.newReceiver(device, mPrefStore);
         mReceiver.addMessageReceivedEventListener(this);
-        mViewer.setInput(mReceiver.getMessages());
+        setShowHistory(mShowHistory);
 
         // Always scroll to last line whenever the selected device changes.
         // Run this in a separate async thread to give the table some time to update after the
@@ -575,6 +587,19 @@ public final class LogCatPanel extends SelectionDependentPanel
             }
         });
 
+        mShowHistoryToolItem = new ToolItem(toolBar, SWT.CHECK);
+        mShowHistoryToolItem.setImage(
+                ImageLoader.getDdmUiLibLoader().loadImage(IMAGE_SHOW_HISTORY,
+                        toolBar.getDisplay()));
+        mShowHistoryToolItem.setSelection(false);
+        mShowHistoryToolItem.setToolTipText("Browse full logcat history (unfiltered).");
+        mShowHistoryToolItem.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent event) {
+                setShowHistory(mShowHistoryToolItem.getSelection());
+            }
+        });
+
         mPauseLogcatCheckBox = new ToolItem(toolBar, SWT.CHECK);
         mPauseLogcatCheckBox.setImage(
                 ImageLoader.getDdmUiLibLoader().loadImage(IMAGE_PAUSE_LOGCAT,
@@ -590,6 +615,41 @@ public final class LogCatPanel extends SelectionDependentPanel
         });
     }
 
+    /**
+     * Switch the logcat table between the messages in the receiver's FIFO, and the full
+     * history kept on disk by the receiver. The history can be very large, so it is
+     * displayed through a lazy content provider which does not support filtering.
+     */
+    private void setShowHistory(boolean showHistory) {
+        LogCatMessageStore store = mReceiver != null ? mReceiver.getMessageStore() : null;
+        if (showHistory && store == null) {
+            MessageDialog.openInformation(Display.getCurrent().getActiveShell(),
+                    "Logcat history",
+                    "Logcat history is not being recorded for this device. "
+                            + "Enable it in the logcat preferences and reselect the device.");
+            showHistory = false;
+        }
+
+        mShowHistory = showHistory;
+        mShowHistoryToolItem.setSelection(showHistory);
+        mLiveFilterText.setEnabled(!showHistory);
+        mLiveFilterLevelCombo.setEnabled(!showHistory);
+
+        if (showHistory) {
+            mViewer.setFilters(new ViewerFilter[0]);
+            mViewer.setContentProvider(mHistoryContentProvider);
+            mViewer.setInput(store);
+            mHistoryContentProvider.updateItemCount();
+            scrollToLatestLog();
+        } else {
+            mViewer.setContentProvider(mContentProvider);
+            mViewer.setInput(mReceiver != null ? mReceiver.getMessages() : null);
+
+            // The live filters may be served by the new input's message index.
+            updateAppliedFilters();
+        }
+    }
+
     private void updateFiltersColumn(boolean showFilters) {
         if (showFilters) {
             mSash.setWeights(WEIGHTS_SHOW_FILTERS);
@@ -678,6 +738,17 @@ public final class LogCatPanel extends SelectionDependentPanel
         // Retrieving table item's data can return NULL in case of a virtual table if the item
         // has not been displayed yet.
         Object input = mViewer.getInput();
+        if (input instanceof LogCatMessageStore) {
+            List<LogCatMessage> selectedMessages = new ArrayList<LogCatMessage>(indices.length);
+            for (int i : indices) {
+                LogCatMessage m = mHistoryContentProvider.getMessage(i);
+                if (m != null) {
+                    selectedMessages.add(m);
+                }
+            }
+            return selectedMessages;
+        }
+
         if (!(input instanceof LogCatMessageList)) {
             return Collections.emptyList();
         }
@@ -695,7 +766,7 @@ public final class LogCatPanel extends SelectionDependentPanel
     }
 
     private List<LogCatMessage> applyCurrentFilters(LogCatMessageList msgList) {
-        Object[] items = msgList.toArray();
+        Object[] items = mContentProvider.getElements(msgList);
         List<LogCatMessage> filteredItems = new ArrayList<LogCatMessage>(items.length);
         List<LogCatViewerFilter> filters = getFiltersToApply();
 
@@ -770,7 +841,9 @@ public final class LogCatPanel extends SelectionDependentPanel
 
         mViewer.getTable().setLinesVisible(true); /* zebra stripe the table */
         mViewer.getTable().setHeaderVisible(true);
-        mViewer.setContentProvider(new LogCatMessageContentProvider());
+        mContentProvider = new LogCatMessageContentProvider();
+        mHistoryContentProvider = new LogCatHistoryContentProvider();
+        mViewer.setContentProvider(mContentProvider);
         WrappingToolTipSupport.enableFor(mViewer, ToolTip.NO_RECREATE);
 
         // Set the row height to be sufficient enough to display the current font.
@@ -884,6 +957,9 @@ public final class LogCatPanel extends SelectionDependentPanel
         }
 
         if (scroll) {
+            if (mShowHistory) {
+                mHistoryContentProvider.updateItemCount();
+            }
             mViewer.refresh();
             scrollToLatestLog();
         }
@@ -982,7 +1058,27 @@ public final class LogCatPanel extends SelectionDependentPanel
     }
 
     private void updateAppliedFilters() {
-        List<LogCatViewerFilter> filters = getFiltersToApply();
+        if (mShowHistory) {
+            /* filters are not supported while browsing the history */
+            return;
+        }
+
+        List<LogCatViewerFilter> filters = new ArrayList<LogCatViewerFilter>();
+        filters.add(getSelectedSavedFilter());
+
+        /* if the receiver maintains an index, use it to find messages matching the live
+         * filters instead of matching every message against them. */
+        List<LogCatFilter> liveFilterSettings = getCurrentLiveFilterSettings();
+        LogCatMessageIndex index = mReceiver != null ? mReceiver.getMessageIndex() : null;
+        if (index != null && LogCatMessageIndex.canSearch(liveFilterSettings)) {
+            mContentProvider.setIndexQuery(index.newQuery(liveFilterSettings));
+        } else {
+            mContentProvider.setIndexQuery(null);
+            for (LogCatFilter s : liveFilterSettings) {
+                filters.add(new LogCatViewerFilter(s));
+            }
+        }
+
         mViewer.setFilters(filters.toArray(new LogCatViewerFilter[filters.size()]));
 
         /* whenever filters are changed, the number of displayed logs changes
@@ -1001,16 +1097,19 @@ public final class LogCatPanel extends SelectionDependentPanel
     private List<LogCatViewerFilter> getCurrentLiveFilters() {
         List<LogCatViewerFilter> liveFilters = new ArrayList<LogCatViewerFilter>();
 
-        List<LogCatFilter> liveFilterSettings = LogCatFilter.fromString(
-                mLiveFilterText.getText(),                                  /* current query */
-                LogLevel.getByString(mLiveFilterLevelCombo.getText()));     /* current log level */
-        for (LogCatFilter s : liveFilterSettings) {
+        for (LogCatFilter s : getCurrentLiveFilterSettings()) {
             liveFilters.add(new LogCatViewerFilter(s));
         }
 
         return liveFilters;
     }
 
+    private List<LogCatFilter> getCurrentLiveFilterSettings() {
+        return LogCatFilter.fromString(
+                mLiveFilterText.getText(),                                  /* current query */
+                LogLevel.getByString(mLiveFilterLevelCombo.getText()));     /* current log level */
+    }
+
     private LogCatViewerFilter getSelectedSavedFilter() {
         int index = getSelectedSavedFilterIndex();
         return new LogCatViewerFilter(mLogCatFilters.get(index));
@@ -1090,6 +1189,9 @@ public final class LogCatPanel extends SelectionDependentPanel
             }
 
             if (mShouldScrollToLatestLog) {
+                if (mShowHistory) {
+                    mHistoryContentProvider.updateItemCount();
+                }
                 mViewer.refresh();
                 scrollToLatestLog();
             }
@@ -13,6 +13,7 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
+
 package com.android.ddmuilib.logcat;
 
 import com.android.ddmlib.AndroidDebugBridge;
@@ -21,24 +22,81 @@ import com.android.ddmlib.AndroidDebugBridge.IDeviceChangeListener;
 import com.android.ddmlib.Client;
 import com.android.ddmlib.ClientData;
 import com.android.ddmlib.IDevice;
+import com.android.ddmlib.Log;
+import com.android.ddmlib.MultiLineReceiver;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class maintains a mapping between the PID and the application name for all
  * running apps on a device. It does this by implementing callbacks to two events:
  * {@link AndroidDebugBridge.IDeviceChangeListener} and
  * {@link AndroidDebugBridge.IClientChangeListener}.
+ * <p/>
+ * The mapping is an immutable int keyed table which is atomically replaced on every update,
+ * so that lookups from the logcat receiver thread never lock nor see a partial update.
+ * <p/>
+ * Optionally, pids which are not DDM clients (e.g. native daemons) can be resolved by
+ * running {@code ps} on the device. This is done asynchronously: the lookup returns
+ * {@link #UNKNOWN_APP} until the result of {@code ps} is cached. The runs of {@code ps} of
+ * all the devices share one thread. A name resolved with {@code ps} is evicted when a DDM
+ * client reports the same pid.
  */
 public class LogCatPidToNameMapper {
     /** Default name used when the actual name cannot be determined. */
     public static final String UNKNOWN_APP = "";
 
+    /** Preference key to enable resolving names of non DDM processes with {@code ps}. */
+    public static final String RESOLVE_NATIVE_NAMES_PREFKEY = "logcat.pidmapper.ps.enabled";
+
+    private static final String PS_COMMAND = "ps"; //$NON-NLS-1$
+
+    /** Minimum delay between two runs of {@code ps}, to coalesce unknown pids. */
+    private static final long PS_MIN_INTERVAL_MSEC = 2000;
+
+    /** Runs {@code ps} for all the mappers. */
+    private static final ScheduledExecutorService sPsExecutor =
+            new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "LogCat pid resolver"); //$NON-NLS-1$
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
     private IClientChangeListener mClientChangeListener;
     private IDeviceChangeListener mDeviceChangeListener;
     private IDevice mDevice;
-    private Map<String, String> mPidToName;
+
+    /** Names of the DDM clients. */
+    private final AtomicReference<PidTable> mClientNames =
+            new AtomicReference<PidTable>(PidTable.EMPTY);
+
+    /** Names of other processes, as resolved by {@code ps}. */
+    private final AtomicReference<PidTable> mNativeNames =
+            new AtomicReference<PidTable>(PidTable.EMPTY);
+
+    private volatile boolean mResolveNativeNames;
+    private final AtomicBoolean mPsScheduled = new AtomicBoolean();
+    private volatile long mLastPsTime;
+
+    /** Pids waiting for the next run of {@code ps}. */
+    private final Set<Integer> mPendingPids =
+            Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+    /** Pids which have been looked up with {@code ps} and could not be found. */
+    private final Set<Integer> mUnresolvedPids =
+            Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
 
     public LogCatPidToNameMapper(IDevice device) {
         mDevice = device;
@@ -48,11 +106,17 @@ public class LogCatPidToNameMapper {
         mDeviceChangeListener = constructDeviceChangeListener();
         AndroidDebugBridge.addDeviceChangeListener(mDeviceChangeListener);
 
-        mPidToName = new HashMap<String, String>();
-
         updateClientList(device);
     }
 
+    /**
+     * Enable or disable resolving the names of processes that are not DDM clients
+     * by running {@code ps} on the device.
+     */
+    public void setResolveNativeNames(boolean resolve) {
+        mResolveNativeNames = resolve;
+    }
+
     private IClientChangeListener constructClientChangeListener() {
         return new IClientChangeListener() {
             @Override
@@ -69,12 +133,25 @@ public class LogCatPidToNameMapper {
         String name = cd.getClientDescription();
         if (name != null) {
             int pid = cd.getPid();
-            if (mPidToName != null) {
-                mPidToName.put(Integer.toString(pid), name);
-            }
+            PidTable current;
+            do {
+                current = mClientNames.get();
+            } while (!mClientNames.compareAndSet(current, current.with(pid, name)));
+            evictNativeNames(new int[] { pid }, 1);
         }
     }
 
+    /**
+     * Evicts the names resolved with {@code ps} of the given pids, which now belong to new
+     * DDM clients: the processes which had these pids are gone.
+     */
+    private void evictNativeNames(int[] pids, int count) {
+        PidTable current;
+        do {
+            current = mNativeNames.get();
+        } while (!mNativeNames.compareAndSet(current, current.without(pids, count)));
+    }
+
     private IDeviceChangeListener constructDeviceChangeListener() {
         return new IDeviceChangeListener() {
             @Override
@@ -103,11 +180,12 @@ public class LogCatPidToNameMapper {
             return;
         }
 
-        mPidToName = new HashMap<String, String>();
-        for (Client c : device.getClients()) {
-            ClientData cd = c.getClientData();
+        Client[] clients = device.getClients();
+        int[] pids = new int[clients.length];
+        String[] names = new String[clients.length];
+        for (int i = 0; i < clients.length; i++) {
+            ClientData cd = clients[i].getClientData();
             String name = cd.getClientDescription();
-            int pid = cd.getPid();
 
             /* The name will be null for apps that have just been created.
              * In such a case, we fill in the default name, and wait for the
@@ -117,8 +195,16 @@ public class LogCatPidToNameMapper {
                 name = UNKNOWN_APP;
             }
 
-            mPidToName.put(Integer.toString(pid), name);
+            pids[i] = cd.getPid();
+            names[i] = name;
         }
+
+        mClientNames.set(new PidTable(pids, names, clients.length));
+        evictNativeNames(pids, clients.length);
+
+        /* processes come and go along with the clients, so pids which could not be
+         * resolved earlier may be valid now. */
+        mUnresolvedPids.clear();
     }
 
     /**
@@ -127,7 +213,240 @@ public class LogCatPidToNameMapper {
      * @return application name if available, else {@link LogCatPidToNameMapper#UNKNOWN_APP}.
      */
     public String getName(String pid) {
-        String name = mPidToName.get(pid);
-        return name != null ? name : UNKNOWN_APP;
+        int n = 0;
+        int len = pid.length();
+        if (len == 0 || len > 9) {
+            return UNKNOWN_APP;
+        }
+        for (int i = 0; i < len; i++) {
+            char c = pid.charAt(i);
+            if (c < '0' || c > '9') {
+                return UNKNOWN_APP;
+            }
+            n = n * 10 + (c - '0');
+        }
+        return getName(n);
+    }
+
+    /**
+     * Get the application name corresponding to given pid.
+     * @param pid application's pid
+     * @return application name if available, else {@link LogCatPidToNameMapper#UNKNOWN_APP}.
+     */
+    public String getName(int pid) {
+        String name = mClientNames.get().get(pid);
+        if (name != null) {
+            return name;
+        }
+
+        if (mResolveNativeNames && mDevice != null) {
+            name = mNativeNames.get().get(pid);
+            if (name != null) {
+                return name;
+            }
+
+            Integer key = Integer.valueOf(pid);
+            if (!mUnresolvedPids.contains(key)) {
+                mPendingPids.add(key);
+                schedulePs();
+            }
+        }
+
+        return UNKNOWN_APP;
+    }
+
+    /** Run {@code ps} on a separate thread, unless a run is already pending. */
+    private void schedulePs() {
+        if (!mPsScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        long wait = mLastPsTime + PS_MIN_INTERVAL_MSEC - System.currentTimeMillis();
+        sPsExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runPs();
+                } finally {
+                    mLastPsTime = System.currentTimeMillis();
+                    mPsScheduled.set(false);
+                }
+            }
+        }, Math.max(0, wait), TimeUnit.MILLISECONDS);
+    }
+
+    private void runPs() {
+        final PidTable clients = mClientNames.get();
+        final PidTable previous = mNativeNames.get();
+        final PidTable[] result = new PidTable[] { PidTable.EMPTY };
+
+        try {
+            mDevice.executeShellCommand(PS_COMMAND, new MultiLineReceiver() {
+                @Override
+                public void processNewLines(String[] lines) {
+                    result[0] = parsePsLines(lines, result[0]);
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return false;
+                }
+            });
+        } catch (Exception e) {
+            /* any of the shell command exceptions: keep the previous names, and do not
+             * retry these pids until the client list changes. */
+            Log.w("LogCatPidToNameMapper", "Unable to run ps: " + e.getMessage());
+            result[0] = previous;
+        }
+
+        mNativeNames.set(result[0]);
+
+        /* remember the pids that ps did not know about, so that they do not trigger
+         * a new run of ps for every message they log. */
+        for (Integer pid : mPendingPids) {
+            mPendingPids.remove(pid);
+            if (result[0].get(pid.intValue()) == null && clients.get(pid.intValue()) == null) {
+                mUnresolvedPids.add(pid);
+            }
+        }
+    }
+
+    /**
+     * Parses lines of the output of {@code ps}.
+     * @param lines the lines, possibly including the header line.
+     * @param table the names parsed from the previous lines.
+     * @return a table with the names of <var>table</var> and of the processes of the lines.
+     */
+    static PidTable parsePsLines(String[] lines, PidTable table) {
+        int[] pids = new int[lines.length];
+        String[] names = new String[lines.length];
+        int count = 0;
+        for (String line : lines) {
+            // USER PID PPID VSIZE RSS WCHAN PC S NAME
+            String[] fields = line.trim().split("\\s+"); //$NON-NLS-1$
+            if (fields.length < 3) {
+                continue;
+            }
+            try {
+                pids[count] = Integer.parseInt(fields[1]);
+            } catch (NumberFormatException e) {
+                continue; // header line
+            }
+            names[count++] = fields[fields.length - 1];
+        }
+        return table.withAll(pids, names, count);
+    }
+
+    /**
+     * An immutable open addressing hash table from pid to name.
+     */
+    static final class PidTable {
+        static final PidTable EMPTY = new PidTable(new int[0], new String[0], 0);
+
+        private final int[] mKeys;
+        private final String[] mValues;
+        private final int mSize;
+
+        PidTable(int[] pids, String[] names, int count) {
+            int capacity = 16;
+            while (capacity < count * 2) {
+                capacity <<= 1;
+            }
+            mKeys = new int[capacity];
+            mValues = new String[capacity];
+
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                if (insert(pids[i], names[i])) {
+                    size++;
+                }
+            }
+            mSize = size;
+        }
+
+        /** Returns the name for the given pid, or null. */
+        String get(int pid) {
+            int mask = mKeys.length - 1;
+            for (int i = hash(pid) & mask; mValues[i] != null; i = (i + 1) & mask) {
+                if (mKeys[i] == pid) {
+                    return mValues[i];
+                }
+            }
+            return null;
+        }
+
+        /** Returns a copy of this table with the given mapping added or replaced. */
+        PidTable with(int pid, String name) {
+            return withAll(new int[] { pid }, new String[] { name }, 1);
+        }
+
+        /** Returns the number of pids in this table. */
+        int size() {
+            return mSize;
+        }
+
+        /** Returns a copy of this table without the given pids, or this table if it has none. */
+        PidTable without(int[] pids, int count) {
+            int removed = 0;
+            for (int i = 0; i < count; i++) {
+                if (get(pids[i]) != null) {
+                    removed++;
+                }
+            }
+            if (removed == 0) {
+                return this;
+            }
+
+            String[] marks = new String[count];
+            Arrays.fill(marks, UNKNOWN_APP);
+            PidTable removedPids = new PidTable(pids, marks, count);
+            int[] keptPids = new int[mSize];
+            String[] keptNames = new String[mSize];
+            int n = 0;
+            for (int i = 0; i < mKeys.length; i++) {
+                if (mValues[i] != null && removedPids.get(mKeys[i]) == null) {
+                    keptPids[n] = mKeys[i];
+                    keptNames[n++] = mValues[i];
+                }
+            }
+            return new PidTable(keptPids, keptNames, n);
+        }
+
+        /** Returns a copy of this table with the given mappings added or replaced. */
+        PidTable withAll(int[] pids, String[] names, int count) {
+            int[] allPids = new int[mSize + count];
+            String[] allNames = new String[mSize + count];
+            int n = 0;
+            for (int i = 0; i < mKeys.length; i++) {
+                if (mValues[i] != null) {
+                    allPids[n] = mKeys[i];
+                    allNames[n++] = mValues[i];
+                }
+            }
+            System.arraycopy(pids, 0, allPids, n, count);
+            System.arraycopy(names, 0, allNames, n, count);
+            return new PidTable(allPids, allNames, n + count);
+        }
+
+        /** Inserts during construction. Returns true if the pid was not present yet. */
+        private boolean insert(int pid, String name) {
+            int mask = mKeys.length - 1;
+            int i = hash(pid) & mask;
+            while (mValues[i] != null) {
+                if (mKeys[i] == pid) {
+                    mValues[i] = name;
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            mKeys[i] = pid;
+            mValues[i] = name;
+            return true;
+        }
+
+        private static int hash(int pid) {
+            int h = pid * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
     }
 }
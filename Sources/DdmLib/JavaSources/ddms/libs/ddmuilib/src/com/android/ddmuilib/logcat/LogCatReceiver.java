@@ -23,9 +23,8 @@ import com.android.ddmlib.MultiLineReceiver;
 
 import org.eclipse.jface.preference.IPreferenceStore;
 
-import java.util.HashSet;
+import java.io.IOException;
 import java.util.List;
-import java.util.Set;
 
 /**
  * A class to monitor a device for logcat messages. It stores the received
@@ -35,10 +34,13 @@ public final class LogCatReceiver {
     private static final String LOGCAT_COMMAND = "logcat -v long";
     private static final int DEVICE_POLL_INTERVAL_MSEC = 1000;
 
-    private LogCatMessageList mLogMessages;
+    /* set to null by stop() while the receiver thread may still be using them. */
+    private volatile LogCatMessageList mLogMessages;
+    private volatile LogCatMessageIndex mLogMessageIndex;
+    private volatile LogCatMessageStore mLogMessageStore;
     private IDevice mCurrentDevice;
     private LogCatOutputReceiver mCurrentLogCatOutputReceiver;
-    private Set<ILogCatMessageEventListener> mLogCatMessageListeners;
+    private LogCatMessageDispatcher mMessageDispatcher;
     private LogCatMessageParser mLogCatMessageParser;
     private LogCatPidToNameMapper mPidToNameMapper;
     private IPreferenceStore mPrefStore;
@@ -55,11 +57,21 @@ public final class LogCatReceiver {
         mCurrentDevice = device;
         mPrefStore = prefStore;
 
-        mLogCatMessageListeners = new HashSet<ILogCatMessageEventListener>();
+        mMessageDispatcher = new LogCatMessageDispatcher(
+                "LogCat message dispatcher for " + mCurrentDevice.getSerialNumber(),
+                LogCatMessageDispatcher.DEFAULT_INTERVAL_MSEC, getFifoSize());
         mLogCatMessageParser = new LogCatMessageParser();
         mPidToNameMapper = new LogCatPidToNameMapper(mCurrentDevice);
+        mPidToNameMapper.setResolveNativeNames(
+                mPrefStore.getBoolean(LogCatPidToNameMapper.RESOLVE_NATIVE_NAMES_PREFKEY));
 
         mLogMessages = new LogCatMessageList(getFifoSize());
+        if (isIndexEnabled()) {
+            mLogMessageIndex = new LogCatMessageIndex(getFifoSize());
+        }
+        if (mPrefStore.getBoolean(LogCatMessageStore.HISTORY_ENABLED_PREFKEY)) {
+            mLogMessageStore = createMessageStore();
+        }
 
         startReceiverThread();
     }
@@ -75,6 +87,12 @@ public final class LogCatReceiver {
         }
 
         mLogMessages = null;
+        mLogMessageIndex = null;
+        if (mLogMessageStore != null) {
+            mLogMessageStore.dispose();
+            mLogMessageStore = null;
+        }
+        mMessageDispatcher.dispose();
         mCurrentDevice = null;
     }
 
@@ -83,6 +101,25 @@ public final class LogCatReceiver {
         return n == 0 ? LogCatMessageList.MAX_MESSAGES_DEFAULT : n;
     }
 
+    private LogCatMessageStore createMessageStore() {
+        int maxMb = mPrefStore.getInt(LogCatMessageStore.HISTORY_MAX_MB_PREFKEY);
+        if (maxMb == 0) {
+            maxMb = LogCatMessageStore.HISTORY_MAX_MB_DEFAULT;
+        }
+
+        try {
+            String prefix = "logcat-" + mCurrentDevice.getSerialNumber().replaceAll("\\W", "_");
+            return LogCatMessageStore.createTemporary(prefix, maxMb * 1024L * 1024L);
+        } catch (IOException e) {
+            Log.e("Unable to create logcat history store, history will not be kept.", e);
+            return null;
+        }
+    }
+
+    private boolean isIndexEnabled() {
+        return mPrefStore.getBoolean(LogCatMessageIndex.INDEX_ENABLED_PREFKEY);
+    }
+
     private void startReceiverThread() {
         mCurrentLogCatOutputReceiver = new LogCatOutputReceiver();
 
@@ -150,14 +187,44 @@ public final class LogCatReceiver {
         List<LogCatMessage> messages = mLogCatMessageParser.processLogLines(lines,
                 mPidToNameMapper);
 
-        if (messages.size() > 0) {
+        /* read the fields once: stop() can clear them from another thread. */
+        LogCatMessageList logMessages = mLogMessages;
+        if (messages.size() > 0 && logMessages != null) {
             for (LogCatMessage m : messages) {
-                mLogMessages.appendMessage(m);
+                logMessages.appendMessage(m);
+            }
+            LogCatMessageIndex index = mLogMessageIndex;
+            if (index != null) {
+                for (LogCatMessage m : messages) {
+                    index.appendMessage(m);
+                }
+            }
+            LogCatMessageStore store = mLogMessageStore;
+            if (store != null) {
+                appendToMessageStore(store, messages);
             }
             sendMessageReceivedEvent(messages);
         }
     }
 
+    private void appendToMessageStore(LogCatMessageStore store, List<LogCatMessage> messages) {
+        try {
+            for (LogCatMessage m : messages) {
+                store.appendMessage(m);
+            }
+        } catch (IOException e) {
+            if (store == mLogMessageStore) {
+                /* most likely out of disk space: stop keeping history rather than failing
+                 * the receiver thread. */
+                Log.e("Unexpected error while writing logcat history, history is disabled.",
+                        e);
+                mLogMessageStore = null;
+            }
+            /* else the store was disposed by stop() while writing to it. */
+            store.dispose();
+        }
+    }
+
     /**
      * Get the list of logcat messages received from currently active device.
      * @return list of messages if currently listening, null otherwise
@@ -166,11 +233,33 @@ public final class LogCatReceiver {
         return mLogMessages;
     }
 
+    /**
+     * Get the index over the logcat messages received from currently active device.
+     * @return the index if indexing is enabled and currently listening, null otherwise
+     */
+    public LogCatMessageIndex getMessageIndex() {
+        return mLogMessageIndex;
+    }
+
+    /**
+     * Get the on disk history of logcat messages received from currently active device.
+     * @return the history if it is enabled and currently listening, null otherwise
+     */
+    public LogCatMessageStore getMessageStore() {
+        return mLogMessageStore;
+    }
+
     /**
      * Clear the list of messages received from the currently active device.
      */
     public void clearMessages() {
         mLogMessages.clear();
+        if (mLogMessageIndex != null) {
+            mLogMessageIndex.clear();
+        }
+        if (mLogMessageStore != null) {
+            mLogMessageStore.clear();
+        }
     }
 
     /**
@@ -178,17 +267,26 @@ public final class LogCatReceiver {
      * @param l listener to notified when messages are received from the device
      */
     public void addMessageReceivedEventListener(ILogCatMessageEventListener l) {
-        mLogCatMessageListeners.add(l);
+        mMessageDispatcher.addListener(l);
     }
 
     public void removeMessageReceivedEventListener(ILogCatMessageEventListener l) {
-        mLogCatMessageListeners.remove(l);
+        mMessageDispatcher.removeListener(l);
+    }
+
+    /**
+     * Get the dispatcher notifying the message event listeners, to query its statistics.
+     */
+    public LogCatMessageDispatcher getMessageDispatcher() {
+        return mMessageDispatcher;
     }
 
+    /**
+     * Listeners are notified from the dispatcher thread, with all the messages received
+     * during the last frame interval, so that the receiver thread never waits on the UI.
+     */
     private void sendMessageReceivedEvent(List<LogCatMessage> messages) {
-        for (ILogCatMessageEventListener l : mLogCatMessageListeners) {
-            l.messageReceived(messages);
-        }
+        mMessageDispatcher.post(messages);
     }
 
     /**
@@ -197,5 +295,9 @@ public final class LogCatReceiver {
      */
     public void resizeFifo(int size) {
         mLogMessages.resize(size);
+        mMessageDispatcher.setMaxPendingMessages(size);
+        if (mLogMessageIndex != null) {
+            mLogMessageIndex.resize(size);
+        }
     }
 }
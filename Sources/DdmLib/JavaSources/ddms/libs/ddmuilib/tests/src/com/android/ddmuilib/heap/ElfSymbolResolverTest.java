@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.heap;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class ElfSymbolResolverTest extends TestCase {
+    private static final String SECTION_NAMES = "\0.symtab\0.strtab\0.shstrtab\0.debug_line\0";
+
+    /** DWARF 2 line program: a.c lines 10 and 12 at 0x100 and 0x104, ending at 0x10c. */
+    private static final byte[] DEBUG_LINE = {
+        // unit length, version, header length
+        52, 0, 0, 0,  2, 0,  30, 0, 0, 0,
+        // min instruction length, default is_stmt, line base, line range, opcode base
+        2, 1, -5, 14, 13,
+        // standard opcode lengths
+        0, 1, 1, 1, 1, 0, 0, 0, 1, 0, 0, 1,
+        // include directories
+        's', 'r', 'c', 0, 0,
+        // files: a.c in directory 1
+        'a', '.', 'c', 0, 1, 0, 0, 0,
+        // set_address 0x100
+        0, 5, 2, 0, 1, 0, 0,
+        // advance_line 9, copy
+        3, 9, 1,
+        // special opcode: address += 4, line += 2
+        48,
+        // advance_pc 4 (8 bytes), end_sequence
+        2, 4, 0, 1, 1,
+    };
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        mFile = File.createTempFile("libtest", ".so");
+        writeElf(mFile);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    public void testSymbols() throws IOException {
+        ElfSymbolResolver resolver = ElfSymbolResolver.open(mFile);
+        assertNotNull(resolver);
+        assertEquals(1, resolver.getSymbolCount());
+
+        assertNull(resolver.getMethodName(0xff));
+        assertEquals("f", resolver.getMethodName(0x100));
+        assertEquals("f", resolver.getMethodName(0x10b));
+        assertNull(resolver.getMethodName(0x10c));
+    }
+
+    public void testLines() throws IOException {
+        ElfSymbolResolver resolver = ElfSymbolResolver.open(mFile);
+        assertEquals(3, resolver.getLineCount());
+
+        assertNull(resolver.getSourceLocation(0xff));
+        assertEquals("src/a.c:10", resolver.getSourceLocation(0x100));
+        assertEquals("src/a.c:10", resolver.getSourceLocation(0x103));
+        assertEquals("src/a.c:12", resolver.getSourceLocation(0x104));
+        assertEquals("src/a.c:12", resolver.getSourceLocation(0x10b));
+        assertNull(resolver.getSourceLocation(0x10c));
+
+        String[] result = resolver.resolve(0x106);
+        assertEquals("f", result[0]);
+        assertEquals("src/a.c:12", result[1]);
+    }
+
+    public void testNotElf() throws IOException {
+        FileOutputStream fos = new FileOutputStream(mFile);
+        try {
+            fos.write(new byte[64]);
+        } finally {
+            fos.close();
+        }
+        assertNull(ElfSymbolResolver.open(mFile));
+    }
+
+    /**
+     * Writes a 32 bit ELF file with a symbol table holding one function, f at 0x100 of size
+     * 12, and a line table.
+     */
+    private static void writeElf(File file) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(1024);
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        b.put(new byte[] { 0x7f, 'E', 'L', 'F', 1, 1, 1 });
+
+        // symbol table: null symbol, then f.
+        int symtab = 52;
+        b.position(symtab + 16);
+        b.putInt(1).putInt(0x100).putInt(12).put((byte) 0x12).put((byte) 0).putShort((short) 1);
+
+        int strtab = b.position();
+        b.put(new byte[] { 0, 'f', 0 });
+
+        int shstrtab = b.position();
+        b.put(SECTION_NAMES.getBytes("US-ASCII"));
+
+        int debugLine = b.position();
+        b.put(DEBUG_LINE);
+
+        int sections = b.position();
+        b.putInt(0x20, sections);          // e_shoff
+        b.putShort(0x2e, (short) 40);      // e_shentsize
+        b.putShort(0x30, (short) 5);       // e_shnum
+        b.putShort(0x32, (short) 3);       // e_shstrndx
+
+        putSection(b, sections, 1, 1, 2, symtab, 32, 2);
+        putSection(b, sections, 2, 9, 3, strtab, 3, 0);
+        putSection(b, sections, 3, 17, 3, shstrtab, SECTION_NAMES.length(), 0);
+        putSection(b, sections, 4, 27, 1, debugLine, DEBUG_LINE.length, 0);
+
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(b.array(), 0, sections + 5 * 40);
+        } finally {
+            fos.close();
+        }
+    }
+
+    private static void putSection(ByteBuffer b, int sections, int index, int name, int type,
+            int offset, int size, int link) {
+        int base = sections + index * 40;
+        b.putInt(base, name);
+        b.putInt(base + 4, type);
+        b.putInt(base + 0x10, offset);
+        b.putInt(base + 0x14, size);
+        b.putInt(base + 0x18, link);
+    }
+}
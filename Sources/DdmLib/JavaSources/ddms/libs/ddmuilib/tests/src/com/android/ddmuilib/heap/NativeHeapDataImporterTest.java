@@ -67,6 +67,35 @@ public class NativeHeapDataImporterTest extends TestCase {
         assertEquals(4, stack.size());
     }
 
+    public void testImportSharedStacks() throws Exception {
+        mImporter = createImporter(BASIC_TEXT + "\n\n" + BASIC_TEXT.replace("524292", "16"));
+        mImporter.run(new NullProgressMonitor());
+
+        List<NativeAllocationInfo> allocations = mImporter.getImportedSnapshot().getAllocations();
+        assertEquals(2, allocations.size());
+        assertEquals(16, allocations.get(1).getSize());
+        assertEquals(allocations.get(0).getStackCallAddresses(),
+                allocations.get(1).getStackCallAddresses());
+
+        NativeStackCallInfo frame = allocations.get(1).getResolvedStackCall().get(1);
+        assertEquals(0x400910d6L, frame.getAddress());
+        assertEquals("/lib/libc.so", frame.getLibraryName());
+        assertEquals("ca110c", frame.getMethodName());
+        assertEquals(227, frame.getLineNumber());
+        assertEquals("", allocations.get(0).getResolvedStackCall().get(3).getSourceFile());
+    }
+
+    public void testImportInvalidTotalSize() throws InterruptedException {
+        mImporter = createImporter("\n" + BASIC_TEXT.replace("TotalSize: 524292", "TotalSize: 1"));
+        try {
+            mImporter.run(new NullProgressMonitor());
+            fail("Expected a parse error");
+        } catch (InvocationTargetException e) {
+            assertEquals("Total Size does not match size * # of allocations between lines 2 and 11",
+                    e.getTargetException().getMessage());
+        }
+    }
+
     private NativeHeapDataImporter createImporter(String contentsToParse) {
         StringReader r = new StringReader(contentsToParse);
         return new NativeHeapDataImporter(r);
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.heap;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class NativeSymbolCacheTest extends TestCase {
+    private File mFolder;
+
+    @Override
+    protected void setUp() throws Exception {
+        mFolder = File.createTempFile("symbols", null);
+        mFolder.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = mFolder.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        mFolder.delete();
+    }
+
+    public void testPersistence() {
+        NativeSymbolCache cache = new NativeSymbolCache(mFolder);
+        cache.put("lib", new long[] { 0x10, 0x20, 0x30 },
+                new String[] { "foo()", "bar()", null },
+                new String[] { "foo.c:12", "bar.c:34", null });
+
+        assertEquals("foo()", cache.get("lib", 0x10)[0]);
+        assertNull(cache.get("lib", 0x30));
+        assertNull(cache.get("other", 0x10));
+
+        // a new cache reads back what was written.
+        NativeSymbolCache reloaded = new NativeSymbolCache(mFolder);
+        String[] entry = reloaded.get("lib", 0x20);
+        assertNotNull(entry);
+        assertEquals("bar()", entry[0]);
+        assertEquals("bar.c:34", entry[1]);
+        assertNull(reloaded.get("lib", 0x30));
+    }
+
+    /**
+     * Test that unknown resolutions are not cached, so that they do not hide the ones found
+     * later in another copy of the library.
+     */
+    public void testUnknownNotCached() {
+        NativeSymbolCache cache = new NativeSymbolCache(mFolder);
+        cache.put("lib", new long[] { 0x10, 0x20, 0x30 },
+                new String[] { ElfSymbolResolver.UNKNOWN_METHOD, "bar()", "baz()" },
+                new String[] { ElfSymbolResolver.UNKNOWN_SOURCE, "??:?", "baz.c:56" });
+        assertNull(cache.get("lib", 0x10));
+        assertNull(cache.get("lib", 0x20));
+        assertEquals("baz()", cache.get("lib", 0x30)[0]);
+
+        NativeSymbolCache reloaded = new NativeSymbolCache(mFolder);
+        assertNull(reloaded.get("lib", 0x10));
+        assertNull(reloaded.get("lib", 0x20));
+        assertEquals("baz.c:56", reloaded.get("lib", 0x30)[1]);
+    }
+
+    /**
+     * Test that the least recently used library files are deleted.
+     */
+    public void testLibraryLimit() {
+        NativeSymbolCache cache = new NativeSymbolCache(mFolder, 2);
+        long time = System.currentTimeMillis() - 100000;
+        for (String lib : new String[] { "lib1", "lib2" }) {
+            cache.put(lib, new long[] { 0x10 }, new String[] { "foo()" },
+                    new String[] { "foo.c:12" });
+            new File(mFolder, lib + ".txt").setLastModified(time);
+            time += 1000;
+        }
+        // reading lib1 back makes it the most recently used.
+        assertNotNull(new NativeSymbolCache(mFolder, 2).get("lib1", 0x10));
+
+        cache.put("lib3", new long[] { 0x10 }, new String[] { "foo()" },
+                new String[] { "foo.c:12" });
+        assertTrue(new File(mFolder, "lib1.txt").isFile());
+        assertFalse(new File(mFolder, "lib2.txt").exists());
+        assertTrue(new File(mFolder, "lib3.txt").isFile());
+    }
+
+    public void testBuildId() throws IOException {
+        mFolder.mkdirs();
+        File elf = new File(mFolder, "libtest.so");
+
+        // minimal 32 bit ELF file: header, one note section, and the section headers.
+        ByteBuffer buffer = ByteBuffer.allocate(52 + 20 + 2 * 40);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(new byte[] { 0x7f, 'E', 'L', 'F', 1, 1, 1 });
+        buffer.putInt(0x20, 72);            // e_shoff
+        buffer.putShort(0x2e, (short) 40);  // e_shentsize
+        buffer.putShort(0x30, (short) 2);   // e_shnum
+
+        buffer.position(52);
+        buffer.putInt(4).putInt(4).putInt(3);
+        buffer.put(new byte[] { 'G', 'N', 'U', 0, (byte) 0xde, (byte) 0xad, (byte) 0xbe, 0x0f });
+
+        buffer.putInt(72 + 40 + 4, 7);      // sh_type = SHT_NOTE
+        buffer.putInt(72 + 40 + 0x10, 52);  // sh_offset
+        buffer.putInt(72 + 40 + 0x14, 20);  // sh_size
+
+        FileOutputStream fos = new FileOutputStream(elf);
+        try {
+            fos.write(buffer.array());
+        } finally {
+            fos.close();
+        }
+
+        assertEquals("deadbe0f", NativeSymbolCache.getLibraryKey(elf));
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.heap;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class NativeSymbolResolverTaskTest extends TestCase {
+    private static final String[] PARTIAL = new String[] {
+        "_ZN3foo3barEv", ElfSymbolResolver.UNKNOWN_SOURCE };
+
+    public void testMergeResolution() {
+        // addr2line knows better.
+        assertTrue(Arrays.equals(new String[] { "foo::bar()", "foo.cpp:12" },
+                NativeSymbolResolverTask.mergeResolution("foo::bar()", "foo.cpp:12", PARTIAL)));
+
+        // what addr2line does not know is taken from the in process result.
+        assertTrue(Arrays.equals(new String[] { "_ZN3foo3barEv", "foo.cpp:12" },
+                NativeSymbolResolverTask.mergeResolution(ElfSymbolResolver.UNKNOWN_METHOD,
+                        "foo.cpp:12", PARTIAL)));
+        assertTrue(Arrays.equals(PARTIAL,
+                NativeSymbolResolverTask.mergeResolution(ElfSymbolResolver.UNKNOWN_METHOD,
+                        "??:?", PARTIAL)));
+        assertTrue(Arrays.equals(PARTIAL,
+                NativeSymbolResolverTask.mergeResolution(null, null, PARTIAL)));
+
+        // without an in process result, the answer of addr2line is kept.
+        assertTrue(Arrays.equals(
+                new String[] { ElfSymbolResolver.UNKNOWN_METHOD, ElfSymbolResolver.UNKNOWN_SOURCE },
+                NativeSymbolResolverTask.mergeResolution(ElfSymbolResolver.UNKNOWN_METHOD,
+                        ElfSymbolResolver.UNKNOWN_SOURCE, null)));
+        assertNull(NativeSymbolResolverTask.mergeResolution(null, null, null));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.log.event;
+
+import com.android.ddmlib.log.EventContainer;
+import com.android.ddmlib.log.EventLogParser;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class BugReportImporterTest extends TestCase {
+    private static final int EVENT_COUNT = 10000;
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        mFile = File.createTempFile("bugreport", ".txt"); //$NON-NLS-1$ //$NON-NLS-2$
+
+        FileWriter writer = new FileWriter(mFile);
+        writer.write("== dumpstate ==\n"); //$NON-NLS-1$
+        writer.write("------ EVENT LOG TAGS ------\n"); //$NON-NLS-1$
+        writer.write("42 answer (to life the universe etc|1)\n"); //$NON-NLS-1$
+        writer.write("------ EVENT LOG ------\n"); //$NON-NLS-1$
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            writer.write(String.format(
+                    "04-29 23:16:16.691 I/answer  (  %1$d): %2$d\n", 100 + i % 7, i)); //$NON-NLS-1$
+            if (i % 100 == 0) {
+                writer.write("04-29 23:16:16.691 I/unknown (  1): 0\n"); //$NON-NLS-1$
+            }
+        }
+        writer.write("------ SYSTEM PROPERTIES ------\n"); //$NON-NLS-1$
+        writer.write("04-29 23:16:16.691 I/answer  (  1): -1\n"); //$NON-NLS-1$
+        writer.close();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    /** Events are delivered in file order, and the import stops at the next section. */
+    public void testStreamingImport() throws Exception {
+        BugReportImporter importer = new BugReportImporter(mFile.getPath());
+        assertEquals(1, importer.getTags().length);
+
+        EventLogParser parser = new EventLogParser();
+        parser.init(importer.getTags());
+
+        final List<EventContainer> events = new ArrayList<EventContainer>();
+        importer.getLog().run(parser, new StreamingEventLogImporter.IEventSink() {
+            @Override
+            public boolean addEvents(List<EventContainer> chunk) {
+                events.addAll(chunk);
+                return true;
+            }
+        });
+
+        assertEquals(EVENT_COUNT, events.size());
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            EventContainer event = events.get(i);
+            assertEquals(42, event.mTag);
+            assertEquals(100 + i % 7, event.pid);
+            assertEquals(i, event.getInt().intValue());
+        }
+    }
+
+    /** The sink can stop the import. */
+    public void testStop() throws IOException {
+        BugReportImporter importer = new BugReportImporter(mFile.getPath());
+        EventLogParser parser = new EventLogParser();
+        parser.init(importer.getTags());
+
+        final int[] chunks = new int[1];
+        importer.getLog().run(parser, new StreamingEventLogImporter.IEventSink() {
+            @Override
+            public boolean addEvents(List<EventContainer> chunk) {
+                chunks[0]++;
+                return false;
+            }
+        });
+
+        assertEquals(1, chunks[0]);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class LogCatMessageDispatcherTest extends TestCase {
+    private static final long INTERVAL_MSEC = 500;
+
+    private LogCatMessageDispatcher mDispatcher;
+    private final BlockingQueue<List<LogCatMessage>> mDelivered =
+            new LinkedBlockingQueue<List<LogCatMessage>>();
+
+    @Override
+    protected void setUp() throws Exception {
+        mDispatcher = new LogCatMessageDispatcher("test", INTERVAL_MSEC, 5);
+        mDispatcher.addListener(new ILogCatMessageEventListener() {
+            @Override
+            public void messageReceived(List<LogCatMessage> receivedMessages) {
+                mDelivered.add(receivedMessages);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDispatcher.dispose();
+    }
+
+    private static List<LogCatMessage> batch(int i) {
+        return Collections.singletonList(new LogCatMessage(LogLevel.INFO, "1", "app", "Tag",
+                "08-18 16:39:11.000", "message " + i));
+    }
+
+    private List<LogCatMessage> nextDelivery() throws InterruptedException {
+        List<LogCatMessage> messages = mDelivered.poll(5, TimeUnit.SECONDS);
+        assertNotNull(messages);
+        return messages;
+    }
+
+    /** Batches posted while a delivery is pending are merged into it. */
+    public void testMergesBatches() throws InterruptedException {
+        mDispatcher.post(batch(0));
+        assertEquals(1, nextDelivery().size());
+
+        // the next delivery is at least INTERVAL_MSEC away
+        for (int i = 1; i <= 3; i++) {
+            mDispatcher.post(batch(i));
+        }
+
+        List<LogCatMessage> messages = nextDelivery();
+        List<String> texts = new ArrayList<String>();
+        for (LogCatMessage m : messages) {
+            texts.add(m.getMessage());
+        }
+        assertEquals("[message 1, message 2, message 3]", texts.toString());
+        assertEquals(2, mDispatcher.getDeliveryCount());
+        assertEquals(2, mDispatcher.getMergedBatchCount());
+    }
+
+    /** The oldest messages are dropped when too many are pending. */
+    public void testDropsOldest() throws InterruptedException {
+        mDispatcher.post(batch(0));
+        nextDelivery();
+
+        for (int i = 1; i <= 8; i++) {
+            mDispatcher.post(batch(i));
+        }
+
+        List<LogCatMessage> messages = nextDelivery();
+        assertEquals(5, messages.size());
+        assertEquals("message 4", messages.get(0).getMessage());
+        assertEquals(3, mDispatcher.getDroppedMessageCount());
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+
+import java.util.List;
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+public class LogCatMessageIndexTest extends TestCase {
+    private LogCatMessageIndex mIndex;
+
+    @Override
+    protected void setUp() throws Exception {
+        mIndex = new LogCatMessageIndex(3);
+    }
+
+    private LogCatMessage newMessage(String tag, String text) {
+        return new LogCatMessage(LogLevel.VERBOSE, "", "", tag, "", text);
+    }
+
+    private LogCatMessage[] search(String query) {
+        List<LogCatFilter> filters = LogCatFilter.fromString(query, LogLevel.VERBOSE);
+        return mIndex.newQuery(filters).getMatches();
+    }
+
+    public void testTextSearchMatchesSubstrings() {
+        LogCatMessage m1 = newMessage("tag", "Starting activity com.example.Main");
+        LogCatMessage m2 = newMessage("tag", "Displayed com.example/.Main: +200ms");
+        mIndex.appendMessage(m1);
+        mIndex.appendMessage(m2);
+
+        assertEquals(2, search("example").length);
+        assertEquals(1, search("activ").length);
+        assertEquals(m2, search("200ms")[0]);
+        assertEquals(0, search("missing").length);
+    }
+
+    public void testTagSearch() {
+        LogCatMessage m1 = newMessage("ActivityManager", "text");
+        LogCatMessage m2 = newMessage("dalvikvm", "text");
+        mIndex.appendMessage(m1);
+        mIndex.appendMessage(m2);
+
+        LogCatMessage[] matches = search("tag:dalvik");
+        assertEquals(1, matches.length);
+        assertEquals(m2, matches[0]);
+    }
+
+    public void testSearchIgnoresDefaultLocale() {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            mIndex.appendMessage(newMessage("tag", "INIT done"));
+            // the Turkish lower case of "I" is a dotless i.
+            assertEquals(1, search("INIT").length);
+            assertEquals(1, search("init").length);
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    public void testRegexIsVerifiedAgainstCandidates() {
+        mIndex.appendMessage(newMessage("tag", "GC freed 10K"));
+        mIndex.appendMessage(newMessage("tag", "GC_CONCURRENT freed"));
+
+        assertTrue(LogCatMessageIndex.canSearch(
+                LogCatFilter.fromString("GC.*freed", LogLevel.VERBOSE)));
+        assertEquals(2, search("GC.*freed").length);
+        assertEquals(1, search("freed.*K").length);
+    }
+
+    public void testUnsupportedRegexCannotBeSearched() {
+        assertFalse(LogCatMessageIndex.canSearch(
+                LogCatFilter.fromString("(foo|bar)", LogLevel.VERBOSE)));
+        assertFalse(LogCatMessageIndex.canSearch(
+                LogCatFilter.fromString("pid:123", LogLevel.VERBOSE)));
+    }
+
+    public void testFifoEviction() {
+        LogCatMessageIndex.Query q = mIndex.newQuery(
+                LogCatFilter.fromString("match", LogLevel.VERBOSE));
+        mIndex.appendMessage(newMessage("tag", "match 1"));
+        mIndex.appendMessage(newMessage("tag", "other"));
+        assertEquals(1, q.getMatches().length);
+
+        mIndex.appendMessage(newMessage("tag", "match 2"));
+        mIndex.appendMessage(newMessage("tag", "other"));
+        LogCatMessage[] matches = q.getMatches();
+        assertEquals(3, mIndex.size());
+        assertEquals(1, matches.length);
+        assertEquals("match 2", matches[0].getMessage());
+
+        mIndex.clear();
+        assertEquals(0, q.getMatches().length);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class LogCatMessageStoreTest extends TestCase {
+    private LogCatMessageStore mStore;
+
+    @Override
+    protected void setUp() throws Exception {
+        mStore = LogCatMessageStore.createTemporary("logcatstoretest", 0);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mStore.dispose();
+    }
+
+    private void appendMessages(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            String time = String.format("08-18 16:39:%02d.%03d", i / 1000, i % 1000);
+            mStore.appendMessage(new LogCatMessage(LogLevel.INFO, "123", "com.example",
+                    "Tag" + i, time, "message " + i));
+        }
+    }
+
+    public void testReadBack() throws IOException {
+        appendMessages(1000);
+        assertEquals(1000, mStore.size());
+
+        List<LogCatMessage> messages = mStore.getMessages(500, 10);
+        assertEquals(10, messages.size());
+
+        LogCatMessage m = messages.get(3);
+        assertEquals(LogLevel.INFO, m.getLogLevel());
+        assertEquals("123", m.getPid());
+        assertEquals("com.example", m.getAppName());
+        assertEquals("Tag503", m.getTag());
+        assertEquals("message 503", m.getMessage());
+    }
+
+    public void testReadPastEnd() throws IOException {
+        appendMessages(10);
+        assertEquals(2, mStore.getMessages(8, 10).size());
+        assertEquals(0, mStore.getMessages(10, 10).size());
+    }
+
+    public void testFindSequence() throws IOException {
+        appendMessages(1000);
+        assertEquals(0, mStore.findSequence("08-18 16:38:00.000"));
+        assertEquals(321, mStore.findSequence("08-18 16:39:00.321"));
+        assertEquals(1000, mStore.findSequence("08-18 16:40:00.000"));
+    }
+
+    public void testClearKeepsSequenceNumbers() throws IOException {
+        appendMessages(10);
+        mStore.clear();
+        assertEquals(0, mStore.size());
+
+        appendMessages(1);
+        assertEquals(10, mStore.getFirstSequence());
+        assertEquals("message 0", mStore.getMessages(10, 1).get(0).getMessage());
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmuilib.logcat.LogCatPidToNameMapper.PidTable;
+
+import junit.framework.TestCase;
+
+public class LogCatPidToNameMapperTest extends TestCase {
+
+    public void testPidTable() {
+        PidTable table = PidTable.EMPTY;
+        assertNull(table.get(0));
+        assertEquals(0, table.size());
+
+        table = table.with(42, "foo");
+        assertEquals("foo", table.get(42));
+        assertNull(table.get(43));
+        assertNull(PidTable.EMPTY.get(42));
+
+        // replacing a pid keeps the size.
+        table = table.with(42, "bar");
+        assertEquals("bar", table.get(42));
+        assertEquals(1, table.size());
+    }
+
+    public void testPidTableResize() {
+        int count = 1000;
+        int[] pids = new int[count];
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            // pids which collide in a small table.
+            pids[i] = i * 16;
+            names[i] = "p" + i;
+        }
+
+        PidTable table = PidTable.EMPTY.withAll(pids, names, count);
+        assertEquals(count, table.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals("p" + i, table.get(i * 16));
+            assertNull(table.get(i * 16 + 1));
+        }
+    }
+
+    public void testPidTableWithout() {
+        PidTable table = PidTable.EMPTY.withAll(new int[] { 1, 2, 3 },
+                new String[] { "a", "b", "c" }, 3);
+
+        PidTable removed = table.without(new int[] { 2, 4 }, 2);
+        assertEquals(2, removed.size());
+        assertEquals("a", removed.get(1));
+        assertNull(removed.get(2));
+        assertEquals("c", removed.get(3));
+
+        // nothing to remove.
+        assertSame(table, table.without(new int[] { 5 }, 1));
+    }
+
+    public void testParsePsLines() {
+        String[] lines = new String[] {
+                "USER     PID   PPID  VSIZE  RSS     WCHAN    PC         NAME",
+                "root      1     0     268    180   c009b74c 0000875c S /init",
+                "system    33    1     812    252   c02181f4 afd0b45c S /system/bin/servicemanager",
+                "",
+                "app_1     210   34    97640  20528 ffffffff afd0c51c S com.android.launcher",
+        };
+
+        PidTable table = LogCatPidToNameMapper.parsePsLines(lines, PidTable.EMPTY);
+        assertEquals(3, table.size());
+        assertEquals("/init", table.get(1));
+        assertEquals("/system/bin/servicemanager", table.get(33));
+        assertEquals("com.android.launcher", table.get(210));
+
+        // output split in several batches of lines.
+        table = LogCatPidToNameMapper.parsePsLines(new String[] {
+                "root      2     0     0      0     c0077e64 00000000 S kthreadd" }, table);
+        assertEquals(4, table.size());
+        assertEquals("kthreadd", table.get(2));
+    }
+}